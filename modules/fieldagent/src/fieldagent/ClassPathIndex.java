@@ -0,0 +1,326 @@
+package fieldagent;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Knows which classpath entry (jar or directory) each class lives in, so that ExtensibleClassloader can go straight to the right place rather than
+ * asking every URL in turn.
+ * <p>
+ * The list of classes inside each jar is written to ~/.field/classpathIndex.idx together with the jar's modification time and size, so on the
+ * next startup only jars that have changed are opened and scanned. Directories (which is where our own classes live while we are developing) are
+ * always rescanned. Earlier entries win, just like they do on the classpath. Anything that the index doesn't know about (a class compiled after
+ * we scanned its directory, say) should be looked up the slow way, and a directory that comes before the jar that the index has for a class is
+ * checked for a newer copy of it.
+ */
+public class ClassPathIndex {
+
+	static protected final int magic = 0x46435049;
+	static protected final int version = 1;
+
+	static public class Root {
+		public final URL url;
+		public final File file;
+		public final boolean jar;
+		public final String stamp;
+		public final CodeSource codeSource;
+		protected String[] names;
+		protected int order;
+
+		protected volatile JarFile opened;
+
+		protected Root(URL url, File file, boolean jar, String stamp, String[] names) {
+			this.url = url;
+			this.file = file;
+			this.jar = jar;
+			this.stamp = stamp;
+			this.names = names;
+			this.codeSource = new CodeSource(url, (java.security.CodeSigner[]) null);
+		}
+
+		public JarFile jarFile() throws IOException {
+			JarFile j = opened;
+			if (j == null) synchronized (this) {
+				j = opened;
+				if (j == null) opened = j = new JarFile(file);
+			}
+			return j;
+		}
+
+		@Override
+		public String toString() {
+			return url + " (" + names.length + " classes)";
+		}
+	}
+
+	protected final File file;
+	protected final Map<String, Root> classes = new ConcurrentHashMap<>(16384);
+	protected final List<Root> roots = new ArrayList<>();
+	protected final List<Root> directories = new CopyOnWriteArrayList<>();
+	protected final Set<URL> known = new HashSet<>();
+
+	protected Map<String, Root> saved = null;
+	protected boolean dirty = false;
+
+	// statistics
+	public int jarsScanned = 0;
+	public int jarsReused = 0;
+	public int directoriesScanned = 0;
+
+	public ClassPathIndex() {
+		this(new File(System.getProperty("user.home") + "/.field/classpathIndex.idx"));
+	}
+
+	public ClassPathIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * where 'name' (a binary class name) lives, or null if we don't know. If we have it in a jar, but it has since been compiled into a directory
+	 * that comes earlier on the classpath, then that directory
+	 */
+	public Root rootFor(String name) {
+		Root r = classes.get(name);
+		if (r == null || !r.jar) return r;
+
+		String path = null;
+		for (Root d : directories) {
+			if (d.order > r.order) break;
+			if (path == null) path = name.replace('.', '/') + ".class";
+			if (new File(d.file, path).isFile()) return d;
+		}
+		return r;
+	}
+
+	public int size() {
+		return classes.size();
+	}
+
+	/**
+	 * adds these classpath entries, in order. Entries are scanned in parallel, but which one wins when a class is in more than one of them is
+	 * decided by the order that they are passed in
+	 */
+	public void addAll(List<URL> urls) {
+		Root[] scanned = new Root[urls.size()];
+		Thread[] t = new Thread[Math.min(urls.size(), Runtime.getRuntime()
+								      .availableProcessors())];
+		int[] next = {0};
+		for (int i = 0; i < t.length; i++) {
+			t[i] = new Thread(() -> {
+				while (true) {
+					int n;
+					synchronized (next) {
+						n = next[0]++;
+					}
+					if (n >= scanned.length) return;
+					scanned[n] = scan(urls.get(n));
+				}
+			}, "ClassPathIndex");
+			t[i].start();
+		}
+		for (Thread tt : t)
+			try {
+				tt.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread()
+				      .interrupt();
+			}
+
+		for (Root r : scanned)
+			merge(r);
+	}
+
+	public void add(URL url) {
+		merge(scan(url));
+	}
+
+	protected void merge(Root r) {
+		if (r == null) return;
+		synchronized (roots) {
+			if (!known.add(r.url)) return;
+			r.order = roots.size();
+			roots.add(r);
+			if (!r.jar) directories.add(r);
+		}
+		for (String n : r.names)
+			classes.putIfAbsent(n, r);
+	}
+
+	protected Root scan(URL url) {
+		try {
+			if (!"file".equals(url.getProtocol())) return null;
+			File f = new File(url.toURI());
+			if (f.isDirectory()) return scanDirectory(url, f);
+			if (!f.exists()) return null;
+
+			String stamp = f.lastModified() + ":" + f.length();
+			Root s = saved().get(f.getAbsolutePath());
+			if (s != null && s.stamp.equals(stamp)) {
+				synchronized (this) {
+					jarsReused++;
+				}
+				return new Root(url, f, true, stamp, s.names);
+			}
+			return scanJar(url, f, stamp);
+		} catch (Throwable t) {
+			System.err.println(" problem indexing classpath entry " + url + " " + t);
+			return null;
+		}
+	}
+
+	protected Root scanJar(URL url, File f, String stamp) throws IOException {
+		List<String> names = new ArrayList<>();
+		try (JarFile j = new JarFile(f)) {
+			Enumeration<JarEntry> e = j.entries();
+			while (e.hasMoreElements()) {
+				String n = e.nextElement()
+					    .getName();
+				if (!n.endsWith(".class") || n.startsWith("META-INF/") || n.endsWith("module-info.class")) continue;
+				names.add(n.substring(0, n.length() - ".class".length())
+					   .replace('/', '.'));
+			}
+		}
+		synchronized (this) {
+			jarsScanned++;
+			dirty = true;
+		}
+		return new Root(url, f, true, stamp, names.toArray(new String[names.size()]));
+	}
+
+	protected Root scanDirectory(URL url, File f) throws IOException {
+		Path base = f.toPath();
+		List<String> names = new ArrayList<>();
+		Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				String n = base.relativize(file)
+					       .toString();
+				if (n.endsWith(".class") && !n.endsWith("module-info.class"))
+					names.add(n.substring(0, n.length() - ".class".length())
+						   .replace(File.separatorChar, '.'));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		synchronized (this) {
+			directoriesScanned++;
+		}
+		return new Root(url, f, false, "", names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * the bytes of a class that the index knows about, or null if it isn't where the index says it is (in which case, look for it the slow way)
+	 */
+	public byte[] read(Root r, String name, java.security.CodeSigner[][] signers) throws IOException {
+		String path = name.replace('.', '/') + ".class";
+		if (r.jar) {
+			JarFile j = r.jarFile();
+			JarEntry e = j.getJarEntry(path);
+			if (e == null) return null;
+			byte[] b;
+			try (InputStream in = j.getInputStream(e)) {
+				b = readFully(in, (int) e.getSize());
+			}
+			// only available once the entry has been read
+			if (signers != null) signers[0] = e.getCodeSigners();
+			return b;
+		} else {
+			File f = new File(r.file, path);
+			try {
+				return Files.readAllBytes(f.toPath());
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+		}
+	}
+
+	static protected byte[] readFully(InputStream in, int size) throws IOException {
+		if (size < 0) size = 8192;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		byte[] buffer = new byte[Math.max(size, 1024)];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+
+	protected synchronized Map<String, Root> saved() {
+		if (saved != null) return saved;
+		saved = new HashMap<>();
+		if (!file.exists()) return saved;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != magic || in.readInt() != version) return saved;
+			int nr = in.readInt();
+			for (int i = 0; i < nr; i++) {
+				String path = in.readUTF();
+				String stamp = in.readUTF();
+				String[] names = new String[in.readInt()];
+				for (int k = 0; k < names.length; k++)
+					names[k] = in.readUTF();
+				saved.put(path, new Root(null, new File(path), true, stamp, names));
+			}
+		} catch (Throwable t) {
+			System.err.println(" couldn't read classpath index " + file + ", will rebuild it (" + t + ")");
+			saved.clear();
+		}
+		return saved;
+	}
+
+	/**
+	 * writes the jar part of the index, if anything has changed since it was read
+	 */
+	public void save() {
+		List<Root> jars = new ArrayList<>();
+		synchronized (roots) {
+			for (Root r : roots)
+				if (r.jar) jars.add(r);
+		}
+		synchronized (this) {
+			if (!dirty && saved().size() == jars.size()) return;
+			dirty = false;
+		}
+
+		file.getParentFile()
+		    .mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(jars.size());
+			for (Root r : jars) {
+				out.writeUTF(r.file.getAbsolutePath());
+				out.writeUTF(r.stamp);
+				out.writeInt(r.names.length);
+				for (String n : r.names)
+					out.writeUTF(n);
+			}
+		} catch (IOException e) {
+			System.err.println(" couldn't write classpath index " + tmp + " " + e);
+			return;
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println(" couldn't move classpath index into place " + file + " " + e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ClassPathIndex " + classes.size() + " classes, jars scanned:" + jarsScanned + " reused:" + jarsReused + " directories scanned:" + directoriesScanned;
+	}
+}
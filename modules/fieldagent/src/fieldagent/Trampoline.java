@@ -18,8 +18,10 @@ import java.net.URLClassLoader;
 import java.net.URLStreamHandlerFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.CodeSource;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.jar.Manifest;
 
 /**
  * Created by marc on 7/1/14.
@@ -61,12 +63,18 @@ public class Trampoline {
 	static public Map<Class, Record> loadMap = new MapMaker().concurrencyLevel(2).initialCapacity(1000).weakKeys().makeMap();
 
 
+	/**
+	 * Parallel capable (so plugins and JavaSupport can load classes from several threads at once without queueing up on the loader), and backed by
+	 * a ClassPathIndex, so that finding a class is a map lookup rather than a probe of every URL that we've been given.
+	 */
 	static public class ExtensibleClassloader extends URLClassLoader {
 
-		{
-//			registerAsParallelCapable();
+		static {
+			registerAsParallelCapable();
 		}
 
+		protected final ClassPathIndex index = new ClassPathIndex();
+
 		public ExtensibleClassloader(URL[] urls, ClassLoader parent) {
 			super(urls, parent);
 		}
@@ -79,8 +87,31 @@ public class Trampoline {
 			super(urls, parent, factory);
 		}
 
+		/**
+		 * adds a URL to the index, but doesn't write the index to disk, call saveIndex once a batch of these are done
+		 */
 		public void addURL(URL url) {
 			super.addURL(url);
+			index.add(url);
+		}
+
+		/**
+		 * adds a batch of URLs, indexing them in parallel
+		 */
+		public void addURLs(List<URL> urls) {
+			for (URL u : urls)
+				super.addURL(u);
+			index.addAll(urls);
+			index.save();
+			if (traceLoader) System.out.println(" classpath index is " + index);
+		}
+
+		public void saveIndex() {
+			index.save();
+		}
+
+		public ClassPathIndex getIndex() {
+			return index;
 		}
 
 
@@ -93,6 +124,12 @@ public class Trampoline {
 
 			if (!shouldLoad(name)) return super.loadClass(name, resolve);
 
+			synchronized (getClassLoadingLock(name)) {
+				return loadClassLocked(name, resolve);
+			}
+		}
+
+		private Class<?> loadClassLocked(String name, boolean resolve) throws ClassNotFoundException {
 			if (traceLoader) System.out.println("C(lc): " + name);
 
 			// First, check if the class has already been loaded
@@ -110,6 +147,9 @@ public class Trampoline {
 							System.out.println(name + " <- " + r);
 					}
 
+					c = findIndexed(name);
+					if (c != null) return resolved(c, resolve);
+
 					c = findClass(name);
 					if (traceLoader) System.out.println("C(lc): found  " + c + "we're done here");
 					if (traceLoader && c != null)
@@ -173,6 +213,10 @@ public class Trampoline {
 				}
 			}
 
+			return resolved(c, resolve);
+		}
+
+		private Class<?> resolved(Class<?> c, boolean resolve) {
 			if (resolve) {
 				resolveClass(c);
 			}
@@ -180,6 +224,53 @@ public class Trampoline {
 			return c;
 		}
 
+		/**
+		 * defines a class that the index knows about, or returns null if it doesn't (or it's not where the index thinks it is)
+		 */
+		protected Class<?> findIndexed(String name) {
+			ClassPathIndex.Root r = index.rootFor(name);
+			if (r == null) return null;
+
+			try {
+				java.security.CodeSigner[][] signers = {null};
+				byte[] b = index.read(r, name, signers);
+				if (b == null) return null;
+
+				definePackageFor(name, r);
+
+				CodeSource cs = signers[0] == null ? r.codeSource : new CodeSource(r.url, signers[0]);
+				Class<?> c = defineClass(name, b, 0, b.length, cs);
+
+				if (traceLoader) System.out.println("C(lc): found " + c + " in index at " + r.url);
+
+				// classes in directories are the ones that we can reload
+				if (!r.jar) {
+					File f = new File(r.file, name.replace('.', '/') + ".class");
+					Record rec = new Record(f.getAbsolutePath(), f.lastModified());
+					if (rec.modification != 0) loadMap.put(c, rec);
+				}
+				return c;
+			} catch (IOException e) {
+				if (traceLoader) e.printStackTrace();
+				return null;
+			}
+		}
+
+		private void definePackageFor(String name, ClassPathIndex.Root r) throws IOException {
+			int dot = name.lastIndexOf('.');
+			if (dot == -1) return;
+			String pkg = name.substring(0, dot);
+			if (getDefinedPackage(pkg) != null) return;
+			try {
+				Manifest m = r.jar ? r.jarFile()
+						      .getManifest() : null;
+				if (m != null) definePackage(pkg, m, r.url);
+				else definePackage(pkg, null, null, null, null, null, null, null);
+			} catch (IllegalArgumentException e) {
+				// somebody else got there first
+			}
+		}
+
 		protected byte[] transformClass(String name, byte[] b) {
 			return transform.transform(name, b);
 		}
@@ -190,20 +281,11 @@ public class Trampoline {
 
 		protected boolean shouldLoad(String name) {
 
-			if (!name.contains(".")) return true;
-
-			String[] s = name.split("\\.");
-
-			for (int i = 1; i < s.length; i++) {
-				String m = "";
-				for (int q = 0; q < i; q++) {
-					m += (q == 0 ? "" : ".") + s[q];
-				}
-
-				if (blacklist_prefix.contains(m)) return false;
+			// every package prefix of name (but not name itself)
+			for (int i = name.indexOf('.'); i != -1; i = name.indexOf('.', i + 1)) {
+				if (blacklist_prefix.contains(name.substring(0, i))) return false;
 			}
 
-
 			return true;
 		}
 
@@ -250,7 +332,9 @@ public class Trampoline {
 		Set<File> jarsToAdd = new LinkedHashSet<>();
 		Set<File> roots = new LinkedHashSet<>();
 		try {
-			Files.walk(new File(System.getProperty("appDir") + "/out/production").toPath()).forEach(x -> {
+			// f_cds points this at a copy of out/production where every directory of classes has been packed into a jar
+			String production = System.getProperty("field.production", System.getProperty("appDir") + "/out/production");
+			Files.walk(new File(production).toPath()).forEach(x -> {
 
 				if (x.toFile().getName().endsWith(".jar")) {
 					jarsToAdd.add(x.toFile());
@@ -307,9 +391,10 @@ public class Trampoline {
 
 		ExtensibleClassloader classloader = new ExtensibleClassloader(new URL[]{}, Thread.currentThread().getContextClassLoader());
 
+		List<URL> urls = new ArrayList<>();
 		for (File j : jarsToAdd)
 			try {
-				classloader.addURL(j.toURI().toURL());
+				urls.add(j.toURI().toURL());
 			} catch (MalformedURLException e) {
 				e.printStackTrace();
 			}
@@ -319,10 +404,11 @@ public class Trampoline {
 					continue;
 				if (Main.os != Main.OS.windows && j.getAbsolutePath().contains("_win"))
 					continue;
-				classloader.addURL(j.toURI().toURL());
+				urls.add(j.toURI().toURL());
 			} catch (MalformedURLException e) {
 				e.printStackTrace();
 			}
+		classloader.addURLs(urls);
 
 		Thread.currentThread().setContextClassLoader(classloader);
 
@@ -337,6 +423,18 @@ public class Trampoline {
 		}
 	}
 
+	/**
+	 * writes the classpath index (see ExtensibleClassloader.addURL) after a batch of calls to addURL
+	 */
+	static public void saveClassPathIndex() {
+		ClassLoader c = Thread.currentThread().getContextClassLoader();
+		try {
+			c.getClass().getMethod("saveIndex").invoke(c);
+		} catch (IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+			e.printStackTrace();
+		}
+	}
+
 	static public void addURL(URL n) {
 
 		ClassLoader c = Thread.currentThread().getContextClassLoader();
@@ -9,15 +9,42 @@ import fieldagent.asm.util.CheckClassAdapter;
 import fieldagent.transformations.TransformsMethod;
 import fieldagent.transformations.Wrap;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * Created by marc on 3/12/14.
+ * <p>
+ * Almost nothing that goes through here is @Woven, so before we parse anything we look through the constant pool for the name of the annotation
+ * (which a class must contain if it's annotated with it) and hand back everything else untouched. Classes that are woven are woven once and the
+ * result is kept in ~/.field/woven/ under a hash of the bytes that went in, so the next time we see exactly the same class we can skip ASM
+ * altogether. Set -Dfieldagent.noWeaveCache=true to turn the cache off.
  */
 public class Transform {
 	static public final boolean debug = false;
 
+	/**
+	 * bump this whenever a transformation changes what it writes, it invalidates everything in the cache
+	 */
+	static public final int cacheVersion = 2;
+
+	static public final boolean useCache = !Boolean.getBoolean("fieldagent.noWeaveCache");
+
+	static protected final byte[] wovenDescriptor = "Lfieldagent/annotations/Woven;".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+	protected final File cacheDirectory = new File(System.getProperty("user.home") + "/.field/woven/");
+
+	// statistics
+	public final AtomicInteger rejected = new AtomicInteger();
+	public final AtomicInteger woven = new AtomicInteger();
+	public final AtomicInteger cacheHits = new AtomicInteger();
+
 	List<Class<? extends TransformsMethod>> methodTransformations = Arrays.asList(Wrap.class);
 	Map<String, Class<? extends TransformsMethod>> methodAnnotationNames;
 
@@ -38,10 +65,29 @@ public class Transform {
 	public byte[] transform(String className, byte[] classfileBuffer) {
 
 		try {
+			if (!mentions(classfileBuffer, wovenDescriptor)) {
+				rejected.incrementAndGet();
+				return classfileBuffer;
+			}
+
+			String key = useCache ? keyFor(classfileBuffer) : null;
+			byte[] cached = key == null ? null : readCache(key);
+			if (cached != null) {
+				cacheHits.incrementAndGet();
+				if (debug) System.out.println(" woven " + className + " from cache " + key);
+				return cached;
+			}
+
 			ClassNode found = checkWoven(className, classfileBuffer);
 
 			if (found != null) {
-				return doTransform(found, className, classfileBuffer);
+				boolean[] failed = {false};
+				byte[] r = doTransform(found, className, classfileBuffer, failed);
+				woven.incrementAndGet();
+
+				// only keep things that actually worked, otherwise we'd keep handing out a half-woven class
+				if (key != null && !failed[0] && r != classfileBuffer) writeCache(key, r);
+				return r;
 			} else {
 				return classfileBuffer;
 			}
@@ -52,7 +98,7 @@ public class Transform {
 		}
 	}
 
-	private byte[] doTransform(ClassNode classNode, String className, byte[] classfileBuffer) {
+	private byte[] doTransform(ClassNode classNode, String className, byte[] classfileBuffer, boolean[] failed) {
 
 		for (MethodNode method : new ArrayList<>(classNode.methods)) {
 			if (debug) System.out.println(" method :" + method + " " + method.visibleAnnotations + " " + method.name + " " + method.signature);
@@ -69,7 +115,9 @@ public class Transform {
 							parameters.put((String) visibleAnnotation.values.get(2 * i), visibleAnnotation.values.get(2 * i + 1));
 						}
 
+						byte[] was = classfileBuffer;
 						classfileBuffer = m.transform(classNode, method, visibleAnnotation, parameters, classfileBuffer);
+						if (classfileBuffer == was) failed[0] = true;
 						if (classfileBuffer == null) {
 							ClassWriter w = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
 							CheckClassAdapter cca = new CheckClassAdapter(w);
@@ -79,6 +127,7 @@ public class Transform {
 					} catch (Throwable e) {
 						System.err.println(" problem transforming method " + method.name + " in class " + className + " with transformer " + methodTransformation);
 						e.printStackTrace();
+						failed[0] = true;
 					}
 
 				}
@@ -106,4 +155,108 @@ public class Transform {
 		}
 		return found ? node : null;
 	}
+
+	/**
+	 * true if the constant pool of this classfile contains this exact CONSTANT_Utf8. This is a walk over the constant pool without decoding or
+	 * allocating anything, which is all we need to rule out a class being annotated with something. Anything we don't understand answers true and
+	 * is left for ASM to sort out
+	 */
+	static public boolean mentions(byte[] b, byte[] utf8) {
+		try {
+			int n = u2(b, 8);
+			int i = 10;
+			for (int k = 1; k < n; k++) {
+				switch (b[i]) {
+					case 1: // Utf8
+						int len = u2(b, i + 1);
+						if (len == utf8.length && regionMatches(b, i + 3, utf8)) return true;
+						i += 3 + len;
+						break;
+					case 3: // Integer
+					case 4: // Float
+					case 9: // Fieldref
+					case 10: // Methodref
+					case 11: // InterfaceMethodref
+					case 12: // NameAndType
+					case 17: // Dynamic
+					case 18: // InvokeDynamic
+						i += 5;
+						break;
+					case 5: // Long
+					case 6: // Double, these take two slots
+						i += 9;
+						k++;
+						break;
+					case 7: // Class
+					case 8: // String
+					case 16: // MethodType
+					case 19: // Module
+					case 20: // Package
+						i += 3;
+						break;
+					case 15: // MethodHandle
+						i += 4;
+						break;
+					default:
+						return true;
+				}
+			}
+			return false;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			return true;
+		}
+	}
+
+	static private int u2(byte[] b, int at) {
+		return ((b[at] & 0xFF) << 8) | (b[at + 1] & 0xFF);
+	}
+
+	static private boolean regionMatches(byte[] b, int at, byte[] with) {
+		for (int i = 0; i < with.length; i++)
+			if (b[at + i] != with[i]) return false;
+		return true;
+	}
+
+	protected String keyFor(byte[] classfileBuffer) {
+		try {
+			MessageDigest d = MessageDigest.getInstance("SHA-1");
+			d.update((byte) cacheVersion);
+			byte[] h = d.digest(classfileBuffer);
+			StringBuilder s = new StringBuilder(h.length * 2);
+			for (byte x : h)
+				s.append(Character.forDigit((x >> 4) & 0xF, 16))
+				 .append(Character.forDigit(x & 0xF, 16));
+			return s.toString();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	protected byte[] readCache(String key) {
+		File f = new File(cacheDirectory, key + ".class");
+		if (!f.exists()) return null;
+		try {
+			return Files.readAllBytes(f.toPath());
+		} catch (IOException e) {
+			if (debug) e.printStackTrace();
+			return null;
+		}
+	}
+
+	protected void writeCache(String key, byte[] b) {
+		try {
+			cacheDirectory.mkdirs();
+			File tmp = File.createTempFile(key, ".tmp", cacheDirectory);
+			Files.write(tmp.toPath(), b);
+			Files.move(tmp.toPath(), new File(cacheDirectory, key + ".class").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the cache is just an optimization
+			if (debug) e.printStackTrace();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Transform rejected:" + rejected + " woven:" + woven + " cacheHits:" + cacheHits;
+	}
 }
@@ -1,6 +1,7 @@
 package fieldagent.transformations;
 
 import fieldagent.Transform;
+import fieldagent.asm.Handle;
 import fieldagent.asm.Label;
 import fieldagent.asm.Opcodes;
 import fieldagent.asm.Type;
@@ -11,9 +12,18 @@ import fieldagent.asm.tree.ClassNode;
 import fieldagent.asm.tree.MethodNode;
 import fieldagent.asm.util.CheckMethodAdapter;
 
+import java.lang.invoke.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 
+/**
+ * Weaves calls to a wrapper class (see annotations.Wrap) around the start and end of a method.
+ * <p>
+ * In classes that support it (1.7 and later) the calls out of the woven method are invokedynamic instructions. The first time each one runs,
+ * bootstrap makes the handler for the method (one per woven class and method) and binds it into a MutableCallSite, so that after that there are no
+ * map lookups on the way in or out of a woven method. rebind swaps in a different handler. Older classes go through the static enter / exit /
+ * abnormal methods below, which look the handler up by name each time.
+ */
 public class Wrap implements TransformsMethod {
 
 	public interface Wrapper<T, R> {
@@ -59,28 +69,192 @@ public class Wrap implements TransformsMethod {
 	private static final Type[] Type_enter_sig = new Type[]{Type_String, Type_Object, Type_String, Type_String, Type.getType(Object[].class)};
 
 	static public Cancel enter(String fromName, Object fromThis, String methodName, String parameterName, Object[] argArray) {
-		return entryHandlers.get(fromName).handle(fromName, fromThis, methodName, parameters.get(parameterName), argArray);
+		EntryHandler h = entryHandlers.get(fromName);
+		if (h == null) h = resolve(fromName, fromThis);
+		return h.handle(fromName, fromThis, methodName, parameters.get(parameterName), argArray);
 	}
 
 	private static final Type[] Type_exit_sig = new Type[]{Type_Object, Type_String, Type_Object, Type_String, Type_String, Type_String};
 
 	static public Object exit(Object returningThis, String fromName, Object fromThis, String methodName, String parameterName, String methodReturnName) {
-		return exitHandlers.get(fromName).handle(returningThis, fromName, fromThis, methodName, parameters.get(parameterName), methodReturnName);
+		ExitHandler h = exitHandlers.get(fromName);
+		if (h == null) h = resolve(fromName, fromThis);
+		return h.handle(returningThis, fromName, fromThis, methodName, parameters.get(parameterName), methodReturnName);
 	}
 
 	private static final Type[] Type_abnormal_sig = new Type[]{Type.getType(Throwable.class), Type_String, Type_Object, Type_String, Type_String, Type_String};
 
 	static public Object abnormal(Throwable returningThis, String fromName, Object fromThis, String methodName, String parameterName, String methodReturnName) {
-		return abnormalHandlers.get(fromName).handle(returningThis, fromName, fromThis, methodName, parameters.get(parameterName), methodReturnName);
+		AbnormalHandler h = abnormalHandlers.get(fromName);
+		if (h == null) h = resolve(fromName, fromThis);
+		return h.handle(returningThis, fromName, fromThis, methodName, parameters.get(parameterName), methodReturnName);
 	}
 
-	static public int uniq_parameter;
+	/**
+	 * woven methods are named "owner renamedOriginalMethod handlerClass", which is everything we need to make their handler. Usually the handler is
+	 * registered when the method is woven, but if the class came out of Transform's cache then nobody has woven anything this time around and we
+	 * make it here, the first time that it's called
+	 */
+	static protected Handler resolve(String name, Object fromThis) {
+		synchronized (entryHandlers) {
+			EntryHandler already = entryHandlers.get(name);
+			if (already instanceof Handler) return (Handler) already;
+
+			Handler h = handlerFor(name, fromThis != null ? fromThis.getClass()
+									.getClassLoader() : Thread.currentThread()
+												   .getContextClassLoader());
+			register(name, h);
+			return h;
+		}
+	}
 
-	public byte[] transform(ClassNode node, MethodNode method, AnnotationNode annotation, Map<String, Object> parameters, byte[] classfileBuffer) {
+	static protected Handler handlerFor(String name, ClassLoader loader) {
+		String[] parts = name.split(" ");
+		if (parts.length != 3) throw new IllegalStateException(" can't find a handler for woven method " + name);
 		try {
-			Type handlert = (Type) parameters.get("value");
+			return new MethodHandler(Class.forName(parts[2], true, loader), parts[1]);
+		} catch (ClassNotFoundException e) {
+			IllegalStateException r = new IllegalStateException(" can't find wrapper class for woven method " + name);
+			r.initCause(e);
+			throw r;
+		}
+	}
+
+	static protected void register(String name, Handler h) {
+		synchronized (entryHandlers) {
+			entryHandlers.put(name, h);
+			exitHandlers.put(name, h);
+			abnormalHandlers.put(name, h);
+		}
+	}
+
+	/**
+	 * the handlers and call sites of one woven class. Kept per class (rather than globally by name) because the same class can be loaded more than
+	 * once, and each copy needs its own handler
+	 */
+	static protected class WovenClass {
+		final Map<String, Handler> handlers = new HashMap<>();
+		final Map<String, List<Site>> sites = new HashMap<>();
+	}
+
+	static protected final ClassValue<WovenClass> woven = new ClassValue<WovenClass>() {
+		@Override
+		protected WovenClass computeValue(Class<?> type) {
+			return new WovenClass();
+		}
+	};
+
+	static protected class Site extends MutableCallSite {
+		final String kind;
+		final String name;
+		final String owner;
+		final String returnName;
+
+		Site(String kind, String name, String owner, String returnName, MethodType type) {
+			super(type);
+			this.kind = kind;
+			this.name = name;
+			this.owner = owner;
+			this.returnName = returnName;
+		}
+
+		void bind(Handler h) {
+			Map<String, Object> p = parameters.get(name);
+			MethodHandle m;
+			if (kind.equals("enter")) m = MethodHandles.insertArguments(enterWith, 0, h, name, owner, p);
+			else if (kind.equals("exit")) m = MethodHandles.insertArguments(exitWith, 0, h, name, owner, p, returnName);
+			else m = MethodHandles.insertArguments(abnormalWith, 0, h, name, owner, p, returnName);
+			setTarget(m.asType(type()));
+		}
+	}
+
+	static private final MethodHandle enterWith;
+	static private final MethodHandle exitWith;
+	static private final MethodHandle abnormalWith;
+
+	static {
+		try {
+			MethodHandles.Lookup l = MethodHandles.lookup();
+			enterWith = l.findStatic(Wrap.class, "enterWith", MethodType.methodType(Cancel.class, EntryHandler.class, String.class, String.class, Map.class, Object.class, Object[].class));
+			exitWith = l.findStatic(Wrap.class, "exitWith", MethodType.methodType(Object.class, ExitHandler.class, String.class, String.class, Map.class, String.class, Object.class, Object.class));
+			abnormalWith = l.findStatic(Wrap.class, "abnormalWith", MethodType.methodType(Object.class, AbnormalHandler.class, String.class, String.class, Map.class, String.class, Throwable.class, Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	static private Cancel enterWith(EntryHandler h, String fromName, String methodName, Map<String, Object> parameters, Object fromThis, Object[] argArray) {
+		return h.handle(fromName, fromThis, methodName, parameters, argArray);
+	}
+
+	static private Object exitWith(ExitHandler h, String fromName, String methodName, Map<String, Object> parameters, String methodReturnName, Object returningThis, Object fromThis) {
+		return h.handle(returningThis, fromName, fromThis, methodName, parameters, methodReturnName);
+	}
+
+	static private Object abnormalWith(AbnormalHandler h, String fromName, String methodName, Map<String, Object> parameters, String methodReturnName, Throwable throwingThis, Object fromThis) {
+		return h.handle(throwingThis, fromName, fromThis, methodName, parameters, methodReturnName);
+	}
+
+	private static final Handle bootstrap = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(Wrap.class), "bootstrap", MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, String.class, String.class, String.class)
+																			  .toMethodDescriptorString(), false);
+
+	private static final String Desc_enter = "(Ljava/lang/Object;[Ljava/lang/Object;)" + Type.getDescriptor(Cancel.class);
+	private static final String Desc_exit = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+	private static final String Desc_abnormal = "(Ljava/lang/Throwable;Ljava/lang/Object;)Ljava/lang/Object;";
+
+	/**
+	 * bootstrap for the invokedynamic instructions in woven methods. 'kind' is one of enter, exit or abnormal
+	 */
+	static public CallSite bootstrap(MethodHandles.Lookup caller, String kind, MethodType type, String name, String owner, String returnName) {
+		WovenClass w = woven.get(caller.lookupClass());
+		Site s = new Site(kind, name, owner, returnName, type);
+		synchronized (w) {
+			Handler h = w.handlers.get(name);
+			if (h == null) w.handlers.put(name, h = handlerFor(name, caller.lookupClass()
+										     .getClassLoader()));
+			s.bind(h);
+			List<Site> l = w.sites.get(name);
+			if (l == null) w.sites.put(name, l = new ArrayList<>());
+			l.add(s);
+		}
+		return s;
+	}
+
+	/**
+	 * replaces the handler of a woven method (named as in resolve) in this class. Call sites that have already been linked are rebound
+	 */
+	static public void rebind(Class<?> wovenClass, String name, Handler h) {
+		WovenClass w = woven.get(wovenClass);
+		List<MutableCallSite> changed = new ArrayList<>();
+		synchronized (w) {
+			w.handlers.put(name, h);
+			List<Site> l = w.sites.get(name);
+			if (l != null) for (Site s : l) {
+				s.bind(h);
+				changed.add(s);
+			}
+		}
+		MutableCallSite.syncAll(changed.toArray(new MutableCallSite[changed.size()]));
+	}
+
+	/**
+	 * calls begin / end / abnormal on an instance of the wrapper class, which we make (once per method, not per instance) the first time that the
+	 * woven method is called
+	 */
+	static protected class MethodHandler implements Handler {
+		final Class<?> handler;
+		final String newMethodName;
+		final java.lang.reflect.Method fbegin;
+		final java.lang.reflect.Method fend;
+		final java.lang.reflect.Method fabnormal;
+
+		// wrappers are instantiated per-method, not per-instance
+		volatile Object wrapper = null;
+
+		public MethodHandler(Class<?> handler, String newMethodName) {
+			this.handler = handler;
+			this.newMethodName = newMethodName;
 
-			final Class handler = (Class) Thread.currentThread().getContextClassLoader().loadClass(handlert.getClassName());
 			java.lang.reflect.Method[] m = handler.getMethods();
 			java.lang.reflect.Method begin = null;
 			java.lang.reflect.Method end = null;
@@ -90,146 +264,159 @@ public class Wrap implements TransformsMethod {
 				if (mm.getName().equals("end")) end = mm;
 				if (mm.getName().equals("abnormal")) abnormal= mm;
 			}
-			final java.lang.reflect.Method fbegin = begin;
-			final java.lang.reflect.Method fend = end;
-			final java.lang.reflect.Method fabnormal = abnormal;
-
-			MethodNode transformed = new MethodNode(Opcodes.ASM5, method.access, method.name, method.desc, method.signature, method.exceptions.toArray(new String[0]));
-			final String newMethodName = method.name + "_original$fieldagent" + (uniq_parameter++);
-			final String name = node.name + "/" + method.desc + "/" + (uniq_parameter++);
-			parameters.put(name, parameters);
-
-			Handler h = new Handler()
-			{
-				// wrappers are instantiated per-method, not per-instance
-				java.lang.reflect.Method originalMethod;
-				Object wrapper = null;
+			this.fbegin = begin;
+			this.fend = end;
+			this.fabnormal = abnormal;
+		}
 
-				@Override
-				public Cancel handle(String fromName, Object fromThis, String methodName, Map<String, Object> parameterName, Object[] argArray) {
-					if (fbegin != null) try {
-						if (originalMethod == null) {
-							originalMethod = findMethod(fromThis.getClass(), newMethodName);
-							wrapper = handler.getConstructor(java.lang.reflect.Method.class).newInstance(originalMethod);
-						}
-						fbegin.invoke(wrapper, fromThis, argArray);
-					} catch (IllegalAccessException e) {
-						System.out.println(" unexpected exception thrown in begin " + e.getClass() + " " + Cancel.class);
-						e.printStackTrace();
-					} catch (InvocationTargetException e) {
-						if (e.getCause() instanceof Cancel) {
-							if (Transform.debug) System.out.println(" -- returning cancel -- with :" + ((Cancel) e.getCause()).ret);
-							return (Cancel) e.getCause();
-						}
-						e.printStackTrace();
-						RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
-						r.initCause(e.getCause());
-						throw r;
-					} catch (Throwable t) {
-						System.out.println(" exception thrown in begin " + t.getClass() + " " + Cancel.class);
-						t.printStackTrace();
-						RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
-						r.initCause(t);
-						throw r;
-					}
-					return null;
+		protected Object wrapperFor(Object fromThis) throws ReflectiveOperationException {
+			Object w = wrapper;
+			if (w == null) synchronized (this) {
+				w = wrapper;
+				if (w == null) {
+					java.lang.reflect.Method originalMethod = findMethod(fromThis.getClass(), newMethodName);
+					wrapper = w = handler.getConstructor(java.lang.reflect.Method.class)
+							     .newInstance(originalMethod);
 				}
+			}
+			return w;
+		}
 
-				private java.lang.reflect.Method findMethod(Class<? extends Object> aClass, String newMethodName) {
-					if (aClass == null) return null;
-					for (java.lang.reflect.Method mm : aClass.getDeclaredMethods()) {
-						if (mm.getName().equals(newMethodName)) return mm;
-					}
-					java.lang.reflect.Method m = findMethod(aClass.getSuperclass(), newMethodName);
-					if (m != null) return m;
-					Class[] inter = aClass.getInterfaces();
-					for (Class ii : inter) {
-						m = findMethod(ii, newMethodName);
-						if (m != null) return m;
-					}
-					return null;
+		@Override
+		public Cancel handle(String fromName, Object fromThis, String methodName, Map<String, Object> parameterName, Object[] argArray) {
+			if (fbegin != null) try {
+				Object wrapper = wrapperFor(fromThis);
+				fbegin.invoke(wrapper, fromThis, argArray);
+			} catch (IllegalAccessException e) {
+				System.out.println(" unexpected exception thrown in begin " + e.getClass() + " " + Cancel.class);
+				e.printStackTrace();
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof Cancel) {
+					if (Transform.debug) System.out.println(" -- returning cancel -- with :" + ((Cancel) e.getCause()).ret);
+					return (Cancel) e.getCause();
 				}
+				e.printStackTrace();
+				RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
+				r.initCause(e.getCause());
+				throw r;
+			} catch (Throwable t) {
+				System.out.println(" exception thrown in begin " + t.getClass() + " " + Cancel.class);
+				t.printStackTrace();
+				RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
+				r.initCause(t);
+				throw r;
+			}
+			return null;
+		}
 
-				@Override
-				public Object handle(Object returningThis, String fromName, Object fromThis, String methodName, Map<String, Object> parameterName, String methodReturnName) {
-					if (fend != null) try {
-						if (originalMethod == null) {
-							originalMethod = findMethod(fromThis.getClass(), newMethodName);
-							wrapper = handler.getConstructor(java.lang.reflect.Method.class).newInstance(originalMethod);
-						}
-						if (Transform.debug) System.out.println(" invoking end :"+fend+" "+wrapper+" "+fromThis+" "+returningThis);
-
-						Object o = fend.invoke(wrapper, fromThis, returningThis);
-						return o;
-					} catch (IllegalAccessException e) {
-						e.printStackTrace();
-					} catch (InvocationTargetException e) {
-						if (e.getCause() instanceof Cancel) {
-							if (Transform.debug) System.out.println(" -- returning cancel -- with :" + ((Cancel) e.getCause()).ret);
-							return e.getCause();
-						}
-						e.printStackTrace();
-						RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
-						r.initCause(e.getCause());
-						throw r;
-					} catch (Throwable t) {
-						System.out.println(" exception thrown in begin " + t.getClass() + " " + Cancel.class);
-						t.printStackTrace();
-						RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
-						r.initCause(t);
-						throw r;
-					}
-					return returningThis;
+		private java.lang.reflect.Method findMethod(Class<? extends Object> aClass, String newMethodName) {
+			if (aClass == null) return null;
+			for (java.lang.reflect.Method mm : aClass.getDeclaredMethods()) {
+				if (mm.getName().equals(newMethodName)) return mm;
+			}
+			java.lang.reflect.Method m = findMethod(aClass.getSuperclass(), newMethodName);
+			if (m != null) return m;
+			Class<?>[] inter = aClass.getInterfaces();
+			for (Class<?> ii : inter) {
+				m = findMethod(ii, newMethodName);
+				if (m != null) return m;
+			}
+			return null;
+		}
+
+		@Override
+		public Object handle(Object returningThis, String fromName, Object fromThis, String methodName, Map<String, Object> parameterName, String methodReturnName) {
+			if (fend != null) try {
+				Object wrapper = wrapperFor(fromThis);
+				if (Transform.debug) System.out.println(" invoking end :"+fend+" "+wrapper+" "+fromThis+" "+returningThis);
+
+				Object o = fend.invoke(wrapper, fromThis, returningThis);
+				return o;
+			} catch (IllegalAccessException e) {
+				e.printStackTrace();
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof Cancel) {
+					if (Transform.debug) System.out.println(" -- returning cancel -- with :" + ((Cancel) e.getCause()).ret);
+					return e.getCause();
 				}
+				e.printStackTrace();
+				RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
+				r.initCause(e.getCause());
+				throw r;
+			} catch (Throwable t) {
+				System.out.println(" exception thrown in begin " + t.getClass() + " " + Cancel.class);
+				t.printStackTrace();
+				RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
+				r.initCause(t);
+				throw r;
+			}
+			return returningThis;
+		}
 
-				@Override
-				public Object handle(Throwable throwingThis, String fromName, Object fromThis, String methodName, Map<String, Object> parameterName, String methodReturnName) {
-					if (fabnormal != null) try {
-						if (originalMethod == null) {
-							originalMethod = findMethod(fromThis.getClass(), newMethodName);
-							wrapper = handler.getConstructor(java.lang.reflect.Method.class).newInstance(originalMethod);
-						}
-						if (Transform.debug) System.out.println(" invoking abnormal :"+fend+" "+wrapper+" "+fromThis+" "+throwingThis);
-
-						Object o = fabnormal.invoke(wrapper, fromThis, throwingThis);
-						return o;
-					} catch (IllegalAccessException e) {
-						e.printStackTrace();
-					} catch (InvocationTargetException e) {
-						if (e.getCause() instanceof Cancel) {
-							System.out.println(" -- returning cancel -- with :" + ((Cancel) e.getCause()).ret);
-							return e.getCause();
-						}
-						e.printStackTrace();
-						RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
-						r.initCause(e.getCause());
-						throw r;
-					} catch (Throwable t) {
-						System.out.println(" exception thrown in begin " + t.getClass() + " " + Cancel.class);
-						t.printStackTrace();
-						RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
-						r.initCause(t);
-						throw r;
-					}
-					return throwingThis;
+		@Override
+		public Object handle(Throwable throwingThis, String fromName, Object fromThis, String methodName, Map<String, Object> parameterName, String methodReturnName) {
+			if (fabnormal != null) try {
+				Object wrapper = wrapperFor(fromThis);
+				if (Transform.debug) System.out.println(" invoking abnormal :"+fend+" "+wrapper+" "+fromThis+" "+throwingThis);
+
+				Object o = fabnormal.invoke(wrapper, fromThis, throwingThis);
+				return o;
+			} catch (IllegalAccessException e) {
+				e.printStackTrace();
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof Cancel) {
+					System.out.println(" -- returning cancel -- with :" + ((Cancel) e.getCause()).ret);
+					return e.getCause();
 				}
-			};
+				e.printStackTrace();
+				RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
+				r.initCause(e.getCause());
+				throw r;
+			} catch (Throwable t) {
+				System.out.println(" exception thrown in begin " + t.getClass() + " " + Cancel.class);
+				t.printStackTrace();
+				RuntimeException r = new RuntimeException(" Exception inside wrapper begin method " + wrapper + " " + fromThis + " " + methodName);
+				r.initCause(t);
+				throw r;
+			}
+			return throwingThis;
+		}
+	}
 
-			entryHandlers.put(name, h);
-			exitHandlers.put(name, h);
-			abnormalHandlers.put(name, h);
+	public byte[] transform(ClassNode node, MethodNode method, AnnotationNode annotation, Map<String, Object> parameters, byte[] classfileBuffer) {
+		try {
+			Type handlert = (Type) parameters.get("value");
+
+			final Class handler = (Class) Thread.currentThread().getContextClassLoader().loadClass(handlert.getClassName());
+
+			MethodNode transformed = new MethodNode(Opcodes.ASM5, method.access, method.name, method.desc, method.signature, method.exceptions.toArray(new String[0]));
+			// these names depend only on the class that we are weaving, so that Transform can cache the result
+			final String newMethodName = method.name + "_original$fieldagent" + node.methods.indexOf(method);
+			final String name = node.name + " " + newMethodName + " " + handler.getName();
+			parameters.put(name, parameters);
+
+			register(name, new MethodHandler(handler, newMethodName));
+
+			// invokedynamic needs a 1.7 classfile
+			final boolean indy = (node.version & 0xFFFF) >= Opcodes.V1_7;
 
 			AdviceAdapter aa = new AdviceAdapter(Opcodes.ASM5, transformed, method.access, method.name, method.desc) {
 
 				Set<Type> primitives = new LinkedHashSet<>(Arrays.asList(Type.VOID_TYPE, Type.BOOLEAN_TYPE, Type.BYTE_TYPE, Type.CHAR_TYPE, Type.DOUBLE_TYPE, Type.FLOAT_TYPE, Type.INT_TYPE, Type.SHORT_TYPE, Type.LONG_TYPE));
 
 				protected void onMethodEnter() {
-					push(name);
-					loadThis();
-					push(node.name);
-					push(name);
-					loadArgArray();
-					invokeStatic(Type.getType(Wrap.class), new Method("enter", Type.getType(Cancel.class), Type_enter_sig));
+					if (indy) {
+						loadThis();
+						loadArgArray();
+						invokeDynamic("enter", Desc_enter, bootstrap, name, node.name, "");
+					} else {
+						push(name);
+						loadThis();
+						push(node.name);
+						push(name);
+						loadArgArray();
+						invokeStatic(Type.getType(Wrap.class), new Method("enter", Type.getType(Cancel.class), Type_enter_sig));
+					}
 					Label end_preamble_unwrap = this.newLabel();
 
 					dup();
@@ -254,12 +441,17 @@ public class Wrap implements TransformsMethod {
 					if (Transform.debug) System.out.println(" return is opcode :"+opcode);
 					if (opcode == ATHROW)
 					{
-						push(name);
-						loadThis();
-						push(node.name);
-						push(name);
-						push("return"+(ret++));
-						invokeStatic(Type.getType(Wrap.class), new Method("abnormal", Type.getType(Object.class), Type_abnormal_sig));
+						if (indy) {
+							loadThis();
+							invokeDynamic("abnormal", Desc_abnormal, bootstrap, name, node.name, "return" + (ret++));
+						} else {
+							push(name);
+							loadThis();
+							push(node.name);
+							push(name);
+							push("return" + (ret++));
+							invokeStatic(Type.getType(Wrap.class), new Method("abnormal", Type.getType(Object.class), Type_abnormal_sig));
+						}
 						checkCast(Type.getType(Throwable.class));
 						return;
 					}
@@ -267,13 +459,20 @@ public class Wrap implements TransformsMethod {
 					if (opcode != RETURN && opcode !=ARETURN)
 						box(Type.getReturnType(this.methodDesc));
 
-					push(name);
-					loadThis();
-					push(node.name);
-					push(name);
-					push("return"+(ret++));
-					invokeStatic(Type.getType(Wrap.class), new Method("exit", Type.getType(Object.class), Type_exit_sig));
+					if (indy) {
+						if (opcode == RETURN) visitInsn(ACONST_NULL);
+						loadThis();
+						invokeDynamic("exit", Desc_exit, bootstrap, name, node.name, "return" + (ret++));
+					} else {
+						push(name);
+						loadThis();
+						push(node.name);
+						push(name);
+						push("return" + (ret++));
+						invokeStatic(Type.getType(Wrap.class), new Method("exit", Type.getType(Object.class), Type_exit_sig));
+					}
 					if (opcode == RETURN) {
+						if (indy) pop();
 					} else if (opcode == ARETURN)
 					{
 						checkCast(Type.getReturnType(this.methodDesc));
@@ -18,7 +18,6 @@ import org.json.JSONObject;
 
 import java.util.*;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -110,7 +109,7 @@ public class Taps extends Box implements IO.Loaded {
 				RemoteEditor editor = first.get();
 
 				editor.getServer()
-				      .addHandlerLast(Predicate.isEqual("taps.activeset"), (s, socket, address, payload) -> {
+				      .addHandlerLast("taps.activeset", (s, socket, address, payload) -> {
 
 					      Log.log("tap", ()->"tap.activeset recieved ");
 
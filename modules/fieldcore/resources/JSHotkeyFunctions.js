@@ -4,7 +4,7 @@ function Autocomplete() {
     _field.sendWithReturn("request.completions", {
             box: cm.currentbox,
             property: cm.currentproperty,
-            text: cm.getValue(),
+            version: syncText(),
             line: cm.listSelections()[0].anchor.line,
             ch: cm.listSelections()[0].anchor.ch
         },
@@ -85,7 +85,7 @@ function Import() {
     _field.sendWithReturn("request.imports", {
             box: cm.currentbox,
             property: cm.currentproperty,
-            text: cm.getValue(),
+            version: syncText(),
             line: cm.listSelections()[0].anchor.line,
             ch: cm.listSelections()[0].anchor.ch
         },
@@ -142,13 +142,12 @@ function Import() {
 }
 
 function Run_All() {
-    fragment = cm.getValue();
     anchorLine = cm.lineCount() - 1;
 
     _field.sendWithReturn("execution.all", {
         box: cm.currentbox,
         property: cm.currentproperty,
-        text: fragment,
+        version: syncText(),
         disabledRanges: "[" + allDisabledBracketRanges() + "]"
     }, function (d, e) {
         if (d.type == 'error') {
@@ -161,13 +160,12 @@ function Run_All() {
 }
 
 function Run_Begin() {
-    fragment = cm.getValue();
     anchorLine = cm.lineCount() - 1;
 
     _field.sendWithReturn("execution.begin", {
         box: cm.currentbox,
         property: cm.currentproperty,
-        text: fragment,
+        version: syncText(),
         disabledRanges: "[" + allDisabledBracketRanges() + "]"
     }, function (d, e) {
         if (d.type == 'error') {
@@ -180,13 +178,12 @@ function Run_Begin() {
 }
 
 function Run_End() {
-    fragment = cm.getValue();
     anchorLine = cm.lineCount() - 1;
 
     _field.sendWithReturn("execution.end", {
         box: cm.currentbox,
         property: cm.currentproperty,
-        text: fragment
+        version: syncText()
     }, function (d, e) {
         if (d.type == 'error') {
             _messageBus.publish("error.line", d);
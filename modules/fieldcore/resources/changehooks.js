@@ -52,17 +52,60 @@ debounce = function(func, wait, immediate) {
     return debounced;
 };
 
+// text synchronisation with Field. Rather than sending the whole text on every change we send the edits made since the last send, against the
+// version of the text that Field has (cm.syncVersion). If Field loses track it publishes 'text.resync' and we send everything again
+cm.syncVersion = 0;
+var pendingEdits = [];
+
+// the text as Field will have it once it has applied pendingEdits. Edits are measured against this, one at a time, in the order they were made
+var syncedText = "";
+
+// the offset of line / ch in 'text'
+offsetIn = function (text, pos) {
+    var at = 0;
+    for (var l = 0; l < pos.line; l++) {
+        at = text.indexOf("\n", at);
+        if (at == -1) return text.length;
+        at++;
+    }
+    return at + pos.ch;
+};
+
+sendChange = function (cm) {
+    if (!cm.currentbox || !cm.currentproperty || pendingEdits.length == 0) return;
+
+    _messageBus.publish("toField.text.updated", {
+        box: cm.currentbox,
+        property: cm.currentproperty,
+        base: cm.syncVersion,
+        edits: pendingEdits,
+        length: cm.getDoc().indexFromPos({line: cm.lastLine() + 1, ch: 0}),
+        ch: cm.getCursor().ch,
+        line: cm.getCursor().line,
+        disabledRanges: "[" + allDisabledBracketRanges() + "]"
+    });
+    pendingEdits = [];
+    cm.syncVersion++;
+};
+
+sendAllText = function (cm) {
+    pendingEdits = [];
+    syncedText = cm.getValue();
+    _messageBus.publish("toField.text.updated", {
+        box: cm.currentbox,
+        property: cm.currentproperty,
+        text: cm.getValue(),
+        version: cm.syncVersion,
+        ch: cm.getCursor().ch,
+        line: cm.getCursor().line,
+        disabledRanges: "[" + allDisabledBracketRanges() + "]"
+    });
+};
+
 fireChange = debounce(function(cm)
 {
     if (cm.currentbox && cm.currentproperty) {
-        _messageBus.publish("toField.text.updated", {
-            box: cm.currentbox,
-            property: cm.currentproperty,
-            text: cm.getValue(),
-            ch: cm.getCursor().ch,
-            line: cm.getCursor().line,
-            disabledRanges: "[" + allDisabledBracketRanges() + "]"
-        });
+        sendChange(cm);
 
         cookie = {};
         cookie.brackets = serializeAllBrackets();
@@ -81,14 +124,46 @@ fireChange = debounce(function(cm)
 
 }, 250);
 
+// makes sure that Field has everything that we have, and returns the version that requests should refer to
+syncText = function () {
+    sendChange(cm);
+    return cm.syncVersion;
+};
+
 
-cm.on("change", function (cm, change) {
-    if (ignoreChange) return;
+cm.on("changes", function (cm, changes) {
+    if (ignoreChange) {
+        syncedText = cm.getValue();
+        return;
+    }
+
+    // one operation can make several changes (multiple selections, indenting a block) and each one's positions refer to the document as it was
+    // after the ones before it, not to the document we have now. So we replay them, in order, against our copy of what Field has
+    for (var i = 0; i < changes.length; i++) {
+        var change = changes[i];
+        var edit = {
+            from: offsetIn(syncedText, change.from),
+            remove: change.removed.join("\n").length,
+            text: change.text.join("\n")
+        };
+        pendingEdits.push(edit);
+        syncedText = syncedText.substring(0, edit.from) + edit.text + syncedText.substring(edit.from + edit.remove);
+    }
+
+    if (syncedText != cm.getValue()) {
+        console.log(" lost track of the edits to this box, sending all of it ");
+        sendAllText(cm);
+    }
 
     fireChange(cm);
 
 });
 
+_messageBus.subscribe("text.resync", function (d, e) {
+    if (d.box == cm.currentbox && d.property == cm.currentproperty)
+        sendAllText(cm);
+});
+
 _messageBus.subscribe("extra.help", function (d, e) {
     setHelpBox(d.message);
 });
@@ -129,9 +204,15 @@ _messageBus.subscribe("selection.changed", function (d, e) {
         raph.clear();
     }
 
+    // anything we haven't sent yet belongs to the box we're leaving
+    sendChange(cm);
+    fireChange.cancel();
+
     cm.currentbox = d.box;
     cm.currentproperty = d.property;
     cm.setValue(d.text);
+    cm.syncVersion = d.version || 0;
+    pendingEdits = [];
 
     if (d.cookie) {
         if (d.cookie.history)
@@ -214,6 +295,7 @@ _messageBus.subscribe("selection.changed", function (d, e) {
 
     }
 
+    syncedText = cm.getValue();
     ignoreChange = false;
 
 });
\ No newline at end of file
@@ -42,7 +42,7 @@ goCommands = function () {
     _field.sendWithReturn("request.commands", {
             box: cm.currentbox,
             property: cm.currentproperty,
-            text: cm.getValue(),
+            version: syncText(),
             line: cm.listSelections()[0].anchor.line,
             ch: cm.listSelections()[0].anchor.ch
         },
@@ -108,7 +108,7 @@ hotkeys = function () {
     _field.sendWithReturn("request.hotkeyCommands", {
             box: cm.currentbox,
             property: cm.currentproperty,
-            text: cm.getValue(),
+            version: syncText(),
             line: cm.listSelections()[0].anchor.line,
             ch: cm.listSelections()[0].anchor.ch,
             allJSCommands: JSCommands
@@ -3,7 +3,7 @@ __extraCompletions = [];
 _field.sendWithReturn("request.completions", {
 				box: cm.currentbox,
 				property: cm.currentproperty,
-				text: cm.getValue(),
+				version: syncText(),
 				line: cm.listSelections()[0].anchor.line,
 				ch: cm.listSelections()[0].anchor.ch
 		},
@@ -1,7 +1,7 @@
 _field.sendWithReturn("request.imports", {
                 box: cm.currentbox,
                 property: cm.currentproperty,
-                text: cm.getValue(),
+                version: syncText(),
                 line: cm.listSelections()[0].anchor.line,
                 ch: cm.listSelections()[0].anchor.ch
             },
@@ -1,10 +1,9 @@
-fragment = cm.getValue();
 anchorLine = cm.lineCount() - 1;
 
 _field.sendWithReturn("execution.all", {
 	box: cm.currentbox,
 	property: cm.currentproperty,
-	text: fragment,
+	version: syncText(),
 	disabledRanges: "["+allDisabledBracketRanges()+"]"
 }, function (d, e) {
 	if (d.type == 'error')
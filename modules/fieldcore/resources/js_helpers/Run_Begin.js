@@ -1,10 +1,9 @@
-fragment = cm.getValue();
 anchorLine = cm.lineCount() - 1;
 
 _field.sendWithReturn("execution.begin", {
 	box: cm.currentbox,
 	property: cm.currentproperty,
-	text: fragment
+	version: syncText()
 }, function (d, e) {
 	if (d.type == 'error')
 		appendRemoteOutputToLine(anchorLine, d.line + " : " + d.message, "Field-remoteOutput", "Field-remoteOutput-error", 1);
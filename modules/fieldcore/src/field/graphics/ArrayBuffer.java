@@ -90,6 +90,14 @@ public interface ArrayBuffer {
 	 */
 	void destroy();
 
+	/**
+	 * a number that changes whenever this buffer might have been written to, or -1 if this buffer doesn't keep track (in which case anything cached
+	 * from its contents has to be recomputed every time)
+	 */
+	default int getModCount() {
+		return -1;
+	}
+
 	/**
 	 * Mark the area up to this point as clean --- internal use only (hence the access restriction)
 	 */
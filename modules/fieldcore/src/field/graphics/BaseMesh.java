@@ -1,5 +1,6 @@
 package field.graphics;
 
+import field.linalg.BatchMath;
 import field.linalg.Vec3;
 import field.utility.Log;
 import org.lwjgl.opengl.GL30;
@@ -226,12 +227,85 @@ public class BaseMesh extends Scene implements Scene.Perform {
 		return m;
 	}
 
+	// the bounds of the vertex positions, and what they were computed from
+	float[] bounds;
+	ArrayBuffer boundsOf;
+	int boundsMod;
+	int boundsLimit;
+
+	boolean cullable = true;
+	boolean culled = false;
+
+	/**
+	 * the bounds of this mesh's vertex positions (the first getVertexLimit() of them) as min x, y, z, max x, y, z followed by the center x, y, z
+	 * and radius of a sphere around them, or null if there's nothing to bound. This is only recomputed after the vertex storage has been written to
+	 * (or the vertex limit has changed)
+	 */
+	public float[] bounds() {
+		ArrayBuffer b = buffers[0];
+		if (b == null || b.getDimension() != 3) return null;
+		int limit = Math.min(limitVertex, b.getSize());
+		if (limit <= 0) return null;
+
+		int mod = b.getModCount();
+		if (bounds != null && boundsOf == b && mod != -1 && boundsMod == mod && boundsLimit == limit) return bounds;
+
+		FloatBuffer f = b.floats(true);
+		float[] r = BatchMath.bounds(f, limit, new float[10]);
+		float cx = (r[0] + r[3]) / 2;
+		float cy = (r[1] + r[4]) / 2;
+		float cz = (r[2] + r[5]) / 2;
+		double r2 = 0;
+		for (int i = 0; i < limit; i++) {
+			double dx = f.get(3 * i) - cx, dy = f.get(3 * i + 1) - cy, dz = f.get(3 * i + 2) - cz;
+			r2 = Math.max(r2, dx * dx + dy * dy + dz * dz);
+		}
+		r[6] = cx;
+		r[7] = cy;
+		r[8] = cz;
+		r[9] = Math.nextUp((float) Math.sqrt(r2));
+
+		bounds = r;
+		boundsOf = b;
+		boundsMod = mod;
+		boundsLimit = limit;
+		return r;
+	}
+
+	/**
+	 * set to false to stop this mesh from ever being culled by a MeshCuller (for example, if your vertex shader moves vertices around a lot)
+	 */
+	public BaseMesh setCullable(boolean cullable) {
+		this.cullable = cullable;
+		if (!cullable) culled = false;
+		return this;
+	}
+
+	/**
+	 * instanced meshes are never culled, since where the instances end up is up to the shader
+	 */
+	public boolean isCullable() {
+		return cullable && instances == 0;
+	}
+
+	/**
+	 * true if this mesh was found to be entirely off screen, and so isn't being drawn, this frame
+	 */
+	public boolean isCulled() {
+		return culled;
+	}
+
 	@Override
 	public boolean perform(int pass) {
 
 		Log.log("graphics.trace", ()->" perform pass :" + this + " / " + pass);
 
 		if (pass == 0) {
+			if (culled) {
+				Log.log("graphics.trace", () -> " culled :" + this);
+				return true;
+			}
+
 			Integer va = GraphicsContext.get(this);
 			if (va == null) {
 				va = glGenVertexArrays();
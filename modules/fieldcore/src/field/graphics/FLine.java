@@ -63,6 +63,10 @@ public class FLine implements Supplier<FLine>, Linker.AsMap, HandlesCompletion {
 	long mod = 0;
 	WeakHashMap<MeshBuilder, BookmarkCache> cache = new WeakHashMap<>();
 	WeakHashMap<MeshBuilder, BookmarkCache> cache_thickening = new WeakHashMap<>();
+	transient FLineIndex segmentIndex;
+	transient FLineArcLength arcLengths;
+	transient double[] nodeBounds;
+	transient long nodeBoundsMod = -1;
 	private Map<Integer, String> auxProperties;
 
 	public FLine() {
@@ -1054,6 +1058,56 @@ public class FLine implements Supplier<FLine>, Linker.AsMap, HandlesCompletion {
 		return mod;
 	}
 
+	/**
+	 * a spatial index of the segments of this line, for finding the closest point on it to things quickly. It's built when it's first asked for, and
+	 * again after this line has changed (see getModCount())
+	 */
+	public FLineIndex segmentIndex() {
+		FLineIndex i = segmentIndex;
+		if (i == null || i.getModCount() != mod) segmentIndex = i = new FLineIndex(this);
+		return i;
+	}
+
+	/**
+	 * the box around all of this line's nodes and control points, min x, y, z, max x, y, z, or null if it has no nodes. It's only recomputed after
+	 * this line has changed (see getModCount()), so it's cheap to ask for every frame; don't modify the array that's returned
+	 */
+	public double[] nodeBounds() {
+		if (nodeBoundsMod == mod) return nodeBounds;
+
+		double[] b = null;
+		for (Node n : nodes) {
+			if (b == null) b = new double[]{n.to.x, n.to.y, n.to.z, n.to.x, n.to.y, n.to.z};
+			include(b, n.to);
+			if (n instanceof CubicTo) {
+				include(b, ((CubicTo) n).c1);
+				include(b, ((CubicTo) n).c2);
+			}
+		}
+		nodeBounds = b;
+		nodeBoundsMod = mod;
+		return b;
+	}
+
+	static private void include(double[] b, Vec3 v) {
+		b[0] = Math.min(b[0], v.x);
+		b[1] = Math.min(b[1], v.y);
+		b[2] = Math.min(b[2], v.z);
+		b[3] = Math.max(b[3], v.x);
+		b[4] = Math.max(b[4], v.y);
+		b[5] = Math.max(b[5], v.z);
+	}
+
+	/**
+	 * this line flattened to within 'tolerance', with the distance along it at every vertex, for going between distance and 't' quickly (see
+	 * Cursor.setD). It's built when it's first asked for, and again after this line has changed or if it's asked for with a different tolerance
+	 */
+	public FLineArcLength arcLengths(double tolerance) {
+		FLineArcLength a = arcLengths;
+		if (a == null || a.getModCount() != mod || a.getTolerance() != tolerance) arcLengths = a = new FLineArcLength(this, tolerance);
+		return a;
+	}
+
 	@Override
 	public FLine get() {
 		return this;
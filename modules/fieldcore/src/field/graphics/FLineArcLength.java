@@ -0,0 +1,361 @@
+package field.graphics;
+
+import field.linalg.Vec3;
+
+import java.util.Arrays;
+
+/**
+ * An FLine flattened into a polyline, with the distance along the line at every vertex, for going between distance ("D") and node 't' (in the
+ * Cursor sense) quickly.
+ * <p>
+ * Cubics are subdivided in half until the control points are within 'tolerance' of the chord between the ends. Since a cubic is always inside the
+ * hull of its control points no point on the curve is further than 'tolerance' from the polyline. This is the same test that PathFlattener uses,
+ * so the distances are the same as it gives, but the flattening doesn't recurse or allocate per piece, and the result is a handful of primitive
+ * arrays.
+ * <p>
+ * Get one from FLine.arcLengths(tolerance), which builds it the first time it's asked for and again after the line has changed (see
+ * FLine.getModCount()). Once built it's read-only, so any number of threads can use it. Finding the 't' for a distance is a binary search, or, if
+ * you pass back the 'hint' from the last lookup and you are walking forwards along the line, usually just a step or two.
+ */
+public class FLineArcLength {
+
+	/**
+	 * how many times a cubic can be cut in half, after which the pieces are taken as flat
+	 */
+	static public final int maxDepth = 16;
+
+	/**
+	 * how many pieces past the last answer it's worth walking forwards before giving up and doing a binary search
+	 */
+	static public final int walk = 8;
+
+	protected final long mod;
+	protected final double tolerance;
+
+	/**
+	 * the segment that ends at each node, start, control 1, control 2, end (the controls of a line are its ends). 'kind' is 0 for a move (or the
+	 * first node), 1 for a line and 2 for a cubic
+	 */
+	protected final double[] geometry;
+	protected final byte[] kind;
+
+	// the polyline, 't', distance along the line, and position at each vertex
+	protected int vertices;
+	protected double[] t;
+	protected double[] d;
+	protected double[] xyz;
+
+	public FLineArcLength(FLine line, double tolerance) {
+		this.mod = line.getModCount();
+		this.tolerance = tolerance;
+
+		int n = line.nodes.size();
+		geometry = new double[12 * n];
+		kind = new byte[n];
+
+		t = new double[Math.max(2, 2 * n)];
+		d = new double[t.length];
+		xyz = new double[3 * t.length];
+
+		if (n == 0) return;
+
+		Vec3 s = line.nodes.get(0).to;
+		vertex(0, s.x, s.y, s.z, 0);
+
+		double[] stack = new double[14 * (maxDepth + 1)];
+		int[] depth = new int[maxDepth + 1];
+
+		for (int i = 1; i < n; i++) {
+			FLine.Node n1 = line.nodes.get(i);
+			Vec3 a = line.nodes.get(i - 1).to;
+			Vec3 b = n1.to;
+			int o = 12 * i;
+			if (n1 instanceof FLine.CubicTo) {
+				kind[i] = 2;
+				set(o, a, ((FLine.CubicTo) n1).c1, ((FLine.CubicTo) n1).c2, b);
+				flatten(o, i - 1, stack, depth);
+			} else if (n1 instanceof FLine.MoveTo) {
+				set(o, a, a, b, b);
+				// a jump, no distance
+				vertex(i, b.x, b.y, b.z, d[vertices - 1]);
+			} else {
+				kind[i] = 1;
+				set(o, a, a, b, b);
+				to(i, b.x, b.y, b.z);
+			}
+		}
+	}
+
+	private void set(int o, Vec3 a, Vec3 c1, Vec3 c2, Vec3 b) {
+		geometry[o] = a.x;
+		geometry[o + 1] = a.y;
+		geometry[o + 2] = a.z;
+		geometry[o + 3] = c1.x;
+		geometry[o + 4] = c1.y;
+		geometry[o + 5] = c1.z;
+		geometry[o + 6] = c2.x;
+		geometry[o + 7] = c2.y;
+		geometry[o + 8] = c2.z;
+		geometry[o + 9] = b.x;
+		geometry[o + 10] = b.y;
+		geometry[o + 11] = b.z;
+	}
+
+	/**
+	 * adaptive subdivision of the cubic at geometry[o], starting at 't' t0, with an explicit stack of pieces (control points, then the 't' range)
+	 * so that the pieces come off it in order along the curve
+	 */
+	private void flatten(int o, double t0, double[] stack, int[] depth) {
+		System.arraycopy(geometry, o, stack, 0, 12);
+		stack[12] = t0;
+		stack[13] = t0 + 1;
+		depth[0] = 0;
+		int top = 1;
+
+		while (top > 0) {
+			top--;
+			int p = 14 * top;
+			if (depth[top] >= maxDepth || flatness(stack, p) <= tolerance) {
+				to(stack[p + 13], stack[p + 9], stack[p + 10], stack[p + 11]);
+				continue;
+			}
+
+			// de Casteljau at 1/2, the right half goes in the next slot up, the left half stays put (and so is done first)
+			int q = p + 14;
+			for (int k = 0; k < 3; k++) {
+				double p0 = stack[p + k], p1 = stack[p + 3 + k], p2 = stack[p + 6 + k], p3 = stack[p + 9 + k];
+				double p01 = (p0 + p1) / 2, p12 = (p1 + p2) / 2, p23 = (p2 + p3) / 2;
+				double p012 = (p01 + p12) / 2, p123 = (p12 + p23) / 2;
+				double m = (p012 + p123) / 2;
+
+				stack[q + k] = m;
+				stack[q + 3 + k] = p123;
+				stack[q + 6 + k] = p23;
+				stack[q + 9 + k] = p3;
+
+				stack[p + 3 + k] = p01;
+				stack[p + 6 + k] = p012;
+				stack[p + 9 + k] = m;
+			}
+			double mid = (stack[p + 12] + stack[p + 13]) / 2;
+			stack[q + 12] = mid;
+			stack[q + 13] = stack[p + 13];
+			stack[p + 13] = mid;
+
+			int dd = depth[top] + 1;
+			// swap so that the left half is on top
+			for (int k = 0; k < 14; k++) {
+				double x = stack[p + k];
+				stack[p + k] = stack[q + k];
+				stack[q + k] = x;
+			}
+			depth[top] = dd;
+			depth[top + 1] = dd;
+			top += 2;
+		}
+	}
+
+	/**
+	 * the furthest the control points are from the chord
+	 */
+	static private double flatness(double[] s, int p) {
+		double f1 = FLinesAndJavaShapes.ptSegDistSq3(s[p], s[p + 1], s[p + 2], s[p + 9], s[p + 10], s[p + 11], s[p + 3], s[p + 4], s[p + 5]);
+		double f2 = FLinesAndJavaShapes.ptSegDistSq3(s[p], s[p + 1], s[p + 2], s[p + 9], s[p + 10], s[p + 11], s[p + 6], s[p + 7], s[p + 8]);
+		return Math.sqrt(Math.max(f1, f2));
+	}
+
+	private void to(double at, double x, double y, double z) {
+		int v = 3 * (vertices - 1);
+		double dx = x - xyz[v], dy = y - xyz[v + 1], dz = z - xyz[v + 2];
+		vertex(at, x, y, z, d[vertices - 1] + Math.sqrt(dx * dx + dy * dy + dz * dz));
+	}
+
+	private void vertex(double at, double x, double y, double z, double distance) {
+		if (vertices == t.length) {
+			t = Arrays.copyOf(t, 2 * vertices);
+			d = Arrays.copyOf(d, 2 * vertices);
+			xyz = Arrays.copyOf(xyz, 6 * vertices);
+		}
+		t[vertices] = at;
+		d[vertices] = distance;
+		xyz[3 * vertices] = x;
+		xyz[3 * vertices + 1] = y;
+		xyz[3 * vertices + 2] = z;
+		vertices++;
+	}
+
+	public long getModCount() {
+		return mod;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * the number of vertices in the flattened line
+	 */
+	public int size() {
+		return vertices;
+	}
+
+	/**
+	 * the length of the flattened line
+	 */
+	public double length() {
+		return vertices == 0 ? 0 : d[vertices - 1];
+	}
+
+	/**
+	 * the vertex that starts the piece of the polyline that contains distance 'at' (clamped to the line), the first one if 'at' is exactly
+	 * where two pieces meet. 'hint' is a previous answer, or -1
+	 */
+	public int find(double at, int hint) {
+		int last = vertices - 2;
+		if (last < 0) return 0;
+		if (at <= d[0]) return 0;
+		at = Math.min(at, d[last + 1]);
+
+		int lo = 0, hi = last;
+		if (hint >= 0 && hint <= last && d[hint] < at) {
+			// walking forwards from the last answer
+			int k = hint;
+			int stop = Math.min(last, hint + walk);
+			while (k < stop && d[k + 1] < at) k++;
+			if (d[k + 1] >= at) return k;
+			lo = k;
+		}
+
+		// the first piece whose end reaches 'at'
+		while (lo < hi) {
+			int m = (lo + hi) >>> 1;
+			if (d[m + 1] >= at) hi = m;
+			else lo = m + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * the 't' (in the Cursor sense) of the point distance 'at' along the line, 'at' is clamped to the line
+	 */
+	public double tForD(double at) {
+		return tForD(at, find(at, -1));
+	}
+
+	/**
+	 * the 't' of the point distance 'at' along the line, given the answer to find(at, ...)
+	 */
+	public double tForD(double at, int piece) {
+		if (vertices < 2) return 0;
+		double d0 = d[piece], d1 = d[piece + 1];
+		if (at <= d0 || d1 == d0) return t[piece];
+		if (at >= d1) return t[piece + 1];
+		double x = (at - d0) / (d1 - d0);
+		return t[piece] + x * (t[piece + 1] - t[piece]);
+	}
+
+	/**
+	 * the distance along the line of the point at 't' (in the Cursor sense)
+	 */
+	public double dForT(double at) {
+		if (vertices < 2) return 0;
+		if (at <= t[0]) return 0;
+		if (at >= t[vertices - 1]) return d[vertices - 1];
+
+		// the last vertex at or before 'at'
+		int lo = 0, hi = vertices - 1;
+		while (lo < hi) {
+			int m = (lo + hi + 1) >>> 1;
+			if (t[m] <= at) lo = m;
+			else hi = m - 1;
+		}
+		if (lo == vertices - 1 || t[lo + 1] == t[lo]) return d[lo];
+		double x = (at - t[lo]) / (t[lo + 1] - t[lo]);
+		return d[lo] + x * (d[lo + 1] - d[lo]);
+	}
+
+	/**
+	 * the position on the line at 't' (in the Cursor sense). This is on the line itself, not the polyline. Inside a jump (a moveTo) this is the
+	 * start of the jump for the first half and the end for the second, like Cursor.position()
+	 */
+	public Vec3 evaluate(double at, Vec3 out) {
+		if (out == null) out = new Vec3();
+		int n = kind.length;
+		if (n == 0) return out;
+
+		int index = (int) at;
+		double alpha = at - index;
+		if (index < 0) {
+			index = 0;
+			alpha = 0;
+		}
+		if (index >= n - 1) {
+			index = Math.max(0, n - 2);
+			alpha = 1;
+		}
+
+		if (n == 1) {
+			out.x = xyz[0];
+			out.y = xyz[1];
+			out.z = xyz[2];
+			return out;
+		}
+
+		int o = 12 * (index + 1);
+		if (kind[index + 1] == 0) {
+			int e = alpha < 0.5 ? o : o + 9;
+			out.x = geometry[e];
+			out.y = geometry[e + 1];
+			out.z = geometry[e + 2];
+			return out;
+		}
+		if (kind[index + 1] == 2)
+			return FLine.evaluateCubicFrame(geometry[o], geometry[o + 1], geometry[o + 2], geometry[o + 3], geometry[o + 4], geometry[o + 5], geometry[o + 6], geometry[o + 7], geometry[o + 8], geometry[o + 9],
+							geometry[o + 10], geometry[o + 11], alpha, out);
+		out.x = geometry[o] + (geometry[o + 9] - geometry[o]) * alpha;
+		out.y = geometry[o + 1] + (geometry[o + 10] - geometry[o + 1]) * alpha;
+		out.z = geometry[o + 2] + (geometry[o + 11] - geometry[o + 2]) * alpha;
+		return out;
+	}
+
+	/**
+	 * the 't' of 'count' points equally spaced by distance along the line, from the start to the end inclusive, written into 'out' (which is
+	 * allocated if it's null or too short)
+	 */
+	public double[] sampleT(int count, double[] out) {
+		if (out == null || out.length < count) out = new double[count];
+		double length = length();
+		int piece = -1;
+		for (int i = 0; i < count; i++) {
+			double at = count == 1 ? 0 : length * i / (count - 1);
+			piece = find(at, piece);
+			out[i] = tForD(at, piece);
+		}
+		return out;
+	}
+
+	/**
+	 * 'count' points equally spaced by distance along the line, from the start to the end inclusive, written as x, y, z into 'out' (which is
+	 * allocated if it's null or too short)
+	 */
+	public float[] sample(int count, float[] out) {
+		if (out == null || out.length < 3 * count) out = new float[3 * count];
+		double length = length();
+		Vec3 v = new Vec3();
+		int piece = -1;
+		for (int i = 0; i < count; i++) {
+			double at = count == 1 ? 0 : length * i / (count - 1);
+			piece = find(at, piece);
+			evaluate(tForD(at, piece), v);
+			out[3 * i] = (float) v.x;
+			out[3 * i + 1] = (float) v.y;
+			out[3 * i + 2] = (float) v.z;
+		}
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		return "FLineArcLength[" + vertices + " vertices, length " + length() + ", tolerance " + tolerance + "]";
+	}
+}
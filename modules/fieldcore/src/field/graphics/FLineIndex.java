@@ -0,0 +1,621 @@
+package field.graphics;
+
+import field.linalg.Vec3;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A bounding volume hierarchy over the segments of an FLine, for finding the closest point on a line (and the closest 't', in the Cursor sense) to
+ * a point, the segments within a radius of a point, and the k nearest segments, without looking at every segment.
+ * <p>
+ * Get one from FLine.segmentIndex(), which builds it the first time it's asked for and again after the line has changed (see FLine.getModCount()).
+ * Like the rest of FLine's caches that means that if you move nodes around by hand you need to call modify().
+ * <p>
+ * Lines are bounded by their ends, cubics by their control points (a cubic is always inside the hull of its control points). Once built an index is
+ * read-only, so any number of threads can query it, and the batch closestT answers lots of points at once, in parallel, without allocating anything
+ * per point.
+ * <p>
+ * Each segment is solved exactly the same way as FLinesAndJavaShapes.closestT_bruteForce solves it, and ties go to the earlier segment, so the
+ * answers are the same as looking at every segment.
+ */
+public class FLineIndex {
+
+	static public final int leafSize = 4;
+
+	/**
+	 * samples taken along a cubic before refining the closest one
+	 */
+	static public final int cubicSamples = 16;
+
+	protected final long mod;
+
+	protected final int segments;
+
+	/**
+	 * start, control 1, control 2, end for each segment (the controls of a line are its ends)
+	 */
+	protected final double[] geometry;
+	protected final boolean[] cubic;
+
+	/**
+	 * the index (in FLine.nodes) of the node that ends each segment
+	 */
+	protected final int[] node;
+
+	/**
+	 * bounds of each segment, min x, y, z, max x, y, z
+	 */
+	protected final double[] segmentBounds;
+
+	// the tree, node 0 is the root, leaves have count > 0 and hold order[first .. first + count)
+	protected final int[] order;
+	protected double[] bounds;
+	protected int[] first;
+	protected int[] count;
+	protected int[] left;
+	protected int[] right;
+	protected int nodes;
+
+	/**
+	 * working space for a query, so that queries don't allocate. One per thread
+	 */
+	static public class Scratch {
+		int[] stack = new int[64];
+		final double[] solution = new double[2];
+
+		/**
+		 * results of the last query
+		 */
+		public double t;
+		public double distanceSquared;
+		public int segment;
+
+		// for k nearest
+		int[] heapSegment = new int[0];
+		double[] heapT = new double[0];
+		double[] heapD = new double[0];
+		int heap;
+	}
+
+	public FLineIndex(FLine line) {
+		this.mod = line.getModCount();
+
+		int n = 0;
+		for (int i = 1; i < line.nodes.size(); i++)
+			if (!(line.nodes.get(i) instanceof FLine.MoveTo)) n++;
+
+		segments = n;
+		geometry = new double[12 * n];
+		cubic = new boolean[n];
+		node = new int[n];
+		segmentBounds = new double[6 * n];
+
+		int s = 0;
+		for (int i = 1; i < line.nodes.size(); i++) {
+			FLine.Node n1 = line.nodes.get(i);
+			if (n1 instanceof FLine.MoveTo) continue;
+			Vec3 a = line.nodes.get(i - 1).to;
+			node[s] = i;
+			if (n1 instanceof FLine.CubicTo) {
+				cubic[s] = true;
+				set(s, a, ((FLine.CubicTo) n1).c1, ((FLine.CubicTo) n1).c2, n1.to);
+			} else set(s, a, a, n1.to, n1.to);
+			s++;
+		}
+
+		order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		build();
+	}
+
+	private void set(int s, Vec3 a, Vec3 c1, Vec3 c2, Vec3 b) {
+		int o = 12 * s;
+		geometry[o] = a.x;
+		geometry[o + 1] = a.y;
+		geometry[o + 2] = a.z;
+		geometry[o + 3] = c1.x;
+		geometry[o + 4] = c1.y;
+		geometry[o + 5] = c1.z;
+		geometry[o + 6] = c2.x;
+		geometry[o + 7] = c2.y;
+		geometry[o + 8] = c2.z;
+		geometry[o + 9] = b.x;
+		geometry[o + 10] = b.y;
+		geometry[o + 11] = b.z;
+
+		double big = 0;
+		for (int d = 0; d < 3; d++) {
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < 4; k++) {
+				min = Math.min(min, geometry[o + 3 * k + d]);
+				max = Math.max(max, geometry[o + 3 * k + d]);
+			}
+			segmentBounds[6 * s + d] = min;
+			segmentBounds[6 * s + d + 3] = max;
+			big = Math.max(big, Math.max(Math.abs(min), Math.abs(max)));
+		}
+
+		// the bounds are only used to rule segments out, so they need to be a little loose to cover rounding in evaluating the curve
+		double slop = 1e-9 * (1 + big);
+		for (int d = 0; d < 3; d++) {
+			segmentBounds[6 * s + d] -= slop;
+			segmentBounds[6 * s + d + 3] += slop;
+		}
+	}
+
+	public long getModCount() {
+		return mod;
+	}
+
+	public int size() {
+		return segments;
+	}
+
+	/**
+	 * the bounds of the whole line, min x, y, z, max x, y, z (as loose as the bounds of its segments), or null if it has no segments
+	 */
+	public double[] bounds() {
+		return segments == 0 ? null : Arrays.copyOf(bounds, 6);
+	}
+
+	protected void build() {
+		int capacity = Math.max(1, 2 * segments);
+		bounds = new double[6 * capacity];
+		first = new int[capacity];
+		count = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		nodes = 1;
+		if (segments == 0) {
+			Arrays.fill(bounds, 0, 3, Double.POSITIVE_INFINITY);
+			Arrays.fill(bounds, 3, 6, Double.NEGATIVE_INFINITY);
+			return;
+		}
+
+		double[] centroid = new double[3 * segments];
+		for (int s = 0; s < segments; s++)
+			for (int d = 0; d < 3; d++)
+				centroid[3 * s + d] = (segmentBounds[6 * s + d] + segmentBounds[6 * s + d + 3]) / 2;
+
+		int[] stack = new int[3 * 64];
+		int sp = 0;
+		stack[sp++] = 0;
+		stack[sp++] = 0;
+		stack[sp++] = segments;
+
+		while (sp > 0) {
+			int to = stack[--sp];
+			int from = stack[--sp];
+			int at = stack[--sp];
+
+			double[] c = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+			for (int d = 0; d < 3; d++) {
+				bounds[6 * at + d] = Double.POSITIVE_INFINITY;
+				bounds[6 * at + d + 3] = Double.NEGATIVE_INFINITY;
+			}
+			for (int i = from; i < to; i++) {
+				int s = order[i];
+				for (int d = 0; d < 3; d++) {
+					bounds[6 * at + d] = Math.min(bounds[6 * at + d], segmentBounds[6 * s + d]);
+					bounds[6 * at + d + 3] = Math.max(bounds[6 * at + d + 3], segmentBounds[6 * s + d + 3]);
+					c[d] = Math.min(c[d], centroid[3 * s + d]);
+					c[d + 3] = Math.max(c[d + 3], centroid[3 * s + d]);
+				}
+			}
+
+			int axis = 0;
+			for (int d = 1; d < 3; d++)
+				if (c[d + 3] - c[d] > c[axis + 3] - c[axis]) axis = d;
+
+			if (to - from <= leafSize || c[axis + 3] - c[axis] == 0) {
+				first[at] = from;
+				count[at] = to - from;
+				continue;
+			}
+
+			int mid = (from + to) >>> 1;
+			select(centroid, axis, from, to - 1, mid);
+
+			count[at] = 0;
+			left[at] = nodes++;
+			right[at] = nodes++;
+
+			if (sp + 6 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[sp++] = left[at];
+			stack[sp++] = from;
+			stack[sp++] = mid;
+			stack[sp++] = right[at];
+			stack[sp++] = mid;
+			stack[sp++] = to;
+		}
+	}
+
+	/**
+	 * partially sorts order[lo .. hi] by centroid along axis so that order[k] is in its sorted place
+	 */
+	private void select(double[] centroid, int axis, int lo, int hi, int k) {
+		while (hi > lo) {
+			double pivot = centroid[3 * order[(lo + hi) >>> 1] + axis];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (centroid[3 * order[i] + axis] < pivot) i++;
+				while (centroid[3 * order[j] + axis] > pivot) j--;
+				if (i <= j) {
+					int t = order[i];
+					order[i] = order[j];
+					order[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return;
+		}
+	}
+
+	static protected double distanceSquaredToBox(double[] b, int o, double x, double y, double z) {
+		double dx = Math.max(0, Math.max(b[o] - x, x - b[o + 3]));
+		double dy = Math.max(0, Math.max(b[o + 1] - y, y - b[o + 4]));
+		double dz = Math.max(0, Math.max(b[o + 2] - z, z - b[o + 5]));
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * solves segment s for the point (x, y, z), out[0] is the parameter along it of the closest point and out[1] the squared distance to it
+	 */
+	public void solve(int s, double x, double y, double z, double[] out) {
+		if (cubic[s]) closestOnCubic(geometry, 12 * s, x, y, z, out);
+		else closestOnLine(geometry, 12 * s, x, y, z, out);
+	}
+
+	static public void closestOnLine(double[] g, int o, double x, double y, double z, double[] out) {
+		double ax = g[o], ay = g[o + 1], az = g[o + 2];
+		double dx = g[o + 9] - ax, dy = g[o + 10] - ay, dz = g[o + 11] - az;
+		double len2 = dx * dx + dy * dy + dz * dz;
+		double a = 0;
+		if (len2 > 0) {
+			a = ((x - ax) * dx + (y - ay) * dy + (z - az) * dz) / len2;
+			if (a < 0) a = 0;
+			if (a > 1) a = 1;
+		}
+		double px = ax + dx * a - x, py = ay + dy * a - y, pz = az + dz * a - z;
+		out[0] = a;
+		out[1] = px * px + py * py + pz * pz;
+	}
+
+	/**
+	 * the closest point on a cubic. We take cubicSamples + 1 evenly spaced samples and polish every one that's closer than its neighbours (there can
+	 * be more than one local minimum) by Newton's method on the derivative of the squared distance, falling back to bisection when Newton wanders
+	 * off
+	 */
+	static public void closestOnCubic(double[] g, int o, double x, double y, double z, double[] out) {
+		// power basis, p(t) = p0 + t (p1 + t (p2 + t p3)), relative to the point
+		double p0x = g[o] - x, p0y = g[o + 1] - y, p0z = g[o + 2] - z;
+		double p1x = 3 * (g[o + 3] - g[o]), p1y = 3 * (g[o + 4] - g[o + 1]), p1z = 3 * (g[o + 5] - g[o + 2]);
+		double p2x = 3 * (g[o + 6] - 2 * g[o + 3] + g[o]), p2y = 3 * (g[o + 7] - 2 * g[o + 4] + g[o + 1]), p2z = 3 * (g[o + 8] - 2 * g[o + 5] + g[o + 2]);
+		double p3x = g[o + 9] - g[o] + 3 * (g[o + 3] - g[o + 6]), p3y = g[o + 10] - g[o + 1] + 3 * (g[o + 4] - g[o + 7]), p3z = g[o + 11] - g[o + 2] + 3 * (g[o + 5] - g[o + 8]);
+
+		double bestT = 0, best = Double.POSITIVE_INFINITY;
+
+		double previous = Double.POSITIVE_INFINITY;
+		double current = squared(p0x, p0y, p0z, p1x, p1y, p1z, p2x, p2y, p2z, p3x, p3y, p3z, 0);
+		for (int k = 0; k <= cubicSamples; k++) {
+			double next = k == cubicSamples ? Double.POSITIVE_INFINITY : squared(p0x, p0y, p0z, p1x, p1y, p1z, p2x, p2y, p2z, p3x, p3y, p3z, (k + 1) / (double) cubicSamples);
+			if (current <= previous && current <= next) {
+				double t = k / (double) cubicSamples;
+				if (current < best) {
+					best = current;
+					bestT = t;
+				}
+
+				double lo = Math.max(0, (k - 1) / (double) cubicSamples), hi = Math.min(1, (k + 1) / (double) cubicSamples);
+				// f is half the derivative of the squared distance, it's <= 0 at lo and >= 0 at hi if there's a minimum in between
+				double flo = slope(p0x, p0y, p0z, p1x, p1y, p1z, p2x, p2y, p2z, p3x, p3y, p3z, lo);
+				double fhi = slope(p0x, p0y, p0z, p1x, p1y, p1z, p2x, p2y, p2z, p3x, p3y, p3z, hi);
+				if (flo < 0 && fhi > 0) {
+					for (int i = 0; i < 40 && hi - lo > 1e-14; i++) {
+						double dx = p1x + t * (2 * p2x + t * 3 * p3x), dy = p1y + t * (2 * p2y + t * 3 * p3y), dz = p1z + t * (2 * p2z + t * 3 * p3z);
+						double ex = p0x + t * (p1x + t * (p2x + t * p3x)), ey = p0y + t * (p1y + t * (p2y + t * p3y)), ez = p0z + t * (p1z + t * (p2z + t * p3z));
+						double f = ex * dx + ey * dy + ez * dz;
+						if (f == 0) break;
+						if (f < 0) lo = t;
+						else hi = t;
+
+						double fp = dx * dx + dy * dy + dz * dz + ex * (2 * p2x + 6 * t * p3x) + ey * (2 * p2y + 6 * t * p3y) + ez * (2 * p2z + 6 * t * p3z);
+						double nt = fp > 0 ? t - f / fp : Double.NaN;
+						if (!(nt > lo && nt < hi)) nt = (lo + hi) / 2;
+						if (Math.abs(nt - t) < 1e-15) break;
+						t = nt;
+					}
+					double d = squared(p0x, p0y, p0z, p1x, p1y, p1z, p2x, p2y, p2z, p3x, p3y, p3z, t);
+					if (d < best) {
+						best = d;
+						bestT = t;
+					}
+				}
+			}
+			previous = current;
+			current = next;
+		}
+
+		out[0] = bestT;
+		out[1] = best;
+	}
+
+	static private double squared(double p0x, double p0y, double p0z, double p1x, double p1y, double p1z, double p2x, double p2y, double p2z, double p3x, double p3y, double p3z, double t) {
+		double ex = p0x + t * (p1x + t * (p2x + t * p3x));
+		double ey = p0y + t * (p1y + t * (p2y + t * p3y));
+		double ez = p0z + t * (p1z + t * (p2z + t * p3z));
+		return ex * ex + ey * ey + ez * ez;
+	}
+
+	static private double slope(double p0x, double p0y, double p0z, double p1x, double p1y, double p1z, double p2x, double p2y, double p2z, double p3x, double p3y, double p3z, double t) {
+		double ex = p0x + t * (p1x + t * (p2x + t * p3x));
+		double ey = p0y + t * (p1y + t * (p2y + t * p3y));
+		double ez = p0z + t * (p1z + t * (p2z + t * p3z));
+		return ex * (p1x + t * (2 * p2x + t * 3 * p3x)) + ey * (p1y + t * (2 * p2y + t * 3 * p3y)) + ez * (p1z + t * (2 * p2z + t * 3 * p3z));
+	}
+
+	/**
+	 * the 't' (in the Cursor sense) of segment s at parameter a along it
+	 */
+	public double t(int s, double a) {
+		return node[s] - 1 + a;
+	}
+
+	/**
+	 * finds the closest point on the line to (x, y, z), leaving the answer in scratch (t, distanceSquared and segment, which is -1 if the line has no
+	 * segments)
+	 */
+	public void closest(double x, double y, double z, Scratch scratch) {
+		scratch.segment = -1;
+		scratch.t = 0;
+		scratch.distanceSquared = Double.POSITIVE_INFINITY;
+		if (segments == 0) return;
+
+		int[] stack = scratch.stack;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int at = stack[--sp];
+			// <= rather than <, an equally close segment earlier on the line wins
+			if (distanceSquaredToBox(bounds, 6 * at, x, y, z) > scratch.distanceSquared) continue;
+
+			if (count[at] > 0) {
+				for (int i = first[at]; i < first[at] + count[at]; i++) {
+					int s = order[i];
+					if (distanceSquaredToBox(segmentBounds, 6 * s, x, y, z) > scratch.distanceSquared) continue;
+					solve(s, x, y, z, scratch.solution);
+					double d = scratch.solution[1];
+					if (d < scratch.distanceSquared || (d == scratch.distanceSquared && s < scratch.segment)) {
+						scratch.distanceSquared = d;
+						scratch.segment = s;
+						scratch.t = t(s, scratch.solution[0]);
+					}
+				}
+				continue;
+			}
+
+			if (sp + 2 > stack.length) scratch.stack = stack = Arrays.copyOf(stack, stack.length * 2);
+
+			// nearer child last, so that it's looked at first
+			int l = left[at], r = right[at];
+			if (distanceSquaredToBox(bounds, 6 * l, x, y, z) < distanceSquaredToBox(bounds, 6 * r, x, y, z)) {
+				stack[sp++] = r;
+				stack[sp++] = l;
+			} else {
+				stack[sp++] = l;
+				stack[sp++] = r;
+			}
+		}
+	}
+
+	/**
+	 * returns the 't' (in the Cursor sense) that's closest to this point
+	 */
+	public double closestT(Vec3 point) {
+		Scratch s = new Scratch();
+		closest(point.x, point.y, point.z, s);
+		return s.t;
+	}
+
+	/**
+	 * returns the point on the line that's closest to this point, or null if the line has no segments
+	 */
+	public Vec3 nearest(Vec3 point) {
+		Scratch s = new Scratch();
+		closest(point.x, point.y, point.z, s);
+		if (s.segment == -1) return null;
+		return evaluate(s.segment, s.t - (node[s.segment] - 1), new Vec3());
+	}
+
+	/**
+	 * the distance from this point to the line
+	 */
+	public double distance(Vec3 point) {
+		Scratch s = new Scratch();
+		closest(point.x, point.y, point.z, s);
+		return Math.sqrt(s.distanceSquared);
+	}
+
+	/**
+	 * the position on segment s at parameter a along it
+	 */
+	public Vec3 evaluate(int s, double a, Vec3 out) {
+		int o = 12 * s;
+		if (cubic[s])
+			return FLine.evaluateCubicFrame(geometry[o], geometry[o + 1], geometry[o + 2], geometry[o + 3], geometry[o + 4], geometry[o + 5], geometry[o + 6], geometry[o + 7], geometry[o + 8], geometry[o + 9],
+							geometry[o + 10], geometry[o + 11], a, out);
+		out.x = geometry[o] + (geometry[o + 9] - geometry[o]) * a;
+		out.y = geometry[o + 1] + (geometry[o + 10] - geometry[o + 1]) * a;
+		out.z = geometry[o + 2] + (geometry[o + 11] - geometry[o + 2]) * a;
+		return out;
+	}
+
+	/**
+	 * for every segment that comes within 'radius' of this point, the 't' of the closest point on it, in order along the line
+	 */
+	public double[] withinRadius(Vec3 point, double radius) {
+		double r2 = radius * radius;
+		double[] out = new double[8];
+		int n = 0;
+		if (segments == 0) return new double[0];
+
+		double[] solution = new double[2];
+		int[] stack = new int[64];
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int at = stack[--sp];
+			if (distanceSquaredToBox(bounds, 6 * at, point.x, point.y, point.z) > r2) continue;
+			if (count[at] > 0) {
+				for (int i = first[at]; i < first[at] + count[at]; i++) {
+					int s = order[i];
+					if (distanceSquaredToBox(segmentBounds, 6 * s, point.x, point.y, point.z) > r2) continue;
+					solve(s, point.x, point.y, point.z, solution);
+					if (solution[1] > r2) continue;
+					if (n == out.length) out = Arrays.copyOf(out, n * 2);
+					out[n++] = t(s, solution[0]);
+				}
+				continue;
+			}
+			if (sp + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[sp++] = left[at];
+			stack[sp++] = right[at];
+		}
+		out = Arrays.copyOf(out, n);
+		Arrays.sort(out);
+		return out;
+	}
+
+	/**
+	 * the 't' of the closest point on each of the k segments nearest to this point, nearest first
+	 */
+	public double[] nearestT(Vec3 point, int k) {
+		Scratch s = new Scratch();
+		int n = nearest(point.x, point.y, point.z, k, s);
+		// the heap comes out furthest first
+		double[] out = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			out[i] = s.heapT[0];
+			pop(s);
+		}
+		return out;
+	}
+
+	/**
+	 * finds the k segments nearest to (x, y, z), leaving them in scratch's heap (furthest at the top). Returns how many were found
+	 */
+	protected int nearest(double x, double y, double z, int k, Scratch scratch) {
+		if (scratch.heapT.length < k) {
+			scratch.heapT = new double[k];
+			scratch.heapD = new double[k];
+			scratch.heapSegment = new int[k];
+		}
+		scratch.heap = 0;
+		if (segments == 0 || k <= 0) return 0;
+
+		int[] stack = scratch.stack;
+		int sp = 0;
+		stack[sp++] = 0;
+		while (sp > 0) {
+			int at = stack[--sp];
+			double worst = scratch.heap < k ? Double.POSITIVE_INFINITY : scratch.heapD[0];
+			if (distanceSquaredToBox(bounds, 6 * at, x, y, z) > worst) continue;
+
+			if (count[at] > 0) {
+				for (int i = first[at]; i < first[at] + count[at]; i++) {
+					int s = order[i];
+					worst = scratch.heap < k ? Double.POSITIVE_INFINITY : scratch.heapD[0];
+					if (distanceSquaredToBox(segmentBounds, 6 * s, x, y, z) > worst) continue;
+					solve(s, x, y, z, scratch.solution);
+					double d = scratch.solution[1];
+					if (scratch.heap < k) push(scratch, s, t(s, scratch.solution[0]), d);
+					else if (before(d, s, scratch.heapD[0], scratch.heapSegment[0])) {
+						pop(scratch);
+						push(scratch, s, t(s, scratch.solution[0]), d);
+					}
+				}
+				continue;
+			}
+
+			if (sp + 2 > stack.length) scratch.stack = stack = Arrays.copyOf(stack, stack.length * 2);
+			int l = left[at], r = right[at];
+			if (distanceSquaredToBox(bounds, 6 * l, x, y, z) < distanceSquaredToBox(bounds, 6 * r, x, y, z)) {
+				stack[sp++] = r;
+				stack[sp++] = l;
+			} else {
+				stack[sp++] = l;
+				stack[sp++] = r;
+			}
+		}
+		return scratch.heap;
+	}
+
+	static private boolean before(double d, int s, double d2, int s2) {
+		return d < d2 || (d == d2 && s < s2);
+	}
+
+	// a max-heap on (distance, segment)
+	static private void push(Scratch h, int s, double t, double d) {
+		int i = h.heap++;
+		while (i > 0) {
+			int p = (i - 1) / 2;
+			if (!before(h.heapD[p], h.heapSegment[p], d, s)) break;
+			h.heapD[i] = h.heapD[p];
+			h.heapT[i] = h.heapT[p];
+			h.heapSegment[i] = h.heapSegment[p];
+			i = p;
+		}
+		h.heapD[i] = d;
+		h.heapT[i] = t;
+		h.heapSegment[i] = s;
+	}
+
+	static private void pop(Scratch h) {
+		int n = --h.heap;
+		double d = h.heapD[n], t = h.heapT[n];
+		int s = h.heapSegment[n];
+		int i = 0;
+		while (true) {
+			int c = 2 * i + 1;
+			if (c >= n) break;
+			if (c + 1 < n && before(h.heapD[c], h.heapSegment[c], h.heapD[c + 1], h.heapSegment[c + 1])) c++;
+			if (!before(d, s, h.heapD[c], h.heapSegment[c])) break;
+			h.heapD[i] = h.heapD[c];
+			h.heapT[i] = h.heapT[c];
+			h.heapSegment[i] = h.heapSegment[c];
+			i = c;
+		}
+		h.heapD[i] = d;
+		h.heapT[i] = t;
+		h.heapSegment[i] = s;
+	}
+
+	/**
+	 * closestT for lots of points at once. points are x0, y0, z0, x1, y1, z1 ..., 't' gets the closest 't' for each of them and 'distance' (if it
+	 * isn't null) the distance to the line. Points are answered in parallel, in blocks that share a Scratch
+	 */
+	public void closestT(double[] points, double[] t, double[] distance) {
+		int n = points.length / 3;
+		int block = 256;
+		IntStream.range(0, (n + block - 1) / block)
+			 .parallel()
+			 .forEach(b -> {
+				 Scratch s = new Scratch();
+				 for (int i = b * block; i < Math.min(n, (b + 1) * block); i++) {
+					 closest(points[3 * i], points[3 * i + 1], points[3 * i + 2], s);
+					 t[i] = s.t;
+					 if (distance != null) distance[i] = Math.sqrt(s.distanceSquared);
+				 }
+			 });
+	}
+
+	@Override
+	public String toString() {
+		return "FLineIndex " + segments + " segments, " + nodes + " nodes";
+	}
+}
@@ -377,8 +377,9 @@ public class FLinesAndJavaShapes {
 	{
 		Cursor cc = f.cursor();
 		ArrayList<Vec3> r = new ArrayList<>();
+		float length = cc.lengthD();
 		double D = 0;
-		while(D<cc.lengthD())
+		while(D<length)
 		{
 			r.add(cc.position());
 			cc.setD(D+=distance);
@@ -404,49 +405,29 @@ public class FLinesAndJavaShapes {
 	}
 
 	/**
-	 * returns the 't' (in the cursor sense) that's closest to this Vec3
+	 * returns the 't' (in the cursor sense) that's closest to this Vec3. This uses the line's segment index (see FLine.segmentIndex()), so it only
+	 * looks at the segments that might be closest
 	 */
 	static public double closestT(FLine to, Vec3 point) {
+		return to.segmentIndex()
+			 .closestT(point);
+	}
+
+	/**
+	 * closestT, by looking at every segment of the line. This gives exactly the same answers as closestT (ties go to the earlier segment), which
+	 * makes it handy for checking the index
+	 */
+	static public double closestT_bruteForce(FLine to, Vec3 point) {
+		FLineIndex index = new FLineIndex(to);
+		double[] solution = new double[2];
 		double best = Double.POSITIVE_INFINITY;
 		double tt = 0;
-		for (int i = 1; i < to.nodes.size(); i++) {
-			FLine.Node n1 = to.nodes.get(i);
-			FLine.Node n0 = to.nodes.get(i - 1);
-			if (n1 instanceof FLine.MoveTo) continue;
-
-			if (n1 instanceof FLine.LineTo) {
-				Vec3 dir = new Vec3(n1.to).sub(n0.to);
-				if (dir.length() == 0) {
-					double dd = n1.to.distance(point);
-					if (dd <= best) {
-						best = dd;
-
-						tt = (i - 1);
-					}
-				} else {
-
-					double len = dir.length();
-					dir.mul(1 / len);
-					double d = dir.dot(new Vec3(point).sub(n0.to));
-					if (d < 0) d = 0;
-					if (d > len) d = len;
-					Vec3 at = new Vec3(n0.to).fma(dir, d);
-					double dd = at.distance(point);
-					if (dd < best) {
-						best = dd;
-						tt = d + (i - 1);
-					}
-				}
-			} else {
-				FLine.CubicTo c = (FLine.CubicTo) n1;
-				double t = new CubicSegment3(n0.to, c.c1, c.c2, c.to).closestToPoint(point);
-				double dd = evaluateCubicFrame(n0.to, c.c1, c.c2, c.to, t, new Vec3()).distance(point);
-				if (dd < best) {
-					best = dd;
-					tt = t + (i - 1);
-				}
+		for (int s = 0; s < index.size(); s++) {
+			index.solve(s, point.x, point.y, point.z, solution);
+			if (solution[1] < best) {
+				best = solution[1];
+				tt = index.t(s, solution[0]);
 			}
-
 		}
 		return tt;
 	}
@@ -662,7 +643,8 @@ public class FLinesAndJavaShapes {
 	}
 
 	/**
-	 * A class for navigating FLines either by distance "D" or by node "T". Incomplete, needs port of pathflattener3 for distance calculations.
+	 * A class for navigating FLines either by distance "D" or by node "T". Distances come from the line's FLineArcLength (see FLine.arcLengths), which is
+	 * shared between cursors on the same line with the same tolerance and rebuilt when the line changes. Moving forwards with setD is cheap.
 	 */
 	static public class Cursor implements Iterator<Vec3[]> {
 		protected final FLine on;
@@ -670,6 +652,10 @@ public class FLinesAndJavaShapes {
 
 		// lazy inited
 		protected PathFlattener p = null;
+		protected FLineArcLength arcLengths = null;
+
+		// the piece of arcLengths that the last setD landed in
+		protected int piece = -1;
 
 		protected long pAt;
 		protected int index;
@@ -1095,6 +1081,7 @@ public class FLinesAndJavaShapes {
 			} else if (segmentIsLinear()) {
 				FLine.LineTo s = on.new LineTo(position());
 				on.nodes.add(index + 1, s);
+				on.modify();
 				alpha = 0;
 				index++;
 				return on.nodes.get(index + 1);
@@ -1116,6 +1103,7 @@ public class FLinesAndJavaShapes {
 				((FLine.CubicTo) on.nodes.get(clamp(index + 1))).to.set(m);
 
 				on.nodes.add(index + 2, on.new CubicTo(c21, c2, b));
+				on.modify();
 
 				p = null;
 				alpha = 0;
@@ -1139,26 +1127,36 @@ public class FLinesAndJavaShapes {
 		 * length in distance
 		 */
 		public float lengthD() {
-			return (float) getPathFlattener().length();
+			return (float) arcLengths().length();
 		}
 
 		/**
 		 * get current position as distance along line
 		 */
 		public double getD() {
-			return getPathFlattener().dotToLength(index + alpha);
+			return arcLengths().dForT(index + alpha);
 		}
 
 		/**
 		 * set the current position as a distance along this line. Returns position in node.t format
 		 */
 		public Cursor setD(double d) {
-			double q = getPathFlattener().lengthToDot(d);
+			FLineArcLength a = arcLengths();
+			piece = a.find(d, piece);
+			double q = a.tForD(d, piece);
 			index = (int) q;
-			alpha = (float) (q - index);
+			alpha = q - index;
 			return this;
 		}
 
+		/**
+		 * 'count' points equally spaced by distance along this line, from the start to the end inclusive, as x, y, z into 'out' (which is allocated if
+		 * it's null or too short)
+		 */
+		public float[] sampleD(int count, float[] out) {
+			return arcLengths().sample(count, out);
+		}
+
 		/**
 		 * Get current position in node.t format (so 0 is the start of the line, 1 is the first node 1.5 is roughly (but certainly not exactly) half-way between the first and second node, and
 		 * so on. The key trouble here is that while evalLinear(x,y, alpha) parameterizes linear segments evently, evalCubic(x, c1, c2, y, alpha) certainly doesn't and alpha=0.5 doesn't mean
@@ -1177,6 +1175,14 @@ public class FLinesAndJavaShapes {
 			return this;
 		}
 
+		protected FLineArcLength arcLengths() {
+			if (arcLengths == null || arcLengths.getModCount() != on.getModCount()) {
+				arcLengths = on.arcLengths(tol);
+				piece = -1;
+			}
+			return arcLengths;
+		}
+
 		protected PathFlattener getPathFlattener() {
 			if (p == null) return p = new PathFlattener(this.on, tol);
 			return p;
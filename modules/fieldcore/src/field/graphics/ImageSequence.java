@@ -0,0 +1,315 @@
+package field.graphics;
+
+import field.utility.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plays back a directory of numbered .jpg frames into a Texture.
+ * <p>
+ * Frames are decoded ahead of the playhead by a small pool of FastJPEG workers into a bounded ring of direct ByteBuffers, and then uploaded
+ * through Texture's (double-buffered) PBO upload. The playhead is driven by wall-clock time and a rate (in frames per second, negative to play
+ * backwards, zero to hold) and can be moved at any time with setFrame, which is what you want for scrubbing.
+ * <p>
+ * If the frame that should be on screen hasn't been decoded yet we keep showing the previous one and count an underrun. getDecodeLatency,
+ * getUploadLatency and getUnderruns let you see if you need more workers or a deeper ring.
+ */
+public class ImageSequence implements Scene.Perform {
+
+	static protected final Pattern number = Pattern.compile("(\\d+)(?!.*\\d)");
+
+	public final List<String> files;
+	public final int width;
+	public final int height;
+
+	protected final Texture texture;
+	protected final ExecutorService decoders;
+	protected final ArrayBlockingQueue<ByteBuffer> free;
+	protected final int ringSize;
+
+	protected final Map<Integer, Frame> pending = new ConcurrentHashMap<>();
+
+	protected double playhead = 0;
+	protected double rate = 0;
+	protected boolean loop = true;
+	protected long lastUpdateAt = -1;
+
+	protected int displayed = -1;
+	protected Frame uploading = null;
+	protected long uploadStartedAt;
+
+	// statistics
+	protected final AtomicInteger decoded = new AtomicInteger(0);
+	protected volatile double decodeLatency = 0;
+	protected double uploadLatency = 0;
+	protected int underruns = 0;
+	protected int uploads = 0;
+
+	static protected class Frame {
+		final int index;
+		final ByteBuffer buffer;
+		volatile boolean ready = false;
+		volatile boolean abandoned = false;
+		final AtomicBoolean released = new AtomicBoolean(false);
+		Future<?> future;
+
+		Frame(int index, ByteBuffer buffer) {
+			this.index = index;
+			this.buffer = buffer;
+		}
+	}
+
+	public ImageSequence(String directory, int unit) {
+		this(directory, unit, 8, 3);
+	}
+
+	/**
+	 * @param directory a directory containing numbered .jpg files (they are played back in numerical, not lexicographical, order)
+	 * @param unit      the texture unit to bind the resulting texture to
+	 * @param ringSize  how many decoded frames we are allowed to hold at once (each is width*height*3 bytes)
+	 * @param workers   how many threads to decode with
+	 */
+	public ImageSequence(String directory, int unit, int ringSize, int workers) {
+		File[] ff = new File(directory).listFiles(x -> {
+			String n = x.getName()
+				    .toLowerCase();
+			return (n.endsWith(".jpg") || n.endsWith(".jpeg")) && !n.startsWith(".");
+		});
+		if (ff == null || ff.length == 0)
+			throw new IllegalArgumentException(" no .jpg files found in directory '" + directory + "'");
+
+		Arrays.sort(ff, Comparator.comparingLong((File x) -> frameNumberOf(x.getName()))
+					  .thenComparing(File::getName));
+
+		List<String> f = new ArrayList<>();
+		for (File x : ff)
+			f.add(x.getAbsolutePath());
+		this.files = Collections.unmodifiableList(f);
+
+		int[] d = FastJPEG.j.dimensions(files.get(0));
+		if (d == null) throw new IllegalArgumentException(" can't read dimensions of '" + files.get(0) + "'");
+		width = d[0];
+		height = d[1];
+
+		this.ringSize = Math.max(2, ringSize);
+		free = new ArrayBlockingQueue<>(this.ringSize);
+		for (int i = 0; i < this.ringSize; i++)
+			free.add(ByteBuffer.allocateDirect(width * height * 3));
+
+		decoders = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+			Thread t = new Thread(r, "ImageSequence decoder");
+			t.setDaemon(true);
+			return t;
+		});
+
+		texture = new Texture(Texture.TextureSpecification.byte3(unit, width, height, ByteBuffer.allocateDirect(width * height * 3), false));
+		texture.attach(this);
+	}
+
+	static protected long frameNumberOf(String name) {
+		Matcher m = number.matcher(name);
+		if (!m.find()) return Long.MAX_VALUE;
+		try {
+			return Long.parseLong(m.group(1));
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * the texture that this sequence plays into. Attach this to a mesh (or a shader) as you would any other texture
+	 */
+	public Texture getTexture() {
+		return texture;
+	}
+
+	public int getFrameCount() {
+		return files.size();
+	}
+
+	/**
+	 * moves the playhead (in frames, fractional values are fine). Use this for seeking and scrubbing.
+	 */
+	public ImageSequence setFrame(double frame) {
+		playhead = frame;
+		lastUpdateAt = -1;
+		return this;
+	}
+
+	public double getFrame() {
+		return playhead;
+	}
+
+	/**
+	 * sets the playback rate in frames per second. Negative rates play backwards; zero holds the current frame.
+	 */
+	public ImageSequence setRate(double framesPerSecond) {
+		this.rate = framesPerSecond;
+		lastUpdateAt = -1;
+		return this;
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public ImageSequence setLoop(boolean loop) {
+		this.loop = loop;
+		return this;
+	}
+
+	/**
+	 * average time, in milliseconds, that it takes a worker to decode a frame
+	 */
+	public double getDecodeLatency() {
+		return decodeLatency;
+	}
+
+	/**
+	 * average time, in milliseconds, between asking the texture to upload a frame and that upload completing
+	 */
+	public double getUploadLatency() {
+		return uploadLatency;
+	}
+
+	/**
+	 * number of times the frame that should have been on screen wasn't ready yet
+	 */
+	public int getUnderruns() {
+		return underruns;
+	}
+
+	public int getFramesDecoded() {
+		return decoded.get();
+	}
+
+	protected int wrap(int index) {
+		int n = files.size();
+		if (loop) return ((index % n) + n) % n;
+		return Math.max(0, Math.min(n - 1, index));
+	}
+
+	@Override
+	public boolean perform(int pass) {
+		if (pass == -3) update();
+		return true;
+	}
+
+	@Override
+	public int[] getPasses() {
+		// before the texture's own uploads (which happen at -2)
+		return new int[]{-3};
+	}
+
+	/**
+	 * advances the playhead, retires finished uploads, starts the upload of the current frame if it's ready and tops up the decode ring. Called
+	 * automatically when the texture is drawn, but it's safe to call it yourself if the texture isn't being drawn.
+	 */
+	public void update() {
+		long now = System.nanoTime();
+		if (lastUpdateAt != -1) playhead += rate * (now - lastUpdateAt) / 1e9;
+		lastUpdateAt = now;
+		if (!loop) playhead = Math.max(0, Math.min(files.size() - 1, playhead));
+
+		int want = wrap((int) Math.floor(playhead));
+
+		// retire the last upload, if the texture has finished with it
+		if (uploading != null && texture.getPendingUploads() == 0) {
+			double ms = (now - uploadStartedAt) / 1e6;
+			uploadLatency = uploads == 0 ? ms : uploadLatency * 0.9 + ms * 0.1;
+			uploads++;
+			release(uploading);
+			uploading = null;
+		}
+
+		if (want != displayed && uploading == null) {
+			Frame f = pending.get(want);
+			if (f != null && f.ready) {
+				pending.remove(want);
+				uploading = f;
+				uploadStartedAt = now;
+				texture.upload(f.buffer, true);
+				displayed = want;
+			} else {
+				underruns++;
+				Log.log("imagesequence.trace", () -> "underrun waiting for frame " + want);
+			}
+		}
+
+		prefetch(want);
+	}
+
+	protected void prefetch(int from) {
+		int direction = rate < 0 ? -1 : 1;
+		int window = Math.min(ringSize, files.size());
+
+		Set<Integer> wanted = new LinkedHashSet<>();
+		for (int i = 0; i < window; i++) {
+			int index = wrap(from + direction * i);
+			if (index == displayed && i > 0) break;
+			wanted.add(index);
+		}
+
+		// anything we've decoded (or are decoding) that's now out of the window can go, this is what makes seeking cheap
+		for (Frame f : new ArrayList<>(pending.values())) {
+			if (!wanted.contains(f.index)) {
+				pending.remove(f.index);
+				f.abandoned = true;
+				if (f.ready || (f.future != null && f.future.cancel(false))) release(f);
+			}
+		}
+
+		for (int index : wanted) {
+			if (index == displayed || pending.containsKey(index)) continue;
+			ByteBuffer b = free.poll();
+			if (b == null) return;
+			Frame f = new Frame(index, b);
+			pending.put(index, f);
+			f.future = decoders.submit(() -> decode(f));
+		}
+	}
+
+	protected void decode(Frame f) {
+		if (f.abandoned) {
+			release(f);
+			return;
+		}
+
+		long a = System.nanoTime();
+		f.buffer.rewind();
+		FastJPEG.j.decompress(files.get(f.index), f.buffer, width, height);
+		f.buffer.rewind();
+		double ms = (System.nanoTime() - a) / 1e6;
+
+		int n = decoded.incrementAndGet();
+		decodeLatency = n == 1 ? ms : decodeLatency * 0.9 + ms * 0.1;
+
+		f.ready = true;
+		if (f.abandoned) release(f);
+	}
+
+	protected void release(Frame f) {
+		// both the graphics thread and a decoder can race to give back an abandoned frame
+		if (f.released.compareAndSet(false, true)) free.offer(f.buffer);
+	}
+
+	/**
+	 * stops the decoders. The texture remains valid, and keeps the last frame that was uploaded.
+	 */
+	public void close() {
+		texture.detach(this);
+		decoders.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "ImageSequence(" + files.size() + " frames, " + width + "x" + height + ") frame:" + displayed + " rate:" + rate + " decode:" + String.format("%.2f", decodeLatency) + "ms upload:" + String.format("%.2f", uploadLatency) + "ms underruns:" + underruns;
+	}
+}
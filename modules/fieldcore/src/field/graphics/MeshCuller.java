@@ -0,0 +1,179 @@
+package field.graphics;
+
+import field.linalg.FrustumCuller;
+import field.linalg.Mat4;
+import field.utility.Log;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Stops BaseMeshes that are entirely outside of the camera's view from being drawn.
+ * <p>
+ * Attach one of these to a Scene (it runs early, on pass -10). Each frame it finds every BaseMesh attached, directly or through other Scenes (like
+ * Shaders), to that Scene, and tests all of their bounds (see BaseMesh.bounds(), which are only recomputed when a mesh's vertices change) against the
+ * frustum of the matrix 'clip' in one go, first the bounding spheres then the boxes of the ones that are left. Meshes that are outside skip their
+ * draw calls (and everything attached to them) for this frame.
+ * <p>
+ * 'clip' is the transform that the meshes' shaders actually use (see clip(Camera) for the one that goes with the standard "_p" and "_mv"
+ * uniforms); meshes whose vertex shader does something else should be marked setCullable(false). If 'clip' returns null nothing is culled.
+ * <p>
+ * After each frame 'drawn' and 'culled' hold the number of meshes that were and weren't drawn.
+ */
+public class MeshCuller implements Scene.Perform {
+
+	protected final Scene scene;
+	protected final Supplier<Mat4> clip;
+
+	protected final FrustumCuller frustum = new FrustumCuller();
+
+	/**
+	 * the number of meshes drawn and culled last frame
+	 */
+	public int drawn = 0;
+	public int culled = 0;
+
+	protected List<BaseMesh> meshes = new ArrayList<>();
+	protected List<BaseMesh> tested = new ArrayList<>();
+	protected Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	// bounds of the meshes being tested, one entry per mesh
+	protected float[] x = new float[0], y = new float[0], z = new float[0], r = new float[0];
+	protected float[] minX = new float[0], minY = new float[0], minZ = new float[0], maxX = new float[0], maxY = new float[0], maxZ = new float[0];
+	protected boolean[] inside = new boolean[0];
+
+	public MeshCuller(Scene scene, Supplier<Mat4> clip) {
+		this.scene = scene;
+		this.clip = clip;
+	}
+
+	/**
+	 * the matrix that the standard shaders' "_p * _mv" comes to for this camera, for culling against. Uniform uploads a Mat4 transposed (with respect to
+	 * what FrustumCuller expects), so this is (view * projection) transposed rather than projection * view
+	 */
+	static public Mat4 clip(Camera camera) {
+		return new Mat4(camera.view()).mul(camera.projectionMatrix())
+					      .transpose();
+	}
+
+	/**
+	 * false if all of this line's nodes and control points are outside of the frustum. Lines with points or text (which reach a number of pixels,
+	 * rather than a distance, past their nodes) are always visible
+	 */
+	static public boolean isVisible(FLine line, FrustumCuller frustum) {
+		if (line.attributes.isTrue(StandardFLineDrawing.pointed, false) || line.attributes.isTrue(StandardFLineDrawing.hasText, false)) return true;
+		double[] b = line.nodeBounds();
+		return b == null || frustum.isAabInsideFrustum(b[0], b[1], b[2], b[3], b[4], b[5]) == -1;
+	}
+
+	@Override
+	public boolean perform(int pass) {
+		clear();
+		collect(scene, meshes, seen);
+		seen.clear();
+
+		Mat4 m = clip.get();
+		if (m == null) {
+			drawn = meshes.size();
+			culled = 0;
+			return true;
+		}
+		frustum.set(m);
+
+		tested.clear();
+		for (BaseMesh b : meshes) {
+			if (!b.isCullable()) continue;
+			float[] q = b.bounds();
+			if (q == null) continue;
+
+			int i = tested.size();
+			ensure(i + 1);
+			minX[i] = q[0];
+			minY[i] = q[1];
+			minZ[i] = q[2];
+			maxX[i] = q[3];
+			maxY[i] = q[4];
+			maxZ[i] = q[5];
+			x[i] = q[6];
+			y[i] = q[7];
+			z[i] = q[8];
+			r[i] = q[9];
+			tested.add(b);
+		}
+
+		int n = tested.size();
+		frustum.intersectSpheres(x, y, z, r, n, inside);
+
+		// pack the ones that survived the spheres down to the front, and try their boxes
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			if (!inside[i]) {
+				tested.get(i).culled = true;
+				continue;
+			}
+			minX[k] = minX[i];
+			minY[k] = minY[i];
+			minZ[k] = minZ[i];
+			maxX[k] = maxX[i];
+			maxY[k] = maxY[i];
+			maxZ[k] = maxZ[i];
+			tested.set(k++, tested.get(i));
+		}
+		frustum.intersectAabs(minX, minY, minZ, maxX, maxY, maxZ, k, inside);
+		for (int i = 0; i < k; i++)
+			if (!inside[i]) tested.get(i).culled = true;
+
+		int c = 0;
+		for (BaseMesh b : meshes)
+			if (b.culled) c++;
+		culled = c;
+		drawn = meshes.size() - c;
+
+		Log.log("graphics.culling", () -> " culled " + culled + " of " + meshes.size() + " meshes");
+		return true;
+	}
+
+	/**
+	 * lets everything that was culled last frame draw again
+	 */
+	public void clear() {
+		for (BaseMesh b : meshes)
+			b.culled = false;
+		meshes.clear();
+	}
+
+	static protected void collect(Object c, List<BaseMesh> into, Set<Object> seen) {
+		if (!seen.add(c)) return;
+		if (c instanceof BaseMesh) into.add((BaseMesh) c);
+		if (c instanceof Scene) for (Set<Consumer<Integer>> s : ((Scene) c).internalScene.values())
+			for (Consumer<Integer> cc : s)
+				collect(cc, into, seen);
+	}
+
+	protected void ensure(int n) {
+		if (x.length >= n) return;
+		int c = Math.max(n, 2 * x.length);
+		x = Arrays.copyOf(x, c);
+		y = Arrays.copyOf(y, c);
+		z = Arrays.copyOf(z, c);
+		r = Arrays.copyOf(r, c);
+		minX = Arrays.copyOf(minX, c);
+		minY = Arrays.copyOf(minY, c);
+		minZ = Arrays.copyOf(minZ, c);
+		maxX = Arrays.copyOf(maxX, c);
+		maxY = Arrays.copyOf(maxY, c);
+		maxZ = Arrays.copyOf(maxZ, c);
+		inside = Arrays.copyOf(inside, c);
+	}
+
+	@Override
+	public int[] getPasses() {
+		return new int[]{-10};
+	}
+
+	@Override
+	public String toString() {
+		return "MeshCuller(drawn " + drawn + ", culled " + culled + ")";
+	}
+}
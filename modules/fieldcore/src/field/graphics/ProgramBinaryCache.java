@@ -0,0 +1,450 @@
+package field.graphics;
+
+import field.utility.Dict;
+import field.utility.Log;
+import field.utility.Options;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.GL_LINK_STATUS;
+import static org.lwjgl.opengl.GL20.GL_SHADING_LANGUAGE_VERSION;
+import static org.lwjgl.opengl.GL20.glGetProgrami;
+import static org.lwjgl.opengl.GL41.*;
+
+/**
+ * Cache of linked shader programs (as driver program binaries) and what introspection found in them, in memory and on disk.
+ * <p>
+ * Entries are keyed by a hash of the source of every stage and the driver's identity (vendor, renderer and version strings), so editing a shader,
+ * or updating the driver or moving to a different GPU, is a miss rather than a stale hit. There's no separate preprocessor in Shader, so any
+ * #defines are part of the source and are covered by that. A hit lets Shader skip compiling, linking and introspecting altogether; a miss (or a
+ * binary that the driver turns down) leaves it to do all that from source as usual, and then store the result.
+ * <p>
+ * Everything that touches GL goes through a Driver, so that keys, serialization and the fallbacks can be exercised without a GPU. Drivers that
+ * don't offer any program binary formats (GL_NUM_PROGRAM_BINARY_FORMATS is 0, or no GL 4.1 / ARB_get_program_binary) get no keys, and so no
+ * caching.
+ * <p>
+ * Once the directory is bigger than 'maxBytes' the least recently used entries there are deleted until it's back down to three quarters of that.
+ */
+public class ProgramBinaryCache {
+
+	static public final boolean enabled = Options.dict()
+						     .isTrue(new Dict.Prop<>("programCache"), true);
+	static public final long maxBytesOnDisk = (long) (Options.dict()
+							      .getFloat(new Dict.Prop<Number>("programCacheMegabytes"), 32) * 1024 * 1024);
+
+	// bumped whenever something that isn't in the source, but goes into the link, changes (like the attribute and frag data bindings in Shader)
+	static protected final String salt = "field program binary 1";
+
+	static protected final int magic = 0x46504231;
+
+	static private ProgramBinaryCache shared;
+
+	/**
+	 * the cache that Shader uses, in ~/.field/programCache, or null if it's turned off (with the 'programCache' option)
+	 */
+	static public synchronized ProgramBinaryCache shared() {
+		if (!enabled) return null;
+		if (shared == null) shared = new ProgramBinaryCache(new OpenGL(), new File(Options.getDirectory("preferences", () -> System.getProperty("user.home") + "/.field/"), "programCache"), 64, maxBytesOnDisk);
+		return shared;
+	}
+
+	/**
+	 * the handful of GL calls that this needs, see OpenGL for the real one
+	 */
+	public interface Driver {
+		/**
+		 * anything that might change what a binary means, or whether it will load
+		 */
+		String identity();
+
+		/**
+		 * true if programs can be saved as and loaded from binaries at all
+		 */
+		boolean supported();
+
+		/**
+		 * called before a program is linked from source, so that the driver keeps its binary around for get
+		 */
+		void retrievable(int program);
+
+		/**
+		 * the binary for a linked program, or null if there isn't one
+		 */
+		Binary get(int program);
+
+		/**
+		 * replaces program with this binary, true if it's then linked (false if the driver won't have it)
+		 */
+		boolean load(int program, int format, byte[] binary);
+	}
+
+	static public class Binary {
+		public final int format;
+		public final byte[] data;
+
+		public Binary(int format, byte[] data) {
+			this.format = format;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * an active uniform or attribute, as found by ShaderIntrospection (location is -1 for uniforms)
+	 */
+	static public class Variable {
+		public final String name;
+		public final int size;
+		public final int type;
+		public final int location;
+
+		public Variable(String name, int size, int type, int location) {
+			this.name = name;
+			this.size = size;
+			this.type = type;
+			this.location = location;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Variable)) return false;
+			Variable v = (Variable) o;
+			return size == v.size && type == v.type && location == v.location && name.equals(v.name);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, size, type, location);
+		}
+
+		@Override
+		public String toString() {
+			return name + "(" + type + "x" + size + (location == -1 ? "" : (" @" + location)) + ")";
+		}
+	}
+
+	static public class Entry {
+		public final Binary binary;
+		public final List<Variable> uniforms;
+		public final List<Variable> attributes;
+
+		public Entry(Binary binary, List<Variable> uniforms, List<Variable> attributes) {
+			this.binary = binary;
+			this.uniforms = uniforms;
+			this.attributes = attributes;
+		}
+	}
+
+	protected final Driver driver;
+	protected final File directory;
+	protected final long maxBytes;
+
+	protected final LinkedHashMap<String, ProgramBinaryCache.Entry> memory;
+
+	protected long bytesOnDisk = -1;
+
+	// statistics
+	public long memoryHits = 0;
+	public long diskHits = 0;
+	public long misses = 0;
+	public long rejected = 0;
+	public long stored = 0;
+	public long evicted = 0;
+
+	/**
+	 * 'directory' can be null for a cache that only lives in memory
+	 */
+	public ProgramBinaryCache(Driver driver, File directory, int maxEntriesInMemory, long maxBytes) {
+		this.driver = driver;
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.memory = new LinkedHashMap<String, ProgramBinaryCache.Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ProgramBinaryCache.Entry> eldest) {
+				return size() > maxEntriesInMemory;
+			}
+		};
+		if (directory != null) directory.mkdirs();
+	}
+
+	public Driver getDriver() {
+		return driver;
+	}
+
+	/**
+	 * the key for a program made from these stages with the current driver, or null if the driver can't do program binaries
+	 */
+	public String keyFor(Map<Shader.Type, String> stages) {
+		if (!driver.supported()) return null;
+		try {
+			MessageDigest d = MessageDigest.getInstance("SHA-1");
+			update(d, salt);
+			update(d, driver.identity());
+			for (Shader.Type t : Shader.Type.values()) {
+				String s = stages.get(t);
+				if (s == null) continue;
+				update(d, t.name());
+				update(d, s);
+			}
+			StringBuilder s = new StringBuilder(40);
+			for (byte b : d.digest())
+				s.append(String.format("%02x", b & 0xff));
+			return s.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static private void update(MessageDigest d, String s) {
+		d.update(String.valueOf(s)
+			       .getBytes(StandardCharsets.UTF_8));
+		d.update((byte) 0);
+	}
+
+	/**
+	 * tries to make 'program' out of the binary stored under key. Returns what was stored with it if that worked; null if there's nothing stored, or
+	 * the driver turned it down (in which case it's forgotten, and the program needs linking from source)
+	 */
+	public synchronized Entry load(int program, String key) {
+		Entry e = memory.get(key);
+		boolean fromMemory = e != null;
+		if (e == null) e = read(key);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+
+		if (!driver.load(program, e.binary.format, e.binary.data)) {
+			rejected++;
+			Log.log("graphics.programCache", () -> " driver rejected cached program " + key);
+			forget(key);
+			return null;
+		}
+
+		if (fromMemory) memoryHits++;
+		else {
+			diskHits++;
+			memory.put(key, e);
+		}
+		return e;
+	}
+
+	/**
+	 * stores the binary for 'program' (which has just been linked from source, after Driver.retrievable) and what introspection found in it under
+	 * key. Returns false if the driver wouldn't give us a binary
+	 */
+	public synchronized boolean store(int program, String key, List<Variable> uniforms, List<Variable> attributes) {
+		Binary b = driver.get(program);
+		if (b == null || b.data.length == 0) return false;
+
+		Entry e = new Entry(b, new ArrayList<>(uniforms), new ArrayList<>(attributes));
+		memory.put(key, e);
+		stored++;
+		write(key, e);
+		return true;
+	}
+
+	/**
+	 * removes key from memory and disk
+	 */
+	public synchronized void forget(String key) {
+		memory.remove(key);
+		if (directory != null) new File(directory, key + ".program").delete();
+	}
+
+	static public byte[] serialize(Entry e) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(e.binary.data.length + 256);
+			DataOutputStream o = new DataOutputStream(bytes);
+			o.writeInt(magic);
+			o.writeInt(e.binary.format);
+			o.writeInt(e.binary.data.length);
+			o.write(e.binary.data);
+			write(o, e.uniforms);
+			write(o, e.attributes);
+			o.flush();
+			return bytes.toByteArray();
+		} catch (IOException ex) {
+			// can't happen, it's all in memory
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * the opposite of serialize, throws IOException if 'b' is truncated or isn't one of ours
+	 */
+	static public Entry deserialize(byte[] b) throws IOException {
+		DataInputStream i = new DataInputStream(new ByteArrayInputStream(b));
+		if (i.readInt() != magic) throw new IOException(" not a cached program");
+		int format = i.readInt();
+		int length = i.readInt();
+		if (length < 0 || length > b.length) throw new IOException(" bad binary length " + length);
+		byte[] data = new byte[length];
+		i.readFully(data);
+		List<Variable> uniforms = read(i);
+		List<Variable> attributes = read(i);
+		if (i.available() != 0) throw new IOException(" trailing bytes");
+		return new Entry(new Binary(format, data), uniforms, attributes);
+	}
+
+	static private void write(DataOutputStream o, List<Variable> v) throws IOException {
+		o.writeInt(v.size());
+		for (Variable x : v) {
+			o.writeUTF(x.name);
+			o.writeInt(x.size);
+			o.writeInt(x.type);
+			o.writeInt(x.location);
+		}
+	}
+
+	static private List<Variable> read(DataInputStream i) throws IOException {
+		int n = i.readInt();
+		if (n < 0 || n > 65536) throw new IOException(" bad variable count " + n);
+		List<Variable> v = new ArrayList<>(n);
+		for (int q = 0; q < n; q++)
+			v.add(new Variable(i.readUTF(), i.readInt(), i.readInt(), i.readInt()));
+		return v;
+	}
+
+	protected Entry read(String key) {
+		if (directory == null) return null;
+		File f = new File(directory, key + ".program");
+		if (!f.exists()) return null;
+		try {
+			Entry e = deserialize(Files.readAllBytes(f.toPath()));
+			// so that pruning knows that this has been used recently
+			f.setLastModified(System.currentTimeMillis());
+			return e;
+		} catch (IOException ex) {
+			Log.log("graphics.programCache", () -> " couldn't read cached program " + f + " " + ex + ", deleting it");
+			f.delete();
+			return null;
+		}
+	}
+
+	protected void write(String key, Entry e) {
+		if (directory == null) return;
+		try {
+			byte[] b = serialize(e);
+			File to = new File(directory, key + ".program");
+			File tmp = new File(directory, key + ".program.tmp");
+			Files.write(tmp.toPath(), b);
+			Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			bytesOnDisk(b.length);
+		} catch (IOException ex) {
+			Log.log("graphics.programCache", () -> " couldn't write cached program " + key + " " + ex);
+			return;
+		}
+		if (bytesOnDisk > maxBytes) prune(maxBytes * 3 / 4);
+	}
+
+	protected void bytesOnDisk(long added) {
+		if (bytesOnDisk == -1) {
+			bytesOnDisk = 0;
+			for (File f : files())
+				bytesOnDisk += f.length();
+		} else bytesOnDisk += added;
+	}
+
+	protected List<File> files() {
+		File[] f = directory.listFiles((d, n) -> n.endsWith(".program"));
+		return f == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(f));
+	}
+
+	/**
+	 * deletes the least recently used entries on disk until there are fewer than 'target' bytes there
+	 */
+	public synchronized void prune(long target) {
+		if (directory == null) return;
+
+		List<File> all = files();
+		long total = 0;
+		for (File f : all)
+			total += f.length();
+
+		all.sort(Comparator.comparingLong(File::lastModified));
+		for (File f : all) {
+			if (total <= target) break;
+			total -= f.length();
+			f.delete();
+			String n = f.getName();
+			memory.remove(n.substring(0, n.indexOf('.')));
+			evicted++;
+		}
+		bytesOnDisk = total;
+		long finalTotal = total;
+		Log.log("graphics.programCache", () -> " pruned program cache down to " + finalTotal + " bytes, " + this);
+	}
+
+	/**
+	 * forgets everything, in memory and on disk
+	 */
+	public synchronized void clear() {
+		memory.clear();
+		if (directory == null) return;
+		for (File f : files())
+			f.delete();
+		bytesOnDisk = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ProgramBinaryCache " + memory.size() + " in memory, hits memory:" + memoryHits + " disk:" + diskHits + " misses:" + misses + " rejected:" + rejected + " stored:" + stored + " evicted:" + evicted;
+	}
+
+	/**
+	 * the real thing, needs to be called from inside a GraphicsContext
+	 */
+	static public class OpenGL implements Driver {
+
+		@Override
+		public String identity() {
+			return glGetString(GL_VENDOR) + "\n" + glGetString(GL_RENDERER) + "\n" + glGetString(GL_VERSION) + "\n" + glGetString(GL_SHADING_LANGUAGE_VERSION);
+		}
+
+		@Override
+		public boolean supported() {
+			org.lwjgl.opengl.GLCapabilities c = org.lwjgl.opengl.GL.getCapabilities();
+			return (c.OpenGL41 || c.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+		}
+
+		@Override
+		public void retrievable(int program) {
+			glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+		}
+
+		@Override
+		public Binary get(int program) {
+			int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+			if (length <= 0) return null;
+
+			ByteBuffer b = ByteBuffer.allocateDirect(length);
+			int[] written = {0};
+			int[] format = {0};
+			glGetProgramBinary(program, written, format, b);
+			if (glGetError() != 0 || written[0] <= 0) return null;
+
+			byte[] data = new byte[written[0]];
+			b.get(data);
+			return new Binary(format[0], data);
+		}
+
+		@Override
+		public boolean load(int program, int format, byte[] binary) {
+			ByteBuffer b = ByteBuffer.allocateDirect(binary.length);
+			b.put(binary)
+			 .flip();
+			glProgramBinary(program, format, b);
+			// a format that this driver doesn't know about is an INVALID_ENUM, that's just a miss
+			boolean error = glGetError() != 0;
+			return !error && glGetProgrami(program, GL_LINK_STATUS) != 0;
+		}
+	}
+}
@@ -48,6 +48,11 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, Li
 		int name;
 		boolean work = true;
 		boolean valid = false;
+
+		// the ProgramBinaryCache key of what this program was last linked (or loaded) from, and the sources that that key was computed for
+		String key;
+		String[] keyedSources;
+		String keyedAs;
 	}
 
 	public enum Type {
@@ -226,19 +231,30 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, Li
 
 		GraphicsContext.checkError(() -> "on shader entry");
 
-		Log.log("graphics.trace", () -> " checking :" + source.keySet());
+		State name = GraphicsContext.get(this);
 
-		for (Map.Entry<Type, Source> s : source.entrySet()) {
-			work |= s.getValue()
-				 .clean();
-		}
+		ProgramBinaryCache cache = ProgramBinaryCache.shared();
+		String key = cache == null ? null : keyFor(name, cache);
 
-		State name = GraphicsContext.get(this);
+		if (key != null && key.equals(name.key) && name.valid && !name.work) {
+			// already made from exactly these sources (perhaps without compiling them at all), nothing to do
+		} else if (key != null && load(name, cache, key)) {
+			name.work = false;
+		} else {
+			Log.log("graphics.trace", () -> " checking :" + source.keySet());
+
+			for (Map.Entry<Type, Source> s : source.entrySet()) {
+				work |= s.getValue()
+					 .clean();
+			}
 
-		work |= name.work;
-		name.work = false;
+			work |= name.work;
+			name.work = false;
+		}
 
 		if (work) {
+			// until this link succeeds the program isn't what any key says it is (if it fails, going back to the last good source mustn't look up to date)
+			name.key = null;
 			name.valid = true;
 			for (Map.Entry<Type, Source> s : source.entrySet()) {
 				Source.State state = GraphicsContext.get(s.getValue());
@@ -257,6 +273,9 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, Li
 			for (int i = 1; i < 16; i++)
 				glBindAttribLocation(name.name, i, "attribute" + i);
 
+			if (key != null) cache.getDriver()
+					      .retrievable(name.name);
+
 			glLinkProgram(name.name);
 			int linkStatus = glGetProgrami(name.name, GL20.GL_LINK_STATUS);
 			if (linkStatus == 0) {
@@ -290,20 +309,15 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, Li
 
 			if (name.valid)
 			{
-				if (introspection==null) {
-					introspection = new ShaderIntrospection(this);
-					introspection.reloadedAt = Instant.now();
-				}
-				else
-				{
-					introspection.reloadedAt = Instant.now();
-					introspection.reloadedTimes++;
-					introspection.invocationCountSinceReload=0;
-				}
-
+				reloaded();
 				introspection.introspectNow();
 
 				modCount ++;
+
+				if (key != null) {
+					cache.store(name.name, key, introspection.getUniformVariables(), introspection.getAttributeVariables());
+					name.key = key;
+				}
 			}
 		}
 
@@ -324,6 +338,58 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, Li
 		return true;
 	}
 
+	/**
+	 * the ProgramBinaryCache key for our sources, only rehashed when they change
+	 */
+	protected String keyFor(State name, ProgramBinaryCache cache) {
+		String[] now = new String[Type.values().length];
+		for (Map.Entry<Type, Source> s : source.entrySet())
+			now[s.getKey()
+			     .ordinal()] = s.getValue().source;
+
+		if (name.keyedSources != null && Arrays.equals(now, name.keyedSources)) return name.keyedAs;
+
+		Map<Type, String> stages = new LinkedHashMap<>();
+		for (Map.Entry<Type, Source> s : source.entrySet())
+			stages.put(s.getKey(), s.getValue().source);
+
+		name.keyedSources = now;
+		name.keyedAs = cache.keyFor(stages);
+		return name.keyedAs;
+	}
+
+	/**
+	 * tries to make this program out of a cached binary rather than its sources, true if that worked
+	 */
+	protected boolean load(State name, ProgramBinaryCache cache, String key) {
+		ProgramBinaryCache.Entry e = cache.load(name.name, key);
+		if (e == null) return false;
+
+		Log.log("graphics.trace", () -> " program " + name.name + " loaded from cache " + cache);
+
+		name.valid = true;
+		name.key = key;
+
+		for (Source s : source.values())
+			if (s.onError != null) s.onError.noError();
+
+		reloaded();
+		introspection.introspectFrom(e);
+		modCount++;
+		return true;
+	}
+
+	private void reloaded() {
+		if (introspection == null) {
+			introspection = new ShaderIntrospection(this);
+			introspection.reloadedAt = Instant.now();
+		} else {
+			introspection.reloadedAt = Instant.now();
+			introspection.reloadedTimes++;
+			introspection.invocationCountSinceReload = 0;
+		}
+	}
+
 	@Override
 	protected boolean perform1() {
 		GraphicsContext.getContext().stateTracker.shader.set(0);
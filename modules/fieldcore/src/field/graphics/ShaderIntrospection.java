@@ -166,6 +166,35 @@ public class ShaderIntrospection {
 		}
 	}
 
+	/**
+	 * what introspectNow() found, for ProgramBinaryCache to store
+	 */
+	public List<ProgramBinaryCache.Variable> getUniformVariables() {
+		return uniforms.stream()
+			       .map(x -> new ProgramBinaryCache.Variable(x.name, x.size, x.type, -1))
+			       .collect(Collectors.toList());
+	}
+
+	public List<ProgramBinaryCache.Variable> getAttributeVariables() {
+		return attrs.stream()
+			    .map(x -> new ProgramBinaryCache.Variable(x.name, x.size, x.type, x.location))
+			    .collect(Collectors.toList());
+	}
+
+	/**
+	 * instead of introspectNow(), when the program came out of a ProgramBinaryCache
+	 */
+	public void introspectFrom(ProgramBinaryCache.Entry e) {
+		uniforms.clear();
+		attrs.clear();
+		introspectionHasAnError = null;
+
+		for (ProgramBinaryCache.Variable v : e.uniforms)
+			uniforms.add(new Uniform(v.name, v.size, v.type));
+		for (ProgramBinaryCache.Variable v : e.attributes)
+			attrs.add(new Attribute(v.name, v.size, v.type, v.location));
+	}
+
 
 	List<BaseMesh> okMeshes = null;
 	HashMap<BaseMesh, String> problemMeshes = null;
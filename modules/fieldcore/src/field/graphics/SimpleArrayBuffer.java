@@ -68,6 +68,11 @@ public class SimpleArrayBuffer implements ArrayBuffer {
 		return false;
 	}
 
+	@Override
+	public int getModCount() {
+		return mod;
+	}
+
 	@Override
 	public int getSize() {
 		return size;
@@ -51,6 +51,14 @@ public class Window implements ProvidesGraphicsContext {
 
 	static public final boolean glDebugging = Options.dict().isTrue(new Dict.Prop<>("gldebugging"), false);
 
+	/**
+	 * if set, quit once the first window has drawn this many frames. This is what the class-data-sharing training run (see f_cds) uses to open a
+	 * sheet, draw it, and leave. Runs with this set also print ' field.firstFrame <uptime>ms' once, for f_cds_bench.
+	 */
+	static public final int exitAfterFrames = (int) Options.dict().getFloat(new Dict.Prop<Number>("exitAfterFrames"), 0);
+
+	static protected boolean firstFrameReported = false;
+
 	private int retinaScaleFactor;
 
 	/**
@@ -385,6 +393,17 @@ public class Window implements ProvidesGraphicsContext {
 					swapControl.swap(window);
 				}
 
+				if (!firstFrameReported && exitAfterFrames > 0) {
+					firstFrameReported = true;
+					// f_cds_bench (which runs with -exitAfterFrames) looks for this line
+					System.out.println(" field.firstFrame " + java.lang.management.ManagementFactory.getRuntimeMXBean()
+												    .getUptime() + "ms");
+				}
+				if (exitAfterFrames > 0 && frame >= exitAfterFrames) {
+					Log.log("startup", () -> " exiting after " + frame + " frames (exitAfterFrames)");
+					System.exit(0);
+				}
+
 				if (!isThreaded && !(createdInThread != Thread.currentThread()))
 					glfwPollEvents();
 			} finally {
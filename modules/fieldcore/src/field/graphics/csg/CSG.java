@@ -90,6 +90,8 @@ public class CSG {
 	private List<Polygon> polygons;
 	private static OptType defaultOptType = OptType.NONE;
 	private OptType optType = null;
+	private static boolean defaultRobust = false;
+	private Boolean robust = null;
 
 	private CSG() {
 	}
@@ -124,6 +126,7 @@ public class CSG {
 		CSG csg = new CSG();
 
 		csg.setOptType(this.getOptType());
+		csg.robust = this.robust;
 
 		Stream<Polygon> polygonStream;
 
@@ -228,6 +231,18 @@ public class CSG {
 		return this;
 	}
 
+	/**
+	 * Whether polygons are split robustly (see {@link Plane#splitPolygon(Polygon, List, List, List, List, double, boolean)}) by operations on
+	 * this CSG. This is slower, but long chains of operations on big or finely tesselated solids won't collect slivers and cracks.
+	 *
+	 * @param robust split robustly
+	 * @return this CSG
+	 */
+	public CSG robust(boolean robust) {
+		this.robust = robust;
+		return this;
+	}
+
 	/**
 	 * Return a new CSG solid representing the union of this csg and the specified csg.
 	 * <p>
@@ -389,16 +404,38 @@ public class CSG {
 	}
 
 	private CSG _unionNoOpt(CSG csg) {
-		Node a = new Node(this.clone().polygons);
-		Node b = new Node(csg.clone().polygons);
-		a.clipTo(b);
-		b.clipTo(a);
-		b.invert();
-		b.clipTo(a);
-		b.invert();
-		a.build(b.allPolygons());
-		return CSG.fromPolygons(a.allPolygons())
-			  .optimization(getOptType());
+		if (this.polygons.isEmpty()) return csg.clone()
+						       .optimization(getOptType())
+						       .robust(isRobust());
+		if (csg.polygons.isEmpty()) return this.clone();
+
+		// this is csg.js's a.clipTo(b); b.clipTo(a); b.invert(); b.clipTo(a); b.invert(); a.build(b.allPolygons()), but done to lists of
+		// polygons rather than to the trees (whose planes never change), so neither tree is inverted, or rebuilt at the end
+		List<Polygon> pa = this.clone().polygons;
+		List<Polygon> pb = csg.clone().polygons;
+		Node a = new Node(pa, Plane.EPSILON, isRobust());
+		Node b = new Node(pb, Plane.EPSILON, isRobust());
+
+		List<Polygon> outA = b.clip(pa, false);
+		List<Polygon> outB = flip(a.clip(flip(a.clip(pb, false)), false));
+
+		return result(outA, outB);
+	}
+
+	private CSG result(List<Polygon> a, List<Polygon> b) {
+		List<Polygon> all = new ArrayList<>(a.size() + b.size());
+		all.addAll(a);
+		all.addAll(b);
+		return CSG.fromPolygons(all)
+			  .optimization(getOptType())
+			  .robust(isRobust());
+	}
+
+	static private List<Polygon> flip(List<Polygon> polygons) {
+		if (polygons.size() > 200) polygons.parallelStream()
+						   .forEach(Polygon::flip);
+		else polygons.forEach(Polygon::flip);
+		return polygons;
 	}
 
 	/**
@@ -535,22 +572,18 @@ public class CSG {
 	}
 
 	private CSG _differenceNoOpt(CSG csg) {
+		if (this.polygons.isEmpty() || csg.polygons.isEmpty()) return this.clone();
 
-		Node a = new Node(this.clone().polygons);
-		Node b = new Node(csg.clone().polygons);
+		List<Polygon> pa = this.clone().polygons;
+		List<Polygon> pb = csg.clone().polygons;
+		Node a = new Node(pa, Plane.EPSILON, isRobust());
+		Node b = new Node(pb, Plane.EPSILON, isRobust());
 
-		a.invert();
-		a.clipTo(b);
-		b.clipTo(a);
-		b.invert();
-		b.clipTo(a);
-		b.invert();
-		a.build(b.allPolygons());
-		a.invert();
+		// csg.js inverts a, clipping against the inverted tree is clipping against the complement of the original
+		List<Polygon> outA = b.clip(flip(pa), false);
+		List<Polygon> outB = flip(a.clip(flip(a.clip(pb, true)), true));
 
-		CSG csgA = CSG.fromPolygons(a.allPolygons())
-			      .optimization(getOptType());
-		return csgA;
+		return result(flip(outA), flip(outB));
 	}
 
 	/**
@@ -576,18 +609,20 @@ public class CSG {
 	 * @return intersection of this csg and the specified csg
 	 */
 	public CSG intersect(CSG csg) {
+		if (this.polygons.isEmpty() || csg.polygons.isEmpty()) return CSG.fromPolygons(new ArrayList<>())
+										 .optimization(getOptType())
+										 .robust(isRobust());
 
-		Node a = new Node(this.clone().polygons);
-		Node b = new Node(csg.clone().polygons);
-		a.invert();
-		b.clipTo(a);
-		b.invert();
-		a.clipTo(b);
-		b.clipTo(a);
-		a.build(b.allPolygons());
-		a.invert();
-		return CSG.fromPolygons(a.allPolygons())
-			  .optimization(getOptType());
+		List<Polygon> pa = this.clone().polygons;
+		List<Polygon> pb = csg.clone().polygons;
+		Node a = new Node(pa, Plane.EPSILON, isRobust());
+		Node b = new Node(pb, Plane.EPSILON, isRobust());
+
+		List<Polygon> outB = a.clip(pb, true);
+		List<Polygon> outA = b.clip(flip(pa), true);
+		outB = a.clip(flip(outB), true);
+
+		return result(flip(outA), flip(outB));
 	}
 
 	/**
@@ -728,6 +763,17 @@ public class CSG {
 		this.optType = optType;
 	}
 
+	private boolean isRobust() {
+		return robust != null ? robust : defaultRobust;
+	}
+
+	/**
+	 * @param robust whether CSG's split polygons robustly unless told otherwise, see {@link #robust(boolean)}
+	 */
+	public static void setDefaultRobust(boolean robust) {
+		defaultRobust = robust;
+	}
+
 	public enum OptType {
 
 		CSG_BOUND,
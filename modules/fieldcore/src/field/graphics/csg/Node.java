@@ -33,11 +33,14 @@
  */
 package field.graphics.csg;
 
-import field.graphics.csg.Plane;
-import field.graphics.csg.Polygon;
+import field.linalg.Vec3;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -47,9 +50,22 @@ import java.util.stream.Stream;
  * polygons) are added directly to that node and the other polygons are added to
  * the front and/or back subtrees. This is not a leafy BSP tree since there is
  * no distinction between internal and leaf nodes.
+ * <p>
+ * Unlike csg.js, nothing here recurses: trees for large meshes are often very
+ * deep (each plane only splits off a few polygons), so building, clipping and
+ * walking the tree all keep their own stacks. Large trees are built on the
+ * fork-join pool. Each node also knows the bounding box of every polygon in its
+ * subtree, so a polygon that doesn't touch that box is entirely inside or
+ * entirely outside the solid that subtree describes, and we can decide which
+ * by looking at a single point rather than splitting it all the way down.
  */
 final class Node {
 
+	/**
+	 * Subtrees with at least this many polygons on both sides are built in parallel
+	 */
+	static final int forkThreshold = 512;
+
 	/**
 	 * Polygons.
 	 */
@@ -67,6 +83,20 @@ final class Node {
 	 */
 	private Node back;
 
+	/**
+	 * Bounds (min x, y, z, max x, y, z) of every polygon in this subtree
+	 */
+	private final double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+	/**
+	 * Tolerance used to classify points against planes, see Plane.splitPolygon
+	 */
+	private final double epsilon;
+	/**
+	 * Whether splitting is done in Plane's robust mode
+	 */
+	private final boolean robust;
+
 	/**
 	 * Constructor.
 	 *
@@ -75,7 +105,23 @@ final class Node {
 	 * @param polygons polygons
 	 */
 	public Node(List<Polygon> polygons) {
+		this(polygons, Plane.EPSILON, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * Creates a BSP node consisting of the specified polygons, splitting with
+	 * this epsilon, and (optionally) in Plane's robust mode.
+	 *
+	 * @param polygons polygons
+	 * @param epsilon tolerance for deciding whether a point is on a plane
+	 * @param robust split robustly
+	 */
+	public Node(List<Polygon> polygons, double epsilon, boolean robust) {
 		this.polygons = new ArrayList<>();
+		this.epsilon = epsilon;
+		this.robust = robust;
 		if (polygons != null) {
 			this.build(polygons);
 		}
@@ -88,29 +134,53 @@ final class Node {
 		this(null);
 	}
 
+	private Node child() {
+		return new Node(null, epsilon, robust);
+	}
+
+	/**
+	 * Every node in this subtree, parents before their children.
+	 */
+	private List<Node> nodes() {
+		List<Node> all = new ArrayList<>();
+		ArrayDeque<Node> stack = new ArrayDeque<>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			Node n = stack.pop();
+			all.add(n);
+			if (n.back != null) stack.push(n.back);
+			if (n.front != null) stack.push(n.front);
+		}
+		return all;
+	}
+
 	@Override
 	public Node clone() {
-		Node node = new Node();
-		node.plane = this.plane == null ? null : this.plane.clone();
-		node.front = this.front == null ? null : this.front.clone();
-		node.back = this.back == null ? null : this.back.clone();
-//        node.polygons = new ArrayList<>();
-//        polygons.parallelStream().forEach((Polygon p) -> {
-//            node.polygons.add(p.clone());
-//        });
-
-		Stream<Polygon> polygonStream;
-
-		if (polygons.size() > 200) {
-			polygonStream = polygons.parallelStream();
-		} else {
-			polygonStream = polygons.stream();
-		}
+		Node root = child();
+		ArrayDeque<Node[]> stack = new ArrayDeque<>();
+		stack.push(new Node[]{this, root});
+		while (!stack.isEmpty()) {
+			Node[] n = stack.pop();
+			Node from = n[0], to = n[1];
+
+			to.plane = from.plane == null ? null : from.plane.clone();
+			System.arraycopy(from.bounds, 0, to.bounds, 0, 6);
+
+			Stream<Polygon> polygonStream;
+
+			if (from.polygons.size() > 200) {
+				polygonStream = from.polygons.parallelStream();
+			} else {
+				polygonStream = from.polygons.stream();
+			}
 
-		node.polygons = polygonStream.
+			to.polygons = polygonStream.
 							 map(p -> p.clone()).collect(Collectors.toList());
 
-		return node;
+			if (from.front != null) stack.push(new Node[]{from.front, to.front = child()});
+			if (from.back != null) stack.push(new Node[]{from.back, to.back = child()});
+		}
+		return root;
 	}
 
 	/**
@@ -118,35 +188,108 @@ final class Node {
 	 */
 	public void invert() {
 
-		Stream<Polygon> polygonStream;
-
-		if (polygons.size() > 200) {
-			polygonStream = polygons.parallelStream();
-		} else {
-			polygonStream = polygons.stream();
+		if (this.plane == null && polygons.isEmpty()) {
+			throw new RuntimeException("Please fix me! I don't know what to do?");
 		}
 
-		polygonStream.forEach((polygon) -> {
-			polygon.flip();
-		});
+		for (Node n : nodes()) {
+			Stream<Polygon> polygonStream;
 
-		if (this.plane == null && !polygons.isEmpty()) {
-			this.plane = polygons.get(0).plane.clone();
-		} else if (this.plane == null && polygons.isEmpty()) {
-			throw new RuntimeException("Please fix me! I don't know what to do?");
+			if (n.polygons.size() > 200) {
+				polygonStream = n.polygons.parallelStream();
+			} else {
+				polygonStream = n.polygons.stream();
+			}
+
+			polygonStream.forEach((polygon) -> {
+				polygon.flip();
+			});
+
+			if (n.plane == null) {
+				n.plane = n.polygons.get(0).plane.clone();
+			}
+
+			n.plane.flip();
+
+			Node temp = n.front;
+			n.front = n.back;
+			n.back = temp;
 		}
+	}
+
+	/**
+	 * Removes all polygons in the polygons contained within this BSP tree,
+	 * or, if {@code complement} is set, all of the polygons outside it (which is
+	 * what clipping against an inverted copy of this tree would do, without
+	 * making one).
+	 *
+	 * <b>Note:</b> polygons are splitted if necessary.
+	 *
+	 * @param polygons the polygons to clip
+	 * @param complement clip against the inverse of this tree
+	 *
+	 * @return the cliped list of polygons
+	 */
+	public List<Polygon> clip(List<Polygon> polygons, boolean complement) {
+		if (polygons.size() <= 200) return clipSequentially(polygons, complement);
+
+		// every polygon is clipped on its own, so this parallelizes trivially
+		List<List<Polygon>> chunks = new ArrayList<>();
+		for (int i = 0; i < polygons.size(); i += 64)
+			chunks.add(polygons.subList(i, Math.min(polygons.size(), i + 64)));
 
-		this.plane.flip();
+		return chunks.parallelStream()
+			     .flatMap(c -> clipSequentially(c, complement).stream())
+			     .collect(Collectors.toList());
+	}
 
-		if (this.front != null) {
-			this.front.invert();
+	private List<Polygon> clipSequentially(List<Polygon> polygons, boolean complement) {
+		List<Polygon> out = new ArrayList<>();
+		if (this.plane == null) {
+			out.addAll(polygons);
+			return out;
 		}
-		if (this.back != null) {
-			this.back.invert();
+
+		ArrayDeque<Node> nodes = new ArrayDeque<>();
+		ArrayDeque<List<Polygon>> lists = new ArrayDeque<>();
+		nodes.push(this);
+		lists.push(polygons);
+
+		double[] b = new double[6];
+		while (!nodes.isEmpty()) {
+			Node n = nodes.pop();
+			List<Polygon> in = lists.pop();
+
+			List<Polygon> frontP = new ArrayList<>();
+			List<Polygon> backP = new ArrayList<>();
+
+			for (Polygon polygon : in) {
+				bounds(polygon, b);
+				if (!n.touches(b)) {
+					if (n.keeps(polygon, complement)) out.add(polygon);
+					continue;
+				}
+				n.plane.splitPolygon(polygon, frontP, backP, frontP, backP, epsilon, robust);
+			}
+
+			// with the plane flipped, what's in front of it is what's behind it now, and the subtrees swap over
+			List<Polygon> outside = complement ? backP : frontP;
+			List<Polygon> inside = complement ? frontP : backP;
+			Node outsideNode = complement ? n.back : n.front;
+			Node insideNode = complement ? n.front : n.back;
+
+			if (!outside.isEmpty()) {
+				if (outsideNode != null) {
+					nodes.push(outsideNode);
+					lists.push(outside);
+				} else out.addAll(outside);
+			}
+			if (!inside.isEmpty() && insideNode != null) {
+				nodes.push(insideNode);
+				lists.push(inside);
+			}
 		}
-		Node temp = this.front;
-		this.front = this.back;
-		this.back = temp;
+		return out;
 	}
 
 	/**
@@ -160,28 +303,54 @@ final class Node {
 	 * @return the cliped list of polygons
 	 */
 	private List<Polygon> clipPolygons(List<Polygon> polygons) {
+		return clip(polygons, false);
+	}
 
-		if (this.plane == null) {
-			return new ArrayList<>(polygons);
+	/**
+	 * Whether this polygon, which doesn't touch the bounds of this subtree,
+	 * survives clipping. It's entirely on one side of the solid, so we just
+	 * need to know which side one point of it is on.
+	 */
+	private boolean keeps(Polygon polygon, boolean complement) {
+		Vec3 c = new Vec3();
+		for (Vertex v : polygon.vertices)
+			c.add(v.pos);
+		c.scale(1.0 / polygon.vertices.size());
+
+		Node n = this;
+		while (true) {
+			double t = n.plane.normal.dot(c) - n.plane.dist;
+			// nothing of the solid is near this point, so which side of a plane that it's (nearly) on doesn't matter
+			if (t >= -epsilon) {
+				if (n.front == null) return !complement;
+				n = n.front;
+			} else {
+				if (n.back == null) return complement;
+				n = n.back;
+			}
 		}
+	}
 
-		List<Polygon> frontP = new ArrayList<>();
-		List<Polygon> backP = new ArrayList<>();
+	private boolean touches(double[] b) {
+		double e = epsilon * 2;
+		return b[0] <= bounds[3] + e && b[3] >= bounds[0] - e && b[1] <= bounds[4] + e && b[4] >= bounds[1] - e && b[2] <= bounds[5] + e && b[5] >= bounds[2] - e;
+	}
 
-		for (Polygon polygon : polygons) {
-			this.plane.splitPolygon(polygon, frontP, backP, frontP, backP);
-		}
-		if (this.front != null) {
-			frontP = this.front.clipPolygons(frontP);
-		}
-		if (this.back != null) {
-			backP = this.back.clipPolygons(backP);
-		} else {
-			backP = new ArrayList<>(0);
+	static void bounds(Polygon p, double[] b) {
+		b[0] = b[1] = b[2] = Double.POSITIVE_INFINITY;
+		b[3] = b[4] = b[5] = Double.NEGATIVE_INFINITY;
+		for (Vertex v : p.vertices) {
+			include(b, v.pos);
 		}
+	}
 
-		frontP.addAll(backP);
-		return frontP;
+	static private void include(double[] b, Vec3 p) {
+		b[0] = Math.min(b[0], p.x);
+		b[1] = Math.min(b[1], p.y);
+		b[2] = Math.min(b[2], p.z);
+		b[3] = Math.max(b[3], p.x);
+		b[4] = Math.max(b[4], p.y);
+		b[5] = Math.max(b[5], p.z);
 	}
 
 	// Remove all polygons in this BSP tree that are inside the other BSP tree
@@ -195,13 +364,8 @@ final class Node {
 	 * @param bsp bsp that shall be used for clipping
 	 */
 	public void clipTo(Node bsp) {
-		this.polygons = bsp.clipPolygons(this.polygons);
-		if (this.front != null) {
-			this.front.clipTo(bsp);
-		}
-		if (this.back != null) {
-			this.back.clipTo(bsp);
-		}
+		for (Node n : nodes())
+			n.polygons = bsp.clipPolygons(n.polygons);
 	}
 
 	/**
@@ -210,16 +374,9 @@ final class Node {
 	 * @return a list of all polygons in this BSP tree
 	 */
 	public List<Polygon> allPolygons() {
-		List<Polygon> localPolygons = new ArrayList<>(this.polygons);
-		if (this.front != null) {
-			localPolygons.addAll(this.front.allPolygons());
-//            polygons = Utils.concat(polygons, this.front.allPolygons());
-		}
-		if (this.back != null) {
-//            polygons = Utils.concat(polygons, this.back.allPolygons());
-			localPolygons.addAll(this.back.allPolygons());
-		}
-
+		List<Polygon> localPolygons = new ArrayList<>();
+		for (Node n : nodes())
+			localPolygons.addAll(n.polygons);
 		return localPolygons;
 	}
 
@@ -235,29 +392,90 @@ final class Node {
 
 		if (polygons.isEmpty()) return;
 
-		if (this.plane == null) {
-			this.plane = polygons.get(0).plane.clone();
+		Build b = new Build(this, polygons);
+		if (polygons.size() >= 2 * forkThreshold) ForkJoinPool.commonPool()
+									 .invoke(b);
+		else b.compute();
+
+		// bounds, children before parents
+		List<Node> all = nodes();
+		Collections.reverse(all);
+		double[] pb = new double[6];
+		for (Node n : all) {
+			for (Polygon p : n.polygons) {
+				bounds(p, pb);
+				union(n.bounds, pb);
+			}
+			if (n.front != null) union(n.bounds, n.front.bounds);
+			if (n.back != null) union(n.bounds, n.back.bounds);
 		}
+	}
+
+	static private void union(double[] into, double[] b) {
+		for (int i = 0; i < 3; i++) {
+			into[i] = Math.min(into[i], b[i]);
+			into[i + 3] = Math.max(into[i + 3], b[i + 3]);
+		}
+	}
 
-		List<Polygon> frontP = new ArrayList<>();
-		List<Polygon> backP = new ArrayList<>();
+	/**
+	 * Builds a subtree, keeping its own stack of nodes still to do, and
+	 * handing subtrees that are big enough off to the fork-join pool
+	 */
+	static private class Build extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
 
-		polygons.forEach((polygon) -> {
-			this.plane.splitPolygon(
-				    polygon, this.polygons, this.polygons, frontP, backP);
-		});
+		final Node node;
+		final List<Polygon> polygons;
 
-		if (frontP.size() > 0) {
-			if (this.front == null) {
-				this.front = new Node();
-			}
-			this.front.build(frontP);
+		Build(Node node, List<Polygon> polygons) {
+			this.node = node;
+			this.polygons = polygons;
 		}
-		if (backP.size() > 0) {
-			if (this.back == null) {
-				this.back = new Node();
+
+		@Override
+		protected void compute() {
+			List<Build> forked = new ArrayList<>();
+
+			ArrayDeque<Node> nodes = new ArrayDeque<>();
+			ArrayDeque<List<Polygon>> lists = new ArrayDeque<>();
+			nodes.push(node);
+			lists.push(polygons);
+
+			while (!nodes.isEmpty()) {
+				Node n = nodes.pop();
+				List<Polygon> in = lists.pop();
+
+				if (n.plane == null) {
+					n.plane = in.get(0).plane.clone();
+				}
+
+				List<Polygon> frontP = new ArrayList<>();
+				List<Polygon> backP = new ArrayList<>();
+
+				for (Polygon polygon : in) {
+					n.plane.splitPolygon(polygon, n.polygons, n.polygons, frontP, backP, n.epsilon, n.robust);
+				}
+
+				if (frontP.size() > 0 && n.front == null) n.front = n.child();
+				if (backP.size() > 0 && n.back == null) n.back = n.child();
+
+				if (frontP.size() >= forkThreshold && backP.size() >= forkThreshold) {
+					Build b = new Build(n.back, backP);
+					b.fork();
+					forked.add(b);
+				} else if (backP.size() > 0) {
+					nodes.push(n.back);
+					lists.push(backP);
+				}
+				if (frontP.size() > 0) {
+					nodes.push(n.front);
+					lists.push(frontP);
+				}
 			}
-			this.back.build(backP);
+
+			for (Build b : forked)
+				b.join();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -121,6 +121,38 @@ public class Plane {
 		    List<Polygon> coplanarBack,
 		    List<Polygon> front,
 		    List<Polygon> back) {
+		splitPolygon(polygon, coplanarFront, coplanarBack, front, back, EPSILON, false);
+	}
+
+	/**
+	 * Splits a {@link Polygon} by this plane, as above, using {@code epsilon}
+	 * to decide if a point is on the plane.
+	 * <p>
+	 * In {@code robust} mode {@code epsilon} is relative to the size of the
+	 * coordinates involved (so that big models don't end up with every vertex
+	 * off every plane), intersections are clamped to the edge they are on,
+	 * fragments keep the plane of the polygon they came from rather than
+	 * recomputing it from three vertices that might be almost collinear, and
+	 * vertices that end up on top of each other are merged, and fragments with
+	 * nothing left in them dropped. This keeps long chains of operations from
+	 * accumulating slivers.
+	 *
+	 * @param polygon polygon to split
+	 * @param coplanarFront "coplanar front" polygons
+	 * @param coplanarBack "coplanar back" polygons
+	 * @param front front polygons
+	 * @param back back polgons
+	 * @param epsilon tolerance
+	 * @param robust split robustly
+	 */
+	public void splitPolygon(
+		    Polygon polygon,
+		    List<Polygon> coplanarFront,
+		    List<Polygon> coplanarBack,
+		    List<Polygon> front,
+		    List<Polygon> back,
+		    double epsilon,
+		    boolean robust) {
 		final int COPLANAR = 0;
 		final int FRONT = 1;
 		final int BACK = 2;
@@ -130,9 +162,15 @@ public class Plane {
 		// four classes.
 		int polygonType = 0;
 		List<Integer> types = new ArrayList<>();
+		if (robust) {
+			double scale = Math.abs(this.dist);
+			for (Vertex v : polygon.vertices)
+				scale = Math.max(scale, Math.max(Math.abs(v.pos.x), Math.max(Math.abs(v.pos.y), Math.abs(v.pos.z))));
+			epsilon *= Math.max(1, scale);
+		}
 		for (int i = 0; i < polygon.vertices.size(); i++) {
 			double t = this.normal.dot(polygon.vertices.get(i).pos) - this.dist;
-			int type = (t < -Plane.EPSILON) ? BACK : (t > Plane.EPSILON) ? FRONT : COPLANAR;
+			int type = (t < -epsilon) ? BACK : (t > epsilon) ? FRONT : COPLANAR;
 			polygonType |= type;
 			types.add(type);
 		}
@@ -171,18 +209,33 @@ public class Plane {
 					}
 					if ((ti | tj) == SPANNING) {
 						double t = (this.dist - this.normal.dot(vi.pos)) / this.normal.dot(Vec3.sub(vj.pos, vi.pos, new Vec3()));
+						if (robust) t = Math.max(0, Math.min(1, t));
 						Vertex v = vi.interpolate(vj, t);
 						f.add(v);
 						b.add(v.clone());
 					}
 				}
+				if (robust) {
+					f = withoutDuplicates(f, epsilon);
+					b = withoutDuplicates(b, epsilon);
+				}
 				if (f.size() >= 3) {
-					front.add(new Polygon(f));
+					front.add(robust ? new Polygon(f, polygon.plane.clone()) : new Polygon(f));
 				}
 				if (b.size() >= 3) {
-					back.add(new Polygon(b));
+					back.add(robust ? new Polygon(b, polygon.plane.clone()) : new Polygon(b));
 				}
 				break;
 		}
 	}
+
+	static private List<Vertex> withoutDuplicates(List<Vertex> loop, double epsilon) {
+		List<Vertex> out = new ArrayList<>(loop.size());
+		for (Vertex v : loop) {
+			if (out.isEmpty() || out.get(out.size() - 1).pos.distanceSquared(v.pos) > epsilon * epsilon) out.add(v);
+		}
+		while (out.size() > 1 && out.get(out.size() - 1).pos.distanceSquared(out.get(0).pos) <= epsilon * epsilon)
+			out.remove(out.size() - 1);
+		return out;
+	}
 }
\ No newline at end of file
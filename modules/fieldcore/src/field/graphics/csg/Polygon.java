@@ -103,6 +103,18 @@ public final class Polygon {
 		this.plane = Plane.createFromPoints(vertices.get(0).pos, vertices.get(1).pos, vertices.get(2).pos);
 	}
 
+	/**
+	 * Constructor. Creates a new polygon that consists of the specified vertices and lies in 'plane' (a fragment of a polygon that's been split,
+	 * for example, whose first three vertices might be too close together to work out a plane from).
+	 *
+	 * @param vertices polygon vertices
+	 * @param plane    the plane of the polygon, not copied
+	 */
+	public Polygon(List<Vertex> vertices, Plane plane) {
+		this.vertices = vertices;
+		this.plane = plane;
+	}
+
 
 	/**
 	 * Constructor. Creates a new polygon that consists of the specified vertices.
@@ -103,7 +103,7 @@ public class Vertex {
 	 */
 	public Vertex interpolate(Vertex other, double t) {
 
-		return new Vertex(Vec3.lerp(pos, other.pos, 1-t, new Vec3()), Vec3.lerp(normal, other.normal, 1-t, new Vec3()).normalize());
+		return new Vertex(Vec3.lerp(pos, other.pos, t, new Vec3()), Vec3.lerp(normal, other.normal, t, new Vec3()).normalize());
 
 	}
 
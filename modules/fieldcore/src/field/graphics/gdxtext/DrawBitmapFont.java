@@ -4,6 +4,7 @@ import field.graphics.MeshBuilder;
 import field.graphics.Texture;
 import field.linalg.Vec2;
 import field.utility.Pair;
+import field.utility.Rect;
 
 import java.util.*;
 
@@ -65,6 +66,44 @@ public class DrawBitmapFont {
 		return v;
 	}
 
+	Map<List<Object>, Rect> extents = new LinkedHashMap<List<Object>, Rect>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Rect> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
+	/**
+	 * the rectangle covered by the glyphs that draw(text, origin, scale) would draw, or null for empty text
+	 */
+	public Rect bounds(String text, Vec2 origin, float scale) {
+		List<Object> hash = Arrays.asList(text, scale);
+		Rect r = extents.computeIfAbsent(hash, (k) -> _bounds(text, scale));
+		return r == null ? null : new Rect(r.x + origin.x, r.y + origin.y, r.w, r.h);
+	}
+
+	// mirrors the layout in draw, relative to an origin of 0,0
+	private Rect _bounds(String text, float scale) {
+		char[] ca = text.toCharArray();
+		if (ca.length == 0) return null;
+
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY;
+		float x = 0;
+		float y = data.getGlyph('M').yoffset * scale;
+		for (int i = 0; i < ca.length; i++) {
+			BitmapFontData.Glyph g = data.getGlyph(ca[i]);
+			if (i == 0) x -= g.xoffset * scale;
+
+			x0 = Math.min(x0, x + g.xoffset * scale);
+			x1 = Math.max(x1, x + g.width * scale + g.xoffset * scale);
+			y0 = Math.min(y0, y - g.height * scale - g.yoffset * scale);
+			y1 = Math.max(y1, y - g.yoffset * scale);
+
+			if (i < ca.length - 1) x += (g.xadvance - 32 + g.getKerning(ca[i + 1])) * scale;
+		}
+		return new Rect(x0, y0, x1 - x0, y1 - y0);
+	}
+
 	public void draw(String text, Vec2 origin, float scale) {
 		draw(text, origin, scale, null);
 	}
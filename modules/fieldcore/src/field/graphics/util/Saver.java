@@ -1,22 +1,50 @@
 package field.graphics.util;
 
 import field.graphics.FastJPEG;
+import field.utility.Log;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER_BINDING;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
 
 /*
-Class to save out a canvas to a directory of .jpgs
+Class to save out a canvas to a directory of .jpgs (or .png, or raw RGB frames).
+
+Readback is asynchronous: each frame's glReadPixels goes into one of a ring of pixel-pack-buffers, guarded by a fence. The contents of frame N are
+collected (mapped, copied out, and handed to the encoder pool) at frame N+depth-1, by which time the GPU has long since finished with it. If the
+encoders can't keep up we drop the frame rather than stalling the GL thread; see getDroppedFrames()
  */
 public class Saver {
 
+	public enum Format {
+		raw(".rgb"), jpeg(".jpg"), png(".png");
+
+		public final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+	}
+
 	private final int numWorkers;
 
 	private final int width;
@@ -27,6 +55,11 @@ public class Saver {
 
 	private final String prefix;
 
+	private Format format = Format.jpeg;
+
+	// number of pixel pack buffers in the ring. With 3, frame N is collected at frame N+2
+	private int depth = 3;
+
 	public Saver(int width, int height, int numWorkers, String prefix) {
 		this.width = width;
 		this.height = height;
@@ -38,6 +71,10 @@ public class Saver {
 
 	List<FutureTask<ByteBuffer>> workers = new ArrayList<FutureTask<ByteBuffer>>();
 
+	// storage that's been written out and is ready to be reused
+	ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	int allocatedStorage = 0;
+
 	int frameNumber = 0;
 
 	boolean on = false;
@@ -45,6 +82,12 @@ public class Saver {
 
 	private String lastFilename;
 
+	// statistics
+	AtomicInteger framesWritten = new AtomicInteger(0);
+	int framesDropped = 0;
+	int framesRequested = 0;
+	long readbackWaitNanos = 0;
+
 	public void setOn(boolean on) {
 		this.on = on;
 		drip = false;
@@ -63,37 +106,93 @@ public class Saver {
 		drip = true;
 	}
 
+	/**
+	 * sets the format that frames are written out in. Defaults to Format.jpeg
+	 */
+	public Saver setFormat(Format format) {
+		this.format = format;
+		return this;
+	}
+
+	/**
+	 * sets the depth of the pixel-pack-buffer ring. Must be called before the first frame is saved; a depth of 1 is equivalent to a synchronous
+	 * readback
+	 */
+	public Saver setDepth(int depth) {
+		if (ring != null) throw new IllegalStateException(" can't change the depth of a Saver that has already started ");
+		this.depth = Math.max(1, depth);
+		return this;
+	}
+
+	public int getFramesWritten() {
+		return framesWritten.get();
+	}
+
+	public int getDroppedFrames() {
+		return framesDropped;
+	}
+
+	public String getLastFilename() {
+		return lastFilename;
+	}
+
+	class Slot {
+		int pbo;
+		long fence;
+		String filename;
+	}
+
+	Slot[] ring;
+	int head = 0;
+	int inFlight = 0;
+
+	/**
+	 * call this once per frame, on the graphics thread, after the frame has been drawn (and before the swap).
+	 */
 	public void update() {
-		if (!on) return;
+		if (ring == null) {
+			if (!on) return;
+			allocateRing();
+		}
 
-		ByteBuffer storage = null;
+		if (on) {
+			lastFilename = prefix + pad(frameNumber++) + format.extension;
+			readInto(ring[head], lastFilename);
+			head = (head + 1) % ring.length;
+			framesRequested++;
 
-		if (workers.size() < numWorkers) {
+			// once the ring is full, collect the oldest frame (the one read depth-1 frames ago), freeing the slot that the next frame writes into
+			if (inFlight == ring.length) collect(ring[(head - inFlight + ring.length) % ring.length]);
 
-			storage = newStorage();
+			if (drip) on = false;
 		} else {
-			//System.out.println("state opf workers: ");
-			for (FutureTask t : workers)
-				;//System.out.println(t.isDone());
-
-			FutureTask<ByteBuffer> w = workers.remove(0);
-			try {
-				storage = w.get();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (ExecutionException e) {
-				e.printStackTrace();
-			}
+			// we've been turned off, drain whatever is still in flight
+			while (inFlight > 0) collect(ring[(head - inFlight + ring.length) % ring.length]);
 		}
+	}
 
-		getImage(storage);
-
-		lastFilename = prefix + pad(frameNumber++) + ".jpg";
-		FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(makeWorker(storage, lastFilename));
-		pool.execute(task);
-		workers.add(task);
+	private void allocateRing() {
+		ring = new Slot[depth];
+		int was = glGetInteger(GL_PIXEL_PACK_BUFFER_BINDING);
+		for (int i = 0; i < depth; i++) {
+			ring[i] = new Slot();
+			ring[i].pbo = glGenBuffers();
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, ring[i].pbo);
+			glBufferData(GL_PIXEL_PACK_BUFFER, width * height * 3, GL_STREAM_READ);
+		}
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, was);
+	}
 
-		if (drip) on = false;
+	/**
+	 * releases the pixel pack buffers. Any frames still in flight are written out first. Call on the graphics thread.
+	 */
+	public void close() {
+		if (ring == null) return;
+		while (inFlight > 0) collect(ring[(head - inFlight + ring.length) % ring.length]);
+		for (Slot s : ring)
+			glDeleteBuffers(s.pbo);
+		ring = null;
+		head = 0;
 	}
 
 	private String pad(int i) {
@@ -102,41 +201,162 @@ public class Saver {
 		return s;
 	}
 
-	private void getImage(ByteBuffer storage) {
+	private void readInto(Slot slot, String filename) {
 
-		int[] a = {0};
 		assert glGetError() == 0;
 
-//		glFinish();
-		storage.rewind();
-		a[0] = glGetInteger(GL_FRAMEBUFFER_BINDING);
+		int fb = glGetInteger(GL_FRAMEBUFFER_BINDING);
+		int pack = glGetInteger(GL_PIXEL_PACK_BUFFER_BINDING);
 		glBindFramebuffer(GL_FRAMEBUFFER, 0);
-//		glFinish();
-//		GL11.glReadBuffer(GL11.GL_BACK);
-		glReadPixels(0, 0, width, height, GL11.GL_RGB, GL_UNSIGNED_BYTE, storage);
-//		glFinish();
-		glBindFramebuffer(GL_FRAMEBUFFER, a[0]);
-		storage.rewind();
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pbo);
+		glPixelStorei(GL_PACK_ALIGNMENT, 1);
+
+		// with a pack buffer bound this returns immediately, the last argument is an offset into the buffer
+		glReadPixels(0, 0, width, height, GL11.GL_RGB, GL_UNSIGNED_BYTE, 0L);
+
+		slot.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		slot.filename = filename;
+		inFlight++;
+
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, pack);
+		glBindFramebuffer(GL_FRAMEBUFFER, fb);
 
 		assert glGetError() == 0;
 	}
 
+	private void collect(Slot slot) {
+
+		long a = System.nanoTime();
+		// by now this fence has almost always passed, but we have to be sure
+		int r = glClientWaitSync(slot.fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1000000000L);
+		glDeleteSync(slot.fence);
+		slot.fence = 0;
+		inFlight--;
+		readbackWaitNanos += System.nanoTime() - a;
+
+		if (r == GL_TIMEOUT_EXPIRED || r == GL_WAIT_FAILED) {
+			Log.log("saver.error", () -> "readback for " + slot.filename + " failed to complete, dropping frame");
+			framesDropped++;
+			return;
+		}
+
+		ByteBuffer storage = nextStorage();
+		if (storage == null) {
+			// encoders are behind. Better to lose this frame than to stall the graphics thread
+			Log.log("saver.trace", () -> "encoders are behind, dropping frame " + slot.filename);
+			framesDropped++;
+			return;
+		}
+
+		int pack = glGetInteger(GL_PIXEL_PACK_BUFFER_BINDING);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pbo);
+		ByteBuffer mapped = glMapBuffer(GL_PIXEL_PACK_BUFFER, GL_READ_ONLY, width * height * 3, null);
+		if (mapped != null) {
+			mapped.rewind();
+			storage.clear();
+			storage.put(mapped);
+			storage.rewind();
+		}
+		GL15.glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, pack);
+
+		if (mapped == null) {
+			free.add(storage);
+			framesDropped++;
+			return;
+		}
+
+		FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(makeWorker(storage, slot.filename, format));
+		pool.execute(task);
+		workers.add(task);
+	}
+
+	private ByteBuffer nextStorage() {
+		// reap anything that has finished
+		for (int i = 0; i < workers.size(); i++) {
+			FutureTask<ByteBuffer> w = workers.get(i);
+			if (w.isDone()) {
+				workers.remove(i--);
+				try {
+					free.add(w.get());
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		ByteBuffer b = free.poll();
+		if (b != null) return b;
+		if (allocatedStorage < numWorkers) {
+			allocatedStorage++;
+			return newStorage();
+		}
+		return null;
+	}
+
 	FastJPEG j2 = new FastJPEG();
 
-	private Callable<ByteBuffer> makeWorker(final ByteBuffer storage, final String filename) {
+	private Callable<ByteBuffer> makeWorker(final ByteBuffer storage, final String filename, final Format format) {
 		return new Callable<ByteBuffer>() {
 			public ByteBuffer call() throws Exception {
 
-				j2.compress(filename, storage, width, height);
+				try {
+					switch (format) {
+						case jpeg:
+							j2.compress(filename, storage, width, height);
+							break;
+						case png:
+							writePNG(filename, storage);
+							break;
+						case raw:
+							writeRaw(filename, storage);
+							break;
+					}
+					framesWritten.incrementAndGet();
+				} catch (IOException e) {
+					Log.log("saver.error", () -> "failed to write " + filename + " " + e);
+				}
 
 				return storage;
 			}
 		};
 	}
 
+	private void writeRaw(String filename, ByteBuffer storage) throws IOException {
+		try (FileChannel c = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			storage.rewind();
+			storage.limit(width * height * 3);
+			while (storage.hasRemaining()) c.write(storage);
+			storage.clear();
+		}
+	}
+
+	private void writePNG(String filename, ByteBuffer storage) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			// OpenGL rows are bottom to top
+			int o = 3 * width * (height - 1 - y);
+			for (int x = 0; x < width; x++) {
+				int r = storage.get(o++) & 0xff;
+				int g = storage.get(o++) & 0xff;
+				int b = storage.get(o++) & 0xff;
+				row[x] = (r << 16) | (g << 8) | b;
+			}
+			image.setRGB(0, y, width, 1, row, 0, width);
+		}
+		ImageIO.write(image, "png", new File(filename));
+	}
+
 	private ByteBuffer newStorage() {
 		return ByteBuffer.allocateDirect(width * height * 4);
 	}
 
+	@Override
+	public String toString() {
+		return "Saver(" + prefix + ", " + format + ") requested:" + framesRequested + " written:" + framesWritten.get() + " dropped:" + framesDropped + " in flight:" + inFlight + " readback wait:" + (readbackWaitNanos / 1000000) + "ms";
+	}
 
 }
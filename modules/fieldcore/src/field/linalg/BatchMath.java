@@ -0,0 +1,380 @@
+package field.linalg;
+
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * The Vec3 / Mat4 operations that you'd want to do to a whole point cloud, mesh or FLine worth of vertices at once, over float[] and FloatBuffer
+ * rather than one object at a time.
+ * <p>
+ * There are two layouts: interleaved (x, y, z, x, y, z ... starting at an offset, counts are in vertices) and "structure of arrays" (separate x[],
+ * y[] and z[]). The arithmetic is the same as the object API (points are transformed with w = 1 like Vec3.mul(Mat4), normals by the inverse
+ * transpose like Mat4.normal(Mat3)) but in float. The loops are kept simple (matrix in locals, no calls, no allocation) so that HotSpot can unroll
+ * them and, for the structure of arrays layout, use SIMD; big batches are split into blocks across the common ForkJoinPool. 'in' and 'out' can be
+ * the same array.
+ * <p>
+ * FloatBuffers are read from their position() and it isn't changed. Heap buffers go straight to the array versions, direct buffers are copied
+ * through a block at a time.
+ */
+public class BatchMath {
+
+	/**
+	 * batches at least this big are done in parallel
+	 */
+	static public int parallelThreshold = 1 << 16;
+
+	/**
+	 * vertices per parallel block (and per copy for direct FloatBuffers)
+	 */
+	static public int block = 1 << 12;
+
+	protected interface Range {
+		void run(int from, int to);
+	}
+
+	protected interface Kernel {
+		void run(float[] in, int inOffset, float[] out, int outOffset, int count);
+	}
+
+	static protected void over(int count, Range r) {
+		if (count < parallelThreshold) {
+			r.run(0, count);
+			return;
+		}
+		int blocks = (count + block - 1) / block;
+		IntStream.range(0, blocks)
+			 .parallel()
+			 .forEach(b -> r.run(b * block, Math.min(count, (b + 1) * block)));
+	}
+
+	// interleaved
+
+	/**
+	 * out = m * in, with w = 1 and no perspective division (see Vec3.mul(Mat4))
+	 */
+	static public void transformPoints(Mat4 m, float[] in, int inOffset, float[] out, int outOffset, int count) {
+		float m00 = (float) m.m00, m01 = (float) m.m01, m02 = (float) m.m02;
+		float m10 = (float) m.m10, m11 = (float) m.m11, m12 = (float) m.m12;
+		float m20 = (float) m.m20, m21 = (float) m.m21, m22 = (float) m.m22;
+		float m30 = (float) m.m30, m31 = (float) m.m31, m32 = (float) m.m32;
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int a = inOffset + 3 * i, b = outOffset + 3 * i;
+				float x = in[a], y = in[a + 1], z = in[a + 2];
+				out[b] = m00 * x + m10 * y + m20 * z + m30;
+				out[b + 1] = m01 * x + m11 * y + m21 * z + m31;
+				out[b + 2] = m02 * x + m12 * y + m22 * z + m32;
+			}
+		});
+	}
+
+	static public void transformPoints(Mat4 m, float[] v) {
+		transformPoints(m, v, 0, v, 0, v.length / 3);
+	}
+
+	/**
+	 * out = m * in, with w = 1, followed by the perspective division (see Vec3.mulProject(Mat4))
+	 */
+	static public void projectPoints(Mat4 m, float[] in, int inOffset, float[] out, int outOffset, int count) {
+		float m00 = (float) m.m00, m01 = (float) m.m01, m02 = (float) m.m02, m03 = (float) m.m03;
+		float m10 = (float) m.m10, m11 = (float) m.m11, m12 = (float) m.m12, m13 = (float) m.m13;
+		float m20 = (float) m.m20, m21 = (float) m.m21, m22 = (float) m.m22, m23 = (float) m.m23;
+		float m30 = (float) m.m30, m31 = (float) m.m31, m32 = (float) m.m32, m33 = (float) m.m33;
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int a = inOffset + 3 * i, b = outOffset + 3 * i;
+				float x = in[a], y = in[a + 1], z = in[a + 2];
+				float w = 1 / (m03 * x + m13 * y + m23 * z + m33);
+				out[b] = (m00 * x + m10 * y + m20 * z + m30) * w;
+				out[b + 1] = (m01 * x + m11 * y + m21 * z + m31) * w;
+				out[b + 2] = (m02 * x + m12 * y + m22 * z + m32) * w;
+			}
+		});
+	}
+
+	/**
+	 * out = normal matrix of m * in (the inverse transpose of the upper 3x3, see Mat4.normal(Mat3)). This doesn't normalize the result
+	 */
+	static public void transformNormals(Mat4 m, float[] in, int inOffset, float[] out, int outOffset, int count) {
+		Mat3 n = new Mat3();
+		m.normal(n);
+		float m00 = (float) n.m00, m01 = (float) n.m01, m02 = (float) n.m02;
+		float m10 = (float) n.m10, m11 = (float) n.m11, m12 = (float) n.m12;
+		float m20 = (float) n.m20, m21 = (float) n.m21, m22 = (float) n.m22;
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int a = inOffset + 3 * i, b = outOffset + 3 * i;
+				float x = in[a], y = in[a + 1], z = in[a + 2];
+				out[b] = m00 * x + m10 * y + m20 * z;
+				out[b + 1] = m01 * x + m11 * y + m21 * z;
+				out[b + 2] = m02 * x + m12 * y + m22 * z;
+			}
+		});
+	}
+
+	/**
+	 * out = in / |in|. Zero length vectors are left as zero (rather than becoming NaN, as they do with Vec3.normalize())
+	 */
+	static public void normalize(float[] in, int inOffset, float[] out, int outOffset, int count) {
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int a = inOffset + 3 * i, b = outOffset + 3 * i;
+				float x = in[a], y = in[a + 1], z = in[a + 2];
+				float l = x * x + y * y + z * z;
+				float s = l > 0 ? (float) (1 / Math.sqrt(l)) : 0;
+				out[b] = x * s;
+				out[b + 1] = y * s;
+				out[b + 2] = z * s;
+			}
+		});
+	}
+
+	/**
+	 * out[i] = a[i] . b[i], 'out' has one float per vertex
+	 */
+	static public void dot(float[] a, int aOffset, float[] b, int bOffset, float[] out, int outOffset, int count) {
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int p = aOffset + 3 * i, q = bOffset + 3 * i;
+				out[outOffset + i] = a[p] * b[q] + a[p + 1] * b[q + 1] + a[p + 2] * b[q + 2];
+			}
+		});
+	}
+
+	/**
+	 * out[i] = a[i] x b[i]
+	 */
+	static public void cross(float[] a, int aOffset, float[] b, int bOffset, float[] out, int outOffset, int count) {
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				int p = aOffset + 3 * i, q = bOffset + 3 * i, o = outOffset + 3 * i;
+				float ax = a[p], ay = a[p + 1], az = a[p + 2];
+				float bx = b[q], by = b[q + 1], bz = b[q + 2];
+				out[o] = ay * bz - az * by;
+				out[o + 1] = az * bx - ax * bz;
+				out[o + 2] = ax * by - ay * bx;
+			}
+		});
+	}
+
+	/**
+	 * out[i] = (1 - t) a[i] + t b[i], over floats rather than vertices, so this works for any dimension
+	 */
+	static public void lerp(float[] a, int aOffset, float[] b, int bOffset, double t, float[] out, int outOffset, int floats) {
+		float ft = (float) t, omt = (float) (1 - t);
+		over(floats, (from, to) -> {
+			for (int i = from; i < to; i++)
+				out[outOffset + i] = omt * a[aOffset + i] + ft * b[bOffset + i];
+		});
+	}
+
+	/**
+	 * the bounds of 'count' vertices as min x, y, z, max x, y, z into 'out' (allocated if it's null). The bounds of nothing are +infinity ..
+	 * -infinity
+	 */
+	static public float[] bounds(float[] in, int inOffset, int count, float[] out) {
+		if (out == null) out = new float[6];
+		float[] r = empty();
+		if (count < parallelThreshold) boundsInto(in, inOffset, 0, count, r);
+		else {
+			int blocks = (count + block - 1) / block;
+			float[] all = new float[6 * blocks];
+			IntStream.range(0, blocks)
+				 .parallel()
+				 .forEach(b -> {
+					 float[] q = empty();
+					 boundsInto(in, inOffset, b * block, Math.min(count, (b + 1) * block), q);
+					 System.arraycopy(q, 0, all, 6 * b, 6);
+				 });
+			for (int b = 0; b < blocks; b++)
+				union(all, 6 * b, r);
+		}
+		System.arraycopy(r, 0, out, 0, 6);
+		return out;
+	}
+
+	static protected float[] empty() {
+		return new float[]{Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+			Float.NEGATIVE_INFINITY};
+	}
+
+	static protected void boundsInto(float[] in, int inOffset, int from, int to, float[] r) {
+		float minx = r[0], miny = r[1], minz = r[2], maxx = r[3], maxy = r[4], maxz = r[5];
+		for (int i = from; i < to; i++) {
+			int a = inOffset + 3 * i;
+			float x = in[a], y = in[a + 1], z = in[a + 2];
+			minx = Math.min(minx, x);
+			miny = Math.min(miny, y);
+			minz = Math.min(minz, z);
+			maxx = Math.max(maxx, x);
+			maxy = Math.max(maxy, y);
+			maxz = Math.max(maxz, z);
+		}
+		r[0] = minx;
+		r[1] = miny;
+		r[2] = minz;
+		r[3] = maxx;
+		r[4] = maxy;
+		r[5] = maxz;
+	}
+
+	static protected void union(float[] b, int o, float[] r) {
+		for (int d = 0; d < 3; d++) {
+			r[d] = Math.min(r[d], b[o + d]);
+			r[d + 3] = Math.max(r[d + 3], b[o + d + 3]);
+		}
+	}
+
+	// structure of arrays
+
+	static public void transformPoints(Mat4 m, float[] x, float[] y, float[] z, float[] ox, float[] oy, float[] oz, int count) {
+		float m00 = (float) m.m00, m01 = (float) m.m01, m02 = (float) m.m02;
+		float m10 = (float) m.m10, m11 = (float) m.m11, m12 = (float) m.m12;
+		float m20 = (float) m.m20, m21 = (float) m.m21, m22 = (float) m.m22;
+		float m30 = (float) m.m30, m31 = (float) m.m31, m32 = (float) m.m32;
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				float px = x[i], py = y[i], pz = z[i];
+				ox[i] = m00 * px + m10 * py + m20 * pz + m30;
+				oy[i] = m01 * px + m11 * py + m21 * pz + m31;
+				oz[i] = m02 * px + m12 * py + m22 * pz + m32;
+			}
+		});
+	}
+
+	static public void transformNormals(Mat4 m, float[] x, float[] y, float[] z, float[] ox, float[] oy, float[] oz, int count) {
+		Mat3 n = new Mat3();
+		m.normal(n);
+		float m00 = (float) n.m00, m01 = (float) n.m01, m02 = (float) n.m02;
+		float m10 = (float) n.m10, m11 = (float) n.m11, m12 = (float) n.m12;
+		float m20 = (float) n.m20, m21 = (float) n.m21, m22 = (float) n.m22;
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				float px = x[i], py = y[i], pz = z[i];
+				ox[i] = m00 * px + m10 * py + m20 * pz;
+				oy[i] = m01 * px + m11 * py + m21 * pz;
+				oz[i] = m02 * px + m12 * py + m22 * pz;
+			}
+		});
+	}
+
+	static public void normalize(float[] x, float[] y, float[] z, float[] ox, float[] oy, float[] oz, int count) {
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				float px = x[i], py = y[i], pz = z[i];
+				float l = px * px + py * py + pz * pz;
+				float s = l > 0 ? (float) (1 / Math.sqrt(l)) : 0;
+				ox[i] = px * s;
+				oy[i] = py * s;
+				oz[i] = pz * s;
+			}
+		});
+	}
+
+	static public void dot(float[] ax, float[] ay, float[] az, float[] bx, float[] by, float[] bz, float[] out, int count) {
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++)
+				out[i] = ax[i] * bx[i] + ay[i] * by[i] + az[i] * bz[i];
+		});
+	}
+
+	static public void cross(float[] ax, float[] ay, float[] az, float[] bx, float[] by, float[] bz, float[] ox, float[] oy, float[] oz, int count) {
+		over(count, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				float px = ax[i], py = ay[i], pz = az[i];
+				float qx = bx[i], qy = by[i], qz = bz[i];
+				ox[i] = py * qz - pz * qy;
+				oy[i] = pz * qx - px * qz;
+				oz[i] = px * qy - py * qx;
+			}
+		});
+	}
+
+	static public void lerp(float[] ax, float[] ay, float[] az, float[] bx, float[] by, float[] bz, double t, float[] ox, float[] oy, float[] oz, int count) {
+		lerp(ax, 0, bx, 0, t, ox, 0, count);
+		lerp(ay, 0, by, 0, t, oy, 0, count);
+		lerp(az, 0, bz, 0, t, oz, 0, count);
+	}
+
+	static public float[] bounds(float[] x, float[] y, float[] z, int count, float[] out) {
+		if (out == null) out = new float[6];
+		float[] r = new float[2];
+		for (int d = 0; d < 3; d++) {
+			float[] c = d == 0 ? x : d == 1 ? y : z;
+			range(c, count, r);
+			out[d] = r[0];
+			out[d + 3] = r[1];
+		}
+		return out;
+	}
+
+	static protected void range(float[] c, int count, float[] r) {
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			min = Math.min(min, c[i]);
+			max = Math.max(max, c[i]);
+		}
+		r[0] = min;
+		r[1] = max;
+	}
+
+	// FloatBuffers, interleaved
+
+	static public void transformPoints(Mat4 m, FloatBuffer in, FloatBuffer out, int count) {
+		through(in, out, count, (a, ao, b, bo, c) -> transformPoints(m, a, ao, b, bo, c));
+	}
+
+	static public void projectPoints(Mat4 m, FloatBuffer in, FloatBuffer out, int count) {
+		through(in, out, count, (a, ao, b, bo, c) -> projectPoints(m, a, ao, b, bo, c));
+	}
+
+	static public void transformNormals(Mat4 m, FloatBuffer in, FloatBuffer out, int count) {
+		through(in, out, count, (a, ao, b, bo, c) -> transformNormals(m, a, ao, b, bo, c));
+	}
+
+	static public void normalize(FloatBuffer in, FloatBuffer out, int count) {
+		through(in, out, count, BatchMath::normalize);
+	}
+
+	static public float[] bounds(FloatBuffer in, int count, float[] out) {
+		if (in.hasArray()) return bounds(in.array(), in.arrayOffset() + in.position(), count, out);
+
+		if (out == null) out = new float[6];
+		float[] r = empty();
+		float[] tmp = new float[3 * Math.min(count, block)];
+		FloatBuffer d = in.duplicate();
+		for (int i = 0; i < count; i += block) {
+			int n = Math.min(block, count - i);
+			d.get(tmp, 0, 3 * n);
+			boundsInto(tmp, 0, 0, n, r);
+		}
+		System.arraycopy(r, 0, out, 0, 6);
+		return out;
+	}
+
+	/**
+	 * runs an interleaved kernel over buffers, directly on the arrays if they have them, otherwise a block at a time through a copy
+	 */
+	static protected void through(FloatBuffer in, FloatBuffer out, int count, Kernel k) {
+		if (in.hasArray() && out.hasArray()) {
+			k.run(in.array(), in.arrayOffset() + in.position(), out.array(), out.arrayOffset() + out.position(), count);
+			return;
+		}
+		int inAt = in.position(), outAt = out.position();
+		int blocks = (count + block - 1) / block;
+		IntStream b = IntStream.range(0, blocks);
+		if (count >= parallelThreshold) b = b.parallel();
+		b.forEach(q -> {
+			int from = q * block, n = Math.min(block, count - from);
+			float[] tmp = new float[3 * n];
+			FloatBuffer d = in.duplicate();
+			d.position(inAt + 3 * from);
+			d.get(tmp);
+			k.run(tmp, 0, tmp, 0, n);
+			FloatBuffer e = out.duplicate();
+			e.position(outAt + 3 * from);
+			e.put(tmp);
+		});
+	}
+
+}
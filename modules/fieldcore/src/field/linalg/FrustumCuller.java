@@ -362,4 +362,79 @@ public class FrustumCuller {
 		return plane;
 	}
 
+	/**
+	 * Test <code>count</code> spheres, given as separate arrays of centers and radii, against the viewing frustum defined by <code>this</code> frustum culler in one go.
+	 * <p>
+	 * This gives exactly the same answers as calling {@link #isSphereInsideFrustum(double, double, double, double)} for each sphere, but keeps the planes in registers and has no branches inside the
+	 * loop.
+	 *
+	 * @param x      the x-coordinates of the sphere's centers
+	 * @param y      the y-coordinates of the sphere's centers
+	 * @param z      the z-coordinates of the sphere's centers
+	 * @param r      the sphere's radii
+	 * @param count  the number of spheres
+	 * @param inside will hold, for each sphere, whether it is partly or completely inside the clipping frustum
+	 * @return the number of spheres that are partly or completely inside the clipping frustum
+	 */
+	public int intersectSpheres(float[] x, float[] y, float[] z, float[] r, int count, boolean[] inside) {
+		double nxX = this.nxX, nxY = this.nxY, nxZ = this.nxZ, nxW = this.nxW;
+		double pxX = this.pxX, pxY = this.pxY, pxZ = this.pxZ, pxW = this.pxW;
+		double nyX = this.nyX, nyY = this.nyY, nyZ = this.nyZ, nyW = this.nyW;
+		double pyX = this.pyX, pyY = this.pyY, pyZ = this.pyZ, pyW = this.pyW;
+		double nzX = this.nzX, nzY = this.nzY, nzZ = this.nzZ, nzW = this.nzW;
+		double pzX = this.pzX, pzY = this.pzY, pzZ = this.pzZ, pzW = this.pzW;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			double cx = x[i], cy = y[i], cz = z[i], cr = -r[i];
+			boolean in = nxX * cx + nxY * cy + nxZ * cz + nxW >= cr &
+				    pxX * cx + pxY * cy + pxZ * cz + pxW >= cr &
+				    nyX * cx + nyY * cy + nyZ * cz + nyW >= cr &
+				    pyX * cx + pyY * cy + pyZ * cz + pyW >= cr &
+				    nzX * cx + nzY * cy + nzZ * cz + nzW >= cr &
+				    pzX * cx + pzY * cy + pzZ * cz + pzW >= cr;
+			inside[i] = in;
+			n += in ? 1 : 0;
+		}
+		return n;
+	}
+
+	/**
+	 * Test <code>count</code> axis-aligned boxes, given as separate arrays of their <code>min</code> and <code>max</code> corner coordinates, against the viewing frustum defined by
+	 * <code>this</code> frustum culler in one go.
+	 * <p>
+	 * This gives exactly the same answers as calling {@link #isAabInsideFrustum(double, double, double, double, double, double)} for each box (and checking for <tt>-1</tt>), but keeps the planes
+	 * in registers and has no branches inside the loop.
+	 *
+	 * @param minX   the x-coordinates of the minimum corners
+	 * @param minY   the y-coordinates of the minimum corners
+	 * @param minZ   the z-coordinates of the minimum corners
+	 * @param maxX   the x-coordinates of the maximum corners
+	 * @param maxY   the y-coordinates of the maximum corners
+	 * @param maxZ   the z-coordinates of the maximum corners
+	 * @param count  the number of boxes
+	 * @param inside will hold, for each box, whether it is partly or completely inside the clipping frustum
+	 * @return the number of boxes that are partly or completely inside the clipping frustum
+	 */
+	public int intersectAabs(float[] minX, float[] minY, float[] minZ, float[] maxX, float[] maxY, float[] maxZ, int count, boolean[] inside) {
+		double nxX = this.nxX, nxY = this.nxY, nxZ = this.nxZ, nxW = this.nxW;
+		double pxX = this.pxX, pxY = this.pxY, pxZ = this.pxZ, pxW = this.pxW;
+		double nyX = this.nyX, nyY = this.nyY, nyZ = this.nyZ, nyW = this.nyW;
+		double pyX = this.pyX, pyY = this.pyY, pyZ = this.pyZ, pyW = this.pyW;
+		double nzX = this.nzX, nzY = this.nzY, nzZ = this.nzZ, nzW = this.nzW;
+		double pzX = this.pzX, pzY = this.pzY, pzZ = this.pzZ, pzW = this.pzW;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			double x0 = minX[i], y0 = minY[i], z0 = minZ[i], x1 = maxX[i], y1 = maxY[i], z1 = maxZ[i];
+			boolean in = nxX * (nxX < 0 ? x0 : x1) + nxY * (nxY < 0 ? y0 : y1) + nxZ * (nxZ < 0 ? z0 : z1) >= -nxW &
+				    pxX * (pxX < 0 ? x0 : x1) + pxY * (pxY < 0 ? y0 : y1) + pxZ * (pxZ < 0 ? z0 : z1) >= -pxW &
+				    nyX * (nyX < 0 ? x0 : x1) + nyY * (nyY < 0 ? y0 : y1) + nyZ * (nyZ < 0 ? z0 : z1) >= -nyW &
+				    pyX * (pyX < 0 ? x0 : x1) + pyY * (pyY < 0 ? y0 : y1) + pyZ * (pyZ < 0 ? z0 : z1) >= -pyW &
+				    nzX * (nzX < 0 ? x0 : x1) + nzY * (nzY < 0 ? y0 : y1) + nzZ * (nzZ < 0 ? z0 : z1) >= -nzW &
+				    pzX * (pzX < 0 ? x0 : x1) + pzY * (pzY < 0 ? y0 : y1) + pzZ * (pzZ < 0 ? z0 : z1) >= -pzW;
+			inside[i] = in;
+			n += in ? 1 : 0;
+		}
+		return n;
+	}
+
 }
@@ -22,6 +22,7 @@ import javax.script.ScriptEngine;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -228,13 +229,25 @@ public class Conversions {
 
 		conversion.converter = c;
 
-		inputs.put(conversion.input, conversion);
-		outputs.put(conversion.output, conversion);
+		synchronized (inputs) {
+			inputs.put(conversion.input, conversion);
+			outputs.put(conversion.output, conversion);
+
+			// any path we've found before might now have a shorter (or, for things we couldn't convert before, any) alternative
+			paths.clear();
+		}
 
 		Log.log("conversions.general", () -> " REGISTERED conversion " + length + " " + conversion.input + " -> " + conversion.output);
 
 	}
 
+	/*
+	 * shortest paths through the conversion graph, keyed by (from, to) and thrown away whenever a conversion is added. An empty Optional records
+	 * that there's no path
+	 */
+	@SuppressWarnings("rawtypes") // paths are in the same terms as getConversion
+	static protected final Map<Pair<List<?>, List<?>>, Optional<List<Pair<List<Class>, Conversion>>>> paths = new ConcurrentHashMap<>();
+
 	static public List<Pair<List<Class>, Conversion>> getConversion(Object from, List<Class> to) {
 		Set<List<Class>> alt = genericAlternativesFor(from.getClass());
 
@@ -260,17 +273,31 @@ public class Conversions {
 	}
 
 	static public List<Pair<List<Class>, Conversion>> getConversion(List<Class> from, List<Class> to) {
-		Dijkstra<List<Class>, Conversion> d = new Dijkstra<>(x -> x.length, x -> x.output, x -> inputs.get(x));
-
-		List<Class> nto = normalize(to, outputs);
-		List<Class> nfrom = normalize(from, inputs);
-
-		if (nto == null) return null;
-		if (nfrom == null) return null;
-
-		d.computePaths(nfrom);
-		return d.getShortestPathTo(nto);
+		Pair<List<?>, List<?>> key = new Pair<>(new ArrayList<>(from), new ArrayList<>(to));
+		return Optional.ofNullable(paths.get(key))
+			.orElseGet(() -> computeConversion(key, from, to))
+			.orElse(null);
+	}
 
+	@SuppressWarnings("rawtypes") // see paths
+	static protected Optional<List<Pair<List<Class>, Conversion>>> computeConversion(Pair<List<?>, List<?>> key, List<Class> from, List<Class> to) {
+		// computed and stored under the same lock as provideConversion, otherwise a path from before a new conversion could be put back after
+		// provideConversion has cleared the cache
+		synchronized (inputs) {
+			Dijkstra<List<Class>, Conversion> d = new Dijkstra<>(x -> x.length, x -> x.output, x -> inputs.get(x));
+
+			List<Class> nto = normalize(to, outputs);
+			List<Class> nfrom = normalize(from, inputs);
+
+			Optional<List<Pair<List<Class>, Conversion>>> r = Optional.empty();
+			if (nto != null && nfrom != null) {
+				d.computePaths(nfrom, nto);
+				r = Optional.ofNullable(d.getShortestPathTo(nto))
+					.map(Collections::unmodifiableList);
+			}
+			paths.put(key, r);
+			return r;
+		}
 	}
 
 	private static List<Class> normalize(List<Class> to, SetMultimap<List<Class>, Conversion> m) {
@@ -385,8 +412,61 @@ public class Conversions {
 	}
 
 
+	/**
+	 * what _convert decides to do depends only on the class of the value and the type we're trying to fit it into, so we decide once per pair
+	 * and keep the answer with the class (ClassValue, so that we don't keep script classes alive)
+	 */
+	public interface Plan {
+		Object apply(Object value, Consumer<String> extraInfo);
+	}
+
+	static protected final Plan identity = (v, e) -> v;
+
+	static protected final ClassValue<Map<List<?>, Plan>> plans = new ClassValue<Map<List<?>, Plan>>() {
+		@Override
+		protected Map<List<?>, Plan> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
 	static protected Object _convert(Object value, List<Class> fit, Consumer<String> extraInfo) {
 
+		if (fit == null) return value;
+		if (value == null) return _convertUncached(value, fit, extraInfo);
+
+		Map<List<?>, Plan> m = plans.get(value.getClass());
+		Plan p = m.get(fit);
+		if (p == null) {
+			p = planFor(value.getClass(), new ArrayList<>(fit));
+			m.put(new ArrayList<>(fit), p);
+		}
+		return p.apply(value, extraInfo);
+	}
+
+	/**
+	 * 'fit' is kept by the plan, so it mustn't change afterwards
+	 */
+	static protected Plan planFor(Class<?> c, List<Class> fit) {
+		Class<?> head = fit.get(0);
+		if (head.isAssignableFrom(c)) return identity;
+
+		if (List.class.isAssignableFrom(head)) {
+			if (List.class.isAssignableFrom(c)) return identity;
+			return (v, e) -> Collections.singletonList(_convert(v, fit.subList(1, fit.size()), e));
+		} else if (Map.class.isAssignableFrom(head) && String.class.isAssignableFrom(fit.get(1))) {
+			if (Map.class.isAssignableFrom(c)) return identity;
+			return (v, e) -> Collections.singletonMap("" + v + ":" + System.identityHashCode(v), _convert(v, fit.subList(2, fit.size()), e));
+		} else if (Collection.class.isAssignableFrom(head)) {
+			if (Collection.class.isAssignableFrom(c)) return identity;
+			return (v, e) -> Collections.singletonList(convert(v, fit.subList(1, fit.size())));
+		}
+
+		// everything else depends on the value itself
+		return (v, e) -> _convertUncached(v, fit, e);
+	}
+
+	static protected Object _convertUncached(Object value, List<Class> fit, Consumer<String> extraInfo) {
+
 		if (fit == null) return value;
 		if (fit.get(0)
 			.isInstance(value)) return value;
@@ -415,6 +495,9 @@ public class Conversions {
 
 		}
 
+		// a Proxy is as fast as anything else we could make here, every call goes through InvocationHandler.invoke and its Object[] either way.
+		// Script functions don't come this way, they go through ScriptUtils.convert below, which gives us one of Nashorn's generated adapter
+		// classes (made once per interface, calling the function through a MethodHandle)
 		if (fit.get(0)
 			.isInterface() && value instanceof InvocationHandler) {
 			return Proxy.newProxyInstance(Thread.currentThread()
@@ -0,0 +1,564 @@
+package field.utility;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * An incremental 2d Delaunay triangulation (and its dual, the Voronoi diagram) kept in flat arrays.
+ * <p>
+ * Vertex i is at (xy[2i], xy[2i+1]). Triangle t is made of the three half-edges 3t, 3t+1 and 3t+2 (counter-clockwise), half-edge e starts at vertex
+ * start[e] and its twin, going the other way in the neighbouring triangle, is twin[e] (or -1 on the outside). Vertices 0, 1 and 2 are the corners of a
+ * big triangle that every point we add has to be inside of; they are in the triangulation, but aren't sites.
+ * <p>
+ * Points are added by finding the triangle that they are in by walking from the last triangle that we touched, splitting it (or the edge that they
+ * are on) and flipping edges until everything is Delaunay again. Nothing is ever deleted, so there's nothing to compact. addAll orders the points
+ * before adding them (in rounds of doubling size, each sorted along a Hilbert curve) so that the walks are short, which makes building the whole
+ * thing close to linear in the number of points.
+ * <p>
+ * The orientation and in-circle tests fall back to exact arithmetic when floating point can't be sure of the answer, so grids and collinear points
+ * are fine.
+ */
+public class Delaunay {
+
+	protected double[] xy;
+	protected int vertices = 0;
+
+	protected int[] start;
+	protected int[] twin;
+	protected int triangles = 0;
+
+	/**
+	 * a half-edge that starts at each vertex
+	 */
+	protected int[] edgeOf;
+
+	protected int last = 0;
+
+	// statistics
+	public long walkSteps = 0;
+	public long flips = 0;
+
+	/**
+	 * a triangulation that can hold any point inside this box
+	 */
+	public Delaunay(double minX, double minY, double maxX, double maxY) {
+		this(minX, minY, maxX, maxY, 16);
+	}
+
+	protected Delaunay(double minX, double minY, double maxX, double maxY, int capacity) {
+		// a triangle well outside the circle through the corners of the box
+		this(corner(minX, maxX, -3), corner(minY, maxY, -3), corner(minX, maxX, 3), corner(minY, maxY, -3), corner(minX, maxX, 0), corner(minY, maxY, 3), capacity);
+	}
+
+	static private double corner(double min, double max, double r) {
+		return (min + max) / 2 + r * Math.max(max - min, 1e-9) * 2;
+	}
+
+	/**
+	 * a triangulation that can hold any point inside the counter-clockwise triangle a, b, c
+	 */
+	public Delaunay(double ax, double ay, double bx, double by, double cx, double cy) {
+		this(ax, ay, bx, by, cx, cy, 16);
+	}
+
+	protected Delaunay(double ax, double ay, double bx, double by, double cx, double cy, int capacity) {
+		if (orient(ax, ay, bx, by, cx, cy) <= 0) throw new IllegalArgumentException("enclosing triangle has to be counter-clockwise");
+
+		xy = new double[2 * (capacity + 3)];
+		edgeOf = new int[capacity + 3];
+		start = new int[3 * (2 * capacity + 1)];
+		twin = new int[3 * (2 * capacity + 1)];
+
+		vertex(ax, ay);
+		vertex(bx, by);
+		vertex(cx, cy);
+		triangle(0, 1, 2, -1, -1, -1);
+	}
+
+	/**
+	 * a triangulation of these points (x0, y0, x1, y1 ...), whose vertex i + 3 is point i
+	 */
+	static public Delaunay of(double[] points) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < points.length; i += 2) {
+			minX = Math.min(minX, points[i]);
+			maxX = Math.max(maxX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		if (points.length == 0) minX = minY = maxX = maxY = 0;
+
+		Delaunay d = new Delaunay(minX, minY, maxX, maxY, points.length / 2);
+		d.addAll(points);
+		return d;
+	}
+
+	/**
+	 * number of vertices, including the three corners of the enclosing triangle
+	 */
+	public int vertexCount() {
+		return vertices;
+	}
+
+	public int triangleCount() {
+		return triangles;
+	}
+
+	public double x(int vertex) {
+		return xy[2 * vertex];
+	}
+
+	public double y(int vertex) {
+		return xy[2 * vertex + 1];
+	}
+
+	/**
+	 * the vertex that half-edge e starts at
+	 */
+	public int start(int e) {
+		return start[e];
+	}
+
+	/**
+	 * the half-edge going the other way across e, or -1
+	 */
+	public int twin(int e) {
+		return twin[e];
+	}
+
+	static public int next(int e) {
+		return e % 3 == 2 ? e - 2 : e + 1;
+	}
+
+	static public int prev(int e) {
+		return e % 3 == 0 ? e + 2 : e - 1;
+	}
+
+	/**
+	 * whether this is one of the three corners of the enclosing triangle rather than a point that was added
+	 */
+	public boolean isCorner(int vertex) {
+		return vertex < 3;
+	}
+
+	/**
+	 * adds a point, returning its vertex. A point that's already there returns the vertex that was there. Throws IllegalArgumentException if the point
+	 * is outside the enclosing triangle
+	 */
+	public int add(double x, double y) {
+		int t = locate(x, y);
+
+		int on = -1;
+		for (int i = 0; i < 3; i++) {
+			int e = 3 * t + i;
+			int a = start[e];
+			if (xy[2 * a] == x && xy[2 * a + 1] == y) return a;
+			if (on == -1 && orient(a, start[next(e)], x, y) == 0) on = e;
+		}
+
+		int p = vertex(x, y);
+		if (on == -1) splitTriangle(t, p);
+		else splitEdge(on, p);
+		return p;
+	}
+
+	/**
+	 * adds these points (x0, y0, x1, y1 ...), in an order that's good for locating them, returning their vertices in the order that they were given
+	 */
+	public int[] addAll(double[] points) {
+		int n = points.length / 2;
+		ensureVertices(vertices + n);
+		ensureTriangles(triangles + 2 * n);
+
+		int[] order = insertionOrder(points);
+		int[] out = new int[n];
+		for (int i : order)
+			out[i] = add(points[2 * i], points[2 * i + 1]);
+		return out;
+	}
+
+	/**
+	 * a biased randomized insertion order: points are shuffled into rounds that double in size, and each round is sorted along a Hilbert curve. The
+	 * randomness keeps the number of flips down, the sorting keeps the walks short
+	 */
+	static public int[] insertionOrder(double[] points) {
+		int n = points.length / 2;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+
+		Random r = new Random(n);
+		for (int i = n - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			int s = order[i];
+			order[i] = order[j];
+			order[j] = s;
+		}
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < points.length; i += 2) {
+			minX = Math.min(minX, points[i]);
+			maxX = Math.max(maxX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		double sx = 65535 / Math.max(maxX - minX, 1e-300), sy = 65535 / Math.max(maxY - minY, 1e-300);
+
+		long[] keyed = new long[n];
+		int from = 0;
+		int to = Math.min(n, 64);
+		while (from < n) {
+			for (int i = from; i < to; i++) {
+				int p = order[i];
+				long h = hilbert((int) ((points[2 * p] - minX) * sx), (int) ((points[2 * p + 1] - minY) * sy));
+				keyed[i] = (h << 31) | p;
+			}
+			Arrays.sort(keyed, from, to);
+			for (int i = from; i < to; i++)
+				order[i] = (int) (keyed[i] & 0x7fffffffL);
+			from = to;
+			to = Math.min(n, to * 2);
+		}
+		return order;
+	}
+
+	/**
+	 * distance along a 2^16 by 2^16 Hilbert curve
+	 */
+	static public long hilbert(int x, int y) {
+		long d = 0;
+		for (int s = 1 << 15; s > 0; s >>= 1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * the triangle that (x, y) is inside of or on the edge of, found by walking from the last triangle that we touched
+	 */
+	public int locate(double x, double y) {
+		int t = last;
+		int r = 0;
+		walk:
+		while (true) {
+			walkSteps++;
+			// starting at a different edge each time stops us going round in circles when the point is on a line through several edges
+			r = r == 2 ? 0 : r + 1;
+			for (int i = 0; i < 3; i++) {
+				int e = 3 * t + (i + r) % 3;
+				if (orient(start[e], start[next(e)], x, y) < 0) {
+					int o = twin[e];
+					if (o == -1) throw new IllegalArgumentException("point " + x + ", " + y + " is outside the triangulation");
+					t = o / 3;
+					continue walk;
+				}
+			}
+			return last = t;
+		}
+	}
+
+	protected int vertex(double x, double y) {
+		ensureVertices(vertices + 1);
+		xy[2 * vertices] = x;
+		xy[2 * vertices + 1] = y;
+		return vertices++;
+	}
+
+	protected int triangle(int a, int b, int c, int ta, int tb, int tc) {
+		ensureTriangles(triangles + 1);
+		int t = triangles++;
+		set(t, a, b, c, ta, tb, tc);
+		return t;
+	}
+
+	/**
+	 * sets triangle t to (a, b, c) whose edges a-b, b-c and c-a have twins ta, tb and tc, and points those twins back at it
+	 */
+	protected void set(int t, int a, int b, int c, int ta, int tb, int tc) {
+		int e = 3 * t;
+		start[e] = a;
+		start[e + 1] = b;
+		start[e + 2] = c;
+		link(e, ta);
+		link(e + 1, tb);
+		link(e + 2, tc);
+		edgeOf[a] = e;
+		edgeOf[b] = e + 1;
+		edgeOf[c] = e + 2;
+	}
+
+	protected void link(int e, int o) {
+		twin[e] = o;
+		if (o != -1) twin[o] = e;
+	}
+
+	protected void splitTriangle(int t, int p) {
+		int e = 3 * t;
+		int a = start[e], b = start[e + 1], c = start[e + 2];
+		int ha = twin[e], hb = twin[e + 1], hc = twin[e + 2];
+
+		int t1 = triangle(b, c, p, hb, -1, -1);
+		int t2 = triangle(c, a, p, hc, -1, 3 * t1 + 1);
+		set(t, a, b, p, ha, 3 * t1 + 2, 3 * t2 + 1);
+
+		last = t;
+		legalize(3 * t);
+		legalize(3 * t1);
+		legalize(3 * t2);
+	}
+
+	protected void splitEdge(int e, int p) {
+		int t = e / 3;
+		int a = start[e], b = start[next(e)], c = start[prev(e)];
+		int hb = twin[next(e)], hc = twin[prev(e)];
+
+		int o = twin[e];
+		if (o == -1) {
+			// on the outside edge of the enclosing triangle, there's only one side to split
+			int t2 = triangle(p, b, c, -1, hb, -1);
+			set(t, a, p, c, -1, 3 * t2 + 2, hc);
+			last = t;
+			legalize(3 * t + 2);
+			legalize(3 * t2 + 1);
+			return;
+		}
+
+		int u = o / 3;
+		int d = start[prev(o)];
+		int ha = twin[next(o)], hd = twin[prev(o)];
+
+		// (a, p, c) (p, b, c) (b, p, d) (p, a, d)
+		int t2 = triangle(p, b, c, -1, hb, -1);
+		int t4 = triangle(p, a, d, -1, ha, -1);
+		set(t, a, p, c, 3 * t4, 3 * t2 + 2, hc);
+		set(u, b, p, d, 3 * t2, 3 * t4 + 2, hd);
+
+		last = t;
+		legalize(3 * t + 2);
+		legalize(3 * t2 + 1);
+		legalize(3 * u + 2);
+		legalize(3 * t4 + 1);
+	}
+
+	private int[] stack = new int[64];
+
+	/**
+	 * flips edges, starting with e (whose triangle has the new point opposite it), until the triangulation is Delaunay again
+	 */
+	protected void legalize(int e0) {
+		int sp = 0;
+		stack[sp++] = e0;
+		while (sp > 0) {
+			int e = stack[--sp];
+			int o = twin[e];
+			if (o == -1) continue;
+
+			int a = start[e], b = start[next(e)], p = start[prev(e)];
+			int d = start[prev(o)];
+			if (inCircle(a, b, p, d) <= 0) continue;
+
+			flips++;
+			int t = e / 3, u = o / 3;
+			int hbp = twin[next(e)], hpa = twin[prev(e)];
+			int had = twin[next(o)], hdb = twin[prev(o)];
+
+			set(t, p, a, d, hpa, had, -1);
+			set(u, p, d, b, 3 * t + 2, hdb, hbp);
+
+			if (sp + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[sp++] = 3 * t + 1;
+			stack[sp++] = 3 * u + 1;
+		}
+	}
+
+	protected void ensureVertices(int n) {
+		if (n > edgeOf.length) {
+			int c = Math.max(n, edgeOf.length * 2);
+			xy = Arrays.copyOf(xy, 2 * c);
+			edgeOf = Arrays.copyOf(edgeOf, c);
+		}
+	}
+
+	protected void ensureTriangles(int n) {
+		if (3 * n > start.length) {
+			int c = Math.max(3 * n, start.length * 2);
+			start = Arrays.copyOf(start, c);
+			twin = Arrays.copyOf(twin, c);
+		}
+	}
+
+	/**
+	 * the vertices connected to 'vertex' by an edge, counter-clockwise
+	 */
+	public int[] neighbors(int vertex) {
+		int[] out = new int[8];
+		int n = 0;
+		int e0 = firstAround(vertex);
+		int e = e0;
+		do {
+			if (n == out.length) out = Arrays.copyOf(out, n * 2);
+			out[n++] = start[next(e)];
+			int p = prev(e);
+			int o = twin[p];
+			if (o == -1) {
+				// an outside corner, the ring doesn't close
+				if (n == out.length) out = Arrays.copyOf(out, n * 2);
+				out[n++] = start[p];
+				break;
+			}
+			e = o;
+		} while (e != e0);
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * the half-edge starting at 'vertex' to go counter-clockwise around it from, which is the most clockwise one if the ring around it isn't closed
+	 */
+	protected int firstAround(int vertex) {
+		int e0 = edgeOf[vertex];
+		int e = e0;
+		while (twin[e] != -1) {
+			e = next(twin[e]);
+			if (e == e0) return e0;
+		}
+		return e;
+	}
+
+	/**
+	 * the Voronoi cell of 'vertex', as the circumcenters (x0, y0, x1, y1 ...) of the triangles around it, counter-clockwise. Cells of sites near the
+	 * outside are bounded by the corners of the enclosing triangle
+	 */
+	public double[] cell(int vertex) {
+		double[] out = new double[16];
+		int n = 0;
+		int e0 = firstAround(vertex);
+		int e = e0;
+		do {
+			if (n + 2 > out.length) out = Arrays.copyOf(out, out.length * 2);
+			circumcenter(e / 3, out, n);
+			n += 2;
+			int o = twin[prev(e)];
+			if (o == -1) break;
+			e = o;
+		} while (e != e0);
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * every site's Voronoi cell, cells[i] is the cell of vertex i + 3. Cells are worked out in parallel
+	 */
+	public double[][] cells() {
+		double[][] out = new double[vertices - 3][];
+		IntStream.range(0, out.length)
+			 .parallel()
+			 .forEach(i -> out[i] = cell(i + 3));
+		return out;
+	}
+
+	/**
+	 * writes the circumcenter of triangle t into out[at], out[at+1]
+	 */
+	public void circumcenter(int t, double[] out, int at) {
+		int a = start[3 * t], b = start[3 * t + 1], c = start[3 * t + 2];
+		double ax = xy[2 * a], ay = xy[2 * a + 1];
+		double bx = xy[2 * b] - ax, by = xy[2 * b + 1] - ay;
+		double cx = xy[2 * c] - ax, cy = xy[2 * c + 1] - ay;
+		double bl = bx * bx + by * by, cl = cx * cx + cy * cy;
+		double d = 0.5 / (bx * cy - by * cx);
+		out[at] = ax + (cy * bl - by * cl) * d;
+		out[at + 1] = ay + (bx * cl - cx * bl) * d;
+	}
+
+	/**
+	 * whether no vertex is strictly inside the circumcircle of any triangle, checked by brute force (so this is quadratic)
+	 */
+	public boolean isDelaunay() {
+		for (int t = 0; t < triangles; t++)
+			for (int v = 0; v < vertices; v++)
+				if (inCircle(start[3 * t], start[3 * t + 1], start[3 * t + 2], v) > 0) return false;
+		return true;
+	}
+
+	/**
+	 * positive if (x, y) is to the left of a-b, negative if it's to the right and 0 if it's on the line through them
+	 */
+	protected int orient(int a, int b, double x, double y) {
+		return orient(xy[2 * a], xy[2 * a + 1], xy[2 * b], xy[2 * b + 1], x, y);
+	}
+
+	static public int orient(double ax, double ay, double bx, double by, double cx, double cy) {
+		double l = (bx - ax) * (cy - ay);
+		double r = (by - ay) * (cx - ax);
+		double det = l - r;
+		double bound = 3.3306690738754716e-16 * (Math.abs(l) + Math.abs(r));
+		if (det > bound) return 1;
+		if (-det > bound) return -1;
+		if (l == 0 && r == 0) return 0;
+
+		BigDecimal Ax = new BigDecimal(ax), Ay = new BigDecimal(ay);
+		return new BigDecimal(bx).subtract(Ax)
+					 .multiply(new BigDecimal(cy).subtract(Ay))
+					 .subtract(new BigDecimal(by).subtract(Ay)
+								     .multiply(new BigDecimal(cx).subtract(Ax)))
+					 .signum();
+	}
+
+	/**
+	 * positive if d is inside the circle through the counter-clockwise triangle a, b, c, negative if it's outside, 0 if it's on it
+	 */
+	protected int inCircle(int a, int b, int c, int d) {
+		return inCircle(xy[2 * a], xy[2 * a + 1], xy[2 * b], xy[2 * b + 1], xy[2 * c], xy[2 * c + 1], xy[2 * d], xy[2 * d + 1]);
+	}
+
+	static public int inCircle(double ax, double ay, double bx, double by, double cx, double cy, double dx, double dy) {
+		double adx = ax - dx, ady = ay - dy, bdx = bx - dx, bdy = by - dy, cdx = cx - dx, cdy = cy - dy;
+
+		double bdxcdy = bdx * cdy, cdxbdy = cdx * bdy, alift = adx * adx + ady * ady;
+		double cdxady = cdx * ady, adxcdy = adx * cdy, blift = bdx * bdx + bdy * bdy;
+		double adxbdy = adx * bdy, bdxady = bdx * ady, clift = cdx * cdx + cdy * cdy;
+
+		double det = alift * (bdxcdy - cdxbdy) + blift * (cdxady - adxcdy) + clift * (adxbdy - bdxady);
+		double permanent = (Math.abs(bdxcdy) + Math.abs(cdxbdy)) * alift + (Math.abs(cdxady) + Math.abs(adxcdy)) * blift + (Math.abs(adxbdy) + Math.abs(bdxady)) * clift;
+		double bound = 1.1102230246251577e-15 * permanent;
+		if (det > bound) return 1;
+		if (-det > bound) return -1;
+
+		BigDecimal Dx = new BigDecimal(dx), Dy = new BigDecimal(dy);
+		BigDecimal Adx = new BigDecimal(ax).subtract(Dx), Ady = new BigDecimal(ay).subtract(Dy);
+		BigDecimal Bdx = new BigDecimal(bx).subtract(Dx), Bdy = new BigDecimal(by).subtract(Dy);
+		BigDecimal Cdx = new BigDecimal(cx).subtract(Dx), Cdy = new BigDecimal(cy).subtract(Dy);
+
+		BigDecimal A = Adx.multiply(Adx)
+				  .add(Ady.multiply(Ady));
+		BigDecimal B = Bdx.multiply(Bdx)
+				  .add(Bdy.multiply(Bdy));
+		BigDecimal C = Cdx.multiply(Cdx)
+				  .add(Cdy.multiply(Cdy));
+
+		return A.multiply(Bdx.multiply(Cdy)
+				     .subtract(Cdx.multiply(Bdy)))
+			.add(B.multiply(Cdx.multiply(Ady)
+					   .subtract(Adx.multiply(Cdy))))
+			.add(C.multiply(Adx.multiply(Bdy)
+					   .subtract(Bdx.multiply(Ady))))
+			.signum();
+	}
+
+	@Override
+	public String toString() {
+		return "Delaunay " + (vertices - 3) + " sites, " + triangles + " triangles, " + walkSteps + " walk steps, " + flips + " flips";
+	}
+}
@@ -0,0 +1,264 @@
+package field.utility;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Shortest paths over a graph that's described by functions (like Dijkstra, which is now a thin wrapper around this).
+ * <p>
+ * Vertices are given int ids as they are discovered, distances and back-pointers are kept in flat arrays indexed by those ids, and the frontier is
+ * an indexed 4-ary heap, so improving a vertex's distance is a decrease-key (O(log n)) rather than a remove and re-add. Edge lengths must not be
+ * negative.
+ * <p>
+ * computePaths(source) settles everything reachable from source, computePaths(source, targets) stops as soon as all of the targets are settled,
+ * and computePath(source, target, heuristic) is A*; the heuristic is a lower bound on the distance from a vertex to the target (vertices get
+ * reopened if it turns out to be inconsistent, so the answer is still the shortest path as long as it's a lower bound).
+ * <p>
+ * Each compute call starts from scratch; the results stay around for distanceTo and getShortestPathTo until the next one.
+ */
+public class GraphSearch<t_vertex, t_edge> {
+
+	static private final int D = 4;
+
+	// heap position markers
+	static private final int UNSEEN = -1;
+	static private final int SETTLED = -2;
+
+	private final Function<t_edge, Number> length;
+	private final Function<t_edge, t_vertex> output;
+	private final Function<t_vertex, Collection<t_edge>> edgesFor;
+
+	// vertex <-> id
+	protected final Map<t_vertex, Integer> ids = new HashMap<>();
+	protected final List<t_vertex> vertices = new ArrayList<>();
+
+	// per id
+	protected double[] distance = new double[16];
+	protected double[] key = new double[16];
+	protected int[] position = new int[16];
+	protected int[] previous = new int[16];
+	protected Object[] previousEdge = new Object[16];
+
+	// the heap itself, of ids
+	protected int[] heap = new int[16];
+	protected int heapSize = 0;
+
+	protected int settled = 0;
+
+	public GraphSearch(Function<t_edge, Number> length, Function<t_edge, t_vertex> output, Function<t_vertex, Collection<t_edge>> edgesFor) {
+		this.length = length;
+		this.output = output;
+		this.edgesFor = edgesFor;
+	}
+
+	/**
+	 * settles every vertex reachable from source
+	 */
+	public GraphSearch<t_vertex, t_edge> computePaths(t_vertex source) {
+		search(source, null, null);
+		return this;
+	}
+
+	/**
+	 * settles vertices reachable from source until all of the targets have been settled (or there's nothing left to settle)
+	 */
+	public GraphSearch<t_vertex, t_edge> computePaths(t_vertex source, Collection<t_vertex> targets) {
+		search(source, targets, null);
+		return this;
+	}
+
+	/**
+	 * A* from source to target. 'heuristic' must never overestimate the distance from a vertex to target. Passing null for heuristic is the same as
+	 * computePaths(source, Collections.singleton(target))
+	 */
+	public GraphSearch<t_vertex, t_edge> computePath(t_vertex source, t_vertex target, ToDoubleFunction<t_vertex> heuristic) {
+		search(source, Collections.singleton(target), heuristic);
+		return this;
+	}
+
+	/**
+	 * the length of the shortest path to target found by the last compute call, or POSITIVE_INFINITY if it wasn't reached
+	 */
+	public double distanceTo(t_vertex target) {
+		Integer i = ids.get(target);
+		if (i == null || position[i] != SETTLED) return Double.POSITIVE_INFINITY;
+		return distance[i];
+	}
+
+	/**
+	 * the shortest path to target as a list of (vertex, edge leaving that vertex) pairs, or null if target wasn't reached (or is the source)
+	 */
+	public List<Pair<t_vertex, t_edge>> getShortestPathTo(t_vertex target) {
+		Integer t = ids.get(target);
+		if (t == null || position[t] != SETTLED || previous[t] == -1) return null;
+
+		List<Pair<t_vertex, t_edge>> path = new ArrayList<>();
+		for (int i = t; previous[i] != -1; i = previous[i]) {
+			// previousEdge only ever holds edges handed to us by edgesFor
+			@SuppressWarnings("unchecked") t_edge e = (t_edge) previousEdge[i];
+			path.add(new Pair<>(vertices.get(previous[i]), e));
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * the number of vertices settled by the last compute call
+	 */
+	public int getSettledCount() {
+		return settled;
+	}
+
+	protected void search(t_vertex source, Collection<t_vertex> targets, ToDoubleFunction<t_vertex> heuristic) {
+		clear();
+
+		int remaining = 0;
+		boolean[] target = null;
+		if (targets != null) {
+			for (t_vertex v : targets)
+				intern(v);
+			target = new boolean[distance.length];
+			for (t_vertex v : targets) {
+				int i = ids.get(v);
+				if (!target[i]) remaining++;
+				target[i] = true;
+			}
+			if (remaining == 0) return;
+		}
+
+		int s = intern(source);
+		distance[s] = 0;
+		push(s, heuristic == null ? 0 : heuristic.applyAsDouble(source));
+
+		while (heapSize > 0) {
+			int u = pop();
+			position[u] = SETTLED;
+			settled++;
+
+			if (target != null && u < target.length && target[u]) {
+				target[u] = false;
+				if (--remaining == 0) return;
+			}
+
+			double du = distance[u];
+			for (t_edge e : edgesFor.apply(vertices.get(u))) {
+				double w = length.apply(e)
+						 .doubleValue();
+				if (w < 0) throw new IllegalArgumentException(" negative edge length " + w + " for " + e);
+
+				int v = intern(output.apply(e));
+				double dv = du + w;
+				if (dv >= distance[v]) continue;
+
+				distance[v] = dv;
+				previous[v] = u;
+				previousEdge[v] = e;
+
+				double k = heuristic == null ? dv : dv + heuristic.applyAsDouble(vertices.get(v));
+				if (position[v] >= 0) decrease(v, k);
+				else {
+					// an inconsistent heuristic can improve something that's already settled, reopen it
+					if (position[v] == SETTLED) settled--;
+					push(v, k);
+				}
+			}
+		}
+	}
+
+	protected void clear() {
+		ids.clear();
+		vertices.clear();
+		heapSize = 0;
+		settled = 0;
+	}
+
+	protected int intern(t_vertex v) {
+		Integer i = ids.get(v);
+		if (i != null) return i;
+
+		int n = vertices.size();
+		if (n == distance.length) {
+			int c = 2 * n;
+			distance = Arrays.copyOf(distance, c);
+			key = Arrays.copyOf(key, c);
+			position = Arrays.copyOf(position, c);
+			previous = Arrays.copyOf(previous, c);
+			previousEdge = Arrays.copyOf(previousEdge, c);
+		}
+		ids.put(v, n);
+		vertices.add(v);
+		distance[n] = Double.POSITIVE_INFINITY;
+		position[n] = UNSEEN;
+		previous[n] = -1;
+		previousEdge[n] = null;
+		return n;
+	}
+
+	protected void push(int v, double k) {
+		if (heapSize == heap.length) heap = Arrays.copyOf(heap, 2 * heapSize);
+		key[v] = k;
+		heap[heapSize] = v;
+		position[v] = heapSize;
+		up(heapSize++);
+	}
+
+	protected int pop() {
+		int top = heap[0];
+		int last = heap[--heapSize];
+		if (heapSize > 0) {
+			heap[0] = last;
+			position[last] = 0;
+			down(0);
+		}
+		return top;
+	}
+
+	protected void decrease(int v, double k) {
+		key[v] = k;
+		up(position[v]);
+	}
+
+	private void up(int at) {
+		int v = heap[at];
+		double k = key[v];
+		while (at > 0) {
+			int parent = (at - 1) / D;
+			int p = heap[parent];
+			if (key[p] <= k) break;
+			heap[at] = p;
+			position[p] = at;
+			at = parent;
+		}
+		heap[at] = v;
+		position[v] = at;
+	}
+
+	private void down(int at) {
+		int v = heap[at];
+		double k = key[v];
+		while (true) {
+			int first = D * at + 1;
+			if (first >= heapSize) break;
+			int last = Math.min(first + D, heapSize);
+
+			int best = first;
+			double bk = key[heap[first]];
+			for (int c = first + 1; c < last; c++) {
+				double ck = key[heap[c]];
+				if (ck < bk) {
+					best = c;
+					bk = ck;
+				}
+			}
+			if (bk >= k) break;
+
+			int b = heap[best];
+			heap[at] = b;
+			position[b] = at;
+			at = best;
+		}
+		heap[at] = v;
+		position[v] = at;
+	}
+}
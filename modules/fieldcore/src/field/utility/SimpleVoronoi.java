@@ -37,33 +37,40 @@ import java.util.*;
 public class SimpleVoronoi {
 
 	int initialSize = 10000;
-	Triangle initialTriangle = new Triangle(new Pnt(-initialSize, -initialSize), new Pnt(initialSize, -initialSize), new Pnt(0, initialSize));
-	Triangulation dt = new Triangulation(initialTriangle);
+	Delaunay dt = new Delaunay(-initialSize, -initialSize, initialSize, -initialSize, 0, initialSize);
+	Map<Pnt, Integer> vertices = new HashMap<>();
 
 	public Pnt add(Vec2 location) {
 		Pnt site = new Pnt((float)location.x, (float)location.y);
-		dt.delaunayPlace(site);
+		vertices.put(site, dt.add(site.coord(0), site.coord(1)));
 		return site;
 	}
 
-	public Pnt[] getContourForSite(Pnt sitex) {
-		HashSet<Pnt> done = new HashSet<Pnt>(initialTriangle);
-		for (Triangle triangle : dt)
-			for (Pnt site : triangle) {
-				if (done.contains(site))
-					continue;
-				done.add(site);
-				List<Triangle> list = dt.surroundingTriangles(site, triangle);
-				Pnt[] vertices = new Pnt[list.size()];
-				int i = 0;
-				for (Triangle tri : list)
-					vertices[i++] = tri.getCircumcenter();
-				// draw(vertices, withFill ? getColor(site) :
-				// null);
-				if (site == sitex)
-					return vertices;
-			}
-		return null;
+	/**
+	 * the Voronoi cell around a site that was returned by add, counter-clockwise
+	 */
+	public Pnt[] getContourForSite(Pnt site) {
+		Integer v = vertices.get(site);
+		if (v == null) return null;
+		return toPnts(dt.cell(v));
+	}
+
+	/**
+	 * the Voronoi cells of every site that's been added, worked out in parallel
+	 */
+	public Map<Pnt, Pnt[]> getContours() {
+		double[][] cells = dt.cells();
+		Map<Pnt, Pnt[]> out = new LinkedHashMap<>();
+		for (Map.Entry<Pnt, Integer> e : vertices.entrySet())
+			out.put(e.getKey(), toPnts(cells[e.getValue() - 3]));
+		return out;
+	}
+
+	static protected Pnt[] toPnts(double[] xy) {
+		Pnt[] p = new Pnt[xy.length / 2];
+		for (int i = 0; i < p.length; i++)
+			p[i] = new Pnt((float) xy[2 * i], (float) xy[2 * i + 1]);
+		return p;
 	}
 
 	protected float area(Pnt[] A) {
@@ -66,6 +66,7 @@ public class Open {
 	private PluginList pluginList;
 	private Map<String, List<Object>> plugins;
 	private Nashorn javascript;
+	private Startup startup;
 
 	private int sizeX = AutoPersist.persist("window_sizeX", () -> 1000, x -> Math.min(1920 * 2, Math.max(100, x)), (x) -> window == null ? x : (int) window.getBounds().w);
 	private int sizeY = AutoPersist.persist("window_sizeY", () -> 800, x -> Math.min(1920 * 2, Math.max(100, x)), (x) -> window == null ? x : (int) window.getBounds().h);
@@ -159,118 +160,122 @@ public class Open {
 
 		boxes.root().properties.put(fieldFilename, filename);
 
-		new DefaultMenus(boxes.root(), filename).connect(boxes.root());
+		Box root = boxes.root();
+		startup = new Startup(root);
+
+		startup.plugin("DefaultMenus", () -> new DefaultMenus(root, filename));
 
 		// MarkingMenus must come before FrameManipulation, so FrameManipulation can handle selection state modification before MarkingMenus run
-		markingMenus = (MarkingMenus) new MarkingMenus(boxes.root()).connect(boxes.root());
+		markingMenus = startup.plugin("MarkingMenus", () -> new MarkingMenus(root));
 
-		frameManipulation = (FrameManipulation) new FrameManipulation(boxes.root()).connect(boxes.root());
+		frameManipulation = startup.plugin("FrameManipulation", () -> new FrameManipulation(root));
 
 		// Interaction must come before frameManipulation, otherwise all those drags with FLines become marquees on the canvas
-		interaction = (FLineInteraction) new FLineInteraction(boxes.root()).connect(boxes.root());
+		interaction = startup.plugin("FLineInteraction", () -> new FLineInteraction(root));
 
 		// here are some examples of plugins
-		new Delete(boxes.root()).connect(boxes.root());
+		startup.plugin("Delete", () -> new Delete(root));
 
-		new Topology(boxes.root()).connect(boxes.root());
+		startup.plugin("Topology", () -> new Topology(root));
 
-		new Dispatch(boxes.root()).connect(boxes.root());
+		startup.plugin("Dispatch", () -> new Dispatch(root));
 
-		new Chorder(boxes.root()).connect(boxes.root());
+		startup.plugin("Chorder", () -> new Chorder(root));
 
 
-		new Meshes(boxes.root()).connect(boxes.root());
+		startup.plugin("Meshes", () -> new Meshes(root));
 
-		new IsExecuting(boxes.root()).connect(boxes.root());
+		startup.plugin("IsExecuting", () -> new IsExecuting(root));
 
-		new Rename(boxes.root()).connect(boxes.root());
+		startup.plugin("Rename", () -> new Rename(root));
 
-		new DoubleClickToRename(boxes.root()).connect(boxes.root());
+		startup.plugin("DoubleClickToRename", () -> new DoubleClickToRename(root));
 
-		new Scrolling(boxes.root()).connect(boxes.root());
+		startup.plugin("Scrolling", () -> new Scrolling(root));
 
-		new GraphicsSupport(boxes.root()).connect(boxes.root());
+		startup.plugin("GraphicsSupport", () -> new GraphicsSupport(root));
 
-		new BlankCanvas(boxes.root()).connect(boxes.root());
+		startup.plugin("BlankCanvas", () -> new BlankCanvas(root));
 
-		new DragFilesToCanvas(boxes.root()).connect(boxes.root());
+		startup.plugin("DragFilesToCanvas", () -> new DragFilesToCanvas(root));
 
-		new Reload(boxes.root()).connect(boxes.root());
+		startup.plugin("Reload", () -> new Reload(root));
 
-		new PluginsPlugin(boxes.root()).connect(boxes.root());
+		startup.plugin("PluginsPlugin", () -> new PluginsPlugin(root));
 
-		new FrameConstraints(boxes.root()).connect(boxes.root());
+		startup.plugin("FrameConstraints", () -> new FrameConstraints(root));
 
-		new Alignment(boxes.root()).connect(boxes.root());
+		startup.plugin("Alignment", () -> new Alignment(root));
 
-		new BoxPair(boxes.root()).connect(boxes.root());
+		startup.plugin("BoxPair", () -> new BoxPair(root));
 
 //		new StatusBar(boxes.root()).connect(boxes.root());
 
-		new HotkeyMenus(boxes.root(), null).connect(boxes.root());
+		startup.plugin("HotkeyMenus", () -> new HotkeyMenus(root, null));
 
-		new Threading().connect(boxes.root());
+		startup.plugin("Threading", () -> new Threading());
 
 //		new Typing(boxes.root()).connect(boxes.root());
 
-		new MakeNewTextEditor(boxes.root()).connect(boxes.root());
+		startup.plugin("MakeNewTextEditor", () -> new MakeNewTextEditor(root));
 
-		new RunCommand(boxes.root()).connect(boxes.root());
+		startup.plugin("RunCommand", () -> new RunCommand(root));
 
-		new Auto(boxes.root()).connect(boxes.root());
+		startup.plugin("Auto", () -> new Auto(root));
 
-		new FrameChangedHash(boxes.root()).connect(boxes.root());
+		startup.plugin("FrameChangedHash", () -> new FrameChangedHash(root));
 
-		new Directionality(boxes.root()).connect(boxes.root());
-		new Handles(boxes.root()).connect(boxes.root());
+		startup.plugin("Directionality", () -> new Directionality(root));
+		startup.plugin("Handles", () -> new Handles(root));
 
-		new Create(boxes.root()).connect(boxes.root());
+		startup.plugin("Create", () -> new Create(root));
 
-		new DragToCopy(boxes.root()).connect(boxes.root());
+		startup.plugin("DragToCopy", () -> new DragToCopy(root));
 
-		new Pseudo(boxes.root()).connect(boxes.root());
+		startup.plugin("Pseudo", () -> new Pseudo(root));
 
-		new Taps(boxes.root()).connect(boxes.root());
+		startup.plugin("Taps", () -> new Taps(root));
 
-		new Image(boxes.root()).connect(boxes.root());
+		startup.plugin("Image", () -> new Image(root));
 
 
-		new Templates(boxes.root()).connect(boxes.root());
+		startup.plugin("Templates", () -> new Templates(root));
 
-		new Notifications(boxes.root()).connect(boxes.root());
+		startup.plugin("Notifications", () -> new Notifications(root));
 
-		new KeyboardFocus(boxes.root()).connect(boxes.root());
+		startup.plugin("KeyboardFocus", () -> new KeyboardFocus(root));
 
-		new RevealInFinder(boxes.root()).connect(boxes.root());
+		startup.plugin("RevealInFinder", () -> new RevealInFinder(root));
 
-		new Channels(boxes.root()).connect(boxes.root());
+		startup.plugin("Channels", () -> new Channels(root));
 
-		new MissingStream(boxes.root()).connect(boxes.root());
+		startup.plugin("MissingStream", () -> new MissingStream(root));
 
-		new KeyboardShortcuts(boxes.root()).connect(boxes.root());
+		startup.plugin("KeyboardShortcuts", () -> new KeyboardShortcuts(root));
 
-		new PresentationMode(boxes.root()).connect(boxes.root());
+		startup.plugin("PresentationMode", () -> new PresentationMode(root));
 
-		new Increment(boxes.root()).connect(boxes.root());
+		startup.plugin("Increment", () -> new Increment(root));
 
-		new Out(boxes.root()).connect(boxes.root());
+		startup.plugin("Out", () -> new Out(root));
 
-		new Group(boxes.root()).connect(boxes.root());
+		startup.plugin("Group", () -> new Group(root));
 
-		new WebApps(boxes.root()).connect(boxes.root());
+		startup.plugin("WebApps", () -> new WebApps(root));
 
-		new Exec(boxes.root()).connect(boxes.root());
+		startup.plugin("Exec", () -> new Exec(root));
 
 		if (FieldBox.fieldBox.io2!=null)
 		{
-			new IO2Interface(boxes.root()).connect(boxes.root());
+			startup.plugin("IO2Interface", () -> new IO2Interface(root));
 		}
 
 
-		if (ThreadSync.enabled) new ThreadSyncFeedback(boxes.root()).connect(boxes.root());
+		if (ThreadSync.enabled) startup.plugin("ThreadSyncFeedback", () -> new ThreadSyncFeedback(root));
+
+		FileBrowser fb = startup.plugin("FileBrowser", () -> new FileBrowser(root));
 
-		FileBrowser fb = new FileBrowser(boxes.root());
-		fb.connect(boxes.root());
+		startup.finish();
 
 		/* cascade two blurs, a vertical and a horizontal together from the glass layer onto the base layer */
 		Compositor.Layer lx = window.getCompositor()
@@ -379,24 +384,20 @@ public class Open {
 
 			System.err.println(" booting up text editor ");
 
-			new TextEditor(boxes.root()).connect(boxes.root());
-			new GlassBrowser(boxes.root()).connect(boxes.root());
-			new OutputBox(boxes.root()).connect(boxes.root());
-			new NotificationBox(boxes.root()).connect(boxes.root());
+			startup.plugin("TextEditor", () -> new TextEditor(root));
+			startup.plugin("GlassBrowser", () -> new GlassBrowser(root));
+			startup.plugin("OutputBox", () -> new OutputBox(root));
+			startup.plugin("NotificationBox", () -> new NotificationBox(root));
 
 			if (Main.os!=Main.OS.windows) {
 
-				new BoxBrowser(boxes.root()).connect(boxes.root());
-				new TextEditor_boxBrowser(boxes.root()).connect(boxes.root());
+				startup.plugin("BoxBrowser", () -> new BoxBrowser(root));
+				startup.plugin("TextEditor_boxBrowser", () -> new TextEditor_boxBrowser(root));
 			}
 
 			// call loaded on everything above root
 			Log.log("startup", () -> "calling .loaded on plugins");
-			boxes.root()
-			     .breadthFirst(boxes.root()
-						.upwards())
-			     .filter(x -> x instanceof IO.Loaded)
-			     .forEach(x -> ((IO.Loaded) x).loaded());
+			startup.loadedAll();
 
 		});
 
@@ -473,7 +474,9 @@ public class Open {
 
 
 		GraphicsContext.getContext().stateTracker.viewport.set(new int[]{0, 0, window.getFrameBufferWidth(), window.getFrameBufferHeight()});
-		GraphicsContext.getContext().stateTracker.scissor.set(new int[]{0, 0, window.getFrameBufferWidth(), window.getFrameBufferHeight()});
+		// only clear (and draw into) the damaged part of the layer, if that's all that's being redrawn
+		GraphicsContext.getContext().stateTracker.scissor.set(window.getCompositor()
+									    .getScissor(new int[]{0, 0, window.getFrameBufferWidth(), window.getFrameBufferHeight()}));
 		glClearColor((float) Colors.backgroundColor.x, (float) Colors.backgroundColor.y, (float) Colors.backgroundColor.z, 1);
 		glClear(GL11.GL_COLOR_BUFFER_BIT);
 		glEnable(GL11.GL_BLEND);
@@ -500,7 +503,8 @@ public class Open {
 	public boolean defaultGLPreambleTransparent(int pass) {
 
 		GraphicsContext.getContext().stateTracker.viewport.set(new int[]{0, 0, window.getFrameBufferWidth(), window.getFrameBufferHeight()});
-		GraphicsContext.getContext().stateTracker.scissor.set(new int[]{0, 0, window.getFrameBufferWidth(), window.getFrameBufferHeight()});
+		GraphicsContext.getContext().stateTracker.scissor.set(window.getCompositor()
+									    .getScissor(new int[]{0, 0, window.getFrameBufferWidth(), window.getFrameBufferHeight()}));
 		glClearColor((float) Colors.backgroundColor.x, (float) Colors.backgroundColor.y, (float) Colors.backgroundColor.z, 0);
 		glClear(GL11.GL_COLOR_BUFFER_BIT);
 		glEnable(GL11.GL_BLEND);
@@ -0,0 +1,134 @@
+package fieldbox;
+
+import field.utility.Log;
+import fieldbox.boxes.Box;
+import fieldbox.io.IO;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Constructs and connects the plugins that Open puts above the root of the box graph, and keeps a timeline of how long each of them took to
+ * construct, connect and have loaded() called on it.
+ * <p>
+ * Everything is made on the main thread, in the order that it's declared, because that's the order that plugins see events in, and because many of
+ * them touch the graphics system or the box graph while they are being constructed.
+ * <p>
+ * The timeline goes to the "startup.timeline" log channel, once from finish() and once after loaded() has been called on everything.
+ */
+public class Startup {
+
+	static public class Entry {
+		public final String name;
+		protected long constructStart = -1, constructEnd = -1;
+		protected long installStart = -1, installEnd = -1;
+		protected long loadedStart = -1, loadedEnd = -1;
+
+		protected Entry(String name) {
+			this.name = name;
+		}
+	}
+
+	protected final Box root;
+	protected final long t0 = System.nanoTime();
+
+	protected final Map<String, Entry> entries = new LinkedHashMap<>();
+	protected final Map<Box, Entry> byBox = new IdentityHashMap<>();
+
+	public Startup(Box root) {
+		this.root = root;
+	}
+
+	protected long now() {
+		return System.nanoTime() - t0;
+	}
+
+	protected Entry entry(String name) {
+		Entry e = new Entry(name);
+		entries.put(name, e);
+		return e;
+	}
+
+	protected <T extends Box> T construct(Entry e, Supplier<T> make) {
+		e.constructStart = now();
+		try {
+			return make.get();
+		} finally {
+			e.constructEnd = now();
+		}
+	}
+
+	protected Box install(Entry e, Box b) {
+		e.installStart = now();
+		b.connect(root);
+		e.installEnd = now();
+		byBox.put(b, e);
+		return b;
+	}
+
+	/**
+	 * constructs and connects this plugin now
+	 */
+	public <T extends Box> T plugin(String name, Supplier<T> make) {
+		Entry e = entry(name);
+		T b = construct(e, make);
+		install(e, b);
+		return b;
+	}
+
+	/**
+	 * called once the plugins have been made, logs the timeline so far
+	 */
+	public void finish() {
+		Log.log("startup.timeline", this::timeline);
+	}
+
+	/**
+	 * calls loaded() on this box, recording how long it took if it's one of ours
+	 */
+	public void loaded(Box b) {
+		Entry e = byBox.get(b);
+		if (e != null) e.loadedStart = now();
+		try {
+			((IO.Loaded) b).loaded();
+		} finally {
+			if (e != null) e.loadedEnd = now();
+		}
+	}
+
+	/**
+	 * calls loaded() on everything above root (this is what Open does once everything is set up)
+	 */
+	public void loadedAll() {
+		root.breadthFirst(root.upwards())
+		    .filter(x -> x instanceof IO.Loaded)
+		    .forEach(this::loaded);
+		Log.log("startup.timeline", this::timeline);
+	}
+
+	/**
+	 * one line per plugin, in the order that they started, with the time (in ms since we were made) that each phase started at and how long it took
+	 */
+	public String timeline() {
+		List<Entry> all = new ArrayList<>(entries.values());
+		all.sort(Comparator.comparingLong((Entry x) -> x.constructStart == -1 ? Long.MAX_VALUE : x.constructStart));
+
+		StringBuilder s = new StringBuilder("startup timeline (ms): name, construct @start+duration, install, loaded\n");
+		long total = 0;
+		for (Entry e : all) {
+			s.append(String.format("%-28s %s %s %s%n", e.name, phase(e.constructStart, e.constructEnd), phase(e.installStart, e.installEnd), phase(e.loadedStart, e.loadedEnd)));
+			total += span(e.constructStart, e.constructEnd) + span(e.installStart, e.installEnd) + span(e.loadedStart, e.loadedEnd);
+		}
+		s.append(String.format("plugins total %.1fms, elapsed %.1fms%n", total / 1e6, now() / 1e6));
+		return s.toString();
+	}
+
+	static protected long span(long a, long b) {
+		return a == -1 || b == -1 ? 0 : b - a;
+	}
+
+	static protected String phase(long a, long b) {
+		if (a == -1) return "          -";
+		return String.format("%7.1f+%-6.1f", a / 1e6, span(a, b) / 1e6);
+	}
+}
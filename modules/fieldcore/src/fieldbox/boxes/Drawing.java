@@ -2,16 +2,22 @@ package fieldbox.boxes;
 
 import field.app.RunLoop;
 import field.graphics.*;
+import field.graphics.gdxtext.DrawBitmapFont;
 import field.linalg.Vec2;
+import field.linalg.Vec3;
 import field.linalg.Vec4;
 import field.utility.Dict;
+import field.utility.Log;
+import field.utility.Pair;
 import field.utility.Rect;
 import field.utility.Util;
 import fieldbox.io.IO;
+import fieldbox.ui.Compositor;
 import fieldbox.ui.FieldBoxWindow;
 import fieldnashorn.annotations.HiddenInAutocomplete;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static field.graphics.StandardFLineDrawing.*;
@@ -27,6 +33,13 @@ import static fieldbox.boxes.FLineDrawing.*;
  * Drawing for the FieldBoxWindow is done lazily --- unless somebody requests it through calling Drawing.dirty(box), or occasionally the windowing system asks for it (on damage or resize), repainting
  * will not happen during the RunLoop.
  * <p>
+ * Repainting is also partial: Drawing.dirty(box) only damages the part of the layer that the box's frame covers, and FLineDrawing reports the bounds
+ * of every line that has changed since the last repaint. Lines that lie outside of the damaged region of their layer aren't sent to OpenGL at all
+ * and the layer is redrawn with a scissor (see Compositor.Layer.dirty(Rect)). Set the option 'partialRedraw' to false to turn this off.
+ * <p>
+ * Layers that something draws into behind our back (a Drawer that doesn't say otherwise through Drawer.drawsUntracked, late drawers like Viewport,
+ * anything that asks for a MeshBuilder outside of FLineDrawing's dispatch) can't be repaired piecemeal, and are redrawn in full from then on.
+ * <p>
  * This class also maintains the current relationships between window coordinates (aka mouse coordinates, aka pixels) and OpenGL coordinates (aka Box's frames aka drawing coordinates). The
  * transformation between for geometry happens entirely in the OpenGL shaders here and the math is duplicated in convenience functions.
  * <p>
@@ -70,6 +83,24 @@ public class Drawing extends Box implements DrawingInterface {
 	private Vec2 boxScale = new Vec2(1, 1);
 	private float opacity = 1f;
 
+	// how far outside of a box's frame its default decoration (selection trim, rounded corners) can reach, in drawing coordinates
+	static public float damagePadding = 24;
+
+	// what each box drew into each layer the last time we drew, so we can work out what has changed
+	protected Map<Box, Map<String, Drawn>> drawnLastTime = new WeakHashMap<>();
+	protected Map<Box, Map<String, Drawn>> drawnThisTime = new WeakHashMap<>();
+	protected WeakHashMap<FLine, Pair<Long, Rect>> boundsCache = new WeakHashMap<>();
+
+	// layers that have something drawn into them that we can't see, these don't track their damage
+	protected Set<String> untracked = new LinkedHashSet<>();
+	// true while FLineDrawing is dispatching the lines that it has recorded
+	protected boolean recording = false;
+
+	static protected class Drawn {
+		long signature = 17;
+		Rect bounds;
+	}
+
 	public Drawing() {
 
 	}
@@ -113,12 +144,22 @@ public class Drawing extends Box implements DrawingInterface {
 			explicitLayerName = explicitLayerName.substring(0, explicitLayerName.length() - ".fast".length());
 
 		String finalExplicitLayerName = explicitLayerName;
+
+		// boxes with frames damage just the area around them (and whatever FLineDrawing later finds has changed), everything else damages the whole layer
+		Rect frame = b.properties.get(Box.frame);
+		Rect damage = frame == null ? null : b.find(drawing, b.both())
+			.findFirst()
+			.map(d -> d.windowSpaceBoundsOf(frame.inset(-damagePadding)))
+			.orElse(null);
+
 		b.find(Boxes.window, b.both())
 			.findFirst()
 			.ifPresent(x -> {
 				x.requestRepaint();
-				x.getCompositor()
-					.getLayer(finalExplicitLayerName).dirty();
+				Compositor.Layer l = x.getCompositor()
+					.getLayer(finalExplicitLayerName);
+				if (damage == null) l.dirty();
+				else l.dirty(damage);
 			});
 
 	}
@@ -330,6 +371,12 @@ public class Drawing extends Box implements DrawingInterface {
 
 		this.properties.put(drawing, this);
 
+		// everything in this layer either goes through us, or calls Drawing.dirty, so it's safe to only repaint the parts of it that have changed
+		// (until drawsUntracked says otherwise)
+		window.getCompositor()
+			.getLayer(layerName)
+			.setTracksDamage(!untracked.contains(layerName));
+
 		if (layerName.equals("__main__")) {
 			graphicsContext.preQueue.add(() -> drawNow(root));
 			window.getCompositor()
@@ -361,6 +408,8 @@ public class Drawing extends Box implements DrawingInterface {
 			fast = true;
 		}
 
+		if (!recording) drawsUntracked(layerName);
+
 		PerLayer l = layerLocal.get(layerName);
 		MeshBuilder ll = fast ? l._fastLine : l._line;
 		if (ll.isOpen()) return ll;
@@ -374,6 +423,8 @@ public class Drawing extends Box implements DrawingInterface {
 			fast = true;
 		}
 
+		if (!recording) drawsUntracked(layerName);
+
 		PerLayer l = layerLocal.get(layerName);
 		MeshBuilder ll = fast ? l._fastMesh : l._mesh;
 		if (ll.isOpen()) return ll;
@@ -388,6 +439,8 @@ public class Drawing extends Box implements DrawingInterface {
 			fast = true;
 		}
 
+		if (!recording) drawsUntracked(layerName);
+
 		PerLayer l = layerLocal.get(layerName);
 		MeshBuilder ll = fast ? l._fastPoint : l._point;
 		if (ll.isOpen()) return ll;
@@ -495,17 +548,28 @@ public class Drawing extends Box implements DrawingInterface {
 	}
 
 	public void drawNow(Box root) {
+		Optional<FieldBoxWindow> window = find(Boxes.window, both()).findFirst();
+
 		Boolean q = root.properties.remove(needRepaint);
-		if (q == null || !q) return;
+		// a layer that's going to be redrawn in its entirety needs all of its geometry, even if nobody has asked for a repaint
+		if ((q == null || !q) && !window.map(x -> x.getCompositor()
+			.needsCompleteGeometry())
+			.orElse(false)) return;
 
 		drawCount++;
 
-		find(Boxes.window, both()).findFirst()
-			.ifPresent(x -> {
+		window.ifPresent(x -> {
 				nextDimensions = new Vec2(x.getWidth(), x.getHeight());
 			});
 
 		if (translationNext != null || (lastDimensions != null && !Util.safeEq(lastDimensions, nextDimensions)) || scaleNext != null) {
+
+			// everything moves
+			window.ifPresent(x -> layerLocal.keySet()
+				.forEach(l -> x.getCompositor()
+					.getLayer(l)
+					.dirty()));
+
 			updateWindowSpaceBoxes(translation, translationNext == null ? translation : translationNext, lastDimensions == null ? nextDimensions : lastDimensions, nextDimensions, scale, scaleNext == null ? scale : scaleNext);
 
 			translation.x = (translationNext == null ? translation : translationNext).x;
@@ -518,14 +582,24 @@ public class Drawing extends Box implements DrawingInterface {
 
 		}
 
+		// find out which layers are going to have things drawn into them that don't report their damage before anything is drawn
+		List<Drawer> all = root.find(drawers, root.both())
+			.collect(Collectors.toList())
+			.stream()
+			.flatMap(x -> x.stream())
+			.collect(Collectors.toList()); // avoid concurrent modification
+
+		if (root.find(lateDrawers, root.both())
+			.anyMatch(x -> !x.isEmpty())) drawsUntracked("__main__");
+
+		for (Drawer d : all) {
+			Collection<String> u = d.drawsUntracked();
+			new ArrayList<>(u == null ? layerLocal.keySet() : u).forEach(this::drawsUntracked);
+		}
+
 		try (AutoCloseable ignored = closeable(bracketableList)) {
 			insideDrawing = true;
-			root.find(drawers, root.both())
-				.collect(Collectors.toList())
-				.stream()
-				.flatMap(x -> x.stream()).collect(Collectors.toList()) // avoid concurrent modification
-				.stream()
-				.forEach(x -> x.draw(this));
+			all.forEach(x -> x.draw(this));
 		} catch (Exception e) {
 			System.err.println(" exception thrown during drawing ");
 			e.printStackTrace();
@@ -542,6 +616,239 @@ public class Drawing extends Box implements DrawingInterface {
 	}
 
 
+	/**
+	 * converts a rectangle in drawing coordinates into window coordinates
+	 */
+	public Rect windowSpaceBoundsOf(Rect drawingSpace) {
+		Vec2 a = drawingSystemToWindowSystem(new Vec2(drawingSpace.x, drawingSpace.y));
+		Vec2 b = drawingSystemToWindowSystem(new Vec2(drawingSpace.x + drawingSpace.w, drawingSpace.y + drawingSpace.h));
+		return new Rect(Math.min(a.x, b.x), Math.min(a.y, b.y), Math.abs(b.x - a.x), Math.abs(b.y - a.y));
+	}
+
+	/**
+	 * a conservative bounding box for everything that 'line' draws, in drawing coordinates, not including its text. This includes the control
+	 * points of curves and the width of thickened strokes and points. Returns null for an empty line
+	 */
+	static public Rect drawnBoundsOf(FLine line) {
+		return drawnBoundsOf(line, null);
+	}
+
+	/**
+	 * like drawnBoundsOf(line) but including any text, laid out exactly as StandardFLineDrawing lays it out with the fonts given by 'fonts' (a
+	 * font filename to the font that will draw it). With 'fonts' null, no text is included
+	 */
+	static public Rect drawnBoundsOf(FLine line, Function<String, DrawBitmapFont> fonts) {
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY;
+		for (FLine.Node n : line.nodes) {
+			x0 = (float) Math.min(x0, n.to.x);
+			y0 = (float) Math.min(y0, n.to.y);
+			x1 = (float) Math.max(x1, n.to.x);
+			y1 = (float) Math.max(y1, n.to.y);
+			if (n instanceof FLine.CubicTo) {
+				FLine.CubicTo c = (FLine.CubicTo) n;
+				x0 = (float) Math.min(x0, Math.min(c.c1.x, c.c2.x));
+				y0 = (float) Math.min(y0, Math.min(c.c1.y, c.c2.y));
+				x1 = (float) Math.max(x1, Math.max(c.c1.x, c.c2.x));
+				y1 = (float) Math.max(y1, Math.max(c.c1.y, c.c2.y));
+			}
+		}
+		if (x0 > x1) return null;
+
+		float pad = 2;
+		java.awt.BasicStroke s = line.attributes.getOr(thicken, () -> null);
+		if (s != null) pad += s.getLineWidth() + s.getMiterLimit();
+		if (line.attributes.isTrue(pointed, false)) pad += line.attributes.getFloat(pointSize, 0f) + 2;
+
+		Rect r = new Rect(x0 - pad, y0 - pad, x1 - x0 + 2 * pad, y1 - y0 + 2 * pad);
+		if (fonts == null || !line.attributes.isTrue(hasText, false)) return r;
+
+		// this follows StandardFLineDrawing.dispatchLine
+		for (FLine.Node n : line.nodes) {
+			float ts = n.attributes.getFloat(textScale, 1f) * 0.15f;
+
+			if (n.attributes.has(text)) {
+				String t = n.attributes.get(text);
+				float align = n.attributes.getFloat(textAlign, 0.5f);
+				DrawBitmapFont f = fonts.apply(line.attributes.getOr(font, () -> "source-sans-pro-regular-92.fnt"));
+				Vec2 v = f.dimensions(t, ts);
+				r = Rect.union(r, f.bounds(t, new Vec2(n.to.x - align * v.x, n.to.y), ts));
+			}
+
+			if (n.attributes.has(textSpans)) {
+				List<String> spans = n.attributes.get(textSpans);
+				List<String> fontsForSpans = n.attributes.get(fontSpans);
+
+				String prev = "source-sans-pro-regular-92.fnt";
+				float width = 0;
+				for (int i = 0; i < spans.size(); i++) {
+					String f = fontsForSpans == null || i >= fontsForSpans.size() ? prev : fontsForSpans.get(i);
+					width += fonts.apply(line.attributes.getOr(font, () -> f))
+						.dimensions(spans.get(i), ts).x;
+					prev = f;
+				}
+
+				float o = 0;
+				for (int i = 0; i < spans.size(); i++) {
+					String f = fontsForSpans == null || i >= fontsForSpans.size() ? prev : fontsForSpans.get(i);
+					DrawBitmapFont df = fonts.apply(line.attributes.getOr(font, () -> f));
+					r = Rect.union(r, df.bounds(spans.get(i), new Vec2(n.to.x - width / 2 + o, n.to.y), ts));
+					o += df.dimensions(spans.get(i), ts).x;
+					prev = f;
+				}
+			}
+		}
+
+		// distance field text is smoothed a little past the edge of its glyphs
+		return r.inset(-2);
+	}
+
+	/**
+	 * the fonts that text in 'layerName' will be drawn with, or null if there's no text drawing for that layer (and so no text will be drawn)
+	 */
+	protected Function<String, DrawBitmapFont> fontsFor(String layerName) {
+		return getTextDrawing(this).filter(t -> t.layerLocal.containsKey(layerName))
+			.map(t -> (Function<String, DrawBitmapFont>) f -> t.getFontSupport(f, layerName).font)
+			.orElse(null);
+	}
+
+	/**
+	 * a signature of the attributes of 'line' and of its nodes. Changes to attributes aren't tracked by FLine's mod count
+	 */
+	static protected long attributeSignatureOf(FLine line) {
+		long h = signatureOf(line.attributes);
+		for (int i = 0; i < line.nodes.size(); i++) {
+			FLine.Node n = line.nodes.get(i);
+			if (n.attributes.getMap()
+				.isEmpty()) continue;
+			h = 31 * h + i;
+			h = 31 * h + signatureOf(n.attributes);
+		}
+		return h;
+	}
+
+	static protected long signatureOf(Dict attributes) {
+		long h = 0;
+		for (Map.Entry<?, Object> e : attributes.getMap()
+			.entrySet()) {
+			Object v = e.getValue();
+			// values are compared by value where we know that equal values draw the same, otherwise by identity (mutable things like Vec4 are
+			// compared by value, so changing a color in place counts)
+			int vh = v == null ? 0 : (v instanceof Number || v instanceof String || v instanceof Boolean || v instanceof Vec4 || v instanceof Vec3 || v instanceof Vec2 || v instanceof java.awt.BasicStroke || v instanceof Collection) ? v.hashCode() : System.identityHashCode(v);
+			// order independent, the map's iteration order isn't part of what's drawn
+			long x = ((Dict.Prop<?>) e.getKey())
+				.getName()
+				.hashCode() * 0x9E3779B97F4A7C15L + vh;
+			h += x ^ (x >>> 29);
+		}
+		return h;
+	}
+
+	protected Rect cachedBoundsOf(FLine line, String layerName, long attributeSignature) {
+		long key = 31L * line.getModCount() + attributeSignature;
+		Pair<Long, Rect> p = boundsCache.get(line);
+		if (p == null || p.first != key) boundsCache.put(line, p = new Pair<>(key, drawnBoundsOf(line, fontsFor(layerName))));
+		return p.second;
+	}
+
+	@HiddenInAutocomplete
+	@Override
+	public void recordDrawn(Box from, String layerName, FLine line) {
+		if (layerName.endsWith(".fast")) layerName = layerName.substring(0, layerName.length() - ".fast".length());
+
+		Drawn d = drawnThisTime.computeIfAbsent(from, k -> new LinkedHashMap<>())
+			.computeIfAbsent(layerName, k -> new Drawn());
+
+		// changes to attributes (the line's, or its nodes' --- text, textScale and so on) aren't tracked by FLine's mod count, so we fold them in here
+		long a = attributeSignatureOf(line);
+		d.signature = 31 * d.signature + System.identityHashCode(line);
+		d.signature = 31 * d.signature + line.getModCount();
+		d.signature = 31 * d.signature + line.nodes.size();
+		d.signature = 31 * d.signature + a;
+
+		d.bounds = Rect.union(d.bounds, cachedBoundsOf(line, layerName, a));
+	}
+
+	@HiddenInAutocomplete
+	@Override
+	public void dispatchRecorded(Runnable dispatch) {
+		boolean was = recording;
+		recording = true;
+		try {
+			dispatch.run();
+		} finally {
+			recording = was;
+		}
+	}
+
+	@HiddenInAutocomplete
+	@Override
+	public void drawsUntracked(String layerName) {
+		if (layerName.endsWith(".fast")) layerName = layerName.substring(0, layerName.length() - ".fast".length());
+		if (!untracked.add(layerName)) return;
+
+		String finalLayerName = layerName;
+		Log.log("drawing", () -> " layer " + finalLayerName + " has untracked drawing in it, it will always be redrawn in full");
+
+		// whatever was drawn into this layer so far this update might have been culled against its damage, so we draw it again next update
+		find(Boxes.window, both()).findFirst()
+			.ifPresent(x -> {
+				Compositor.Layer l = x.getCompositor()
+					.getLayer(finalLayerName);
+				if (l != null) l.setTracksDamage(false)
+					.dirty();
+				x.requestRepaint();
+			});
+		find(Boxes.root, both()).findFirst()
+			.ifPresent(x -> x.properties.put(needRepaint, true));
+	}
+
+	@HiddenInAutocomplete
+	@Override
+	public void damageFromRecords() {
+		Optional<FieldBoxWindow> window = find(Boxes.window, both()).findFirst();
+		if (!window.isPresent()) return;
+		Compositor compositor = window.get()
+			.getCompositor();
+
+		for (Map.Entry<Box, Map<String, Drawn>> e : drawnThisTime.entrySet()) {
+			Map<String, Drawn> was = drawnLastTime.remove(e.getKey());
+			for (Map.Entry<String, Drawn> now : e.getValue()
+				.entrySet()) {
+				Drawn before = was == null ? null : was.remove(now.getKey());
+				if (before != null && before.signature == now.getValue().signature && Util.safeEq(before.bounds, now.getValue().bounds))
+					continue;
+				damage(compositor, now.getKey(), Rect.union(before == null ? null : before.bounds, now.getValue().bounds));
+			}
+			// things that were drawn into layers that this box no longer draws into
+			if (was != null) was.forEach((layerName, before) -> damage(compositor, layerName, before.bounds));
+		}
+		// boxes that have stopped drawing altogether
+		drawnLastTime.values()
+			.forEach(m -> m.forEach((layerName, before) -> damage(compositor, layerName, before.bounds)));
+
+		drawnLastTime = drawnThisTime;
+		drawnThisTime = new WeakHashMap<>();
+	}
+
+	private void damage(Compositor compositor, String layerName, Rect drawingSpace) {
+		if (drawingSpace == null) return;
+		Compositor.Layer l = compositor.getLayer(layerName);
+		if (l != null) l.dirty(windowSpaceBoundsOf(drawingSpace));
+	}
+
+	@HiddenInAutocomplete
+	@Override
+	public boolean willDraw(String layerName, FLine line) {
+		if (layerName.endsWith(".fast")) layerName = layerName.substring(0, layerName.length() - ".fast".length());
+		Rect r = cachedBoundsOf(line, layerName, attributeSignatureOf(line));
+		if (r == null) return false;
+		String finalLayerName = layerName;
+		return find(Boxes.window, both()).findFirst()
+			.map(x -> x.getCompositor()
+				.willDraw(finalLayerName, windowSpaceBoundsOf(r)))
+			.orElse(true);
+	}
+
 	private void lateDrawNow(Box root) {
 		try {
 			insideDrawing = true;
@@ -677,6 +984,14 @@ public class Drawing extends Box implements DrawingInterface {
 
 	public interface Drawer {
 		void draw(DrawingInterface context);
+
+		/**
+		 * the layers that this drawer draws into without telling the drawing system what it has drawn (see DrawingInterface.recordDrawn). These layers
+		 * are always redrawn in full. The default, null, means all of them
+		 */
+		default Collection<String> drawsUntracked() {
+			return null;
+		}
 	}
 
 	public class PerLayer {
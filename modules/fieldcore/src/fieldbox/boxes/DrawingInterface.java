@@ -1,6 +1,7 @@
 package fieldbox.boxes;
 
 import field.graphics.Bracketable;
+import field.graphics.FLine;
 import field.graphics.MeshBuilder;
 import field.graphics.Scene;
 
@@ -23,4 +24,40 @@ public interface DrawingInterface {
 	Scene getShader();
 
 	DrawingInterface addBracketable(Bracketable mesh);
+
+	/**
+	 * tells the drawing system that 'from' is drawing 'line' into layer 'layerName' this update. Drawers that call this for everything they draw
+	 * (and then call damageFromRecords) let the drawing system work out which parts of the window have actually changed.
+	 */
+	default void recordDrawn(Box from, String layerName, FLine line) {
+	}
+
+	/**
+	 * compares what was recorded this update with what was recorded last update and marks the difference as damaged
+	 */
+	default void damageFromRecords() {
+	}
+
+	/**
+	 * returns false if this line can't possibly end up on the screen this update (because the layer it's on isn't being redrawn, or only a part
+	 * of it that doesn't include this line is)
+	 */
+	default boolean willDraw(String layerName, FLine line) {
+		return true;
+	}
+
+	/**
+	 * runs 'dispatch', which must draw only lines that were passed to recordDrawn. Anything that gets at a layer's MeshBuilders outside of this is
+	 * drawing something that the damage records can't see
+	 */
+	default void dispatchRecorded(Runnable dispatch) {
+		dispatch.run();
+	}
+
+	/**
+	 * tells the drawing system that something it can't see (something that doesn't go through recordDrawn) is drawing into layer 'layerName', so
+	 * that layer has to be redrawn in full from now on
+	 */
+	default void drawsUntracked(String layerName) {
+	}
 }
@@ -208,6 +208,9 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 		Util.Errors error = new Util.Errors();
 		Optional<TextDrawing> text = context.getTextDrawing(this);
 
+		// we gather everything first, so that we know what's changed (and thus what's damaged) before we send anything to OpenGL
+		Map<Box, List<Pair<FLine, String>>> toDispatch = new LinkedHashMap<>();
+
 		this.breadthFirst(this.both())
 			.forEach(Util.wrap(x -> {
 				if (Planes.on(root, x) <= 0) {
@@ -222,6 +225,8 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 
 				String defaultLayer = x.properties.getOr(layer, () -> "__main__");
 
+				List<Pair<FLine, String>> here = new ArrayList<>();
+
 				Map<String, Function<Box, FLine>> drawing = x.properties.computeIfAbsent(frameDrawing, this::defaultdrawsLines);
 
 
@@ -242,7 +247,7 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 					.map(c -> c.apply(x))
 					.filter(fline -> fline != null)
 					.collect(Collectors.toList())
-					.forEach(fline -> dispatchLine(fline, context, text, defaultLayer));
+					.forEach(fline -> here.add(new Pair<>(fline, defaultLayer)));
 				Map<String, Supplier<FLine>> ll = x.properties.computeIfAbsent(lines, (k) -> new IdempotencyMap<>(Supplier.class));
 
 				all = new ArrayList<>();
@@ -261,7 +266,7 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 					.stream()
 					.map(c -> c.get())
 					.filter(fline -> fline != null)
-					.forEach(fline -> dispatchLine(fline, context, text, defaultLayer));
+					.forEach(fline -> here.add(new Pair<>(fline, defaultLayer)));
 
 
 				Map<String, Supplier<Collection<Supplier<FLine>>>> bl = x.properties.get(bulkLines);
@@ -286,12 +291,28 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 					final List<FLine> finalAll = all;
 					Log.log("drawing.trace", () -> " --> " + finalAll);
 
-					all.forEach(fline -> dispatchLine(fline, context, text, defaultLayer));
+					all.forEach(fline -> here.add(new Pair<>(fline, defaultLayer)));
 				}
+
+				for (Pair<FLine, String> p : here)
+					context.recordDrawn(x, p.first.attributes.getOr(layer, () -> p.second), p.first);
+
+				toDispatch.put(x, here);
+
 				Log.log("drawing.trace", () -> "lines for " + x + " finished");
 
 			}, error));
 
+		context.damageFromRecords();
+
+		context.dispatchRecorded(() -> toDispatch.forEach((x, here) -> Util.wrap((List<Pair<FLine, String>> h) -> {
+			for (Pair<FLine, String> p : h) {
+				// lines that are outside of the damaged part of their layer (or on a layer that isn't being redrawn) don't need to go anywhere
+				if (context.willDraw(p.first.attributes.getOr(layer, () -> p.second), p.first))
+					dispatchLine(p.first, context, text, p.second);
+			}
+		}, error).accept(here)));
+
 		if (error.hasErrors()) {
 			error.getErrors()
 				.stream()
@@ -302,6 +323,12 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 		}
 	}
 
+	@Override
+	public Collection<String> drawsUntracked() {
+		// everything we draw goes through recordDrawn
+		return Collections.emptyList();
+	}
+
 	protected void dispatchLine(FLine fline, DrawingInterface context, Optional<TextDrawing> text) {
 		dispatchLine(fline, context, text, "__main__");
 	}
@@ -79,6 +79,12 @@ public class FLineInteraction extends Box implements Drawing.Drawer, Mouse.OnMou
 				    .getModCount()}));
 	}
 
+	@Override
+	public Collection<String> drawsUntracked() {
+		// we only look at lines, we don't draw anything
+		return Collections.emptyList();
+	}
+
 	public Area projectFLineToArea(FLine fline) {
 		Shape s = FLinesAndJavaShapes.flineToJavaShape_notThickened(fline);
 		return new Area(s);
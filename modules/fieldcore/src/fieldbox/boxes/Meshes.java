@@ -8,6 +8,8 @@ import field.utility.Dict;
 import field.utility.IdempotencyMap;
 import fieldbox.ui.FieldBoxWindow;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Optional;
 import java.util.function.Supplier;
 
@@ -37,6 +39,14 @@ public class Meshes extends Box implements Drawing.Drawer {
 		context.getShader().attach(new Scene.Transient(this::traverseAndDraw, 1).setOnceOnly());
 	}
 
+	@Override
+	public Collection<String> drawsUntracked() {
+		// meshes don't report what they've drawn, so once there are any the main layer can't be redrawn piecemeal
+		return this.breadthFirst(this.downwards())
+			.anyMatch(x -> x.properties.has(meshes) && x.properties.get(meshes)
+				.size() > 0) ? Collections.singleton("__main__") : Collections.emptyList();
+	}
+
 	// Exception handling!
 	protected void traverseAndDraw() {
 		this.forEach(x -> {
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
@@ -30,7 +32,9 @@ import java.util.stream.Stream;
 /**
  * Load files from inside Field/
  * <p>
- * For speed, rather than parsing the EDN for our Box and Field2 files, we simply regex them into the correct spot
+ * For speed, rather than parsing the EDN for our Box and Field2 files, we simply regex them into the correct spot. What we find is kept in a
+ * WorkspaceIndex per directory, so that a reopen only has to look at files that have changed, and the 'files' and 'boxes' maps here are kept up
+ * to date from it as things change on disk. Those maps belong to the main thread; the indices' changes are queued up and applied there.
  */
 public class FileBrowser extends Box implements IO.Loaded {
 
@@ -50,7 +54,11 @@ public class FileBrowser extends Box implements IO.Loaded {
 	private final Box root;
 	LinkedHashMap<String, FieldFile> files = new LinkedHashMap<>();
 	LinkedHashMap<String, FieldBox> boxes = new LinkedHashMap<>();
-	long allFrameHashSalt = 0;
+	Map<String, WorkspaceIndex> indices = new LinkedHashMap<>();
+	// changes from the indices' threads, waiting to be applied to 'files' and 'boxes' in the main loop
+	protected final Queue<Pair<WorkspaceIndex.Entry, WorkspaceIndex.Entry>> changes = new ConcurrentLinkedQueue<>();
+	protected final AtomicBoolean changesPosted = new AtomicBoolean();
+	volatile long allFrameHashSalt = 0;
 
 	public FileBrowser(Box root) {
 
@@ -413,6 +421,16 @@ public class FileBrowser extends Box implements IO.Loaded {
 	}
 
 	static public FieldBox newFieldBox(File from, boolean retainText) {
+		FieldBox f = scanFieldBox(from, retainText);
+		if (f == null) return null;
+		if (f.customClass != null && isNotForInsert(f.customClass)) return null;
+		return f;
+	}
+
+	/**
+	 * regexes the name, comment, id and class out of a .box file, without checking to see if that class is something that can be inserted
+	 */
+	static public FieldBox scanFieldBox(File from, boolean retainText) {
 		FieldBox f = new FieldBox();
 
 		List<String> all = readCompletely(from);
@@ -449,21 +467,6 @@ public class FileBrowser extends Box implements IO.Loaded {
 				c = c.substring(1, c.length() - 1);
 				if (!c.equals("fieldbox.boxes.Box")) {
 					f.setCustomClass(c);
-
-					try {
-						Class loaded = Thread.currentThread()
-								     .getContextClassLoader()
-								     .loadClass(c);
-						try {
-							if (loaded.getDeclaredField("notForInsert") != null) {
-								return null;
-							}
-						} catch (NoSuchFieldException e) {
-						}
-					} catch (ClassNotFoundException e) {
-
-					}
-
 				}
 
 			}
@@ -472,6 +475,23 @@ public class FileBrowser extends Box implements IO.Loaded {
 		return f;
 	}
 
+	static protected boolean isNotForInsert(String c) {
+		try {
+			Class loaded = Thread.currentThread()
+					     .getContextClassLoader()
+					     .loadClass(c);
+			try {
+				if (loaded.getDeclaredField("notForInsert") != null) {
+					return true;
+				}
+			} catch (NoSuchFieldException e) {
+			}
+		} catch (ClassNotFoundException e) {
+
+		}
+		return false;
+	}
+
 	static public FieldFile newFieldFile(File from) {
 		FieldFile f = new FieldFile();
 
@@ -543,102 +563,61 @@ public class FileBrowser extends Box implements IO.Loaded {
 	public void parse(String dir, boolean copyOnly) {
 		Log.log("INSERT", ()->"parsing directory :" + dir);
 
-		List<String> added = new ArrayList<>();
+		WorkspaceIndex was = indices.remove(dir);
+		if (was != null) was.close();
 
-		try {
-			WatchService w = FileSystems.getDefault()
-						    .newWatchService();
-			WatchKey r = new File(dir).toPath()
-						  .register(w, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
-			new Thread(() -> {
-				try {
-					WatchKey k = w.take();
-
-					RunLoop.main.once(() -> {
-						Log.log("INSERT", ()->"reparsing directory <"+dir+">");
-						files.keySet()
-						     .removeAll(added);
-						FileBrowser.this.boxes.keySet()
-								      .removeAll(added);
-						parse(dir, copyOnly);
-					});
-
-					w.close();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}).start();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		indices.put(dir, new WorkspaceIndex(dir, copyOnly, this::indexChanged).open());
+	}
 
+	/**
+	 * called on an index's thread, queues the change up for the main loop
+	 */
+	protected void indexChanged(WorkspaceIndex.Entry was, WorkspaceIndex.Entry now) {
+		changes.add(new Pair<>(was, now));
+		if (changesPosted.compareAndSet(false, true)) RunLoop.main.once(this::applyChanges);
+	}
 
-		try {
-			List<Path> boxes = Files.walk(new File(dir).toPath())
-						.filter(x -> x.toString()
-							      .endsWith(".box"))
-						.collect(Collectors.toList());
-
-			if (boxes != null) {
-
-				Log.log("INSERT", ()->"boxes are :" + Arrays.asList(boxes));
-
-				for (Path from : boxes)
-					RunLoop.workerPool.submit(() -> {
-
-						Log.log("INSERT", ()->from);
-						FieldBox ff = newFieldBox(from.toFile());
-						ff.copyOnly = copyOnly;
-						synchronized (files) {
-							FieldBox displaced = FileBrowser.this.boxes.put(ff.id, ff);
-							added.add(ff.id);
-						}
-					});
-			}
+	/**
+	 * keeps 'files' and 'boxes' in step with the WorkspaceIndices. Called in the main loop
+	 */
+	protected void applyChanges() {
+		changesPosted.set(false);
+		Pair<WorkspaceIndex.Entry, WorkspaceIndex.Entry> c;
+		while ((c = changes.poll()) != null)
+			applyChange(c.first, c.second);
+		allFrameHashSalt++;
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
+	protected void applyChange(WorkspaceIndex.Entry was, WorkspaceIndex.Entry now) {
+		if (was != null) {
+			if (was.sheet) files.remove(was.path);
+			else if (was.id != null) {
+				// a box can be copied about under the same id, only remove it if it's still the one that this file gave us
+				FieldBox q = boxes.get(was.id);
+				if (q != null && q.filename != null && q.filename.getAbsolutePath()
+										  .equals(was.path)) boxes.remove(was.id);
+			}
 		}
 
-
-		try {
-
-			List<Path> sheets = Files.walk(new File(dir).toPath())
-						 .filter(x -> x.toString()
-							       .endsWith(".field") || x.toString()
-										       .endsWith(".field2"))
-						 .collect(Collectors.toList());
-			if (sheets != null) {
-
-
-				Log.log("INSERT", ()->"sheets are :" + Arrays.asList(sheets));
-				for (Path from : sheets) {
-					sheetsInFlight.incrementAndGet();
-					RunLoop.workerPool.submit(() -> {
-						Log.log("INSERT", ()->from);
-
-						try {
-							FieldFile ff = newFieldFile(from.toFile());
-							ff.copyOnly = copyOnly;
-
-							synchronized (files) {
-								files.put(ff.id, ff);
-								added.add(ff.id);
-							}
-						} finally {
-							sheetsInFlight.decrementAndGet();
-						}
-					});
-				}
-
+		if (now != null) {
+			if (now.sheet) {
+				FieldFile ff = new FieldFile();
+				ff.name = now.name;
+				ff.id = now.path;
+				ff.copyOnly = now.copyOnly;
+				if (now.boxes != null) ff.boxes.addAll(now.boxes);
+				files.put(ff.id, ff);
+			} else if (now.id != null && (now.customClass == null || !isNotForInsert(now.customClass))) {
+				FieldBox ff = new FieldBox();
+				ff.id = now.id;
+				ff.name = now.name;
+				ff.comment = now.comment;
+				ff.customClass = now.customClass;
+				ff.filename = new File(now.path);
+				ff.copyOnly = now.copyOnly;
+				boxes.put(ff.id, ff);
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-
-
 	}
 
 	private Stream<Box> selection() {
@@ -24,12 +24,14 @@ import java.util.function.Function;
 public class Image extends Box {
 
 	static public final Dict.Prop<Function<String, TextureLoader>> newImage = new Dict.Prop<>("newImage").toCannon();
+	static public final Dict.Prop<Function<String, TextureLoader>> newImageSequence = new Dict.Prop<>("newImageSequence").toCannon();
 	FastJPEG j = new FastJPEG();
 	Map<String, PerLayer> layerLocal = new LinkedHashMap<>();
 
 
 	public Image(Box root) {
 		properties.put(newImage, this::newImage);
+		properties.put(newImageSequence, this::newImageSequence);
 		install(root);
 	}
 
@@ -101,11 +103,20 @@ public class Image extends Box {
 		return new TextureLoader(filename);
 	}
 
+	/**
+	 * like newImage, but plays back a directory of numbered jpg frames. Control playback through the loader's 'sequence' field
+	 */
+	public TextureLoader newImageSequence(String directory)
+	{
+		return new TextureLoader(new ImageSequence(directory, 0));
+	}
+
 	public class TextureLoader {
 		public String filename;
 		public ByteBuffer data;
 		public volatile boolean loaded = false;
 		public Texture target;
+		public ImageSequence sequence;
 		public BaseMesh mesh;
 		public int w;
 		public int h;
@@ -127,6 +138,20 @@ public class Image extends Box {
 				Drawing.dirty(Image.this);
 				return null;
 			});
+			finishSetup();
+		}
+
+		public TextureLoader(ImageSequence sequence) {
+			this.sequence = sequence;
+			this.filename = sequence.files.get(0);
+			w = sequence.width;
+			h = sequence.height;
+			target = sequence.getTexture();
+			loaded = true;
+			finishSetup();
+		}
+
+		protected void finishSetup() {
 			mesh = BaseMesh.triangleList(4, 2);
 			mesh.attach(target);
 
@@ -138,6 +163,8 @@ public class Image extends Box {
 
 			mesh.attach(-100, (x) -> {
 				if (updator!=null) updator.accept(this);
+				// keep repainting while a sequence is playing
+				if (sequence!=null && sequence.getRate()!=0) Drawing.dirty(Image.this);
 			});
 		}
 
@@ -165,6 +192,7 @@ public class Image extends Box {
 
 		public void reload(String s)
 		{
+			if (sequence!=null) throw new IllegalArgumentException(" can't reload an image sequence, use sequence.setFrame(...) instead ");
 			this.filename = s;
 			if (!new File(filename).exists())
 			{
@@ -194,6 +222,7 @@ public class Image extends Box {
 		{
 			PerLayer pl = layerLocal.computeIfAbsent("__main__", (k) -> new PerLayer());
 			pl.mainShader.detach(mesh);
+			if (sequence!=null) sequence.close();
 		}
 
 		public TextureLoader geometry(Rect r) {
@@ -202,6 +202,7 @@ public class PluginList {
 				e.printStackTrace();
 			}
 		}
+		Trampoline.saveClassPathIndex();
 	}
 
 
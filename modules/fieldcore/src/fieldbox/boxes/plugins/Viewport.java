@@ -2,6 +2,7 @@ package fieldbox.boxes.plugins;
 
 import field.graphics.*;
 import field.graphics.Window;
+import field.linalg.FrustumCuller;
 import field.linalg.Mat4;
 import field.linalg.Vec2;
 import field.linalg.Vec4;
@@ -46,6 +47,14 @@ public class Viewport extends Box implements IO.Loaded, ProvidesGraphicsContext
 		.toCannon()
 		.doc("set to `true` to have this viewport clip its contents to its frame").set(IO.persistent, true);
 
+	static public final Dict.Prop<Boolean> culls = new Dict.Prop<>("culls").type()
+		.toCannon()
+		.doc("set to `true` to skip drawing meshes and `lines3` that are entirely outside of the camera's view. Meshes whose shaders don't use the camera's `_p` and `_mv` should be marked `setCullable(false)`").set(IO.persistent, true);
+
+	static public final Dict.Prop<MeshCuller> culler = new Dict.Prop<MeshCuller>("culler").type()
+		.toCannon()
+		.doc("Culls meshes in this viewport's scene when `culls` is `true`. `_.culler.drawn` and `_.culler.culled` count the meshes drawn and skipped last frame");
+
 	/**
 	 * shaders for standard drawing of points lines and planes (with 3d camera transform)
 	 */
@@ -183,6 +192,13 @@ public class Viewport extends Box implements IO.Loaded, ProvidesGraphicsContext
 		standard = new Standard(camera);
 		this.properties.put(clips, true);
 
+		MeshCuller meshCuller = new MeshCuller(this.properties.get(scene), () -> {
+			Camera c = this.properties.get(Viewport.camera);
+			return c != null && this.properties.isTrue(culls, false) ? MeshCuller.clip(c) : null;
+		});
+		this.properties.put(culler, meshCuller);
+		this.properties.get(scene).attach("__culler__", meshCuller);
+
 		this.properties.putToMap(FLineDrawing.frameDrawing, "__outline__", new Cached<Box, Object, FLine>((box, previously) -> {
 			Rect rect = box.properties.get(frame);
 			if (rect == null) return null;
@@ -271,7 +287,8 @@ public class Viewport extends Box implements IO.Loaded, ProvidesGraphicsContext
 			float rs = window.getRetinaScaleFactor();
 			int[] v = new int[]{(int) ((int) tl.x * rs), (int) ((int) (h - bl.y) * rs), (int) ((int) (bl.x - tl.x + 2) * rs), (int) ((int) (bl.y - tl.y + 2) * rs)};
 
-			GraphicsContext.getContext().stateTracker.scissor.set(v);
+			GraphicsContext.getContext().stateTracker.scissor.set(window.getCompositor()
+				.clipToScissor(v));
 			GraphicsContext.getContext().stateTracker.viewport.set(v);
 
 			Map<String, Supplier<FLine>> q = breadthFirst(downwards()).filter(x -> x.properties.has(lines3))
@@ -285,6 +302,8 @@ public class Viewport extends Box implements IO.Loaded, ProvidesGraphicsContext
 					.stream())
 				.collect(Collectors.toMap(x -> x.getKey(), x -> x.getValue(), (old, n) -> old));
 
+			FrustumCuller frustum = c != null && this.properties.isTrue(culls, false) ? new FrustumCuller(MeshCuller.clip(c)) : null;
+
 			standard.lines_builder.open();
 			standard.triangles_builder.open();
 			standard.points_builder.open();
@@ -294,6 +313,7 @@ public class Viewport extends Box implements IO.Loaded, ProvidesGraphicsContext
 					.stream()
 					.map(x -> x.get())
 					.filter(x -> x != null)
+					.filter(x -> frustum == null || MeshCuller.isVisible(x, frustum))
 					.forEach(x -> StandardFLineDrawing.dispatchLine(x, standard.triangles_builder, standard.lines_builder, standard.points_builder, Optional.empty(), ""));
 				q2.values()
 					.stream()
@@ -303,6 +323,7 @@ public class Viewport extends Box implements IO.Loaded, ProvidesGraphicsContext
 					.filter(x -> x != null)
 					.map(x -> x.get())
 					.filter(x -> x != null)
+					.filter(x -> frustum == null || MeshCuller.isVisible(x, frustum))
 					.forEach(x -> StandardFLineDrawing.dispatchLine(x, standard.triangles_builder, standard.lines_builder, standard.points_builder, Optional.empty(), ""));
 			} finally {
 				standard.points_builder.close();
@@ -0,0 +1,427 @@
+package fieldbox.boxes.plugins;
+
+import field.app.RunLoop;
+import field.utility.Log;
+import field.utility.Options;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * An on-disk index of the .box and .field / .field2 files inside a workspace directory, for FileBrowser.
+ * <p>
+ * Every file gets an Entry that records its path, modification time and size together with what we last regex'd out of it (name, id, comment
+ * and class for a box, the ids of the boxes it uses for a sheet). Opening the index publishes whatever was saved last time straight away, then
+ * walks the directory once, re-scanning only those files whose modification time or size have changed. After that a WatchService over the
+ * whole tree keeps the index up to date one file at a time. The index itself is saved next to the rest of the per-user preferences.
+ */
+public class WorkspaceIndex {
+
+	static protected final int version = 1;
+
+	static public class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public String path;
+		public long modified;
+		public long size;
+		public boolean sheet;
+		public boolean copyOnly;
+
+		// for boxes
+		public String id;
+		public String name;
+		public String comment;
+		public String customClass;
+
+		// for sheets, the ids of the boxes inside it
+		public LinkedHashSet<String> boxes;
+
+		@Override
+		public String toString() {
+			return "Entry(" + path + (sheet ? " sheet of " + (boxes == null ? 0 : boxes.size()) : " box " + name + "/" + id) + ")";
+		}
+	}
+
+	/**
+	 * told about entries that have appeared or changed (was is null for new files), and entries that have gone away (now is null). Called from
+	 * the index's own thread.
+	 */
+	public interface Listener {
+		void changed(Entry was, Entry now);
+	}
+
+	static protected class Saved implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		int version;
+		String directory;
+		HashMap<String, Entry> entries;
+	}
+
+	public final String directory;
+	public final boolean copyOnly;
+
+	protected final Path root;
+	protected final File indexFile;
+	protected final Listener listener;
+	protected final Map<String, Entry> entries = new HashMap<>();
+
+	protected WatchService watcher;
+	protected final Map<WatchKey, Path> watched = new HashMap<>();
+	protected Thread thread;
+	protected volatile boolean closed = false;
+
+	// statistics
+	protected final AtomicInteger scanned = new AtomicInteger();
+	protected int reused = 0;
+
+	public WorkspaceIndex(String directory, boolean copyOnly, Listener listener) {
+		this.directory = directory;
+		this.copyOnly = copyOnly;
+		this.listener = listener;
+		this.root = new File(directory).toPath()
+					       .toAbsolutePath()
+					       .normalize();
+
+		String prefs = Options.getDirectory("preferences", () -> System.getProperty("user.home") + "/.field/");
+		this.indexFile = new File(prefs, "workspaceIndex_" + Integer.toHexString(root.toString()
+											    .hashCode()) + (copyOnly ? "_templates" : "") + ".idx");
+	}
+
+	static public boolean isBox(Path p) {
+		return p.toString()
+			.endsWith(".box");
+	}
+
+	static public boolean isSheet(Path p) {
+		String s = p.toString();
+		return s.endsWith(".field") || s.endsWith(".field2");
+	}
+
+	/**
+	 * starts a background thread that loads the index, brings it up to date with the directory and then watches it for changes until close() is
+	 * called
+	 */
+	public WorkspaceIndex open() {
+		thread = new Thread(() -> {
+			try {
+				boolean warm = load();
+				if (!warm) FileBrowser.sheetsInFlight.incrementAndGet();
+				try {
+					reconcile(root);
+				} finally {
+					if (!warm) FileBrowser.sheetsInFlight.decrementAndGet();
+				}
+				save();
+				watch();
+			} catch (ClosedWatchServiceException e) {
+				// close() was called
+			} catch (Throwable t) {
+				Log.log("INSERT.error", () -> "workspace index for " + directory + " failed :" + t);
+				t.printStackTrace();
+			}
+		}, "WorkspaceIndex " + directory);
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	public void close() {
+		closed = true;
+		try {
+			if (watcher != null) watcher.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (thread != null) thread.interrupt();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * reads the index saved last time and publishes its contents. Returns false if there wasn't one (or it was for a different directory or an
+	 * older version of this class)
+	 */
+	protected boolean load() {
+		if (!indexFile.exists()) return false;
+		long a = System.currentTimeMillis();
+		try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			Saved s = (Saved) ois.readObject();
+			if (s.version != version || !root.toString()
+							 .equals(s.directory)) return false;
+			synchronized (entries) {
+				entries.putAll(s.entries);
+			}
+			for (Entry e : s.entries.values())
+				listener.changed(null, e);
+			Log.log("INSERT", () -> "loaded index of " + s.entries.size() + " files for " + directory + " in " + (System.currentTimeMillis() - a) + "ms");
+			return true;
+		} catch (Throwable t) {
+			Log.log("INSERT", () -> "couldn't load index " + indexFile + ", will rebuild it (" + t + ")");
+			return false;
+		}
+	}
+
+	protected void save() {
+		HashMap<String, Entry> copy;
+		synchronized (entries) {
+			copy = new HashMap<>(entries);
+		}
+		Saved s = new Saved();
+		s.version = version;
+		s.directory = root.toString();
+		s.entries = copy;
+
+		indexFile.getParentFile()
+			 .mkdirs();
+		File tmp = new File(indexFile.getPath() + ".tmp");
+		try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			oos.writeObject(s);
+		} catch (IOException e) {
+			Log.log("INSERT.error", () -> "couldn't write index " + tmp + " " + e);
+			return;
+		}
+		try {
+			// readers either get the old index or the new one, never half of one
+			Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Log.log("INSERT.error", () -> "couldn't move index into place " + indexFile + " " + e);
+		}
+	}
+
+	/**
+	 * walks everything under 'from' once, re-scanning anything that's new or has changed since we last saw it and dropping entries for files that
+	 * are no longer there. Every directory visited gets registered with the watcher (if we have one yet)
+	 */
+	protected void reconcile(Path from) throws IOException {
+		long a = System.currentTimeMillis();
+
+		Map<String, BasicFileAttributes> seen = new LinkedHashMap<>();
+		if (Files.isDirectory(from)) Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile() && (isBox(file) || isSheet(file))) seen.put(file.toAbsolutePath()
+													  .normalize()
+													  .toString(), attrs);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		String prefix = from.toString();
+		List<Entry> gone = new ArrayList<>();
+		List<Future<Entry[]>> work = new ArrayList<>();
+
+		synchronized (entries) {
+			for (Entry e : entries.values())
+				if (under(e.path, prefix) && !seen.containsKey(e.path)) gone.add(e);
+
+			for (Map.Entry<String, BasicFileAttributes> s : seen.entrySet()) {
+				Entry was = entries.get(s.getKey());
+				long modified = s.getValue()
+						 .lastModifiedTime()
+						 .toMillis();
+				long size = s.getValue()
+					     .size();
+				if (was != null && was.modified == modified && was.size == size) {
+					reused++;
+					continue;
+				}
+				work.add(RunLoop.workerPool.submit(() -> new Entry[]{was, scan(Paths.get(s.getKey()), modified, size)}));
+			}
+		}
+
+		for (Entry e : gone)
+			remove(e.path);
+
+		for (Future<Entry[]> f : work) {
+			try {
+				Entry[] r = f.get();
+				put(r[0], r[1]);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		int changed = work.size();
+		Log.log("INSERT", () -> "reconciled " + seen.size() + " files under " + from + " in " + (System.currentTimeMillis() - a) + "ms, " + changed + " rescanned, " + gone.size() + " removed");
+	}
+
+	static protected boolean under(String path, String prefix) {
+		return path.equals(prefix) || path.startsWith(prefix.endsWith(File.separator) ? prefix : (prefix + File.separator));
+	}
+
+	/**
+	 * regexes a single file into an Entry (see FileBrowser.scanFieldBox and FileBrowser.newFieldFile). Returns null if the file can't be read
+	 */
+	protected Entry scan(Path p, long modified, long size) {
+		scanned.incrementAndGet();
+		Entry e = new Entry();
+		e.path = p.toString();
+		e.modified = modified;
+		e.size = size;
+		e.copyOnly = copyOnly;
+
+		if (isSheet(p)) {
+			FileBrowser.FieldFile f = FileBrowser.newFieldFile(p.toFile());
+			if (f == null) return null;
+			e.sheet = true;
+			e.name = f.name;
+			e.boxes = new LinkedHashSet<>(f.boxes);
+		} else {
+			FileBrowser.FieldBox f = FileBrowser.scanFieldBox(p.toFile(), false);
+			if (f == null) return null;
+			e.id = f.id;
+			e.name = f.name;
+			e.comment = f.comment;
+			e.customClass = f.customClass;
+		}
+		return e;
+	}
+
+	protected void put(Entry was, Entry now) {
+		if (now == null) {
+			if (was != null) remove(was.path);
+			return;
+		}
+		synchronized (entries) {
+			entries.put(now.path, now);
+		}
+		listener.changed(was, now);
+	}
+
+	protected void remove(String path) {
+		Entry was;
+		synchronized (entries) {
+			was = entries.remove(path);
+		}
+		if (was != null) listener.changed(was, null);
+	}
+
+	protected void register(Path dir) {
+		if (watcher == null) return;
+		try {
+			watched.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+		} catch (IOException e) {
+			Log.log("INSERT.error", () -> "couldn't watch " + dir + " " + e);
+		}
+	}
+
+	/**
+	 * blocks, updating the index as things change on disk. Events arriving close together (an editor saving a file often touches it more than
+	 * once, a copy creates a file and then writes to it) are gathered up and dealt with together
+	 */
+	protected void watch() throws IOException, InterruptedException {
+		watcher = FileSystems.getDefault()
+				     .newWatchService();
+		if (closed) {
+			watcher.close();
+			return;
+		}
+
+		// register the whole tree, we've only just walked it so this is cheap
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		while (!closed) {
+			WatchKey k = watcher.take();
+
+			Set<Path> touched = new LinkedHashSet<>();
+			Set<Path> directories = new LinkedHashSet<>();
+			boolean overflow = false;
+
+			while (k != null) {
+				Path dir = watched.get(k);
+				for (WatchEvent<?> e : k.pollEvents()) {
+					if (e.kind() == OVERFLOW) {
+						overflow = true;
+						continue;
+					}
+					if (dir == null) continue;
+					Path child = dir.resolve((Path) e.context())
+							.toAbsolutePath()
+							.normalize();
+					if (Files.isDirectory(child)) {
+						if (e.kind() == ENTRY_CREATE) directories.add(child);
+					} else if (isBox(child) || isSheet(child)) touched.add(child);
+					else if (e.kind() == ENTRY_DELETE) directories.add(child);
+				}
+				if (!k.reset()) watched.remove(k);
+
+				k = watcher.poll(250, java.util.concurrent.TimeUnit.MILLISECONDS);
+			}
+
+			if (overflow) {
+				Log.log("INSERT", () -> "watch overflowed for " + directory + ", reconciling everything");
+				reconcile(root);
+			} else {
+				// new directories (moved or copied in) and deleted ones are walked as a whole
+				for (Path d : directories)
+					reconcile(d);
+				for (Path p : touched)
+					update(p);
+			}
+
+			save();
+		}
+	}
+
+	protected void update(Path p) {
+		String key = p.toString();
+		Entry was;
+		synchronized (entries) {
+			was = entries.get(key);
+		}
+
+		BasicFileAttributes a;
+		try {
+			a = Files.readAttributes(p, BasicFileAttributes.class);
+		} catch (IOException e) {
+			remove(key);
+			return;
+		}
+
+		long modified = a.lastModifiedTime()
+				 .toMillis();
+		if (was != null && was.modified == modified && was.size == a.size()) return;
+
+		Log.log("INSERT", () -> "rescanning " + p);
+		put(was, scan(p, modified, a.size()));
+	}
+
+	@Override
+	public String toString() {
+		return "WorkspaceIndex(" + directory + ") entries:" + size() + " scanned:" + scanned.get() + " reused:" + reused;
+	}
+}
@@ -0,0 +1,397 @@
+package fieldbox.execution;
+
+import field.utility.Log;
+import field.utility.Options;
+import field.utility.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The class-name index behind JavaSupport's import help.
+ * <p>
+ * Class names are grouped by where they came from (a jar, a directory of classes, the JDK's modules). Each of these sources carries a stamp (the
+ * modification time and size of a jar, the version of the JDK) and the whole lot is written to disk, so that on the next startup we can read it
+ * back (through a memory mapping, decoding it into arrays) instead of opening every jar again, and only go back to a jar if its stamp has changed.
+ * Lookups go through a pair of sorted arrays (by fully qualified name and by lower-cased simple name) so that a prefix search is a binary search
+ * rather than a walk over every class we know about. Substring search goes through a trigram index (built the first time it's needed), so it only
+ * looks at the names that contain the fragment's rarest trigram.
+ */
+public class ClassIndex {
+
+	static protected final int magic = 0x46434931;
+	static protected final int version = 1;
+
+	static public class Source {
+		public final String path;
+		public final String stamp;
+		public final String[] names;
+		public final String[] origins;
+
+		public Source(String path, String stamp, Map<String, String> nameToOrigin) {
+			this.path = path;
+			this.stamp = stamp;
+			this.names = new String[nameToOrigin.size()];
+			this.origins = new String[nameToOrigin.size()];
+			int i = 0;
+			for (Map.Entry<String, String> e : nameToOrigin.entrySet()) {
+				names[i] = e.getKey();
+				origins[i] = e.getValue();
+				i++;
+			}
+		}
+
+		protected Source(String path, String stamp, String[] names, String[] origins) {
+			this.path = path;
+			this.stamp = stamp;
+			this.names = names;
+			this.origins = origins;
+		}
+	}
+
+	static protected class Snapshot {
+		final String[] names;
+		final String[] origins;
+		final String[] simple;
+		final int[] simpleToName;
+
+		volatile Grams grams;
+
+		Snapshot(String[] names, String[] origins, String[] simple, int[] simpleToName) {
+			this.names = names;
+			this.origins = origins;
+			this.simple = simple;
+			this.simpleToName = simpleToName;
+		}
+	}
+
+	/**
+	 * the trigrams of a set of names. The names containing the trigram with id 'i' are postings[offsets[i]] up to postings[offsets[i+1]], in the
+	 * order the names are in
+	 */
+	static protected class Grams {
+		final Map<Long, Integer> ids = new HashMap<>();
+		final int[] offsets;
+		final int[] postings;
+
+		Grams(String[] names) {
+			// count, for each trigram, the names it appears in (once per name)
+			int[] count = new int[1024];
+			int[] last = new int[1024];
+			for (int n = 0; n < names.length; n++) {
+				String name = names[n];
+				for (int k = 0; k + 3 <= name.length(); k++) {
+					int id = ids.computeIfAbsent(gram(name, k), x -> ids.size());
+					if (id >= count.length) {
+						count = Arrays.copyOf(count, 2 * count.length);
+						last = Arrays.copyOf(last, 2 * last.length);
+					}
+					if (count[id] > 0 && last[id] == n) continue;
+					count[id]++;
+					last[id] = n;
+				}
+			}
+
+			offsets = new int[ids.size() + 1];
+			for (int i = 0; i < ids.size(); i++)
+				offsets[i + 1] = offsets[i] + count[i];
+
+			postings = new int[offsets[ids.size()]];
+			int[] fill = Arrays.copyOf(offsets, ids.size());
+			for (int n = 0; n < names.length; n++) {
+				String name = names[n];
+				for (int k = 0; k + 3 <= name.length(); k++) {
+					int id = ids.get(gram(name, k));
+					if (fill[id] > offsets[id] && postings[fill[id] - 1] == n) continue;
+					postings[fill[id]++] = n;
+				}
+			}
+		}
+
+		static long gram(String s, int at) {
+			return ((long) s.charAt(at) << 32) | ((long) s.charAt(at + 1) << 16) | s.charAt(at + 2);
+		}
+
+		/**
+		 * returns {from, to} in postings, the names that contain the rarest trigram of 'fragment', or null if some trigram of it isn't in any name.
+		 * 'fragment' must be at least 3 characters long
+		 */
+		int[] candidates(String fragment) {
+			int[] best = null;
+			for (int k = 0; k + 3 <= fragment.length(); k++) {
+				Integer id = ids.get(gram(fragment, k));
+				if (id == null) return null;
+				if (best == null || offsets[id + 1] - offsets[id] < best[1] - best[0]) best = new int[]{offsets[id], offsets[id + 1]};
+			}
+			return best;
+		}
+	}
+
+	protected final File file;
+	protected final Map<String, Source> sources = new LinkedHashMap<>();
+	protected final Set<String> touched = new HashSet<>();
+
+	protected volatile Snapshot snapshot = new Snapshot(new String[0], new String[0], new String[0], new int[0]);
+	protected volatile boolean dirty = false;
+
+	public ClassIndex() {
+		this(new File(Options.getDirectory("preferences", () -> System.getProperty("user.home") + "/.field/"), "classIndex.idx"));
+	}
+
+	public ClassIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * the stamp for a jar on disk, anything that changes the jar changes this
+	 */
+	static public String stampFor(File jar) {
+		return jar.lastModified() + ":" + jar.length();
+	}
+
+	/**
+	 * true if we already have this source at this stamp. Marks the source as being still in use, so that it survives retainTouched()
+	 */
+	public boolean isCurrent(String path, String stamp) {
+		synchronized (sources) {
+			touched.add(path);
+			Source s = sources.get(path);
+			return s != null && s.stamp.equals(stamp);
+		}
+	}
+
+	public void put(Source s) {
+		synchronized (sources) {
+			touched.add(s.path);
+			sources.put(s.path, s);
+		}
+		dirty = true;
+	}
+
+	/**
+	 * forgets about every source that hasn't been asked about (or put) since we were loaded. Call this once everything has been indexed, so that
+	 * jars that have been removed from the classpath don't haunt the index
+	 */
+	public void retainTouched() {
+		synchronized (sources) {
+			if (sources.keySet()
+				   .retainAll(touched)) dirty = true;
+		}
+	}
+
+	public int size() {
+		return snapshot().names.length;
+	}
+
+	/**
+	 * reads the index written last time, if there is one. The file is memory-mapped, but only as a way of reading it; everything in it is decoded
+	 * into Sources
+	 */
+	public boolean load() {
+		if (!file.exists()) return false;
+		long a = System.currentTimeMillis();
+		try (FileChannel c = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer m = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteBufferInputStream(m), 1 << 16));
+
+			if (in.readInt() != magic || in.readInt() != version) return false;
+
+			int ns = in.readInt();
+			List<Source> loaded = new ArrayList<>(ns);
+			for (int i = 0; i < ns; i++) {
+				String path = in.readUTF();
+				String stamp = in.readUTF();
+
+				String[] table = new String[in.readInt()];
+				for (int k = 0; k < table.length; k++)
+					table[k] = in.readUTF();
+
+				int n = in.readInt();
+				String[] names = new String[n];
+				String[] origins = new String[n];
+				for (int k = 0; k < n; k++) {
+					names[k] = in.readUTF();
+					origins[k] = table[in.readInt()];
+				}
+				loaded.add(new Source(path, stamp, names, origins));
+			}
+
+			synchronized (sources) {
+				for (Source s : loaded)
+					sources.putIfAbsent(s.path, s);
+			}
+			rebuild();
+			Log.log("jar.indexer", () -> "loaded class index of " + snapshot.names.length + " classes from " + loaded.size() + " sources in " + (System.currentTimeMillis() - a) + "ms");
+			return true;
+		} catch (Throwable t) {
+			Log.log("jar.indexer", () -> "couldn't load class index " + file + ", will rebuild it (" + t + ")");
+			return false;
+		}
+	}
+
+	public void save() {
+		List<Source> all;
+		synchronized (sources) {
+			all = new ArrayList<>(sources.values());
+		}
+
+		file.getParentFile()
+		    .mkdirs();
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(all.size());
+			for (Source s : all) {
+				out.writeUTF(s.path);
+				out.writeUTF(s.stamp);
+
+				// origins are almost always the same handful of strings (the jar, or the module), so we write them once
+				LinkedHashMap<String, Integer> table = new LinkedHashMap<>();
+				for (String o : s.origins)
+					table.computeIfAbsent(o, k -> table.size());
+				out.writeInt(table.size());
+				for (String o : table.keySet())
+					out.writeUTF(o);
+
+				out.writeInt(s.names.length);
+				for (int k = 0; k < s.names.length; k++) {
+					out.writeUTF(s.names[k]);
+					out.writeInt(table.get(s.origins[k]));
+				}
+			}
+		} catch (IOException e) {
+			Log.log("jar.indexer", () -> "couldn't write class index " + tmp + " " + e);
+			return;
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Log.log("jar.indexer", () -> "couldn't move class index into place " + file + " " + e);
+		}
+	}
+
+	protected Snapshot snapshot() {
+		if (dirty) rebuild();
+		return snapshot;
+	}
+
+	/**
+	 * merges all of the sources into the sorted arrays that search uses. Earlier sources win when a class is in more than one place, just as they
+	 * do on the classpath
+	 */
+	protected synchronized void rebuild() {
+		dirty = false;
+
+		LinkedHashMap<String, String> merged = new LinkedHashMap<>();
+		synchronized (sources) {
+			for (Source s : sources.values())
+				for (int i = 0; i < s.names.length; i++)
+					merged.putIfAbsent(s.names[i], s.origins[i]);
+		}
+
+		String[] names = merged.keySet()
+				       .toArray(new String[merged.size()]);
+		Arrays.sort(names);
+		String[] origins = new String[names.length];
+		for (int i = 0; i < names.length; i++)
+			origins[i] = merged.get(names[i]);
+
+		String[] lower = new String[names.length];
+		Integer[] order = new Integer[names.length];
+		for (int i = 0; i < names.length; i++) {
+			lower[i] = simpleName(names[i]).toLowerCase();
+			order[i] = i;
+		}
+		Arrays.sort(order, (x, y) -> lower[x].compareTo(lower[y]));
+
+		String[] simple = new String[names.length];
+		int[] simpleToName = new int[names.length];
+		for (int i = 0; i < order.length; i++) {
+			simple[i] = lower[order[i]];
+			simpleToName[i] = order[i];
+		}
+
+		snapshot = new Snapshot(names, origins, simple, simpleToName);
+	}
+
+	static public String simpleName(String name) {
+		return name.substring(Math.max(name.lastIndexOf('.'), name.lastIndexOf('$')) + 1);
+	}
+
+	/**
+	 * classes whose simple name starts with 'fragment' (ignoring case), or whose fully qualified name starts with it, followed (if there's room,
+	 * and 'fragment' is at least 3 characters long) by classes that merely contain it. Returns pairs of class name and origin
+	 */
+	public List<Pair<String, String>> search(String fragment, int max) {
+		Snapshot s = snapshot();
+		LinkedHashMap<String, String> r = new LinkedHashMap<>();
+
+		String lower = fragment.toLowerCase();
+		for (int i = lowerBound(s.simple, lower); i < s.simple.length && r.size() < max && s.simple[i].startsWith(lower); i++) {
+			int n = s.simpleToName[i];
+			r.put(s.names[n], s.origins[n]);
+		}
+
+		for (int i = lowerBound(s.names, fragment); i < s.names.length && r.size() < max && s.names[i].startsWith(fragment); i++)
+			r.put(s.names[i], s.origins[i]);
+
+		if (r.size() < max && fragment.length() >= 3) {
+			Grams g = s.grams;
+			if (g == null) s.grams = g = new Grams(s.names);
+			int[] c = g.candidates(fragment);
+			if (c != null) for (int i = c[0]; i < c[1] && r.size() < max; i++) {
+				int n = g.postings[i];
+				if (s.names[n].contains(fragment)) r.putIfAbsent(s.names[n], s.origins[n]);
+			}
+		}
+
+		List<Pair<String, String>> ret = new ArrayList<>(r.size());
+		for (Map.Entry<String, String> e : r.entrySet())
+			ret.add(new Pair<>(e.getKey(), e.getValue()));
+		return ret;
+	}
+
+	static protected int lowerBound(String[] a, String key) {
+		int lo = 0, hi = a.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid].compareTo(key) < 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	static protected class ByteBufferInputStream extends InputStream {
+		final ByteBuffer b;
+
+		ByteBufferInputStream(ByteBuffer b) {
+			this.b = b;
+		}
+
+		@Override
+		public int read() {
+			return b.hasRemaining() ? (b.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] into, int off, int len) {
+			if (!b.hasRemaining()) return -1;
+			len = Math.min(len, b.remaining());
+			b.get(into, off, len);
+			return len;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ClassIndex(" + file + ") sources:" + sources.size() + " classes:" + snapshot.names.length;
+	}
+}
@@ -67,6 +67,14 @@ public class Execution extends Box {
 
 		void completion(String allText, int line, int ch, Consumer<List<Completion>> results);
 
+		/**
+		 * like completion, but for the suggestions made while typing rather than completions that were asked for. Implementations that drop
+		 * overtaken requests should keep these apart, so that an autosuggestion never swallows an explicit request
+		 */
+		default void autosuggest(String allText, int line, int ch, Consumer<List<Completion>> results) {
+			completion(allText, line, ch, results);
+		}
+
 		void imports(String allText, int line, int ch, Consumer<List<Completion>> results);
 
 		String getCodeMirrorLanguageName();
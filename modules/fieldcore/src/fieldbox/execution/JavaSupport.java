@@ -20,6 +20,7 @@ import java.net.URL;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.jar.JarFile;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,7 +32,8 @@ import java.util.zip.ZipFile;
  * When Nashorn/Javascript completion bumps up against something that's actually a Java object, we can use Java reflection based completion. Better yet, if we have the source code fore that Java we
  * can get very good completion information with parameter names, generics and javadocs. We're using qdox to parse the Java sources.
  * <p>
- * This class also contains our class discovery mechanism for import help
+ * This class also contains our class discovery mechanism for import help. The class names it finds are kept in a ClassIndex, which is saved
+ * between sessions, so only jars that have changed (or a JDK that has been updated) need to be looked at again on startup.
  * <p>
  * Todo: this is useful accross language runtimes, not just Nashorn/Javascript.
  */
@@ -41,7 +43,7 @@ public class JavaSupport {
 
 	private final JavaProjectBuilder builder;
 
-	Map<String, String> allClassNames = new LinkedHashMap<>();
+	ClassIndex classIndex = new ClassIndex();
 
 	Set<String> srcZipsDeltWith = new LinkedHashSet<>();
 
@@ -60,18 +62,16 @@ public class JavaSupport {
 			RunLoop.workerPool.submit(() -> {
 				Log.log("jar.indexer", ()->"has started up");
 				try {
+					// whatever we knew last time is good enough to start with, we'll correct it below
+					classIndex.load();
+
 					List<URL> paths = ((Trampoline.ExtensibleClassloader) classLoader).collectURLS();
 					Log.log("jar.indexer", ()->"will index paths:" + paths + " from classloader " + classLoader);
+					List<CompletableFuture<Void>> indexing = new ArrayList<>();
 					for (URL path : paths) {
 						Log.log("jar.indexer",()-> "will index path " + path);
-						RunLoop.workerPool.submit(() -> {
-							Map<String, String> a = indexClasses(path);
-
-							Log.log("jar.indexer",()-> "indexed path " + path + " and got " + a.size() + " classes");
-
-							synchronized (allClassNames) {
-								allClassNames.putAll(a);
-							}
+						indexing.add(CompletableFuture.runAsync(() -> {
+							indexPath(path);
 
 							File f = new File(path.getFile());
 							while (f != null) {
@@ -102,10 +102,19 @@ public class JavaSupport {
 								}
 								f = f.getParentFile();
 							}
-						});
+						}, RunLoop.workerPool));
 					}
 
-					allClassNames.putAll(indexJigsaw());
+					String jdk = System.getProperty("java.runtime.version");
+					if (!classIndex.isCurrent("jrt:/", jdk)) classIndex.put(new ClassIndex.Source("jrt:/", jdk, indexJigsaw()));
+
+					CompletableFuture.allOf(indexing.toArray(new CompletableFuture<?>[indexing.size()]))
+							 .whenComplete((x, t) -> {
+								 if (t != null) return;
+								 classIndex.retainTouched();
+								 classIndex.save();
+								 Log.log("jar.indexer", () -> "finished indexing " + classIndex);
+							 });
 
 					builder.setErrorHandler(e -> Log.log("completion.general", ()->" problem parsing Java source file for completion, will skip this file and continue on "));
 					builder.addClassLoader(classLoader);
@@ -255,6 +264,23 @@ public class JavaSupport {
 		return Collections.emptyMap();
 	}
 
+	/**
+	 * jars are only opened if they've changed since the index was last saved; directories of classes are always walked again, since their
+	 * modification time says nothing about what's underneath them (but we still start with what we found last time)
+	 */
+	private void indexPath(URL path) {
+		String f = path.getFile();
+		String stamp = f.endsWith(".jar") ? ClassIndex.stampFor(new File(f)) : "tree";
+		if (f.endsWith(".jar") && classIndex.isCurrent(f, stamp)) {
+			Log.log("jar.indexer", () -> "index for path " + path + " is up to date");
+			return;
+		}
+
+		Map<String, String> a = indexClasses(path);
+		Log.log("jar.indexer", () -> "indexed path " + path + " and got " + a.size() + " classes");
+		classIndex.put(new ClassIndex.Source(f, stamp, a));
+	}
+
 	private Map<String, String> indexClasses(URL path) {
 		String f = path.getFile();
 		if (f.endsWith(".jar")) return indexClasses_jar(f);
@@ -549,13 +575,10 @@ public class JavaSupport {
 				}
 			}
 
-			synchronized (allClassNames) {
-				for (Map.Entry<String, String> e : allClassNames.entrySet()) {
-					if (e.getKey()
-					     .contains(left) && !seen.contains(e.getKey())) {
-						seen.add(e.getKey());
-						rr.add(new Pair<>(e.getKey(), "<br><span class=doc>from " + e.getValue()+"</span>"));
-					}
+			for (Pair<String, String> e : classIndex.search(left, 100)) {
+				if (!seen.contains(e.first)) {
+					seen.add(e.first);
+					rr.add(new Pair<>(e.first, "<br><span class=doc>from " + e.second + "</span>"));
 				}
 			}
 
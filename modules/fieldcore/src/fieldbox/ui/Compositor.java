@@ -5,6 +5,7 @@ import field.linalg.Vec2;
 import field.utility.Dict;
 import field.utility.Log;
 import field.utility.Options;
+import field.utility.Rect;
 import fieldagent.Main;
 import org.lwjgl.opengl.GL11;
 
@@ -28,6 +29,13 @@ public class Compositor {
 	Map<String, Layer> layers = new LinkedHashMap<>();
 	int fading = 0;
 
+	// when true, layers that track their damage (see Layer.setTracksDamage) only redraw and recomposite the parts of themselves that have changed
+	boolean partialRedraw = Options.dict()
+				       .isTrue(new Dict.Prop<Boolean>("partialRedraw"), true);
+
+	// the scissor rectangle (in framebuffer pixels) for the layer that is currently being drawn, or null if it's being drawn in its entirety
+	int[] activeScissor = null;
+
 	public Compositor(FieldBoxWindow window) {
 		this.window = window;
 		this.mainLayer = new Layer(0);
@@ -50,6 +58,11 @@ public class Compositor {
 			}
 		}
 
+		if (resizing) for (Layer l : layers.values())
+			l.dirty();
+
+		propagateDamage();
+
 		for (Layer l : layers.values()) {
 			l.needsRedrawing = Math.max(-1, l.needsRedrawing - 1);
 			if (resizing) l.fbo.draw();
@@ -57,16 +70,101 @@ public class Compositor {
 				Log.log("drawing", () -> " drawing dependancies of " + l);
 				l.drawDependancies();
 				Log.log("drawing", () -> " drawing because dirty " + l);
-				l.fbo.draw();
+				l.drawDamaged();
 			}
 		}
 
+		for (Layer l : layers.values())
+			l.clearDamage();
+
 		if (fadeup) {
 			window.requestRepaint();
 		}
 		resizing = false;
 	}
 
+	/**
+	 * returns the scissor rectangle that the preamble of a layer should use, this is the damaged part of the layer currently being drawn or 'full' if
+	 * the whole layer is being redrawn
+	 */
+	public int[] getScissor(int[] full) {
+		return activeScissor == null ? full : activeScissor;
+	}
+
+	/**
+	 * returns the part of 'scissor' that's inside the damaged part of the layer currently being drawn. Anything that sets its own scissor while a
+	 * layer is being drawn must use this, otherwise it draws over parts of the layer that haven't been cleared
+	 */
+	public int[] clipToScissor(int[] scissor) {
+		if (activeScissor == null) return scissor;
+		int x0 = Math.max(scissor[0], activeScissor[0]);
+		int y0 = Math.max(scissor[1], activeScissor[1]);
+		int x1 = Math.min(scissor[0] + scissor[2], activeScissor[0] + activeScissor[2]);
+		int y1 = Math.min(scissor[1] + scissor[3], activeScissor[1] + activeScissor[3]);
+		return new int[]{x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0)};
+	}
+
+	/**
+	 * returns true if this layer is going to be redrawn in this update and if 'windowRect' (in window coordinates) is going to be visible in that redraw.
+	 * Drawers can use this to skip geometry that isn't going to end up on the screen.
+	 */
+	public boolean willDraw(String layerName, Rect windowRect) {
+		Layer l = layers.get(layerName);
+		if (l == null || !partialRedraw || !l.tracksDamage || l.damageAll || resizing || GraphicsContext.isResizing) return true;
+		if (l.damage == null) return false;
+		return windowRect == null || l.damage.intersects(windowRect);
+	}
+
+	/**
+	 * returns true if a layer that tracks damage has been marked as entirely dirty (or is about to be recreated) and so needs all of its geometry
+	 * rebuilt before it is drawn
+	 */
+	public boolean needsCompleteGeometry() {
+		if (resizing || GraphicsContext.isResizing) return true;
+		for (Layer l : layers.values())
+			if (l.tracksDamage && l.damageAll && l.needsRedrawing > 0) return true;
+		return false;
+	}
+
+	/**
+	 * layers that don't track their own damage (blurs, composites) inherit it from the layers that they depend on. Blurs spread things out, so we
+	 * pad the damage as it passes through
+	 */
+	protected void propagateDamage() {
+		for (Layer l : layers.values()) {
+			l.frameFull = !partialRedraw || l.damageAll;
+			l.frameDamage = l.frameFull ? null : l.damage;
+		}
+		float margin = 0.02f * Math.max(window.getWidth(), window.getHeight());
+
+		// dependencies are chains a handful of layers long; this converges quickly
+		for (int i = 0; i < layers.size(); i++) {
+			boolean changed = false;
+			for (Layer l : layers.values()) {
+				if (l.tracksDamage || l.frameFull) continue;
+				for (Layer d : l.dependsOn.keySet()) {
+					if (d.frameFull) {
+						l.frameFull = true;
+						l.frameDamage = null;
+						changed = true;
+						break;
+					}
+					if (d.frameDamage == null) continue;
+					Rect r = d.frameDamage.inset(-(margin + 2 * Math.max(d.res, l.res)));
+					if (l.frameDamage == null || !contains(l.frameDamage, r)) {
+						l.frameDamage = Rect.union(l.frameDamage, r);
+						changed = true;
+					}
+				}
+			}
+			if (!changed) break;
+		}
+	}
+
+	static private boolean contains(Rect outer, Rect inner) {
+		return inner.x >= outer.x && inner.y >= outer.y && inner.x + inner.w <= outer.x + outer.w && inner.y + inner.h <= outer.y + outer.h;
+	}
+
 	private FBO newFBO() {
 		return newFBO(0);
 	}
@@ -153,6 +251,15 @@ public class Compositor {
 		private FBO fbo;
 		private Guard guard;
 
+		// damage, in window coordinates, accumulated since this layer was last drawn
+		protected Rect damage = null;
+		protected boolean damageAll = true;
+		protected boolean tracksDamage = false;
+
+		// damage for this update, after propagation through dependencies
+		protected Rect frameDamage = null;
+		protected boolean frameFull = true;
+
 
 		public Layer(int unit) {
 			fbo = newFBO(unit);
@@ -174,13 +281,13 @@ public class Compositor {
 			dependsOn.put(l, new Cache<Layer>(l, x -> x.mod, x -> {
 				x.drawDependancies();
 				Log.log("drawing", () -> "layer:" + x);
-				x.fbo.draw();
+				x.drawDamaged();
 				x.mod++;
 			}));
 			l.dependsOn.put(this, new Cache<Layer>(this, x -> x.mod, x -> {
 				x.drawDependancies();
 				Log.log("drawing", () -> "layer2:" + x);
-				x.fbo.draw();
+				x.drawDamaged();
 				x.mod++;
 			}));
 		}
@@ -192,6 +299,81 @@ public class Compositor {
 
 		public void dirty() {
 			needsRedrawing = 1;
+			damageAll = true;
+			damage = null;
+		}
+
+		/**
+		 * marks just part of this layer (in window coordinates) as needing to be redrawn. For layers that don't track their damage this is the same as dirty()
+		 */
+		public void dirty(Rect windowRect) {
+			needsRedrawing = 1;
+			if (!tracksDamage || windowRect == null) damageAll = true;
+			if (damageAll) damage = null;
+			else damage = Rect.union(damage, windowRect);
+		}
+
+		/**
+		 * declares that everything that is drawn into this layer reports its damage through dirty(Rect), so it's safe to only redraw those parts of
+		 * it. Drawing turns this on for the layers that it manages.
+		 */
+		public Layer setTracksDamage(boolean tracksDamage) {
+			this.tracksDamage = tracksDamage;
+			return this;
+		}
+
+		public boolean isTrackingDamage() {
+			return tracksDamage;
+		}
+
+		/**
+		 * the region (in window coordinates) of this layer that will be redrawn next update, or null if all of it (or none of it) will be
+		 */
+		public Rect getDamage() {
+			return damageAll ? null : damage;
+		}
+
+		protected void clearDamage() {
+			damage = null;
+			damageAll = !partialRedraw || !tracksDamage;
+			frameDamage = null;
+			frameFull = true;
+		}
+
+		protected void drawDamaged() {
+			if (frameFull) {
+				fbo.draw();
+				return;
+			}
+			if (frameDamage == null) {
+				// a tracked layer with no damage hasn't changed, and its geometry this update might not be complete, so we must not draw it
+				if (tracksDamage) return;
+				fbo.draw();
+				return;
+			}
+
+			activeScissor = toScissor(frameDamage);
+			try {
+				Log.log("drawing", () -> " partial redraw of " + this + " " + frameDamage);
+				fbo.draw();
+			} finally {
+				activeScissor = null;
+			}
+		}
+
+		protected int[] toScissor(Rect r) {
+			int fw = fbo.specification.width;
+			int fh = fbo.specification.height;
+			float sx = fw / (float) Math.max(1, window.getWidth());
+			float sy = fh / (float) Math.max(1, window.getHeight());
+
+			// window coordinates have their origin at the top left, OpenGL at the bottom left
+			int x0 = Math.max(0, (int) Math.floor(r.x * sx) - 1);
+			int x1 = Math.min(fw, (int) Math.ceil((r.x + r.w) * sx) + 1);
+			int y0 = Math.max(0, (int) Math.floor(fh - (r.y + r.h) * sy) - 1);
+			int y1 = Math.min(fh, (int) Math.ceil(fh - r.y * sy) + 1);
+
+			return new int[]{x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0)};
 		}
 
 		public Scene getScene() {
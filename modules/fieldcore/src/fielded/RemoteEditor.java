@@ -141,6 +141,7 @@ public class RemoteEditor extends Box {
 	boolean selectionHasChanged = false;
 
 	AtomicInteger current_ln = new AtomicInteger();
+	TextSync textSync = new TextSync();
 	AtomicReference<String> completionHelp = new AtomicReference<>("");
 
 
@@ -168,7 +169,7 @@ public class RemoteEditor extends Box {
 			server.send(socketName, "_messageBus.publish('focus', {})");
 		});
 
-		server.addHandlerLast(x -> x.equals("log"), (s, socket, address, payload) -> {
+		server.addHandlerLast("log", (s, socket, address, payload) -> {
 
 			if (logStack.size() > 0) logStack.get(logStack.size() - 1)
 				.accept("" + payload);
@@ -176,7 +177,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(x -> x.equals("error"), (s, socket, address, payload) -> {
+		server.addHandlerLast("error", (s, socket, address, payload) -> {
 
 			if (logStack.size() > 0) errorStack.get(errorStack.size() - 1)
 				.accept("" + payload);
@@ -184,7 +185,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("focus.window"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("focus.window", () -> socketName, (s, socket, address, payload) -> {
 			find(Boxes.window, both()).findFirst()
 				.ifPresent(w -> w.requestRaise());
 			return payload;
@@ -265,7 +266,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("text.updated"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("text.updated", () -> socketName, (s, socket, address, payload) -> {
 
 			JSONObject p = (JSONObject) payload;
 
@@ -276,11 +277,22 @@ public class RemoteEditor extends Box {
 
 			String prop = p.getString("property");
 
-			String text = p.getString("text");
-
 			if (prop == null) throw new IllegalArgumentException(" missing property <" + p + ">");
 
-			if (text == null) throw new IllegalArgumentException(" missing text <" + p + ">");
+			String boxId = p.getString("box");
+			String text;
+			if (p.has("edits")) {
+				text = textSync.apply(boxId, prop, p.getInt("base"), p.getJSONArray("edits"), p.optInt("length", -1), box.get().properties.get(new Dict.Prop<String>(prop)));
+				if (text == null) {
+					// we've lost track of what the editor has, ask for all of it
+					requestResync(boxId, prop);
+					return payload;
+				}
+			} else {
+				text = p.getString("text");
+				if (text == null) throw new IllegalArgumentException(" missing text <" + p + ">");
+				textSync.received(boxId, prop, text, p.optInt("version", 0));
+			}
 
 			box.get().properties.put(new Dict.Prop<String>(prop), text);
 
@@ -307,7 +319,7 @@ public class RemoteEditor extends Box {
 
 				Execution.ExecutionSupport support = getExecution(box.get(), new Dict.Prop<String>(prop)).support(box.get(), new Dict.Prop<String>(prop));
 
-				support.completion(text, ln, c, cc -> {
+				support.autosuggest(text, ln, c, cc -> {
 					if (cc.size() > 0) {
 
 						CompletionStats.stats.autosuggest(cc);
@@ -341,7 +353,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("clipboard.getNewClipboard"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("clipboard.getNewClipboard", () -> socketName, (s, socket, address, payload) -> {
 			Log.log("clipboardfix", () -> "sync clipboard");
 			JSONObject p = (JSONObject) payload;
 			String returnAddress = p.getString("returnAddress");
@@ -369,7 +381,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("clipboard.setClipboard"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("clipboard.setClipboard", () -> socketName, (s, socket, address, payload) -> {
 			Log.log("clipboardfix", () -> "set clipboard to " + payload);
 			JSONObject p = (JSONObject) payload;
 
@@ -383,7 +395,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("store.cookie"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("store.cookie", () -> socketName, (s, socket, address, payload) -> {
 
 			JSONObject p = (JSONObject) payload;
 
@@ -473,7 +485,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("execution.all"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("execution.all", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside execution all ");
 
@@ -488,9 +500,9 @@ public class RemoteEditor extends Box {
 			if (box.get() != currentSelection)
 				System.err.println(" (warning?) remote editor is trying to execute a box we're not editing ?");
 
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 
-			if (text == null) throw new IllegalArgumentException(" can't execute no text ");
+			if (text == null) return refuse(box.get(), p, payload);
 
 			List<Pair<Integer, Integer>> dis = parseDisabledRanges(p.getString("disabledRanges"));
 
@@ -524,7 +536,7 @@ public class RemoteEditor extends Box {
 		});
 
 
-		server.addHandlerLast(Predicate.isEqual("execution.begin"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("execution.begin", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside execution begin ");
 
@@ -539,9 +551,9 @@ public class RemoteEditor extends Box {
 			if (box.get() != currentSelection)
 				System.err.println(" (warning?) remote editor is trying to execute a box we're not editing ?");
 
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 
-			if (text == null) throw new IllegalArgumentException(" can't execute no text ");
+			if (text == null) return refuse(box.get(), p, payload);
 
 			box.get().properties.put(currentlyEditing, text);
 
@@ -570,7 +582,7 @@ public class RemoteEditor extends Box {
 
 			return payload;
 		});
-		server.addHandlerLast(Predicate.isEqual("execution.end"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("execution.end", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside execution end ");
 
@@ -585,9 +597,9 @@ public class RemoteEditor extends Box {
 			if (box.get() != currentSelection)
 				System.err.println(" (warning?) remote editor is trying to execute a box we're not editing ?");
 
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 
-			if (text == null) throw new IllegalArgumentException(" can't execute no text ");
+			if (text == null) return refuse(box.get(), p, payload);
 
 			box.get().properties.put(currentlyEditing, text);
 
@@ -616,13 +628,13 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("notify.completion"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("notify.completion", () -> socketName, (s, socket, address, payload) -> {
 			JSONObject p = (JSONObject) payload;
 			CompletionStats.stats.notify(p.getString("uuid"));
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("request.completions"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("request.completions", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside request completions ");
 
@@ -637,7 +649,7 @@ public class RemoteEditor extends Box {
 			if (box.get() != currentSelection)
 				System.err.println(" (warning?) remote editor is trying to request completions in a box we're not editing ?");
 
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 
 			if (text == null) throw new IllegalArgumentException(" can't execute no text ");
 
@@ -676,7 +688,7 @@ public class RemoteEditor extends Box {
 
 			return payload;
 		});
-		server.addHandlerLast(Predicate.isEqual("request.imports"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("request.imports", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside request completions ");
 
@@ -691,7 +703,7 @@ public class RemoteEditor extends Box {
 			if (box.get() != currentSelection)
 				System.err.println(" (warning?) remote editor is trying to request completions in a box we're not editing ?");
 
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 
 			if (text == null) throw new IllegalArgumentException(" can't execute no text ");
 
@@ -729,7 +741,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("request.commands"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("request.commands", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside request commands ");
 
@@ -737,7 +749,7 @@ public class RemoteEditor extends Box {
 
 			Optional<Box> box = findBoxByID(p.getString("box"));
 			String prop = p.getString("property");
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 			String returnAddress = p.getString("returnAddress");
 			int line = p.getInt("line");
 			int ch = p.getInt("ch");
@@ -747,7 +759,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("call.commandByName"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("call.commandByName", () -> socketName, (s, socket, address, payload) -> {
 
 			JSONObject p = (JSONObject) payload;
 			String command = p.getString("command");
@@ -772,7 +784,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("call.command"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("call.command", () -> socketName, (s, socket, address, payload) -> {
 
 			JSONObject p = (JSONObject) payload;
 			String command = p.getString("command");
@@ -791,7 +803,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("request.hotkeyCommands"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("request.hotkeyCommands", () -> socketName, (s, socket, address, payload) -> {
 
 			Log.log("remote.trace", () -> " inside request commands ");
 
@@ -799,7 +811,7 @@ public class RemoteEditor extends Box {
 
 			Optional<Box> box = findBoxByID(p.getString("box"));
 			String prop = p.getString("property");
-			String text = p.getString("text");
+			String text = textFor(p, box, prop);
 			String returnAddress = p.getString("returnAddress");
 			int line = p.getInt("line");
 			int ch = p.getInt("ch");
@@ -861,7 +873,7 @@ public class RemoteEditor extends Box {
 			return payload;
 		});
 
-		server.addHandlerLast(Predicate.isEqual("call.alternative"), () -> socketName, (s, socket, address, payload) -> {
+		server.addHandlerLast("call.alternative", () -> socketName, (s, socket, address, payload) -> {
 
 			JSONObject p = (JSONObject) payload;
 			String command = p.getString("command");
@@ -1069,6 +1081,49 @@ public class RemoteEditor extends Box {
 		return currentSelection;
 	}
 
+	/**
+	 * the text that a request from the editor is talking about. Older requests carry the text itself, newer ones just carry the version of the
+	 * text (see TextSync) that the editor had when it made the request
+	 */
+	protected String textFor(JSONObject p, Optional<Box> box, String prop) {
+		if (p.has("text")) return p.getString("text");
+		if (!p.has("version") || !box.isPresent()) return null;
+
+		String text = textSync.textAt(p.getString("box"), prop, p.getInt("version"));
+		if (text != null) return text;
+
+		// we're waiting on a resync, or never had this version. Either way we don't know what the editor is looking at, so we ask for it again
+		Log.log("remote.trace", () -> " request refers to version " + p.getInt("version") + " of " + p.getString("box") + "/" + prop + " which we don't have");
+		textSync.missing(p.getString("box"), prop);
+		requestResync(p.getString("box"), prop);
+		return null;
+	}
+
+	/**
+	 * asks the editor for the full text of this box / property, unless we've already asked (see TextSync.shouldRequestResync)
+	 */
+	protected void requestResync(String boxId, String prop) {
+		if (textSync.shouldRequestResync(boxId, prop)) server.send(socketName, "_messageBus.publish('text.resync', " + new JSONObject().put("box", boxId)
+													    .put("property", prop)
+													    .toString() + ")");
+	}
+
+	/**
+	 * tells the editor that we haven't executed its request because we don't have the text it refers to
+	 */
+	protected Object refuse(Box box, JSONObject p, Object payload) {
+		newOutput(box, p.getString("returnAddress"), (Function<Pair<Integer, String>, String>) (lineerror) -> new JSONStringer().object()
+			.key("type")
+			.value("error")
+			.key("line")
+			.value((int) lineerror.first)
+			.key("message")
+			.value(lineerror.second)
+			.endObject()
+			.toString()).accept(new Pair<>(-1, "Not executed, the text is still being sent from the editor, try again<br>"));
+		return payload;
+	}
+
 	public void changeSelection(Box currentSelection, Dict.Prop<String> editingProperty) {
 
 		Log.log("remote.trace", () -> " publishing selection changed :" + currentSelection + " " + editingProperty);
@@ -1088,7 +1143,9 @@ public class RemoteEditor extends Box {
 
 			JSONObject buildMessage = new JSONObject();
 			buildMessage.put("box", currentSelection.properties.get(IO.id));
-			buildMessage.put("text", currentSelection.properties.getOr(editingProperty, () -> ""));
+			buildMessage.put("text", text);
+			buildMessage.put("version", textSync.reset(currentSelection.properties.getOrConstruct(IO.id), editingProperty.getName(), text, 0)
+							    .getVersion());
 			buildMessage.put("property", editingProperty.getName());
 			buildMessage.put("name", currentSelection.properties.get(Box.name));
 
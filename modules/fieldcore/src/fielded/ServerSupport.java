@@ -60,28 +60,28 @@ public class ServerSupport {
 			s.setFixedResource("/init", readFile(fieldagent.Main.app + "/modules/fieldcore/resources//init.html"));
 			s.addDocumentRoot(fieldagent.Main.app + "/modules/fieldcore/resources/");
 
-			s.addHandlerLast(x -> x.equals("alive"), (server, socket, address, payload) -> {
+			s.addHandlerLast("alive", (server, socket, address, payload) -> {
 				Log.log("remote.general", ()->" alive :" + payload);
 				return payload;
 			});
 
-			s.addHandlerLast(x -> x.equals("log"), (server, socket, address, payload) -> {
+			s.addHandlerLast("log", (server, socket, address, payload) -> {
 				Log.log("remote.general", ()->"-\n" + payload + "\n-");
 				return payload;
 			});
 
-			s.addHandlerLast(x -> x.equals("error"), (server, socket, address, payload) -> {
+			s.addHandlerLast("error", (server, socket, address, payload) -> {
 				Log.log("remote.general", ()->"-e-\n" + payload + "\n-e-");
 
 				return payload;
 			});
 
-			s.addHandlerLast(x -> x.equals("initialize"), (server, socket, address, payload) -> {
+			s.addHandlerLast("initialize", (server, socket, address, payload) -> {
 				s.send(socket, readFile(fieldagent.Main.app + "/modules/fieldcore/resources/include.js"));
 				return payload;
 			});
 
-			s.addHandlerLast(x -> x.equals("initialize.finished"), (server, socket, address, payload) -> {
+			s.addHandlerLast("initialize.finished", (server, socket, address, payload) -> {
 
 				for (String n : playlist) {
 					s.send(socket, readFile(fieldagent.Main.app + "/modules/fieldcore/resources/" + n));
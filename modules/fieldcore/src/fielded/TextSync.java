@@ -0,0 +1,161 @@
+package fielded;
+
+import field.utility.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Server side of the versioned text synchronisation between the web editor and RemoteEditor.
+ * <p>
+ * Rather than sending the whole of a box's text on every keystroke, the editor sends the edits it has made (as a list of {from, remove, text},
+ * in character offsets, each relative to the document as it was after the previous one) together with the version those edits apply to. We keep
+ * the authoritative text for each box/property here, apply the edits and bump the version. Requests that need the text (completion, execution)
+ * then only need to say which version they mean.
+ * <p>
+ * If the edits don't apply (the versions don't match, the length we end up with isn't the one the editor has, or someone else has changed the
+ * property behind our back) the document is marked as needing a resync and the caller should ask the editor for the full text again. Until that
+ * arrives we ignore further edits for that document.
+ */
+public class TextSync {
+
+	static public class Document {
+		public final String key;
+		protected final StringBuilder text = new StringBuilder();
+		protected String current = "";
+		protected int version = 0;
+		protected boolean awaitingResync = false;
+		protected boolean resyncRequested = false;
+
+		Document(String key) {
+			this.key = key;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		public String getText() {
+			return current;
+		}
+	}
+
+	protected final Map<String, Document> documents = new LinkedHashMap<String, Document>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+			return size() > 64;
+		}
+	};
+
+	// statistics
+	protected long editsApplied = 0;
+	protected long charactersReceived = 0;
+	protected long resyncs = 0;
+
+	static public String keyFor(String box, String property) {
+		return box + "/" + property;
+	}
+
+	/**
+	 * the editor has the whole text, at this version. Called when we send a box to the editor
+	 */
+	public synchronized Document reset(String box, String property, String text, int version) {
+		Document d = documents.computeIfAbsent(keyFor(box, property), Document::new);
+		d.text.setLength(0);
+		d.text.append(text);
+		d.current = text;
+		d.version = version;
+		d.awaitingResync = false;
+		return d;
+	}
+
+	/**
+	 * the editor has resent the whole text, at this version, after we asked it to
+	 */
+	public synchronized Document received(String box, String property, String text, int version) {
+		charactersReceived += text.length();
+		return reset(box, property, text, version);
+	}
+
+	/**
+	 * applies edits made against version 'base'. 'currentlyStored' is the value that the box property has right now, if it isn't the same as the
+	 * text that we last handed out then something other than the editor has changed it. Returns the new text, or null if the document needs to be resynced
+	 * (see shouldRequestResync)
+	 */
+	public synchronized String apply(String box, String property, int base, JSONArray edits, int expectedLength, String currentlyStored) {
+		Document d = documents.computeIfAbsent(keyFor(box, property), Document::new);
+		if (d.awaitingResync) return null;
+
+		if (d.version != base || !Objects.equals(currentlyStored, d.current)) {
+			Log.log("remote.trace", () -> " text sync for " + d.key + " has diverged, at version " + d.version + " but edits are against " + base);
+			return resync(d);
+		}
+
+		try {
+			for (int i = 0; i < edits.length(); i++) {
+				JSONObject e = edits.getJSONObject(i);
+				int from = e.getInt("from");
+				int remove = e.getInt("remove");
+				String insert = e.getString("text");
+				d.text.replace(from, from + remove, insert);
+				charactersReceived += insert.length();
+			}
+		} catch (RuntimeException e) {
+			Log.log("remote.error", () -> " couldn't apply edits to " + d.key + " " + e);
+			return resync(d);
+		}
+
+		if (expectedLength >= 0 && d.text.length() != expectedLength) {
+			Log.log("remote.trace", () -> " text sync for " + d.key + " ended up with " + d.text.length() + " characters rather than " + expectedLength);
+			return resync(d);
+		}
+
+		editsApplied += edits.length();
+		d.version = base + 1;
+		d.current = d.text.toString();
+		return d.current;
+	}
+
+	protected String resync(Document d) {
+		d.awaitingResync = true;
+		d.resyncRequested = false;
+		resyncs++;
+		return null;
+	}
+
+	/**
+	 * a request has referred to a version of the text that we don't have. Unless we're already waiting for it, we'll need the full text again
+	 */
+	public synchronized void missing(String box, String property) {
+		Document d = documents.computeIfAbsent(keyFor(box, property), Document::new);
+		if (!d.awaitingResync) resync(d);
+	}
+
+	/**
+	 * returns true exactly once after apply (or missing) has failed, so that we ask the editor for the full text once rather than once per set of edits that
+	 * arrive before it answers
+	 */
+	public synchronized boolean shouldRequestResync(String box, String property) {
+		Document d = documents.get(keyFor(box, property));
+		if (d == null || !d.awaitingResync || d.resyncRequested) return false;
+		d.resyncRequested = true;
+		return true;
+	}
+
+	/**
+	 * the text at this version, or null if we don't have it (the editor is ahead of us, or we're waiting for a resync)
+	 */
+	public synchronized String textAt(String box, String property, int version) {
+		Document d = documents.get(keyFor(box, property));
+		if (d == null || d.awaitingResync || d.version != version) return null;
+		return d.current;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TextSync(" + documents.size() + " documents) edits:" + editsApplied + " characters:" + charactersReceived + " resyncs:" + resyncs;
+	}
+}
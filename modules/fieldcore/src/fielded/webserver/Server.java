@@ -14,6 +14,7 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -26,7 +27,57 @@ public class Server {
 	private final NanoHTTPD server;
 	private final WebSocketServer webSocketServer;
 
-	Deque<Handler> handlers = new LinkedList<>();
+	/*
+	 * routing. Handlers registered for a single address go in 'exact', everything else (plain handlers, which see every message, and handlers
+	 * with arbitrary predicates) goes in 'general'. Every route has a sequence number (decreasing for addHandlerFirst, increasing for
+	 * addHandlerLast) and the handlers for an address are the merge of the two lists in that order, which is exactly the order that walking the
+	 * whole list would have given us. Merged lists are cached per address until the next registration.
+	 */
+	static protected class Route {
+		final long order;
+		final Handler handler;
+		final String address;
+
+		Route(long order, Handler handler, String address) {
+			this.order = order;
+			this.handler = handler;
+			this.address = address;
+		}
+	}
+
+	protected final Map<String, List<Route>> exact = new HashMap<>();
+	protected final List<Route> general = new ArrayList<>();
+	protected final Map<String, Route[]> routeCache = new ConcurrentHashMap<>();
+	protected long firstOrder = 0;
+	protected long lastOrder = 0;
+
+	static public class AddressStatistics {
+		public final AtomicLong messages = new AtomicLong();
+		public final AtomicLong handled = new AtomicLong();
+		public final AtomicLong handlerNanos = new AtomicLong();
+		public final AtomicLong maxHandlerNanos = new AtomicLong();
+
+		protected void handled(long nanos) {
+			handled.incrementAndGet();
+			handlerNanos.addAndGet(nanos);
+			maxHandlerNanos.accumulateAndGet(nanos, Math::max);
+		}
+
+		public double getMeanHandlerMillis() {
+			long n = handled.get();
+			return n == 0 ? 0 : handlerNanos.get() / (1e6 * n);
+		}
+
+		@Override
+		public String toString() {
+			return messages.get() + " messages, " + handled.get() + " handled, mean " + String.format("%.3f", getMeanHandlerMillis()) + "ms, max " + String.format("%.3f", maxHandlerNanos.get() / 1e6) + "ms";
+		}
+	}
+
+	// addresses come from clients, so past this many distinct ones everything else is counted together under 'otherAddresses'
+	static public final int maxAddressStatistics = 1024;
+	static public final String otherAddresses = "(other)";
+	protected final Map<String, AddressStatistics> statistics = new ConcurrentHashMap<>();
 	List<URIHandler> uriHandlers = new ArrayList<>();
 
 	BiMap<String, WebSocket> knownSockets = HashBiMap.create();
@@ -140,14 +191,24 @@ public class Server {
 				Object payload = o.get("payload");
 				Object originalPayload = payload;
 
-				for (Handler h : new ArrayList<>(handlers)) {
+				AddressStatistics known = statistics.get(address);
+				AddressStatistics stats = known != null ? known : statistics.computeIfAbsent(statistics.size() < maxAddressStatistics ? address : otherAddresses, k -> new AddressStatistics());
+				stats.messages.incrementAndGet();
+
+				for (Route r : routesFor(address)) {
+					Handler h = r.handler;
 					if (h instanceof HandlerInMainThread) {
 						if (((HandlerInMainThread) h).will(Server.this, webSocket, address, payload)) {
 							final Object p = payload;
 //							try {
 								queue(() -> {
 									currentWebSocket.set(webSocket);
-									return h.handle(Server.this, webSocket, address, p);
+									long a = System.nanoTime();
+									try {
+										return h.handle(Server.this, webSocket, address, p);
+									} finally {
+										stats.handled(System.nanoTime() - a);
+									}
 								});
 
 							// not threading these all through the main thread means that we don't get backlogged nearly as easily
@@ -158,7 +219,9 @@ public class Server {
 						}
 					} else {
 						currentWebSocket.set(webSocket);
+						long a = System.nanoTime();
 						payload = h.handle(Server.this, webSocket, address, payload);
+						stats.handled(System.nanoTime() - a);
 					}
 				}
 			}
@@ -185,12 +248,11 @@ public class Server {
 	}
 
 	public Server addHandlerLast(Handler h) {
-		handlers.add(h);
-		return this;
+		return route(h, null, false);
 	}
 
 	public Server addHandlerLast(Predicate<String> addressPredicate, Handler h) {
-		handlers.add(new HandlerInMainThread() {
+		return route(new HandlerInMainThread() {
 			@Override
 			public Object handle(Server server, WebSocket from, String address, Object payload) {
 				return h.handle(server, from, address, payload);
@@ -200,12 +262,11 @@ public class Server {
 			public boolean will(Server server, WebSocket from, String address, Object payload) {
 				return addressPredicate.test(address);
 			}
-		});
-		return this;
+		}, null, false);
 	}
 
 	public Server addHandlerLast(Predicate<String> addressPredicate, Supplier<String> socketName, Handler h) {
-		handlers.add(new HandlerInMainThread() {
+		return route(new HandlerInMainThread() {
 			@Override
 			public Object handle(Server server, WebSocket from, String address, Object payload) {
 				return h.handle(server, from, address, payload);
@@ -215,10 +276,81 @@ public class Server {
 			public boolean will(Server server, WebSocket from, String address, Object payload) {
 				return addressPredicate.test(address) && Util.safeEq(knownSockets.inverse().get(from), socketName.get());
 			}
-		});
+		}, null, false);
+	}
+
+	/**
+	 * adds a handler (run in the main thread) for messages sent to exactly this address. Prefer this to the Predicate versions, messages are
+	 * routed to these with a single hash lookup
+	 */
+	public Server addHandlerLast(String address, Handler h) {
+		return route(new HandlerInMainThread() {
+			@Override
+			public Object handle(Server server, WebSocket from, String address, Object payload) {
+				return h.handle(server, from, address, payload);
+			}
+		}, address, false);
+	}
+
+	/**
+	 * adds a handler (run in the main thread) for messages sent to exactly this address, from the websocket called socketName.get()
+	 */
+	public Server addHandlerLast(String address, Supplier<String> socketName, Handler h) {
+		return route(new HandlerInMainThread() {
+			@Override
+			public Object handle(Server server, WebSocket from, String address, Object payload) {
+				return h.handle(server, from, address, payload);
+			}
+
+			@Override
+			public boolean will(Server server, WebSocket from, String address, Object payload) {
+				return Util.safeEq(knownSockets.inverse().get(from), socketName.get());
+			}
+		}, address, false);
+	}
+
+	protected Server route(Handler h, String address, boolean first) {
+		synchronized (exact) {
+			Route r = new Route(first ? --firstOrder : ++lastOrder, h, address);
+			List<Route> into = address == null ? general : exact.computeIfAbsent(address, k -> new ArrayList<>());
+			if (first) into.add(0, r);
+			else into.add(r);
+
+			routeCache.clear();
+		}
 		return this;
 	}
 
+	protected Route[] routesFor(String address) {
+		Route[] r = routeCache.get(address);
+		if (r != null) return r;
+
+		synchronized (exact) {
+			List<Route> a = exact.getOrDefault(address, Collections.emptyList());
+			List<Route> b = general;
+
+			// both lists are already in order, so this is just a merge
+			r = new Route[a.size() + b.size()];
+			int i = 0, j = 0, k = 0;
+			while (i < a.size() || j < b.size()) {
+				if (j == b.size() || (i < a.size() && a.get(i).order < b.get(j).order)) r[k++] = a.get(i++);
+				else r[k++] = b.get(j++);
+			}
+			// addresses come from a small, fixed vocabulary, but we don't want a misbehaving client to be able to grow this without limit
+			if (routeCache.size() > 1024) routeCache.clear();
+			routeCache.put(address, r);
+		}
+		return r;
+	}
+
+	/**
+	 * per-address message counts and handler timings, since this server started. Messages to addresses beyond the first maxAddressStatistics are
+	 * counted under otherAddresses
+	 */
+	public Map<String, AddressStatistics> getAddressStatistics() {
+		return Collections.unmodifiableMap(statistics);
+	}
+
 	public Server addURIHandler(URIHandler h)
 	{
 		uriHandlers.add(h);
@@ -227,7 +359,7 @@ public class Server {
 
 
 	public void addHandlerFirst(Handler h) {
-		handlers.add(h);
+		route(h, null, true);
 	}
 
 	public void addDocumentRoot(String root)
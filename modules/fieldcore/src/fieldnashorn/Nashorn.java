@@ -60,7 +60,6 @@ public class Nashorn implements BiFunction<Box, Dict.Prop<String>, NashornExecut
 		}
 
 		ternSupport = new TernSupport();
-		ternSupport.inject(engine);
 
 
 		Animatable.registerHandler((was, o) -> {
@@ -20,6 +20,8 @@ import fielded.RemoteEditor;
 import fielded.plugins.Out;
 import fieldnashorn.babel.SourceTransformer;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -34,6 +36,11 @@ import java.util.regex.Pattern;
 
 /**
  * An implementation of Execution.ExecutionSupport for Nashorn/Javascript
+ * <p>
+ * Each box has its own engine and its own NashornExecution. Text that we've run before in this box (same text, same source transformer, same
+ * filename and line offset) isn't parsed, transformed and compiled again, instead we keep the CompiledScript in a small LRU cache and just run
+ * it. This matters for things that re-run the same box over and over again (begin()/end(), time sliders). The time spent transforming,
+ * compiling and running is kept, per box, in the property _nashornTiming.
  */
 public class NashornExecution implements Execution.ExecutionSupport {
 
@@ -41,6 +48,83 @@ public class NashornExecution implements Execution.ExecutionSupport {
 		"an instanceof of a SourceTransformer that will take the source code here and transform it into JavaScript. This allows things like Babel.js to be used in Field")
 		.toCannon();
 
+	static public final Dict.Prop<Timing> timing = new Dict.Prop<Timing>("_nashornTiming").doc(
+		"how long the JavaScript in this box has taken to transform, compile and run, and how often we've been able to reuse an already compiled script")
+		.toCannon();
+
+	static public final int compiledScriptCacheSize = (int) Options.dict()
+								      .getFloat(new Dict.Prop<Number>("compiledScriptCacheSize"), 32);
+
+	/**
+	 * compile vs run timing for one box. Times are in nanoseconds
+	 */
+	static public class Timing {
+		public long compiles = 0;
+		public long hits = 0;
+		public long transformTime = 0;
+		public long compileTime = 0;
+		public long runTime = 0;
+		public long runs = 0;
+
+		public long lastCompileTime = 0;
+		public long lastRunTime = 0;
+
+		@Override
+		public String toString() {
+			return String.format("compiled %d (%.2fms transform, %.2fms compile), reused %d, ran %d (%.2fms, last %.2fms)", compiles, transformTime / 1e6, compileTime / 1e6, hits, runs, runTime / 1e6, lastRunTime / 1e6);
+		}
+	}
+
+	/**
+	 * what a CompiledScript is cached under. The source is kept (not just its hash) so that two texts that happen to hash the same can't be
+	 * confused
+	 */
+	static protected class Key {
+		final String source;
+		final SourceTransformer transformer;
+		final String filename;
+		final int lineOffset;
+		final int hash;
+
+		Key(String source, SourceTransformer transformer, String filename, int lineOffset) {
+			this.source = source;
+			this.transformer = transformer;
+			this.filename = filename;
+			this.lineOffset = lineOffset;
+			this.hash = ((source.hashCode() * 31 + System.identityHashCode(transformer)) * 31 + Objects.hashCode(filename)) * 31 + lineOffset;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && lineOffset == k.lineOffset && transformer == k.transformer && Objects.equals(filename, k.filename) && source.equals(k.source);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	static protected class Compiled {
+		final CompiledScript script;
+		final Function<Integer, Integer> lineTransform;
+
+		Compiled(CompiledScript script, Function<Integer, Integer> lineTransform) {
+			this.script = script;
+			this.lineTransform = lineTransform;
+		}
+	}
+
+	protected final LinkedHashMap<Key, Compiled> compiled = new LinkedHashMap<Key, Compiled>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Compiled> eldest) {
+			return size() > compiledScriptCacheSize;
+		}
+	};
+
 	private final Dict.Prop<String> property;
 	private final Box box;
 	private final ScriptContext context;
@@ -136,30 +220,52 @@ public class NashornExecution implements Execution.ExecutionSupport {
 			Log.log("nashorn.general", () -> finalTextFragment);
 			Log.log("nashorn.general", () -> "applying lineOffset of :" + lineOffset);
 
-			// we prefix the code with a sufficient number of \n's so that the line number of any error message actually refers to the correct line
-			// dreadful hack, but there's no other option right now in Nashorn (sourceMaps aren't supported for example)
-			StringBuffer prefix = new StringBuffer(Math.max(0, lineOffset));
-			for (int i = 0; i < lineOffset; i++)
-				prefix.append('\n');
-
-			textFragment = prefix + textFragment + (filename == null ? "" : ("//# sourceURL=" + filename));
-
-
 			//TODO: should be find?
 			SourceTransformer st = box.properties.get(sourceTransformer);
 
+			Timing t = timing();
+			Key key = new Key(textFragment, st, filename, lineOffset);
+			Compiled c = compiled.get(key);
 
-			if (st != null) {
-				try {
-					Pair<String, Function<Integer, Integer>> transformation = st.transform(textFragment);
-					textFragment = transformation.first;
-					lineTransform = transformation.second;
-				} catch (SourceTransformer.TranslationFailedException t) {
-					lineErrors.accept(new Pair<>(-1, t.getMessage() + "<br>"));
-					return null;
+			if (c == null) {
+				// we prefix the code with a sufficient number of \n's so that the line number of any error message actually refers to the correct line
+				// dreadful hack, but there's no other option right now in Nashorn (sourceMaps aren't supported for example)
+				StringBuffer prefix = new StringBuffer(Math.max(0, lineOffset));
+				for (int i = 0; i < lineOffset; i++)
+					prefix.append('\n');
+
+				textFragment = prefix + textFragment + (filename == null ? "" : ("//# sourceURL=" + filename));
+
+				long t0 = System.nanoTime();
+				if (st != null) {
+					try {
+						Pair<String, Function<Integer, Integer>> transformation = st.transform(textFragment);
+						textFragment = transformation.first;
+						lineTransform = transformation.second;
+					} catch (SourceTransformer.TranslationFailedException e) {
+						lineErrors.accept(new Pair<>(-1, e.getMessage() + "<br>"));
+						return null;
+					}
+				} else {
+					lineTransform = x -> x;
 				}
+				long t1 = System.nanoTime();
+
+				// a syntax error is thrown from here, and handled below just as it would be had it come from eval
+				c = new Compiled(((Compilable) engine).compile(textFragment), lineTransform);
+				long t2 = System.nanoTime();
+
+				compiled.put(key, c);
+				t.compiles++;
+				t.transformTime += t1 - t0;
+				t.compileTime += t2 - t1;
+				t.lastCompileTime = t2 - t0;
+
+				Compiled finalC = c;
+				Log.log("nashorn.timing", () -> box + " transformed in " + (t1 - t0) / 1e6 + "ms, compiled in " + (t2 - t1) / 1e6 + "ms " + finalC.script);
 			} else {
-				lineTransform = x -> x;
+				lineTransform = c.lineTransform;
+				t.hits++;
 			}
 
 			RemoteEditor.removeBoxFeedback(Optional.of(box), "__redmark__");
@@ -169,10 +275,15 @@ public class NashornExecution implements Execution.ExecutionSupport {
 			Consumer<Pair<Integer, String>> finalLineErrors = lineErrors;
 			boolean[] error = {false};
 
-			Object ret = engineeval(textFragment, context, e -> {
+			long r0 = System.nanoTime();
+			Object ret = engineeval(c.script, context, e -> {
 				error[0] = true;
 				handleScriptException(e, finalLineErrors, lineTransform);
 			});
+			t.runs++;
+			t.lastRunTime = System.nanoTime() - r0;
+			t.runTime += t.lastRunTime;
+			Log.log("nashorn.timing", () -> box + " ran in " + t.lastRunTime / 1e6 + "ms, " + t);
 
 			Log.log("nashorn.general", () -> "\n<<javascript out" + ret + " " + (ret != null ? ret.getClass() + "" : ""));
 			if (writer != null) writer.flush();
@@ -295,12 +406,25 @@ public class NashornExecution implements Execution.ExecutionSupport {
 		}
 	}
 
-	private Object engineeval(String textFragment, ScriptContext context, Consumer<Throwable> exception) throws ScriptException {
+	private Timing timing() {
+		Timing t = box.properties.get(timing);
+		if (t == null) box.properties.put(timing, t = new Timing());
+		return t;
+	}
+
+	/**
+	 * forgets every compiled script for this box
+	 */
+	public void clearCompiledScripts() {
+		compiled.clear();
+	}
+
+	private Object engineeval(CompiledScript script, ScriptContext context, Consumer<Throwable> exception) throws ScriptException {
 		Set<Throwable> seenBefore = new LinkedHashSet<>();
 		if (ThreadSync.enabled && Thread.currentThread() == ThreadSync.get().mainThread) {
 			try {
 				ThreadSync.Fiber f = ThreadSync.get()
-					.run("execution of {{"+textFragment+"}}", () -> engine.eval(textFragment, context), t -> {
+					.run("execution of {{"+box+"}}", () -> script.eval(context), t -> {
 						if (seenBefore.add(t))
 							exception.accept(t);
 					});
@@ -313,7 +437,7 @@ public class NashornExecution implements Execution.ExecutionSupport {
 				return null;
 			}
 		} else {
-			return engine.eval(textFragment, context);
+			return script.eval(context);
 		}
 	}
 
@@ -424,29 +548,68 @@ public class NashornExecution implements Execution.ExecutionSupport {
 
 	@Override
 	public void completion(String allText, int line, int ch, Consumer<List<Completion>> results) {
-		List<Completion> r1 = ternSupport.completion(engine, box.properties.get(IO.id), allText, line, ch);
+		completion(allText, line, ch, true, results);
+	}
 
-		if (r1 != null) {
-			results.accept(r1);
-		}
+	@Override
+	public void autosuggest(String allText, int line, int ch, Consumer<List<Completion>> results) {
+		completion(allText, line, ch, false, results);
+	}
 
+	protected void completion(String allText, int line, int ch, boolean explicit, Consumer<List<Completion>> results) {
+		Gather g = new Gather(results);
 		this.box.find(Execution.completions, this.box.upwards())
 			.flatMap(x -> x.values()
 				.stream())
-			.forEach(x -> x.completion(this.box, allText, line, ch, results));
+			.forEach(x -> x.completion(this.box, allText, line, ch, g));
+
+		ternSupport.completion(engine, box.properties.get(IO.id), allText, line, ch, explicit, g::answer);
 	}
 
 	@Override
 	public void imports(String allText, int line, int ch, Consumer<List<Completion>> results) {
-		List<Completion> r1 = ternSupport.imports(engine, box.properties.get(IO.id), allText, line, ch);
-		if (r1 != null) {
-			results.accept(r1);
-		}
-
+		Gather g = new Gather(results);
 		this.box.find(Execution.imports, this.box.upwards())
 			.flatMap(x -> x.values()
 				.stream())
-			.forEach(x -> x.completion(this.box, allText, line, ch, results));
+			.forEach(x -> x.completion(this.box, allText, line, ch, g));
+
+		ternSupport.imports(engine, box.properties.get(IO.id), allText, line, ch, g::answer);
+	}
+
+	/**
+	 * tern answers later, on the main thread, after the other providers have answered. This holds on to what they say until then, so that it all
+	 * goes back together, tern's first (rather than tern's answer replacing theirs). Anything that turns up after tern has answered goes straight
+	 * through
+	 */
+	static private class Gather implements Consumer<List<Completion>> {
+		final Consumer<List<Completion>> results;
+		final List<Completion> held = new ArrayList<>();
+		boolean waiting = true;
+
+		Gather(Consumer<List<Completion>> results) {
+			this.results = results;
+		}
+
+		@Override
+		public void accept(List<Completion> c) {
+			synchronized (this) {
+				if (waiting) {
+					held.addAll(c);
+					return;
+				}
+			}
+			results.accept(c);
+		}
+
+		void answer(List<Completion> tern) {
+			List<Completion> all = new ArrayList<>(tern);
+			synchronized (this) {
+				waiting = false;
+				all.addAll(held);
+			}
+			results.accept(all);
+		}
 	}
 
 	public void setTernSupport(TernSupport ternSupport) {
@@ -19,280 +19,216 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * Tern.js-based completion for Nashorn/Javascript that isn't afraid to drop down into Java/Reflection based completion when it can (see JavaSupport)
+ * <p>
+ * Tern itself runs on its own thread, in its own engine (see TernWorker), completions from Java are added back on the main thread.
  */
 public class TernSupport {
 
 	static public JavaSupport javaSupport;
-	private ScriptEngine engine;
+	static public TernWorker worker;
 
 
 	public TernSupport() {
 		if (javaSupport == null) javaSupport = new JavaSupport();
+		if (worker == null) worker = new TernWorker();
 	}
 
-	public void inject(ScriptEngine engine) {
-
-		this.engine = engine;
-		List<String> s = Arrays.asList("acorn.js", "acorn_loose.js", "walk.js", "signal.js", "tern.js", "def.js", "comment.js", "infer.js" /*"condense.js"*/);
-//		List<String> s = Arrays.asList("all-tern.js");
-
-		Collection<File> f = s.stream()
-			.map(x -> new File(fieldagent.Main.app + "/modules/fieldcore/resources/tern/" + x))
-			.collect(Collectors.toList());
-
-		Log.log("bindings", () -> "global scope bindings :" + engine.getContext()
-			.getBindings(ScriptContext.GLOBAL_SCOPE)
-			.keySet());
-		Log.log("bindings", () -> "engine scope bindings :" + engine.getContext()
-			.getBindings(ScriptContext.ENGINE_SCOPE)
-			.keySet());
-
-		try {
-			engine.eval("__fieldglobal.self = {}");
-			engine.eval("__fieldglobal.self.tern = {}");
-			engine.eval("__fieldglobal.self.acorn= {}");
-			engine.eval("__fieldglobal.self.infer= {}");
-			engine.eval("__fieldglobal.tern = {}");
-			engine.eval("self = __fieldglobal.self");
-			engine.eval("tern = __fieldglobal.tern");
-		} catch (ScriptException e) {
-			e.printStackTrace();
-		}
-
-		new Thread(() -> {
-
-			for (File ff : f) {
-				try (FileReader fr = new FileReader(ff.getAbsolutePath())) {
-					engine.put("__FILE__", ff.getName());
-					engine.eval(fr);
-				} catch (ScriptException e) {
-					e.printStackTrace();
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-
-			try {
-				engine.put("__ecma5json", readFile(fieldagent.Main.app + "/modules/fieldcore/resources/tern/ecmascript.json"));
-				engine.eval("self.ternServer=new self.tern.Server({defs: [JSON.parse(__ecma5json)]})");
-				engine.eval("delete __ecma5json");
-			} catch (ScriptException e) {
-				e.printStackTrace();
-			}
-		}).start();
+	/**
+	 * asks the tern worker for completions, then adds completions from Java (which needs to look inside 'engine', so that happens back on the main
+	 * thread). 'results' is called on the main thread, and only if no newer request of the same kind ('explicit' or not) for this box has arrived
+	 * in the meantime
+	 */
+	public void completion(ScriptEngine engine, String boxName, String allText, int line, int ch, boolean explicit, Consumer<List<Completion>> results) {
+		worker.submit(boxName, explicit ? "completions" : "autosuggest", allText, line, ch, true, tern -> results.accept(completion(engine, tern)));
 	}
 
-	public List<Completion> completion(ScriptEngine engine, String boxName, String allText, int line, int ch) {
-
-		List<Completion> r = new ArrayList<>();
-
-
-		try {
-			engine.put("__someFile", allText);
-			engine.eval("__completions = new java.util.ArrayList()");
-			try {
-				engine.eval("__fieldglobal.self.ternServer.request({query:{type:\"completions\", types:true, docs:true, file:\"#0\", end:{line:" + line + ",ch:" + ch + "}}, \n" +
-					"files:[{type:\"full\",name:\"" + boxName + ".js\",text:__someFile}]},\n" +
-					"	function (e,r){\n" +
-					"		for(var i=0;i<r.completions.length;i++)" +
-					"			if (r && r.end)" +
-					"			__completions.add(new __fieldglobal.fieldbox.execution.Completion(r.start, r.end, r.completions[i].name, '<span class=type>'+r.completions[i].type+'&nbsp;&mdash;&nbsp;</span><span class=doc>'+(r.completions[i].doc==null ? '' : r.completions[i].doc)+'</span>'))" +
-					"	})");
-				r.addAll((ArrayList<Completion>) engine.get("__completions"));
-			} catch (ScriptException e) {
-				e.printStackTrace();
-			}
-
-			Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-			Log.log("completion.debug", () -> {
-				Log.log("completion.debug", () -> "bindings are...");
-				for (Object k : bindings.keySet()) {
-					Object t = bindings.get(k);
-					if (t == null) continue;
-					if (t instanceof String) if (((String) t).split("\n").length > 0)
-						t = ((String) t).split("\n")[0] + " ...";
-					final Object finalT = t;
-					Log.log("completion.debug", () -> "    " + k + " " + finalT);
-				}
-				return null;
-			});
-
-			if (allText.trim()
-				.length() == 0) return r;
+	public void completion(ScriptEngine engine, String boxName, String allText, int line, int ch, Consumer<List<Completion>> results) {
+		completion(engine, boxName, allText, line, ch, true, results);
+	}
 
-			String[] lines = allText.split("\n");
-			int c = 0;
-			for (int i = 0; i < line; i++) {
-				c += lines[i].length() + 1;
+	protected List<Completion> completion(ScriptEngine engine, TernWorker.Result tern) {
+
+		List<Completion> r = new ArrayList<>(tern.completions);
+		String allText = tern.text;
+
+		Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+		Log.log("completion.debug", () -> {
+			Log.log("completion.debug", () -> "bindings are...");
+			for (Object k : bindings.keySet()) {
+				Object t = bindings.get(k);
+				if (t == null) continue;
+				if (t instanceof String) if (((String) t).split("\n").length > 0)
+					t = ((String) t).split("\n")[0] + " ...";
+				final Object finalT = t;
+				Log.log("completion.debug", () -> "    " + k + " " + finalT);
 			}
+			return null;
+		});
 
-			c += ch;
+		if (allText.trim()
+			.length() == 0) return r;
 
+		int c = tern.offset;
 
-			final int finalC = c;
-			Log.log("completion.debug", () -> " line :" + line + " -> " + ch + " -> " + finalC + " alltext is <" + allText + ">");
+		Log.log("completion.debug", () -> " offset :" + c + " alltext is <" + allText + ">");
 
-			try {
-				int[] ret = expressionRangeForPosition(engine, c);
+		try {
+			int[] ret = tern.expression;
 
-				if (ret == null) return r;
-				if (ret.length == 0) return r;
+			if (ret == null) return r;
+			if (ret.length == 0) return r;
 
-				Log.log("completion.debug", () -> " expression to analyze is :" + ret[0] + " " + ret[1] + " " + allText.substring(ret[0], ret[1]));
+			Log.log("completion.debug", () -> " expression to analyze is :" + ret[0] + " " + ret[1] + " " + allText.substring(ret[0], ret[1]));
 
 
-				String s = allText.substring(ret[0], ret[1]);
+			String s = allText.substring(ret[0], ret[1]);
 
 
-				if (s.trim()
-					.startsWith("\"")) {
-					// we have quote completion, do that instead
+			if (s.trim()
+				.startsWith("\"")) {
+				// we have quote completion, do that instead
 
-					String quoteSoFar = s.trim()
-						.substring(1);
+				String quoteSoFar = s.trim()
+					.substring(1);
 
-					boolean customCompleted = false;
+				boolean customCompleted = false;
 
 
-					try {
-						int[] previously = expressionRangeForPosition(engine, ret[0] - 1);
+				try {
+					int[] previously = tern.previousExpression;
+					if (previously == null) throw new IllegalStateException(" no expression before this quote");
 
-						Log.log("completion.debug", () -> "previous expression is :" + previously[0] + " " + previously[1] + " " + allText.substring(previously[0], previously[1]));
+					Log.log("completion.debug", () -> "previous expression is :" + previously[0] + " " + previously[1] + " " + allText.substring(previously[0], previously[1]));
 
-						String previousS = allText.substring(previously[0], previously[1]);
+					String previousS = allText.substring(previously[0], previously[1]);
 
 
-						Object e = engine.eval("_e=eval('" + previousS.replace("'", "\\'") + "')");
-						Log.log("completion.debug", () -> "PREVIOUS e is :" + e + " " + e.getClass() + " computed prefix from <" + s + "> <" + s.lastIndexOf('.') + ">");
+					Object e = engine.eval("_e=eval('" + previousS.replace("'", "\\'") + "')");
+					Log.log("completion.debug", () -> "PREVIOUS e is :" + e + " " + e.getClass() + " computed prefix from <" + s + "> <" + s.lastIndexOf('.') + ">");
 
 
-						if (e instanceof HandlesQuoteCompletion) {
-							r.clear();
-							List<Completion> completions = ((HandlesQuoteCompletion) e).getQuoteCompletionsFor(quoteSoFar);
-							for (Completion x : completions) {
-								if (x.start == -1) x.start = c - quoteSoFar.length();
-								if (x.end == -1) x.end = c;
-							}
-							r.addAll(completions);
-							Collections.sort(r, (a, b) -> {
-								if (a.rank != b.rank)
-									return Double.compare(a.rank, b.rank);
-								if (a.replacewith.length() != b.replacewith.length())
-									return Double.compare(a.replacewith.length(), b.replacewith.length());
-								return String.CASE_INSENSITIVE_ORDER.compare(a.replacewith, b.replacewith);
-							});
-							customCompleted = true;
-						}
-					} catch (Throwable t) {
-						Log.log("completion.error", () -> "quote completion threw an exception, but we'll continue on anyway");
-						t.printStackTrace();
-					}
-
-					if (!customCompleted) {
-						List<Completion> completions = getQuoteCompletionsForFileSystems(quoteSoFar);
+					if (e instanceof HandlesQuoteCompletion) {
+						r.clear();
+						List<Completion> completions = ((HandlesQuoteCompletion) e).getQuoteCompletionsFor(quoteSoFar);
 						for (Completion x : completions) {
 							if (x.start == -1) x.start = c - quoteSoFar.length();
 							if (x.end == -1) x.end = c;
 						}
-
 						r.addAll(completions);
 						Collections.sort(r, (a, b) -> {
-							if (a.rank != b.rank) return Double.compare(a.rank, b.rank);
+							if (a.rank != b.rank)
+								return Double.compare(a.rank, b.rank);
 							if (a.replacewith.length() != b.replacewith.length())
 								return Double.compare(a.replacewith.length(), b.replacewith.length());
 							return String.CASE_INSENSITIVE_ORDER.compare(a.replacewith, b.replacewith);
 						});
+						customCompleted = true;
 					}
-					return r;
+				} catch (Throwable t) {
+					Log.log("completion.error", () -> "quote completion threw an exception, but we'll continue on anyway");
+					t.printStackTrace();
 				}
 
-
-				String left = s, right = "";
-
-				if (s.lastIndexOf('.') != -1) {
-					left = s.substring(0, s.lastIndexOf('.'));
-					right = s.substring(s.lastIndexOf('.') + 1);
-				}
-				else {
-					Object directlyBound = engine.get(left);
-					if (directlyBound != null && !directlyBound.getClass().getName().toLowerCase().endsWith("staticclass")) {
-						Completion direct = new Completion(-1, -1, left + " = " + directlyBound, "<span class=type>" + (directlyBound.getClass().getName()) + "</span><span class=doc> value from this box</span>");
-						direct.rank = -1000;
-						r.add(direct);
+				if (!customCompleted) {
+					List<Completion> completions = getQuoteCompletionsForFileSystems(quoteSoFar);
+					for (Completion x : completions) {
+						if (x.start == -1) x.start = c - quoteSoFar.length();
+						if (x.end == -1) x.end = c;
 					}
+
+					r.addAll(completions);
+					Collections.sort(r, (a, b) -> {
+						if (a.rank != b.rank) return Double.compare(a.rank, b.rank);
+						if (a.replacewith.length() != b.replacewith.length())
+							return Double.compare(a.replacewith.length(), b.replacewith.length());
+						return String.CASE_INSENSITIVE_ORDER.compare(a.replacewith, b.replacewith);
+					});
 				}
-				if (right.trim().length()==0 && !s.trim().endsWith("."))
-				{
-					// don't execute something just becuase it's a complete expression
-				}
-				else {
+				return r;
+			}
 
-					Object e = engine.eval("_e=eval('" + left.replace("'", "\\'") + "')");
-					final Object finalE = e;
-					Log.log("completion.debug", () -> " e is :" + finalE + " " + finalE.getClass() + " computed prefix from <" + s + "> <" + s.lastIndexOf('.') + ">");
 
-					if (right.trim()
-						.length() != right.length()) right = "";
+			String left = s, right = "";
 
-					// down-weight Tern in favor of Java if right has a prefix
-					if (s.lastIndexOf('.') != -1)
-						r.forEach(x -> x.rank += 1);
+			if (s.lastIndexOf('.') != -1) {
+				left = s.substring(0, s.lastIndexOf('.'));
+				right = s.substring(s.lastIndexOf('.') + 1);
+			}
+			else {
+				Object directlyBound = engine.get(left);
+				if (directlyBound != null && !directlyBound.getClass().getName().toLowerCase().endsWith("staticclass")) {
+					Completion direct = new Completion(-1, -1, left + " = " + directlyBound, "<span class=type>" + (directlyBound.getClass().getName()) + "</span><span class=doc> value from this box</span>");
+					direct.rank = -1000;
+					r.add(direct);
+				}
+			}
+			if (right.trim().length()==0 && !s.trim().endsWith("."))
+			{
+				// don't execute something just becuase it's a complete expression
+			}
+			else {
 
-					// now if e is an actual java object --- i.e. it's got nothing to do with nashorn, then we could use a more general Field java completion service
-					// and just add the dot back in
-					if (e instanceof ScriptObjectMirror) {
+				Object e = engine.eval("_e=eval('" + left.replace("'", "\\'") + "')");
+				final Object finalE = e;
+				Log.log("completion.debug", () -> " e is :" + finalE + " " + finalE.getClass() + " computed prefix from <" + s + "> <" + s.lastIndexOf('.') + ">");
 
-						Object[] retae = (Object[]) engine.eval("_v=[]; _p = {}; Object.bindProperties(_p, _e); for(var _k in _p) _v.push(_k); Java.to(_v)");
-						Log.log("completion.debug", () -> " auto eval completion got :" + Arrays.asList(retae));
-					} else if (e instanceof Box) {
-//					e = new UnderscoreBox((Box) e);
-						List<Completion> fromJava = javaSupport.getCompletionsFor(e, right);
-						for (Completion x : fromJava) {
-							if (x.start == -1) x.start = c - right.length();
-							if (x.end == -1) x.end = c;
-						}
+				if (right.trim()
+					.length() != right.length()) right = "";
 
-						r.addAll(fromJava);
-					} else if (e instanceof StaticClass) {
-						e = ((StaticClass) e).getRepresentedClass();
+				// down-weight Tern in favor of Java if right has a prefix
+				if (s.lastIndexOf('.') != -1)
+					r.forEach(x -> x.rank += 1);
 
-						final Object finalE1 = e;
-						Log.log("completion.debug", () -> " asking java for completions for CLASS " + finalE1);
-						List<Completion> fromJava = javaSupport.getCompletionsFor(e, right, s.lastIndexOf('.') == -1);
-						Log.log("completion.debug", () -> " got completions :" + fromJava);
-						for (Completion x : fromJava) {
-							if (x.start == -1) x.start = c - right.length();
-							if (x.end == -1) x.end = c;
-						}
+				// now if e is an actual java object --- i.e. it's got nothing to do with nashorn, then we could use a more general Field java completion service
+				// and just add the dot back in
+				if (e instanceof ScriptObjectMirror) {
 
-						r.addAll(fromJava);
-					} else {
-						final Object finalE2 = e;
-						Log.log("completion.debug", () -> " asking java for completions for " + finalE2);
-						List<Completion> fromJava = javaSupport.getCompletionsFor(e, right);
-						Log.log("completion.debug", () -> " got completions :" + fromJava);
+					Object[] retae = (Object[]) engine.eval("_v=[]; _p = {}; Object.bindProperties(_p, _e); for(var _k in _p) _v.push(_k); Java.to(_v)");
+					Log.log("completion.debug", () -> " auto eval completion got :" + Arrays.asList(retae));
+				} else if (e instanceof Box) {
+//					e = new UnderscoreBox((Box) e);
+					List<Completion> fromJava = javaSupport.getCompletionsFor(e, right);
+					for (Completion x : fromJava) {
+						if (x.start == -1) x.start = c - right.length();
+						if (x.end == -1) x.end = c;
+					}
 
-						for (Completion x : fromJava) {
-							if (x.start == -1) x.start = c - right.length();
-							if (x.end == -1) x.end = c;
-						}
+					r.addAll(fromJava);
+				} else if (e instanceof StaticClass) {
+					e = ((StaticClass) e).getRepresentedClass();
+
+					final Object finalE1 = e;
+					Log.log("completion.debug", () -> " asking java for completions for CLASS " + finalE1);
+					List<Completion> fromJava = javaSupport.getCompletionsFor(e, right, s.lastIndexOf('.') == -1);
+					Log.log("completion.debug", () -> " got completions :" + fromJava);
+					for (Completion x : fromJava) {
+						if (x.start == -1) x.start = c - right.length();
+						if (x.end == -1) x.end = c;
+					}
 
-						r.addAll(fromJava);
+					r.addAll(fromJava);
+				} else {
+					final Object finalE2 = e;
+					Log.log("completion.debug", () -> " asking java for completions for " + finalE2);
+					List<Completion> fromJava = javaSupport.getCompletionsFor(e, right);
+					Log.log("completion.debug", () -> " got completions :" + fromJava);
+
+					for (Completion x : fromJava) {
+						if (x.start == -1) x.start = c - right.length();
+						if (x.end == -1) x.end = c;
 					}
-				}
 
-			} catch (Throwable t) {
-				Log.log("completion.error", () -> " suppressed exception in autoevaluating completion <" + t + ">");
-				t.printStackTrace();
+					r.addAll(fromJava);
+				}
 			}
-		} catch (ScriptException e) {
-			e.printStackTrace();
+
+		} catch (Throwable t) {
+			Log.log("completion.error", () -> " suppressed exception in autoevaluating completion <" + t + ">");
+			t.printStackTrace();
 		}
 		Collections.sort(r, (a, b) -> {
 			return String.CASE_INSENSITIVE_ORDER.compare(a.replacewith, b.replacewith);
@@ -446,101 +382,47 @@ public class TernSupport {
 		return new DecimalFormat("#,##0.#").format(result) + " " + unit;
 	}
 
-	private int[] expressionRangeForPosition(ScriptEngine engine, int c) throws ScriptException {
-		engine.eval("__c=new __fieldglobal.self.tern.Context()");
-		try {
-			Object[] o = (Object[]) engine.eval("__fieldglobal.self.tern.withContext(__c, function(){\n" +
-				"\tvar a = __fieldglobal.self.tern.parse(__someFile)\n" +
-				"\t__fieldglobal.self.tern.analyze(a)\n" +
-				"\tvar n = __fieldglobal.self.tern.findExpressionAround(a, " + c + ", " + c + ")\n" +
-				"\tif (n && n.node)\n" +
-				"\treturn Java.to([n.node.start, n.node.end]);\n" + "\treturn null;}) ");
-
-			if (o == null) return null;
-			if (o.length == 0) return null;
-
-			return new int[]{((Number) o[0]).intValue(), ((Number) o[1]).intValue()};
-		} catch (ScriptException e) {
-			e.printStackTrace();
-		}
-		return null;
+	public void imports(ScriptEngine engine, String boxName, String allText, int line, int ch, Consumer<List<Completion>> results) {
+		worker.submit(boxName, "imports", allText, line, ch, false, tern -> results.accept(imports(tern)));
 	}
 
-	public List<Completion> imports(ScriptEngine engine, String boxName, String allText, int line, int ch) {
+	protected List<Completion> imports(TernWorker.Result tern) {
 		List<Completion> r = new ArrayList<>();
 
-		try {
-			engine.put("__someFile", allText);
-			engine.eval("__completions = new java.util.ArrayList()");
-
-
-			String[] lines = allText.split("\n");
-			int c = 0;
-			for (int i = 0; i < line; i++) {
-				c += lines[i].length() + 1;
-			}
-
-			c += ch;
-
-
-			final int finalC = c;
-			Log.log("completion.debug", () -> " line :" + line + " -> " + ch + " -> " + finalC);
-
-			engine.eval("__c=new __fieldglobal.self.tern.Context()");
-			Object[] ret = (Object[]) engine.eval("__fieldglobal.self.tern.withContext(__c, function(){\n" +
-				"\tvar a = __fieldglobal.self.tern.parse(__someFile)\n" +
-				"\t__fieldglobal.self.tern.analyze(a)\n" +
-				"\tvar n = __fieldglobal.self.tern.findExpressionAround(a, " + c + ", " + c + ")\n" +
-				"\treturn Java.to([n.node.start, n.node.end])" +
-				"})");
-			Log.log("completion.debug", () -> " expression to analyze is :" + ret[0] + " " + ret[1] + " " + allText.substring(((Number) ret[0]).intValue(), ((Number) ret[1]).intValue()));
-
+		String allText = tern.text;
+		int c = tern.offset;
+		int[] ret = tern.expression;
+		if (ret == null) return r;
 
-			String s = allText.substring(((Number) ret[0]).intValue(), ((Number) ret[1]).intValue());
+		Log.log("completion.debug", () -> " expression to analyze is :" + ret[0] + " " + ret[1] + " " + allText.substring(ret[0], ret[1]));
 
-			try {
+		String s = allText.substring(ret[0], ret[1]);
 
-				String left = s, right = "";
+		try {
 
+			String left = s, right = "";
 
-				Log.log("completion.debug", () -> " inside import help left is <" + left + ">");
 
-				List<Pair<String, String>> possibleJavaClassesFor = javaSupport.getPossibleJavaClassesFor(left);
+			Log.log("completion.debug", () -> " inside import help left is <" + left + ">");
 
-				Log.log("completion.debug", () -> " possible javaclasses :" + possibleJavaClassesFor);
+			List<Pair<String, String>> possibleJavaClassesFor = javaSupport.getPossibleJavaClassesFor(left);
 
-				for (Pair<String, String> p : possibleJavaClassesFor) {
-					int tail = p.first.lastIndexOf(".");
+			Log.log("completion.debug", () -> " possible javaclasses :" + possibleJavaClassesFor);
 
-					Completion ex = new Completion(c - left.length(), c, p.first.substring(tail + 1), p.second);
-					ex.header = "var " + p.first.substring(tail + 1) + " = Java.type('" + p.first + "')";
-					r.add(ex);
-				}
+			for (Pair<String, String> p : possibleJavaClassesFor) {
+				int tail = p.first.lastIndexOf(".");
 
-			} catch (Throwable t) {
-				Log.log("completion.debug", () -> " suppressed exception in autoevaluating completion <" + t + ">");
+				Completion ex = new Completion(c - left.length(), c, p.first.substring(tail + 1), p.second);
+				ex.header = "var " + p.first.substring(tail + 1) + " = Java.type('" + p.first + "')";
+				r.add(ex);
 			}
-		} catch (ScriptException e) {
-			e.printStackTrace();
-		}
 
+		} catch (Throwable t) {
+			Log.log("completion.debug", () -> " suppressed exception in autoevaluating completion <" + t + ">");
+		}
 
 		return r;
 	}
 
-	private static String readFile(String s) {
-		try (BufferedReader r = new BufferedReader(new FileReader(new File(s)))) {
-			String line = "";
-			while (r.ready()) {
-				line += r.readLine() + "\n";
-			}
-			return line;
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return "";
-	}
-
 
 }
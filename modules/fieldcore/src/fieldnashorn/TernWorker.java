@@ -0,0 +1,329 @@
+package fieldnashorn;
+
+import field.app.RunLoop;
+import field.utility.Log;
+import fieldbox.execution.Completion;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs tern.js in its own engine, on its own thread, so that asking for completions never stalls the main thread (or touches the engine that a
+ * box's code is running in).
+ * <p>
+ * Requests are queued per box (and kind). A request that arrives while an older one for the same box is still waiting replaces it, and the answer
+ * to a request that's been overtaken by a newer one while it was being worked on is thrown away, so only the latest request gets an answer.
+ * Answers are handed back on the main thread.
+ * <p>
+ * Tern keeps its own copy of every box's text. We only send the whole text when it's small or has changed a lot since we last sent it. If nothing
+ * has changed we send nothing, and if a few lines near the cursor have changed in a big box we send just the fragment around them (tern's "part"
+ * files), like CodeMirror's tern addon does.
+ */
+public class TernWorker {
+
+	static public final int bigDocument = 250;
+	static public final int maxChangedLines = 100;
+	static public final int linesBefore = 50;
+	static public final int linesAfter = 20;
+
+	static protected final List<String> files = Arrays.asList("acorn.js", "acorn_loose.js", "walk.js", "signal.js", "tern.js", "def.js", "comment.js", "infer.js");
+
+	static protected final String helpers = String.join("\n",
+		"var Completion = Java.type('fieldbox.execution.Completion');",
+		"function __fieldCompletions(name, type, text, offsetLines, line, ch, out) {",
+		"	var files = type == 'none' ? [] : [type == 'full' ? {type: 'full', name: name, text: text} : {type: 'part', name: name, text: text, offsetLines: offsetLines}];",
+		"	self.ternServer.request({query: {type: 'completions', types: true, docs: true, file: type == 'none' ? name : '#0', end: {line: line, ch: ch}}, files: files}, function (e, r) {",
+		"		if (e || !r) return;",
+		"		for (var i = 0; i < r.completions.length; i++)",
+		"			out.add(new Completion(r.start, r.end, r.completions[i].name, '<span class=type>' + r.completions[i].type + '&nbsp;&mdash;&nbsp;</span><span class=doc>' + (r.completions[i].doc == null ? '' : r.completions[i].doc) + '</span>'));",
+		"	});",
+		"}",
+		"var __fieldAst = null;",
+		"function __fieldParse(text) { __fieldAst = self.tern.parse(text); }",
+		"function __fieldExpressionAround(c) {",
+		"	return self.tern.withContext(new self.tern.Context(), function () {",
+		"		var n;",
+		// findExpressionAround is just a walk over the tree, but analyze if it turns out to need it
+		"		try { n = self.tern.findExpressionAround(__fieldAst, c, c); } catch (e) { self.tern.analyze(__fieldAst); n = self.tern.findExpressionAround(__fieldAst, c, c); }",
+		"		if (n && n.node) return Java.to([n.node.start, n.node.end], 'int[]');",
+		"		return null;",
+		"	});",
+		"}");
+
+	/**
+	 * what tern made of a request, for the main thread to finish off
+	 */
+	static public class Result {
+		public final String text;
+		public final List<Completion> completions = new ArrayList<>();
+
+		/**
+		 * the character offset of the cursor
+		 */
+		public int offset;
+
+		/**
+		 * the start and end of the expression around the cursor, and of the one just before that, or null
+		 */
+		public int[] expression;
+		public int[] previousExpression;
+
+		Result(String text) {
+			this.text = text;
+		}
+	}
+
+	static protected class Request {
+		final String key;
+		final String name;
+		final String text;
+		final int line;
+		final int ch;
+		final boolean completions;
+		final long generation;
+		final Consumer<Result> then;
+
+		Request(String key, String name, String text, int line, int ch, boolean completions, long generation, Consumer<Result> then) {
+			this.key = key;
+			this.name = name;
+			this.text = text;
+			this.line = line;
+			this.ch = ch;
+			this.completions = completions;
+			this.generation = generation;
+			this.then = then;
+		}
+	}
+
+	static protected class Document {
+		String sent;
+		int version = 0;
+	}
+
+	protected final LinkedHashMap<String, Request> queue = new LinkedHashMap<>();
+	protected final Map<String, Long> latest = new ConcurrentHashMap<>();
+	protected final AtomicLong generation = new AtomicLong();
+
+	// only touched on the worker thread
+	protected final Map<String, Document> documents = new HashMap<>();
+	protected ScriptEngine engine;
+	protected String parsed;
+
+	protected final Thread thread;
+
+	// statistics
+	public volatile long coalesced = 0;
+	public volatile long cancelled = 0;
+	public volatile long answered = 0;
+	public volatile long fullUpdates = 0;
+	public volatile long partUpdates = 0;
+	public volatile long unchanged = 0;
+
+	public TernWorker() {
+		thread = new Thread(this::run, "tern");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * asks tern about the text of box 'name' at this line and ch. 'then' is called on the main thread, unless this request is overtaken by another
+	 * one for the same box and of the same 'kind' before it's answered (so requests of different kinds, like the autosuggestions made while typing
+	 * and completions that were asked for, never cancel each other). Returns straight away
+	 */
+	public void submit(String name, String kind, String text, int line, int ch, boolean completions, Consumer<Result> then) {
+		String key = name + "/" + kind;
+		long g = generation.incrementAndGet();
+		latest.put(key, g);
+		synchronized (queue) {
+			if (queue.remove(key) != null) coalesced++;
+			queue.put(key, new Request(key, name, text, line, ch, completions, g, then));
+			queue.notifyAll();
+		}
+	}
+
+	protected boolean isLatest(Request r) {
+		Long l = latest.get(r.key);
+		return l != null && l == r.generation;
+	}
+
+	protected void run() {
+		try {
+			load();
+		} catch (Throwable t) {
+			Log.log("completion.error", () -> " couldn't start tern, there'll be no tern completions " + t);
+			t.printStackTrace();
+		}
+
+		while (true) {
+			Request r;
+			try {
+				synchronized (queue) {
+					while (queue.isEmpty())
+						queue.wait();
+					Iterator<Request> i = queue.values()
+								   .iterator();
+					r = i.next();
+					i.remove();
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				Result result = process(r);
+				if (result == null) continue;
+
+				RunLoop.main.once(() -> {
+					if (!isLatest(r)) {
+						cancelled++;
+						return;
+					}
+					answered++;
+					r.then.accept(result);
+				});
+			} catch (Throwable t) {
+				Log.log("completion.error", () -> " tern threw an exception, continuing on " + t);
+				t.printStackTrace();
+			}
+		}
+	}
+
+	@SuppressWarnings("removal") // we run on a JDK that still has Nashorn, as the rest of fieldnashorn does
+	protected void load() throws Exception {
+		engine = new NashornScriptEngineFactory().getScriptEngine();
+		engine.eval("var self = {tern: {}, acorn: {}, infer: {}}; var tern = {};");
+
+		String dir = fieldagent.Main.app + "/modules/fieldcore/resources/tern/";
+		for (String f : files) {
+			try (FileReader fr = new FileReader(dir + f)) {
+				engine.put("__FILE__", f);
+				engine.eval(fr);
+			}
+		}
+
+		engine.put("__ecma5json", new String(Files.readAllBytes(new File(dir + "ecmascript.json").toPath()), "UTF-8"));
+		engine.eval("self.ternServer = new self.tern.Server({defs: [JSON.parse(__ecma5json)]}); delete __ecma5json");
+		engine.eval(helpers);
+		Log.log("completion.debug", () -> " tern worker loaded");
+	}
+
+	protected Result process(Request r) throws Exception {
+		if (!isLatest(r)) {
+			cancelled++;
+			return null;
+		}
+
+		Result result = new Result(r.text);
+		result.offset = offsetFor(r.text, r.line, r.ch);
+
+		// tern didn't start, answer anyway (with nothing) so that whatever is waiting on this still hears back
+		if (engine == null) return result;
+
+		if (r.completions) completions(r, result.completions);
+
+		if (!isLatest(r)) {
+			cancelled++;
+			return null;
+		}
+
+		if (r.text.trim()
+			 .length() == 0) return result;
+
+		if (parsed == null || !parsed.equals(r.text)) {
+			((Invocable) engine).invokeFunction("__fieldParse", r.text);
+			parsed = r.text;
+		}
+		result.expression = (int[]) ((Invocable) engine).invokeFunction("__fieldExpressionAround", result.offset);
+		if (r.completions && result.expression != null && result.expression[0] > 0)
+			result.previousExpression = (int[]) ((Invocable) engine).invokeFunction("__fieldExpressionAround", result.expression[0] - 1);
+
+		return result;
+	}
+
+	protected void completions(Request r, List<Completion> out) throws Exception {
+		Document d = documents.computeIfAbsent(r.name, k -> new Document());
+		String file = r.name + ".js";
+
+		if (r.text.equals(d.sent)) {
+			unchanged++;
+			((Invocable) engine).invokeFunction("__fieldCompletions", file, "none", "", 0, r.line, r.ch, out);
+			return;
+		}
+
+		String[] lines = d.sent == null ? null : r.text.split("\n", -1);
+		int[] part = lines == null ? null : fragmentFor(d.sent.split("\n", -1), lines, r.line);
+		if (part == null) {
+			fullUpdates++;
+			d.sent = r.text;
+			d.version++;
+			((Invocable) engine).invokeFunction("__fieldCompletions", file, "full", r.text, 0, r.line, r.ch, out);
+		} else {
+			partUpdates++;
+			String fragment = String.join("\n", Arrays.asList(lines)
+								 .subList(part[0], part[1]));
+			Log.log("completion.debug", () -> " sending lines " + part[0] + "-" + part[1] + " of " + lines.length + " of " + file + " (version " + d.version + ")");
+			((Invocable) engine).invokeFunction("__fieldCompletions", file, "part", fragment, part[0], r.line - part[0], r.ch, out);
+		}
+	}
+
+	/**
+	 * the lines [start, end) of 'now' to send instead of the whole text, given that tern has 'was', or null if we should send it all. The fragment has
+	 * to cover the cursor and everything that has changed, and has to start on an unchanged line (that's how tern finds where it goes)
+	 */
+	static public int[] fragmentFor(String[] was, String[] now, int cursorLine) {
+		if (now.length < bigDocument) return null;
+
+		int from = 0;
+		while (from < was.length && from < now.length && was[from].equals(now[from]))
+			from++;
+		int endWas = was.length, endNow = now.length;
+		while (endWas > from && endNow > from && was[endWas - 1].equals(now[endNow - 1])) {
+			endWas--;
+			endNow--;
+		}
+
+		if (endNow - from > maxChangedLines || endWas - from > maxChangedLines) return null;
+
+		int first = Math.min(from - 1, cursorLine);
+		int start = -1;
+		for (int i = first; i >= 0 && i >= first - linesBefore; i--) {
+			if (isTopLevel(now[i])) {
+				start = i;
+				break;
+			}
+		}
+		if (start == -1) return null;
+
+		int end = Math.min(now.length, Math.max(endNow, cursorLine + 1) + linesAfter);
+		return new int[]{start, end};
+	}
+
+	static protected boolean isTopLevel(String line) {
+		if (line.length() == 0) return false;
+		char c = line.charAt(0);
+		return !Character.isWhitespace(c) && c != '}' && c != ')' && c != ']';
+	}
+
+	static public int offsetFor(String text, int line, int ch) {
+		int c = 0;
+		for (int i = 0; i < line; i++) {
+			int n = text.indexOf('\n', c);
+			if (n == -1) break;
+			c = n + 1;
+		}
+		return c + ch;
+	}
+
+	@Override
+	public String toString() {
+		return "TernWorker answered:" + answered + " coalesced:" + coalesced + " cancelled:" + cancelled + " updates full:" + fullUpdates + " part:" + partUpdates + " unchanged:" + unchanged;
+	}
+}
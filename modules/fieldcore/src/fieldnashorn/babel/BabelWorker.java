@@ -0,0 +1,93 @@
+package fieldnashorn.babel;
+
+import field.utility.Log;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * A long running node process with babel-core loaded into it, that translates whatever we send it. This saves starting node (and loading Babel)
+ * for every translation, which is most of the time that running the babel command takes.
+ * <p>
+ * Requests and replies are one line of JSON each, one at a time. If node or babel-core can't be found, or the worker dies, we fall back to
+ * 'fallback' (which runs the babel command) from then on.
+ */
+public class BabelWorker implements TranslationCache.Translator {
+
+	static public final String options = "{stage: 0, sourceMaps: true, filename: 'field.js'}";
+
+	static protected final String script = String.join("\n",
+		"var babel;",
+		"try { babel = require('babel-core'); } catch (e) { babel = require(require('child_process').execSync('npm root -g').toString().trim() + '/babel-core'); }",
+		"function translate(code) { var o = babel.transform(code, " + options + "); return {code: o.code, map: JSON.stringify(o.map)}; }",
+		"try { translate('1'); } catch (e) { process.stdout.write(JSON.stringify({ready: false, error: String(e)}) + '\\n'); process.exit(1); }",
+		"require('readline').createInterface({input: process.stdin, terminal: false}).on('line', function (line) {",
+		"  var r;",
+		"  try { r = translate(JSON.parse(line).code); } catch (e) { r = {error: String(e)}; }",
+		"  process.stdout.write(JSON.stringify(r) + '\\n');",
+		"});",
+		"process.stdout.write(JSON.stringify({ready: true}) + '\\n');");
+
+	protected final TranslationCache.Translator fallback;
+
+	protected Process process;
+	protected Writer in;
+	protected BufferedReader out;
+	protected boolean unavailable = false;
+
+	public BabelWorker(TranslationCache.Translator fallback) {
+		this.fallback = fallback;
+		Runtime.getRuntime()
+		       .addShutdownHook(new Thread(this::stop));
+	}
+
+	@Override
+	public synchronized TranslationCache.Entry translate(String source) throws SourceTransformer.TranslationFailedException {
+		if (!unavailable) {
+			try {
+				start();
+				in.write(new JSONObject().put("code", source)
+							 .toString());
+				in.write('\n');
+				in.flush();
+
+				String line = out.readLine();
+				if (line == null) throw new EOFException("babel worker exited");
+
+				JSONObject r = new JSONObject(line);
+				if (r.has("error")) throw new SourceTransformer.TranslationFailedException(r.getString("error"));
+				return new TranslationCache.Entry(r.getString("code"), r.optString("map", null));
+			} catch (IOException | RuntimeException e) {
+				Log.log("babel.error", () -> " babel worker failed, will run the babel command from now on (" + e + ")");
+				stop();
+				unavailable = true;
+			}
+		}
+		return fallback.translate(source);
+	}
+
+	protected void start() throws IOException {
+		if (process != null && process.isAlive()) return;
+
+		File f = File.createTempFile("fieldBabelWorker", ".js");
+		f.deleteOnExit();
+		Files.write(f.toPath(), script.getBytes(StandardCharsets.UTF_8));
+
+		process = new ProcessBuilder("node", f.getAbsolutePath()).redirectError(ProcessBuilder.Redirect.INHERIT)
+									.start();
+		in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+		out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+		String ready = out.readLine();
+		if (ready == null || !new JSONObject(ready).optBoolean("ready", false)) throw new IOException("babel worker didn't start: " + ready);
+		Log.log("babel.general", () -> " babel worker started");
+	}
+
+	public synchronized void stop() {
+		if (process == null) return;
+		process.destroy();
+		process = null;
+	}
+}
@@ -1,43 +1,39 @@
 package fieldnashorn.babel;
 
+import field.utility.Dict;
+import field.utility.Log;
+import field.utility.Options;
 import field.utility.Pair;
-import fieldnashorn.sourcemap.SourceMapConsumerV3;
-import fieldnashorn.sourcemap.SourceMapParseException;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.function.Function;
 
 /**
- * Tools for caching
+ * A SourceTransformer that runs code through Babel.
+ * <p>
+ * Translations are cached (see TranslationCache) in memory and in the workspace, under .babelCache, keyed by the text, the preamble and the
+ * Babel options. Misses go to a long running Babel worker (see BabelWorker), and if that can't be started, to the babel command.
  */
 public class Translate implements SourceTransformer {
 
 	static public final String command = "babel --stage 0 # --out-file #.5.js --source-maps";
 
-	LinkedHashMap<String, String> codeCache = new LinkedHashMap<String, String>() {
-		@Override
-		protected boolean removeEldestEntry(Map.Entry eldest) {
-			return this.size() > 200;
-		}
-	};
+	static public final long maxBytesOnDisk = (long) (Options.dict()
+							      .getFloat(new Dict.Prop<Number>("babelCacheMegabytes"), 64) * 1024 * 1024);
 
-	LinkedHashMap<String, Function<Integer, Integer>> mapCache = new LinkedHashMap<String, Function<Integer, Integer>>() {
-		@Override
-		protected boolean removeEldestEntry(Map.Entry eldest) {
-			return this.size() > 200;
-		}
-	};
+	protected final TranslationCache cache;
 
 	boolean first = false;
 
 	public Translate()
 	{
 		first = true;
+		cache = new TranslationCache(new BabelWorker(this::runCommand), command + "\n" + BabelWorker.options + "\n" + preamble,
+					     new File(Options.getDirectory("workspace", () -> System.getProperty("user.home") + "/Documents/FirstNewFieldWorkspace/"), ".babelCache"), 200,
+					     maxBytesOnDisk);
 	}
 
 	static public  String preamble;
@@ -59,17 +55,20 @@ public class Translate implements SourceTransformer {
 	}
 	@Override
 	public Pair<String, Function<Integer, Integer>> transform(String c) throws TranslationFailedException {
-		String t = codeCache.get(c);
-		Function<Integer, Integer> f = mapCache.get(c);
-		if (t == null || f == null) {
-			Pair<String, Function<Integer, Integer>> q = _transform(c);
-			first = false;
-			return q;
-		}
-		return new Pair<>(t, f);
+		TranslationCache.Entry e = cache.get(c);
+		if (e == null) return null;
+
+		// the preamble goes in front of the first thing that we translate, and only that
+		String code = (first && preamble != null ? preamble : "") + e.code;
+		first = false;
+		Log.log("babel.cache", () -> cache.toString());
+		return new Pair<>(code, e.lineTransform());
 	}
 
-	private Pair<String, Function<Integer, Integer>> _transform(String c) throws TranslationFailedException {
+	/**
+	 * runs the babel command, one process per translation
+	 */
+	protected TranslationCache.Entry runCommand(String c) throws TranslationFailedException {
 
 		try {
 			File f = File.createTempFile("field", ".js");
@@ -92,23 +91,7 @@ public class Translate implements SourceTransformer {
 				String code = new String(Files.readAllBytes(new File(f.getAbsolutePath() + ".5.js").toPath()));
 				String mapping = new String(Files.readAllBytes(new File(f.getAbsolutePath() + ".5.js.map").toPath()));
 
-
-				SourceMapConsumerV3 sm = new SourceMapConsumerV3();
-				sm.parse(mapping);
-
-				codeCache.put(c, code);
-
-				Function<Integer, Integer> fn = x -> x;
-				try {
-					fn = x -> sm.getMappingForLine(x, 1)
-									       .getLineNumber();
-					mapCache.put(c, fn);
-				} catch (NullPointerException e)
-				{
-					e.printStackTrace();
-				}
-
-				return new Pair<>((first ? preamble : "")+code, fn);
+				return new TranslationCache.Entry(code, mapping);
 			} else {
 				String code = new String(Files.readAllBytes(error.toPath()));
 				throw new TranslationFailedException(code);
@@ -117,8 +100,6 @@ public class Translate implements SourceTransformer {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (SourceMapParseException e) {
-			e.printStackTrace();
 		}
 		return null;
 	}
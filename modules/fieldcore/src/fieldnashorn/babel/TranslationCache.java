@@ -0,0 +1,240 @@
+package fieldnashorn.babel;
+
+import field.utility.Log;
+import fieldnashorn.sourcemap.SourceMapConsumerV3;
+import fieldnashorn.sourcemap.SourceMapParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Content-addressed cache of translated code and its source map, in memory and on disk.
+ * <p>
+ * Entries are keyed by a hash of the source text, the preamble and the options that the translator was run with, so a change to any of those is
+ * a miss rather than a stale hit. The most recently used entries are kept in memory, and everything is written to 'directory' (as key.js and
+ * key.js.map) so that it survives a restart. Once the directory is bigger than 'maxBytes' the least recently used entries there are deleted until
+ * it's back down to three quarters of that.
+ * <p>
+ * Misses go to a Translator, which is Babel in practice, but anything that turns source into code and a source map will do.
+ */
+public class TranslationCache {
+
+	/**
+	 * turns source into code and its source map (as a JSON string, or null if there isn't one)
+	 */
+	public interface Translator {
+		Entry translate(String source) throws SourceTransformer.TranslationFailedException;
+	}
+
+	static public class Entry {
+		public final String code;
+		public final String map;
+
+		protected Function<Integer, Integer> lines;
+
+		public Entry(String code, String map) {
+			this.code = code;
+			this.map = map;
+		}
+
+		/**
+		 * maps a line in 'code' back to the line in the source that it came from. The source map is parsed the first time this is asked for
+		 */
+		public synchronized Function<Integer, Integer> lineTransform() {
+			if (lines != null) return lines;
+			if (map == null) return lines = x -> x;
+			try {
+				SourceMapConsumerV3 sm = new SourceMapConsumerV3();
+				sm.parse(map);
+				lines = x -> sm.getMappingForLine(x, 1)
+					       .getLineNumber();
+			} catch (SourceMapParseException e) {
+				e.printStackTrace();
+				lines = x -> x;
+			}
+			return lines;
+		}
+	}
+
+	protected final Translator translator;
+	protected final String salt;
+	protected final File directory;
+	protected final long maxBytes;
+
+	protected final LinkedHashMap<String, TranslationCache.Entry> memory;
+
+	protected long bytesOnDisk = -1;
+
+	// statistics
+	public long memoryHits = 0;
+	public long diskHits = 0;
+	public long misses = 0;
+	public long evicted = 0;
+
+	/**
+	 * 'salt' is whatever else, other than the source, changes what the translator produces (its options, the preamble), 'directory' can be null
+	 * for a cache that only lives in memory
+	 */
+	public TranslationCache(Translator translator, String salt, File directory, int maxEntriesInMemory, long maxBytes) {
+		this.translator = translator;
+		this.salt = salt;
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.memory = new LinkedHashMap<String, TranslationCache.Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TranslationCache.Entry> eldest) {
+				return size() > maxEntriesInMemory;
+			}
+		};
+		if (directory != null) directory.mkdirs();
+	}
+
+	public String keyFor(String source) {
+		try {
+			MessageDigest d = MessageDigest.getInstance("SHA-1");
+			d.update(salt.getBytes(StandardCharsets.UTF_8));
+			d.update((byte) 0);
+			d.update(source.getBytes(StandardCharsets.UTF_8));
+			StringBuilder s = new StringBuilder(40);
+			for (byte b : d.digest())
+				s.append(String.format("%02x", b & 0xff));
+			return s.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public synchronized Entry get(String source) throws SourceTransformer.TranslationFailedException {
+		String key = keyFor(source);
+
+		Entry e = memory.get(key);
+		if (e != null) {
+			memoryHits++;
+			return e;
+		}
+
+		e = read(key);
+		if (e != null) {
+			diskHits++;
+			memory.put(key, e);
+			return e;
+		}
+
+		misses++;
+		e = translator.translate(source);
+		if (e == null) return null;
+
+		memory.put(key, e);
+		write(key, e);
+		return e;
+	}
+
+	protected Entry read(String key) {
+		if (directory == null) return null;
+		File code = new File(directory, key + ".js");
+		if (!code.exists()) return null;
+		try {
+			File map = new File(directory, key + ".js.map");
+			Entry e = new Entry(new String(Files.readAllBytes(code.toPath()), StandardCharsets.UTF_8), map.exists() ? new String(Files.readAllBytes(map.toPath()), StandardCharsets.UTF_8) : null);
+
+			// so that pruning knows that this has been used recently
+			long now = System.currentTimeMillis();
+			code.setLastModified(now);
+			map.setLastModified(now);
+			return e;
+		} catch (IOException ex) {
+			Log.log("babel.cache", () -> " couldn't read cached translation " + code + " " + ex);
+			return null;
+		}
+	}
+
+	protected void write(String key, Entry e) {
+		if (directory == null) return;
+		try {
+			// the map goes first, an entry is only there once its code is
+			if (e.map != null) bytesOnDisk(writeAtomically(new File(directory, key + ".js.map"), e.map));
+			bytesOnDisk(writeAtomically(new File(directory, key + ".js"), e.code));
+		} catch (IOException ex) {
+			Log.log("babel.cache", () -> " couldn't write cached translation " + key + " " + ex);
+			return;
+		}
+		if (bytesOnDisk > maxBytes) prune(maxBytes * 3 / 4);
+	}
+
+	static protected long writeAtomically(File to, String text) throws IOException {
+		byte[] b = text.getBytes(StandardCharsets.UTF_8);
+		File tmp = new File(to.getPath() + ".tmp");
+		Files.write(tmp.toPath(), b);
+		Files.move(tmp.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return b.length;
+	}
+
+	protected void bytesOnDisk(long added) {
+		if (bytesOnDisk == -1) {
+			bytesOnDisk = 0;
+			for (File f : files())
+				bytesOnDisk += f.length();
+		} else bytesOnDisk += added;
+	}
+
+	protected List<File> files() {
+		File[] f = directory.listFiles((d, n) -> n.endsWith(".js") || n.endsWith(".js.map"));
+		return f == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(f));
+	}
+
+	/**
+	 * deletes the least recently used entries on disk until there are fewer than 'target' bytes there
+	 */
+	public synchronized void prune(long target) {
+		if (directory == null) return;
+
+		// key -> {last used, bytes}, a map on its own (we died between writing it and its code) counts as never used
+		Map<String, long[]> entries = new HashMap<>();
+		long total = 0;
+		for (File f : files()) {
+			String n = f.getName();
+			boolean code = n.endsWith(".js");
+			long[] e = entries.computeIfAbsent(n.substring(0, n.indexOf('.')), k -> new long[]{0, 0});
+			if (code) e[0] = f.lastModified();
+			e[1] += f.length();
+			total += f.length();
+		}
+
+		List<Map.Entry<String, long[]>> all = new ArrayList<>(entries.entrySet());
+		all.sort(Comparator.comparingLong(x -> x.getValue()[0]));
+		for (Map.Entry<String, long[]> e : all) {
+			if (total <= target) break;
+			new File(directory, e.getKey() + ".js").delete();
+			new File(directory, e.getKey() + ".js.map").delete();
+			memory.remove(e.getKey());
+			total -= e.getValue()[1];
+			evicted++;
+		}
+		bytesOnDisk = total;
+		long finalTotal = total;
+		Log.log("babel.cache", () -> " pruned translation cache down to " + finalTotal + " bytes, " + this);
+	}
+
+	/**
+	 * forgets everything, in memory and on disk
+	 */
+	public synchronized void clear() {
+		memory.clear();
+		if (directory == null) return;
+		for (File f : files())
+			f.delete();
+		bytesOnDisk = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TranslationCache " + memory.size() + " in memory, hits memory:" + memoryHits + " disk:" + diskHits + " misses:" + misses + " evicted:" + evicted;
+	}
+}